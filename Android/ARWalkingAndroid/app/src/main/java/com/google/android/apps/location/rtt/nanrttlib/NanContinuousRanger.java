@@ -9,6 +9,7 @@ import android.net.wifi.rtt.RangingResultCallback;
 import android.net.wifi.rtt.WifiRttManager;
 import android.os.Handler;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -16,11 +17,23 @@ import java.util.concurrent.Executor;
 public class NanContinuousRanger {
     /* access modifiers changed from: private */
     public static final String TAG = NanContinuousRanger.class.getSimpleName();
+    /** A round that has not completed after this many periods (and at least the minimum) is abandoned. */
+    private static final int ROUND_TIMEOUT_PERIODS = 3;
+    private static final long MIN_ROUND_TIMEOUT_MILLIS = 2000;
     private final Executor executor;
     /* access modifiers changed from: private */
     public final Handler handler;
-    private final Handler rangeRequestHandler;
     private boolean ranging;
+    private boolean fixedRate;
+    private boolean inFlight;
+    private int round;
+    private long nextDeadline;
+    private NanContinuousRangerCallback callback;
+    private int maxPeersPerRound = RangingRequest.getMaxPeers();
+    private final RangingRoundScheduler<PeerHandle> scheduler = new RangingRoundScheduler<>();
+    private final RangingRateStats stats = new RangingRateStats();
+    private final Runnable loopRunnable = this::loopRanging;
+    private final Runnable timeoutRunnable = this::onRoundTimeout;
     /* access modifiers changed from: private */
     public int rangingPeriod;
     private final WifiRttManager rttManager;
@@ -28,23 +41,31 @@ public class NanContinuousRanger {
 
     public NanContinuousRanger(Context context, int rangingPeriod2, Handler handler2) {
         this.handler = handler2;
-        Handler handler3 = new Handler();
-        this.rangeRequestHandler = handler3;
-        this.executor = handler3::post;
+        // Results are delivered on the same handler as the loop, so the loop state needs no locking.
+        this.executor = handler2::post;
         this.rangingPeriod = rangingPeriod2;
         this.rttManager = (WifiRttManager) context.getSystemService(WifiRttManager.class);
         this.wakeLock = ((PowerManager) context.getSystemService(PowerManager.class)).newWakeLock(1, "NanSubscriberRanging::Wakelock");
     }
 
     public void rangePeer(NanContinuousRangerCallback callback) {
+        if (this.ranging) {
+            return;
+        }
         this.wakeLock.acquire();
-        loopRanging(callback);
+        this.callback = callback;
+        this.ranging = true;
+        this.inFlight = false;
+        this.nextDeadline = SystemClock.uptimeMillis();
+        this.stats.reset();
+        loopRanging();
     }
 
     private RangingRequest createRequest(List<PeerHandle> peerHandles) {
         RangingRequest.Builder requestBuilder = new RangingRequest.Builder();
+        List<PeerHandle> round = this.scheduler.nextRound(peerHandles, this.maxPeersPerRound, SystemClock.elapsedRealtime());
 
-        for (PeerHandle peerHandle: peerHandles) {
+        for (PeerHandle peerHandle: round) {
             requestBuilder.addWifiAwarePeer(peerHandle);
         }
 
@@ -53,41 +74,126 @@ public class NanContinuousRanger {
 
     /* access modifiers changed from: private */
     @SuppressLint("MissingPermission")
-    public void loopRanging(final NanContinuousRangerCallback callback) {
-        this.ranging = true;
+    public void loopRanging() {
+        if (!this.ranging) {
+            return;
+        }
+        if (this.inFlight) {
+            // Only the completion of the in-flight round may start the next one.
+            this.stats.onOverlapPrevented();
+            return;
+        }
 
+        final NanContinuousRangerCallback callback = this.callback;
         List<PeerHandle> peerHandles = callback.getPeerHandles();
 
         if (peerHandles.size() <= 0) {
-            NanContinuousRanger.this.handler.postDelayed(() -> NanContinuousRanger.this.loopRanging(callback), (long) NanContinuousRanger.this.rangingPeriod);
+            scheduleNextRound();
             return;
         }
 
         RangingRequest request = createRequest(peerHandles);
+        final int round = ++this.round;
+        final long startMillis = SystemClock.uptimeMillis();
+        this.inFlight = true;
+        this.stats.onRoundStarted(startMillis);
+        this.handler.postDelayed(this.timeoutRunnable, Math.max(MIN_ROUND_TIMEOUT_MILLIS, (long) ROUND_TIMEOUT_PERIODS * this.rangingPeriod));
 
         this.rttManager.startRanging(request, this.executor, new RangingResultCallback() {
             public void onRangingFailure(int code) {
-                callback.onRangingFailure(code);
-                if (NanContinuousRanger.this.isRanging()) {
-                    Log.e(NanContinuousRanger.TAG, new StringBuilder(44).append("Ranging failed with return code: ").append(code).toString());
-                    NanContinuousRanger.this.handler.postDelayed(() -> NanContinuousRanger.this.loopRanging(callback), (long) NanContinuousRanger.this.rangingPeriod);
+                if (!NanContinuousRanger.this.completeRound(round, startMillis)) {
+                    return;
                 }
+                callback.onRangingFailure(code);
+                Log.e(NanContinuousRanger.TAG, new StringBuilder(44).append("Ranging failed with return code: ").append(code).toString());
+                NanContinuousRanger.this.scheduleNextRound();
             }
 
             public void onRangingResults(List<RangingResult> results) {
+                if (!NanContinuousRanger.this.completeRound(round, startMillis)) {
+                    return;
+                }
+                long now = SystemClock.elapsedRealtime();
+                for (RangingResult result : results) {
+                    NanContinuousRanger.this.scheduler.onRanged(result.getPeerHandle(), result.getStatus() == RangingResult.STATUS_SUCCESS, now);
+                }
                 if (!results.isEmpty()) {
                     callback.onRangingResults(results);
                     Log.d(NanContinuousRanger.TAG, new StringBuilder(34).append("Ranging result status: ").append(results.get(0).getStatus()).toString());
                 } else {
                     Log.e(NanContinuousRanger.TAG, "Results is empty");
                 }
-                if (NanContinuousRanger.this.isRanging()) {
-                    NanContinuousRanger.this.handler.postDelayed(() -> NanContinuousRanger.this.loopRanging(callback), (long) NanContinuousRanger.this.rangingPeriod);
-                }
+                NanContinuousRanger.this.scheduleNextRound();
             }
         });
     }
 
+    /** Returns false for a callback of a round that was abandoned or belongs to a stopped loop. */
+    private boolean completeRound(int round, long startMillis) {
+        if (!this.ranging || !this.inFlight || round != this.round) {
+            return false;
+        }
+        this.inFlight = false;
+        this.handler.removeCallbacks(this.timeoutRunnable);
+        this.stats.onRoundFinished(SystemClock.uptimeMillis() - startMillis);
+        return true;
+    }
+
+    private void onRoundTimeout() {
+        if (!this.inFlight) {
+            return;
+        }
+        Log.e(TAG, "Ranging round timed out");
+        this.inFlight = false;
+        this.round++;
+        this.stats.onTimeout();
+        scheduleNextRound();
+    }
+
+    private void scheduleNextRound() {
+        if (!this.ranging) {
+            return;
+        }
+        this.handler.removeCallbacks(this.loopRunnable);
+        if (!this.fixedRate) {
+            this.handler.postDelayed(this.loopRunnable, (long) this.rangingPeriod);
+            return;
+        }
+
+        // Advance along the fixed grid of deadlines, skipping the slots the last round overran.
+        long now = SystemClock.uptimeMillis();
+        this.nextDeadline += this.rangingPeriod;
+        if (this.nextDeadline <= now) {
+            long missed = (now - this.nextDeadline) / this.rangingPeriod + 1;
+            this.nextDeadline += missed * this.rangingPeriod;
+            this.stats.onMissedSlots(missed);
+        }
+        this.handler.postAtTime(this.loopRunnable, this.nextDeadline);
+    }
+
+    /**
+     * In fixed-rate mode rounds start on a grid of {@code rangingPeriod} deadlines, so the cadence
+     * does not stretch by the ranging latency. Otherwise each round starts {@code rangingPeriod}
+     * after the previous one completed.
+     */
+    public void setFixedRate(boolean fixedRate) {
+        this.fixedRate = fixedRate;
+        this.nextDeadline = SystemClock.uptimeMillis();
+    }
+
+    public RangingRateStats getStats() {
+        return this.stats;
+    }
+
+    /** Caps the peers per request below the platform limit, e.g. to shorten each round. */
+    public void setMaxPeersPerRound(int maxPeers) {
+        this.maxPeersPerRound = Math.max(1, Math.min(maxPeers, RangingRequest.getMaxPeers()));
+    }
+
+    public RangingRoundScheduler<PeerHandle> getScheduler() {
+        return this.scheduler;
+    }
+
     public void setRangingPeriod(int rangingPeriodMillis) {
         this.rangingPeriod = rangingPeriodMillis;
     }
@@ -99,9 +205,11 @@ public class NanContinuousRanger {
     public void stopRanging() {
         Handler handler2 = this.handler;
         if (handler2 != null) {
-            handler2.removeCallbacksAndMessages((Object) null);
-            this.rangeRequestHandler.removeCallbacksAndMessages((Object) null);
+            handler2.removeCallbacks(this.loopRunnable);
+            handler2.removeCallbacks(this.timeoutRunnable);
             this.ranging = false;
+            this.inFlight = false;
+            this.round++;
         }
         if (this.wakeLock.isHeld()) {
             this.wakeLock.release();
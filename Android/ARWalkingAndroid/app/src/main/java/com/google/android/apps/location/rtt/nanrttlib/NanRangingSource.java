@@ -0,0 +1,64 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import android.net.wifi.aware.PeerHandle;
+import android.net.wifi.rtt.RangingResult;
+
+import com.microsoft.arwalking.android.positioning.RangeResult;
+import com.microsoft.arwalking.android.positioning.RangingSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** {@link RangingSource} on Wi-Fi RTT through a {@link NanContinuousRanger}. */
+public class NanRangingSource implements RangingSource<PeerHandle>, NanContinuousRangerCallback {
+    private final NanContinuousRanger ranger;
+    private final ArrayList<RangeResult<PeerHandle>> results = new ArrayList<>();
+    private RangingSource.Callback<PeerHandle> callback;
+
+    public NanRangingSource(NanContinuousRanger ranger2) {
+        this.ranger = ranger2;
+    }
+
+    public NanContinuousRanger getRanger() {
+        return this.ranger;
+    }
+
+    public void start(RangingSource.Callback<PeerHandle> callback2) {
+        this.callback = callback2;
+        this.ranger.rangePeer(this);
+    }
+
+    public void stop() {
+        this.ranger.stopRanging();
+    }
+
+    public boolean isRanging() {
+        return this.ranger.isRanging();
+    }
+
+    public void setRangingPeriod(int rangingPeriodMillis) {
+        this.ranger.setRangingPeriod(rangingPeriodMillis);
+    }
+
+    public List<PeerHandle> getPeerHandles() {
+        return this.callback.getPeers();
+    }
+
+    public void onRangingFailure(int status) {
+        this.callback.onRangingFailure(status);
+    }
+
+    public void onRangingResults(List<RangingResult> rangingResults) {
+        this.results.clear();
+        for (RangingResult result : rangingResults) {
+            // The distance and timestamp getters throw unless the range succeeded.
+            if (result.getStatus() == RangingResult.STATUS_SUCCESS) {
+                this.results.add(new RangeResult<>(result.getPeerHandle(), RangeResult.STATUS_SUCCESS, result.getDistanceMm(), result.getDistanceStdDevMm(),
+                        result.getNumAttemptedMeasurements(), result.getNumSuccessfulMeasurements(), result.getRangingTimestampMillis()));
+            } else {
+                this.results.add(new RangeResult<>(result.getPeerHandle(), result.getStatus(), 0, 0, 0, 0, 0));
+            }
+        }
+        this.callback.onRangingResults(this.results);
+    }
+}
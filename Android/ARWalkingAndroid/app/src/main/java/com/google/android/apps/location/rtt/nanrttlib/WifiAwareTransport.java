@@ -0,0 +1,218 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.aware.DiscoverySession;
+import android.net.wifi.aware.DiscoverySessionCallback;
+import android.net.wifi.aware.PeerHandle;
+import android.net.wifi.aware.PublishConfig;
+import android.net.wifi.aware.PublishDiscoverySession;
+import android.net.wifi.aware.SubscribeConfig;
+import android.net.wifi.aware.SubscribeDiscoverySession;
+import android.net.wifi.aware.WifiAwareManager;
+import android.net.wifi.aware.WifiAwareSession;
+import android.os.Handler;
+import android.util.Log;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** {@link NanTransport} on {@link WifiAwareManager}; callbacks run on the given handler. */
+public class WifiAwareTransport implements NanTransport<PeerHandle> {
+    private static final String TAG = WifiAwareTransport.class.getSimpleName();
+
+    private final Handler handler;
+    private final WifiAwareManager wifiAwareManager;
+    private WifiAwareSession wifiAwareSession;
+    private AvailabilityListener availabilityListener;
+    // Started sessions by id, ids still waiting for their session to start, and the waiting ids
+    // already closed. A session that starts under an id no longer pending is closed right away.
+    private final HashMap<Integer, DiscoverySession> sessions = new HashMap<>();
+    private final HashSet<Integer> pendingSessions = new HashSet<>();
+    private final HashSet<Integer> closedSessions = new HashSet<>();
+    private int nextSession = 1;
+
+    public WifiAwareTransport(Context context, Handler handler2) {
+        this.handler = handler2;
+        this.wifiAwareManager = (WifiAwareManager) context.getSystemService(Context.WIFI_AWARE_SERVICE);
+        IntentFilter filter = new IntentFilter(WifiAwareManager.ACTION_WIFI_AWARE_STATE_CHANGED);
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            public void onReceive(Context context2, Intent intent) {
+                if (WifiAwareTransport.this.availabilityListener != null) {
+                    WifiAwareTransport.this.availabilityListener.onAvailabilityChanged(WifiAwareTransport.this.wifiAwareManager.isAvailable());
+                }
+            }
+        }, filter, null, handler2);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return this.wifiAwareManager.isAvailable();
+    }
+
+    @Override
+    public void setAvailabilityListener(AvailabilityListener listener) {
+        this.availabilityListener = listener;
+    }
+
+    @Override
+    public void attach(final NanTransport.AttachCallback callback) {
+        this.wifiAwareManager.attach(new android.net.wifi.aware.AttachCallback() {
+            public void onAttached(WifiAwareSession session) {
+                Log.d(TAG, "WiFi aware session attached");
+                WifiAwareTransport.this.wifiAwareSession = session;
+                callback.onAttached();
+            }
+
+            public void onAttachFailed() {
+                Log.e(TAG, "Attach failed");
+                callback.onAttachFailed();
+            }
+        }, this.handler);
+    }
+
+    @Override
+    public void detach() {
+        if (this.wifiAwareSession != null) {
+            this.wifiAwareSession.close();
+            this.wifiAwareSession = null;
+        }
+        // The discovery sessions of the attach session end with it.
+        this.sessions.clear();
+        this.pendingSessions.clear();
+        this.closedSessions.clear();
+    }
+
+    @Override
+    public int publish(String service, byte[] serviceSpecificInfo, boolean rangingEnabled, final SessionCallback<PeerHandle> callback) {
+        final int id = this.nextSession++;
+        this.pendingSessions.add(id);
+        this.wifiAwareSession.publish(buildPublishConfig(service, serviceSpecificInfo, rangingEnabled), new Callback(id, callback) {
+            public void onPublishStarted(PublishDiscoverySession session) {
+                started(session);
+            }
+        }, this.handler);
+        return id;
+    }
+
+    @Override
+    public int subscribe(String service, final SessionCallback<PeerHandle> callback) {
+        final int id = this.nextSession++;
+        this.pendingSessions.add(id);
+        this.wifiAwareSession.subscribe(new SubscribeConfig.Builder().setServiceName(service).build(), new Callback(id, callback) {
+            public void onSubscribeStarted(SubscribeDiscoverySession session) {
+                started(session);
+            }
+
+            public void onServiceDiscovered(PeerHandle peerHandle, byte[] serviceSpecificInfo, List<byte[]> matchFilter) {
+                Log.d(TAG, "Discovered peer " + peerHandle.hashCode());
+                callback.onServiceDiscovered(id, peerHandle, serviceSpecificInfo, matchFilter);
+            }
+        }, this.handler);
+        return id;
+    }
+
+    @Override
+    public void updatePublish(int session, String service, byte[] serviceSpecificInfo, boolean rangingEnabled) {
+        DiscoverySession discoverySession = this.sessions.get(session);
+        if (discoverySession instanceof PublishDiscoverySession) {
+            ((PublishDiscoverySession) discoverySession).updatePublish(buildPublishConfig(service, serviceSpecificInfo, rangingEnabled));
+        }
+    }
+
+    @Override
+    public void sendMessage(int session, PeerHandle peer, int messageId, byte[] message) {
+        DiscoverySession discoverySession = this.sessions.get(session);
+        if (discoverySession != null) {
+            discoverySession.sendMessage(peer, messageId, message);
+        }
+    }
+
+    @Override
+    public void closeSession(int session) {
+        DiscoverySession discoverySession = this.sessions.remove(session);
+        if (discoverySession != null) {
+            discoverySession.close();
+        } else if (this.pendingSessions.contains(session)) {
+            this.closedSessions.add(session);
+        }
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        this.handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        this.handler.removeCallbacks(task);
+    }
+
+    private static PublishConfig buildPublishConfig(String service, byte[] serviceSpecificInfo, boolean rangingEnabled) {
+        PublishConfig.Builder builder = new PublishConfig.Builder().setServiceName(service).setRangingEnabled(rangingEnabled);
+        if (serviceSpecificInfo != null) {
+            builder.setServiceSpecificInfo(serviceSpecificInfo);
+        }
+        return builder.build();
+    }
+
+    /** Forwards the events of session {@code id}, which are ignored once it is closed. */
+    private class Callback extends DiscoverySessionCallback {
+        final int id;
+        final SessionCallback<PeerHandle> callback;
+
+        Callback(int id2, SessionCallback<PeerHandle> callback2) {
+            this.id = id2;
+            this.callback = callback2;
+        }
+
+        void started(DiscoverySession session) {
+            boolean pending = WifiAwareTransport.this.pendingSessions.remove(this.id);
+            if (WifiAwareTransport.this.closedSessions.remove(this.id) || !pending) {
+                session.close();
+                return;
+            }
+            WifiAwareTransport.this.sessions.put(this.id, session);
+            this.callback.onSessionStarted(this.id);
+        }
+
+        public void onSessionConfigFailed() {
+            Log.e(TAG, "Session config failed");
+            // The session never starts, so its id stops waiting.
+            WifiAwareTransport.this.pendingSessions.remove(this.id);
+            WifiAwareTransport.this.closedSessions.remove(this.id);
+        }
+
+        private boolean isOpen() {
+            return WifiAwareTransport.this.sessions.containsKey(this.id);
+        }
+
+        public void onMessageReceived(PeerHandle peerHandle, byte[] message) {
+            if (isOpen()) {
+                this.callback.onMessageReceived(this.id, peerHandle, message);
+            }
+        }
+
+        public void onMessageSendSucceeded(int messageId) {
+            if (isOpen()) {
+                this.callback.onMessageSendSucceeded(this.id, messageId);
+            }
+        }
+
+        public void onMessageSendFailed(int messageId) {
+            Log.e(TAG, "onMessageSendFailed");
+            if (isOpen()) {
+                this.callback.onMessageSendFailed(this.id, messageId);
+            }
+        }
+
+        public void onSessionTerminated() {
+            Log.d(TAG, "Session terminated");
+            if (WifiAwareTransport.this.sessions.remove(this.id) != null) {
+                this.callback.onSessionTerminated(this.id);
+            }
+        }
+    }
+}
@@ -6,9 +6,10 @@ import android.bluetooth.le.AdvertiseData
 import android.bluetooth.le.AdvertiseSettings
 import android.content.SharedPreferences
 import android.net.wifi.aware.PeerHandle
-import android.net.wifi.rtt.RangingResult
+import android.os.BatteryManager
 import android.os.Bundle
 import android.os.Handler
+import android.os.HandlerThread
 import android.os.ParcelUuid
 import android.os.SystemClock
 import android.util.Log
@@ -17,18 +18,29 @@ import android.widget.TextView
 import androidx.appcompat.app.AppCompatActivity
 import androidx.preference.PreferenceManager
 import com.google.android.apps.location.rtt.nanrttlib.*
-import com.lemmingapex.trilateration.NonLinearLeastSquaresSolver
-import com.lemmingapex.trilateration.TrilaterationFunction
-import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer
-import org.apache.commons.math3.linear.RealVector
-import java.time.Duration
-import java.time.Instant
+import com.microsoft.arwalking.android.ble.FixHistory
+import com.microsoft.arwalking.android.ble.FixRecord
+import com.microsoft.arwalking.android.ble.NotificationPacer
+import com.microsoft.arwalking.android.positioning.AnchorSelector
+import com.microsoft.arwalking.android.positioning.AnchorStore
+import com.microsoft.arwalking.android.positioning.LatestValueHandoff
+import com.microsoft.arwalking.android.positioning.PeerRegistry
+import com.microsoft.arwalking.android.positioning.PositioningEngine
+import com.microsoft.arwalking.android.positioning.RangeHistory
+import com.microsoft.arwalking.android.positioning.RangeResult
+import com.microsoft.arwalking.android.positioning.RangingSource
+import com.microsoft.arwalking.android.trace.TraceRecorder
+import java.io.File
+import java.io.IOException
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.collections.HashMap
+import kotlin.math.roundToInt
 
+// In metres; the positioning code works in millimetres.
 data class Location(val x: Double, val y: Double);
 
-class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallback, NanSubscriberCallback, NanContinuousRangerCallback {
+class MainActivity : AppCompatActivity(), NanClientCallback<PeerHandle>, NanPublisherCallback<PeerHandle>, NanSubscriberCallback<PeerHandle>, RangingSource.Callback<PeerHandle> {
     companion object {
         private const val LOG_TAG = "ARWalkingRTTActivity"
 
@@ -36,9 +48,30 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         private const val CHAR_FOR_READ_UUID = "25AE1442-05D3-4C5B-8281-93D4E07420CF"
         private const val CHAR_FOR_WRITE_UUID = "25AE1443-05D3-4C5B-8281-93D4E07420CF"
         private const val CHAR_FOR_INDICATE_UUID = "25AE1444-05D3-4C5B-8281-93D4E07420CF"
+        private const val CHAR_FOR_HISTORY_UUID = "25AE1445-05D3-4C5B-8281-93D4E07420CF"
         private const val CCC_DESCRIPTOR_UUID = "00002902-0000-1000-8000-00805f9b34fb"
+        private const val DEFAULT_ATT_MTU = 23
+        private const val ATT_HEADER_LENGTH = 3
 
         private const val SERVICE_NAME = "General"
+        // Anchor map pushed to the app's external files directory; the peer settings are used without it.
+        private const val ANCHOR_MAP_FILE = "anchors.bin"
+        private const val TRACE_DIRECTORY = "traces"
+
+        private const val MAX_ANCHORS = 64
+        private const val MAX_PEERS = MAX_ANCHORS
+        private const val RANGE_HISTORY_WINDOW = 7
+
+        private const val LIVENESS_TICK_MS = 1000L
+        private const val LIVENESS_WHEEL_SLOTS = 16
+        // Even a peer we range successfully needs to hear from us before its TIMEOUT expires.
+        private val KEEPALIVE_MS = Message.TIMEOUT.toMillis() / 2
+
+        private const val RANGING_PERIOD_MS = 1000
+        private const val ANCHOR_ESTIMATE_MAX_AGE_MS = 5000L
+        private const val BATTERY_POLL_PERIOD_MS = 30000L
+
+        private const val TRACKER_OUTPUT_PERIOD_MS = 200L
     }
 
     private var mode = 0;
@@ -47,18 +80,85 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         PreferenceManager.getDefaultSharedPreferences(this)
     }
 
-    private val nanClient: NanClient by lazy {
-        NanClient(this, Handler(mainLooper), this)
+    // NAN callbacks, ranging, solving and BLE publishing all run on this thread; the UI thread
+    // only receives the latest display text through the handoffs below.
+    private val processingThread = HandlerThread("ARWalkingProcessing").apply {
+        start()
+    }
+    private val processingHandler = Handler(processingThread.looper)
+
+    private val nanClient: NanClient<PeerHandle> by lazy {
+        NanClient(WifiAwareTransport(this, processingHandler), this)
     }
     private val nanRanger: NanContinuousRanger by lazy {
-        NanContinuousRanger(this, 1000, Handler(mainLooper))
+        NanContinuousRanger(this, RANGING_PERIOD_MS, processingHandler).apply {
+            setFixedRate(true)
+        }
+    }
+    private val rangingSource: RangingSource<PeerHandle> by lazy {
+        NanRangingSource(nanRanger)
+    }
+    private val peers = PeerRegistry<PeerHandle, NanDeviceModel>(MAX_PEERS)
+    private val peerHandles = ArrayList<PeerHandle>(MAX_PEERS)
+    private val anchorSelector = AnchorSelector(MAX_PEERS)
+    private val selectedAnchors = IntArray(MAX_PEERS)
+    // Peers ranged in the current round when it ranges a selection; the others only have old ranges.
+    private val anchorSelected = BooleanArray(MAX_PEERS)
+    private val selectionPeers = IntArray(MAX_PEERS)
+    private var anchorSelectionActive = false
+    private var selectAnchors = true
+    private val estimate = DoubleArray(2)
+
+    // Range filtering, solving and tracking; shared with the simulator in the core module.
+    private val engine = PositioningEngine(peers, MAX_PEERS, RANGE_HISTORY_WINDOW)
+
+    // Heartbeat and timeout checks of all peers share one wheel, ticked by a single task.
+    private val livenessWheel = HashedTimingWheel(MAX_PEERS, LIVENESS_WHEEL_SLOTS, LIVENESS_TICK_MS) { id, now ->
+        onLivenessTimer(id, now)
     }
-    private val devices: HashMap<PeerHandle, NanDeviceModel> = HashMap()
+    private val livenessTick = Runnable { tickLiveness() }
+    private var livenessTicking = false
+    private val pingsPeer = BooleanArray(MAX_PEERS)
+    private val lastPingMillis = LongArray(MAX_PEERS)
+    private var implicitLiveness = true
+    private val livenessStats = LivenessStats()
+
+    // Follow-up messages go through this queue so each send has its own id and failures are retried.
+    private val messageQueue = NanMessageQueue<PeerHandle> { mode, service, peerHandle, messageId, message ->
+        recorder?.recordMessage(SystemClock.elapsedRealtime(), TraceRecorder.RECORD_MESSAGE_SENT, mode, peerHandle.hashCode(), messageId, message)
+        nanClient.sendMessage(mode, service, peerHandle, messageId, message)
+    }.apply {
+        setListener { _, _, peerHandle, type, attempts ->
+            logMessage("Message dropped: type $type to $peerHandle after $attempts attempts")
+        }
+    }
+    private val messagePump = Runnable { pumpMessages() }
+    // Peers known to read binary messages; the others get legacy frames. Handles are per session.
+    private val binaryPeers = HashSet<PeerHandle>()
+    // Whether a known name under a new handle is a kept peer coming back after the sessions recovered.
+    private val recoveryWindow = SessionRecoveryWindow()
 
     private var deviceName = "Device"
     private var enableRanging = false
 
-    private var deviceToLocation: HashMap<String, Location> = HashMap()
+    private var useRobustSolver = true
+    // Ranging results, message events, peers and fixes, when recording is on. Peers are keyed by
+    // the hash of their handle. Only touched on the processing thread.
+    private var recorder: TraceRecorder? = null
+    private var anchors = AnchorStore(arrayOf<String>(), IntArray(0), IntArray(0), IntArray(0), IntArray(0))
+
+    private val trackerOutputHandler = Handler(processingThread.looper)
+
+    private var adaptiveRate = true
+    private var lastBatteryPoll = 0L
+    private val batteryManager: BatteryManager by lazy {
+        getSystemService(BATTERY_SERVICE) as BatteryManager
+    }
+    private val rateController = AdaptiveRangingRateController { periodMillis ->
+        logMessage("Ranging period changed: $periodMillis ms")
+        rangingSource.setRangingPeriod(periodMillis)
+        engine.setRangingPeriodMillis(periodMillis)
+    }
 
     // NanClientCallback
     override fun onAttachedFailed() {
@@ -70,11 +170,17 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
     }
 
     override fun onMessageSendFailed(i: Int, str: String?, i2: Int) {
-        logMessage("Message Send Failed")
+        logMessage("Message Send Failed: $i2")
+        recorder?.recordMessage(SystemClock.elapsedRealtime(), TraceRecorder.RECORD_MESSAGE_SEND_FAILED, i, -1, i2, null)
+        messageQueue.onSendFailed(i2, SystemClock.elapsedRealtime())
+        pumpMessages()
     }
 
     override fun onMessageSendSucceeded(i: Int, str: String?, i2: Int) {
 //        showToast("Message Send Succeeded")
+        recorder?.recordMessage(SystemClock.elapsedRealtime(), TraceRecorder.RECORD_MESSAGE_SEND_SUCCEEDED, i, -1, i2, null)
+        messageQueue.onSendSucceeded(i2)
+        pumpMessages()
     }
 
     override fun onMessagedReceived(
@@ -84,40 +190,40 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         message: ByteArray
     ) {
 //        showToast("Message Received")
-        val newReceivedMessage: Message = Message.fromBytes(message)
-        when (newReceivedMessage.requestType) {
+        recorder?.recordMessage(SystemClock.elapsedRealtime(), TraceRecorder.RECORD_MESSAGE_RECEIVED, mode, peerHandle.hashCode(), 0, message)
+        if (implicitLiveness && checkIn(peerHandle)) {
+            livenessStats.onMessageCheckIn()
+        }
+        if (Message.isBinary(message)) {
+            binaryPeers.add(peerHandle)
+        }
+
+        when (Message.peekRequestType(message)) {
             Message.NAME_REQUEST_MESSAGE -> {
                 Log.d(LOG_TAG, "Received name request")
                 val str: String = service
-                nanClient.sendMessage(
+                queueMessage(
                     mode,
                     str,
                     peerHandle,
-                    Message.NAME_REQUEST_ACK_MESSAGE,
-                    Message(deviceName, Message.NAME_REQUEST_ACK_MESSAGE, Message.NAME_REQUEST_ACK_MESSAGE.toString()).toBytes()
+                    Message.NAME_REQUEST_ACK_MESSAGE
                 )
 
-                handleNewDeviceIfNeeded(0, peerHandle, newReceivedMessage.deviceName)
+                handleNewDeviceIfNeeded(0, peerHandle, Message.fromBytes(message).deviceName)
 
                 return
             }
             Message.PING_MESSAGE -> {
                 Log.d(LOG_TAG, "Received ping")
                 val str2: String = service
-                nanClient.sendMessage(
+                queueMessage(
                     0,
                     str2,
                     peerHandle,
-                    Message.PING_ACK_MESSAGE,
-                    Message(deviceName, Message.PING_ACK_MESSAGE, Message.PING_ACK_MESSAGE.toString()).toBytes()
+                    Message.PING_ACK_MESSAGE
                 )
 
-                if (devices.get(peerHandle) != null) {
-                    val nanDeviceModel: NanDeviceModel = devices.get(peerHandle)!!
-                    nanDeviceModel.setLastCheckIn(Instant.ofEpochMilli(SystemClock.elapsedRealtime()))
-                    return
-                }
-
+                checkIn(peerHandle)
                 return
             }
 //                3 -> {
@@ -134,16 +240,12 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
 //                }
             Message.NAME_REQUEST_ACK_MESSAGE -> {
                 Log.d(LOG_TAG, "Received name request ack")
-                handleNewDeviceIfNeeded(1, peerHandle, newReceivedMessage.deviceName)
+                handleNewDeviceIfNeeded(1, peerHandle, Message.fromBytes(message).deviceName)
                 return
             }
             Message.PING_ACK_MESSAGE -> {
                 Log.d(LOG_TAG, "Received ping ack")
-                if (devices.get(peerHandle) != null) {
-                    val nanDeviceModel: NanDeviceModel = devices.get(peerHandle)!!
-                    nanDeviceModel.setLastCheckIn(Instant.ofEpochMilli(SystemClock.elapsedRealtime()))
-                    return
-                }
+                checkIn(peerHandle)
                 return
             }
             else -> {
@@ -162,8 +264,35 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         logMessage("NAN Unavailable")
     }
 
+    override fun onSessionsSuspended() {
+        logMessage("NAN sessions suspended, keeping ${peers.size()} peers")
+        val now = SystemClock.elapsedRealtime()
+        recorder?.recordMessage(now, TraceRecorder.RECORD_SESSIONS_SUSPENDED, 0, -1, 0, null)
+        recoveryWindow.onSuspended(now)
+        messageQueue.clear()
+    }
+
+    override fun onSessionsRecovered() {
+        logMessage("NAN sessions recovered")
+        val now = SystemClock.elapsedRealtime()
+        recorder?.recordMessage(now, TraceRecorder.RECORD_SESSIONS_RECOVERED, 0, -1, 0, null)
+        recoveryWindow.onRecovered(now)
+        // Give every kept peer a full timeout to be rediscovered and rebound.
+        for (id in 0 until peers.highWaterMark) {
+            if (peers.isActive(id)) {
+                peers.checkIn(id, now)
+            }
+        }
+    }
+
     override fun onSessionTerminated(i: Int, str: String?) {
-        devices.clear()
+        binaryPeers.clear()
+        recorder?.recordMessage(SystemClock.elapsedRealtime(), TraceRecorder.RECORD_SESSION_TERMINATED, i, -1, 0, null)
+        recoveryWindow.reset()
+        peers.clear()
+        engine.rangeHistory.clearAll()
+        livenessWheel.clear()
+        messageQueue.clear()
         updateDevicesDisplay()
         logMessage("Session Terminated")
     }
@@ -175,13 +304,26 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         list: MutableList<ByteArray>?
     ) {
         logMessage("Service Discovered: $peerHandle")
+        if (str == null || peerHandle == null) {
+            return
+        }
+        recorder?.recordMessage(SystemClock.elapsedRealtime(), TraceRecorder.RECORD_SERVICE_DISCOVERED, 1, peerHandle.hashCode(), 0, bArr)
+
+        // A publisher advertising its identity can be ranged right away; the name request still
+        // goes out so the publisher learns about this subscriber.
+        DiscoveryInfo.fromBytes(bArr)?.let { info ->
+            if (info.binaryMessages) {
+                binaryPeers.add(peerHandle)
+            }
+            val advertised = if (info.hasLocation) Location(info.xMm / 1000.0, info.yMm / 1000.0) else null
+            handleNewDeviceIfNeeded(1, peerHandle, info.deviceName, advertised)
+        }
 
-        nanClient.sendMessage(
+        queueMessage(
             1,
             str,
             peerHandle,
-            Message.NAME_REQUEST_MESSAGE,
-            Message(deviceName, Message.NAME_REQUEST_MESSAGE, Message.NAME_REQUEST_MESSAGE.toString()).toBytes()
+            Message.NAME_REQUEST_MESSAGE
         )
     }
 
@@ -202,16 +344,40 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         logMessage("Ranging Enabled")
     }
 
-    private fun ensureDeviceAlive(peerHandle: PeerHandle): Boolean {
-        val nanDeviceModel: NanDeviceModel = devices.get(peerHandle) ?: return false
+    private fun createMessage(peerHandle: PeerHandle, requestType: Int): ByteArray {
+        val message = Message(deviceName, requestType, "")
+        return if (binaryPeers.contains(peerHandle)) message.toBytes() else message.toLegacyBytes()
+    }
+
+    private fun queueMessage(mode: Int, service: String, peerHandle: PeerHandle, requestType: Int) {
+        messageQueue.enqueue(mode, service, peerHandle, requestType, createMessage(peerHandle, requestType), SystemClock.elapsedRealtime())
+        pumpMessages()
+    }
 
-        if (Duration.between(
-                        nanDeviceModel.getLastCheckIn(),
-                        Instant.ofEpochMilli(SystemClock.elapsedRealtime())
-                ).compareTo(Message.TIMEOUT) > 0
-        ) {
-            logMessage("Device removed: $peerHandle")
-            devices.remove(peerHandle)
+    private fun pumpMessages() {
+        processingHandler.removeCallbacks(messagePump)
+        val now = SystemClock.elapsedRealtime()
+        val wakeup = messageQueue.poll(now)
+        if (wakeup != Long.MAX_VALUE) {
+            processingHandler.postDelayed(messagePump, wakeup - now)
+        }
+    }
+
+    private fun checkIn(peerHandle: PeerHandle): Boolean {
+        val id = peers.idOf(peerHandle)
+        if (id == PeerRegistry.NO_PEER) {
+            return false
+        }
+        peers.checkIn(id, SystemClock.elapsedRealtime())
+        return true
+    }
+
+    private fun ensureDeviceAlive(id: Int, now: Long): Boolean {
+        if (now - peers.getCheckInMillis(id) > Message.TIMEOUT.toMillis()) {
+            logMessage("Device removed: ${peers.getKey(id)}")
+            messageQueue.removePeer(peers.getKey(id))
+            binaryPeers.remove(peers.getKey(id))
+            peers.remove(id)
             updateDevicesDisplay()
             return false
         }
@@ -219,127 +385,354 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         return true
     }
 
-    private fun sendPingLoop(peerHandle: PeerHandle) {
-        if (!ensureDeviceAlive(peerHandle)) {
+    private fun onLivenessTimer(id: Int, now: Long) {
+        if (!peers.isActive(id)) {
+            return
+        }
+        if (recoveryWindow.isSuspended) {
+            livenessWheel.schedule(id, now + Message.PING_DELAY.toMillis())
+            return
+        }
+        if (!ensureDeviceAlive(id, now)) {
             return
         }
 
-        nanClient.sendMessage(
-            1,
-            SERVICE_NAME,
-            peerHandle,
-            Message.PING_MESSAGE,
-            Message(deviceName, Message.PING_MESSAGE, Message.PING_MESSAGE.toString()).toBytes()
-        )
+        if (!pingsPeer[id]) {
+            livenessWheel.schedule(id, now + Message.PING_DELAY.toMillis())
+            return
+        }
+
+        // With implicit liveness a ranged or chatty peer is only pinged as a keepalive for its side.
+        val silent = now - peers.getCheckInMillis(id) >= Message.PING_DELAY.toMillis()
+        val keepaliveDue = now - lastPingMillis[id] >= KEEPALIVE_MS
+        if (!implicitLiveness || silent || keepaliveDue) {
+            queueMessage(
+                1,
+                SERVICE_NAME,
+                peers.getKey(id),
+                Message.PING_MESSAGE
+            )
+            lastPingMillis[id] = now
+            livenessStats.onPingSent()
+        }
+        else {
+            livenessStats.onPingSuppressed()
+        }
 
-        Handler(mainLooper).postDelayed({
-            sendPingLoop(peerHandle)
-        }, Message.PING_DELAY.toMillis())
+        val next = if (implicitLiveness) {
+            Math.min(peers.getCheckInMillis(id) + Message.PING_DELAY.toMillis(), lastPingMillis[id] + KEEPALIVE_MS)
+        } else {
+            now + Message.PING_DELAY.toMillis()
+        }
+        livenessWheel.schedule(id, Math.max(next, now + LIVENESS_TICK_MS))
     }
 
-    private fun ensureDeviceAliveLoop(peerHandle: PeerHandle) {
-        if (!ensureDeviceAlive(peerHandle)) {
-            return
+    private fun startLiveness(id: Int, sendPings: Boolean) {
+        val now = SystemClock.elapsedRealtime()
+        pingsPeer[id] = sendPings
+        // The name exchange that registered the peer counts as the last message it got from us.
+        lastPingMillis[id] = now
+        // Subscribers ping right away, as the per-peer loops used to.
+        livenessWheel.schedule(id, if (sendPings) now else now + Message.PING_DELAY.toMillis())
+        if (!livenessTicking) {
+            livenessTicking = true
+            processingHandler.post(livenessTick)
         }
+    }
 
-        Handler(mainLooper).postDelayed({
-            ensureDeviceAliveLoop(peerHandle)
-        }, Message.PING_DELAY.toMillis())
+    private fun tickLiveness() {
+        livenessWheel.advance(SystemClock.elapsedRealtime())
+        if (livenessWheel.isEmpty) {
+            livenessTicking = false
+            return
+        }
+        processingHandler.postDelayed(livenessTick, LIVENESS_TICK_MS)
     }
 
-    private fun handleNewDeviceIfNeeded(mode: Int, peerHandle: PeerHandle, deviceName: String) {
-        if (!this.devices.containsKey(peerHandle)) {
-            val newDevice = NanDeviceModel(deviceName, peerHandle, SERVICE_NAME).apply {
-                setLastCheckIn(Instant.ofEpochMilli(SystemClock.elapsedRealtime()))
+    private fun handleNewDeviceIfNeeded(mode: Int, peerHandle: PeerHandle, deviceName: String, advertised: Location? = null) {
+        if (peers.idOf(peerHandle) == PeerRegistry.NO_PEER) {
+            val now = SystemClock.elapsedRealtime()
+            val knownId = findRecoveringPeer(deviceName, now)
+            if (knownId != PeerRegistry.NO_PEER) {
+                // Same device under a new handle after the sessions recovered: keep its state.
+                logMessage("Device rebound: $peerHandle, name: $deviceName")
+                peers.rebind(knownId, peerHandle, NanDeviceModel(deviceName, peerHandle, SERVICE_NAME))
+                peers.checkIn(knownId, now)
+                recordPeer(knownId, peerHandle, deviceName, 0)
+                return
+            }
 
-                deviceToLocation[deviceName]?.let { location ->
-                    x = location.x
-                    y = location.y
+            val id = peers.register(peerHandle, NanDeviceModel(deviceName, peerHandle, SERVICE_NAME), now)
+            if (id == PeerRegistry.NO_PEER) {
+                logMessage("Device ignored, $MAX_PEERS peers already known: $peerHandle, name: $deviceName")
+                return
+            }
+            engine.clearPeer(id)
+            // A position from the anchor map takes precedence over the one the device advertises.
+            val anchor = anchors.indexOf(deviceName)
+            if (anchor != AnchorStore.NO_ANCHOR) {
+                peers.setLocation(id, anchors.getX(anchor).toDouble(), anchors.getY(anchor).toDouble())
+                engine.setRangeBias(id, anchors.getBias(anchor))
+            } else {
+                advertised?.let { location ->
+                    peers.setLocation(id, location.x * 1000.0, location.y * 1000.0)
                 }
             }
+            recordPeer(id, peerHandle, deviceName, if (anchor != AnchorStore.NO_ANCHOR) anchors.getBias(anchor) else 0)
 
             logMessage("Device Added: $peerHandle, name: $deviceName")
-            devices.put(peerHandle, newDevice)
             updateDevicesDisplay()
 
             when (mode) {
                 0 -> {
                     // Publishing
-                    ensureDeviceAliveLoop(peerHandle)
+                    startLiveness(id, false)
                 }
                 1 -> {
                     // Subscribing
-                    sendPingLoop(peerHandle)
+                    startLiveness(id, true)
                 }
             }
         }
     }
 
-    override fun getPeerHandles(): List<PeerHandle> {
-        if (!enableRanging) {
+    private fun recordPeer(id: Int, peerHandle: PeerHandle, deviceName: String, rangeBiasMm: Int) {
+        recorder?.recordPeer(SystemClock.elapsedRealtime(), peerHandle.hashCode(), deviceName, peers.isLocated(id),
+            peers.getX(id).roundToInt(), peers.getY(id).roundToInt(), rangeBiasMm)
+    }
+
+    /**
+     * A kept peer with this name whose old handle went stale during a recovery, or NO_PEER. Devices
+     * may share a name, so outside of a recovery a new handle is always a new peer.
+     */
+    private fun findRecoveringPeer(deviceName: String, now: Long): Int {
+        if (!recoveryWindow.isRebindAllowed(now)) {
+            return PeerRegistry.NO_PEER
+        }
+        for (id in 0 until peers.highWaterMark) {
+            if (peers.isActive(id) && peers.getModel(id).deviceName == deviceName && recoveryWindow.mayRebind(peers.getCheckInMillis(id), now)) {
+                return id
+            }
+        }
+        return PeerRegistry.NO_PEER
+    }
+
+    override fun getPeers(): List<PeerHandle> {
+        if (!enableRanging || recoveryWindow.isSuspended) {
             return listOf()
         }
 
-        return devices.values.map {
-            it.peerHandle
+        // Reused between rounds; the ranger consumes it before asking again.
+        peerHandles.clear()
+        anchorSelectionActive = selectAnchors && anchorSelector.beginRound() && addSelectedAnchors()
+        if (anchorSelectionActive) {
+            return peerHandles
+        }
+
+        for (id in 0 until peers.highWaterMark) {
+            if (peers.isActive(id)) {
+                peerHandles.add(peers.getKey(id))
+            }
         }
+        return peerHandles
+    }
+
+    // Only the anchors that keep the geometry around the current estimate good are ranged, plus a
+    // few others in turn. Full rounds keep the ranges of the rest, and of newly found peers, fresh.
+    private fun addSelectedAnchors(): Boolean {
+        if (!engine.getEstimate(SystemClock.elapsedRealtime(), ANCHOR_ESTIMATE_MAX_AGE_MS, estimate)) {
+            return false
+        }
+
+        anchorSelector.clear()
+        for (id in 0 until peers.highWaterMark) {
+            if (peers.isActive(id) && peers.isLocated(id)) {
+                anchorSelector.addCandidate(id, peers.getX(id), peers.getY(id))
+            }
+        }
+        if (anchorSelector.candidateCount <= anchorSelector.minAnchors) {
+            return false
+        }
+
+        val count = anchorSelector.select(estimate[0], estimate[1], selectedAnchors)
+        anchorSelected.fill(false)
+        for (i in 0 until count) {
+            anchorSelected[selectedAnchors[i]] = true
+            peerHandles.add(peers.getKey(selectedAnchors[i]))
+        }
+        logMessage("Ranging $count of ${anchorSelector.candidateCount} anchors, GDOP: ${anchorSelector.gdop}")
+        return true
     }
 
     override fun onRangingFailure(status: Int) {
         logMessage("Ranging failed: $status")
     }
 
-    override fun onRangingResults(results: MutableList<RangingResult>) {
+    override fun onRangingResults(results: List<RangeResult<PeerHandle>>) {
+        ingestRangingResults(results)
+        val rejected = engine.tracker.rejectedUpdates
+        filterRanges(results)
+        updateDevicesDisplay()
+        val fix = computeLocation()
+        // A poor fix from a selection means the estimate it was selected around may be off.
+        val solved = fix == PositioningEngine.FIX_SOLVED || fix == PositioningEngine.FIX_TRACKER_INITIALIZED
+        anchorSelector.onFix(solved, if (solved) engine.fixUncertainty else 0.0, if (solved) engine.solver.rms else 0.0,
+            engine.tracker.rejectedUpdates != rejected)
+        updateRangingRate()
+    }
+
+    // Pipeline stage 1: record the latest filtered range of every peer.
+    private fun ingestRangingResults(results: List<RangeResult<PeerHandle>>) {
+        recorder?.let { trace ->
+            val now = SystemClock.elapsedRealtime()
+            // The fix of a selected round only uses the selection; a replay needs it to make the same fix.
+            if (anchorSelectionActive) {
+                var count = 0
+                for (id in 0 until peers.highWaterMark) {
+                    if (anchorSelected[id]) {
+                        selectionPeers[count++] = peers.getKey(id).hashCode()
+                    }
+                }
+                trace.recordSelection(now, selectionPeers, count)
+            }
+            results.forEach { result ->
+                trace.recordRange(now, result.peer.hashCode(), result.status, result.distanceMm, result.distanceStdDevMm,
+                    result.numAttemptedMeasurements, result.numSuccessfulMeasurements, result.rangingTimestampMillis)
+            }
+        }
         results.forEach { result ->
-            if (result.status != RangingResult.STATUS_SUCCESS) {
-                logMessage("Ranging failed for peer: ${result.peerHandle}, status: ${result.status}")
+            if (result.status != RangeResult.STATUS_SUCCESS) {
+                logMessage("Ranging failed for peer: ${result.peer}, status: ${result.status}")
             }
             else {
-                devices[result.peerHandle]?.distance = result.distanceMm
-                logMessage("Distance from peer: ${result.peerHandle}, mm: ${result.distanceMm}, stdDevMm: ${result.distanceStdDevMm}, attempts: ${result.numAttemptedMeasurements}, successful attempts: ${result.numSuccessfulMeasurements}")
+                val id = peers.idOf(result.peer)
+                if (id != PeerRegistry.NO_PEER) {
+                    engine.addRange(id, result.distanceMm, result.distanceStdDevMm, result.numSuccessfulMeasurements, result.rangingTimestampMillis)
+                    if (implicitLiveness) {
+                        peers.checkIn(id, SystemClock.elapsedRealtime())
+                        livenessStats.onRangingCheckIn()
+                    }
+                }
+                logMessage("Distance from peer: ${result.peer}, mm: ${result.distanceMm}, stdDevMm: ${result.distanceStdDevMm}, attempts: ${result.numAttemptedMeasurements}, successful attempts: ${result.numSuccessfulMeasurements}")
             }
         }
 
-        updateDevicesDisplay()
-        computeLocation()
+        logMessage("Ranging stats: ${nanRanger.stats}")
+        logMessage("Liveness stats: $livenessStats")
+        logMessage("Message queue: $messageQueue")
     }
 
-    private fun computeLocation() {
-        val positionsWithDistances = devices.values
+    // Pipeline stage 2: feed each range to the tracker as it arrives.
+    private fun filterRanges(results: List<RangeResult<PeerHandle>>) {
+        if (!engine.isUsingTracker) {
+            return
+        }
+
+        results.forEach { result ->
+            if (result.status == RangeResult.STATUS_SUCCESS) {
+                val id = peers.idOf(result.peer)
+                if (id != PeerRegistry.NO_PEER) {
+                    engine.updateTracker(id, result.rangingTimestampMillis)
+                }
+            }
+        }
+    }
 
-        if (positionsWithDistances.size < 2) {
-            logMessage("Not enough positions for computing location: ${positionsWithDistances.size} found")
+    private fun updateRangingRate() {
+        if (!adaptiveRate) {
             return
         }
 
-        val positions = positionsWithDistances.map {
-            doubleArrayOf(it.x, it.y)
-        }.toTypedArray()
+        val now = SystemClock.elapsedRealtime()
+        val tracker = engine.tracker
+        if (engine.isUsingTracker && tracker.isInitialized) {
+            rateController.onPosition(tracker.x, tracker.y, now)
+            rateController.onUncertainty(tracker.positionStdDev)
+        }
+        if (now - lastBatteryPoll >= BATTERY_POLL_PERIOD_MS) {
+            lastBatteryPoll = now
+            rateController.onBatteryState(batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY), batteryManager.isCharging)
+        }
+        rateController.update(now)
+    }
 
-        val distances = positionsWithDistances.map {
-            it.distance.toDouble()
-        }.toDoubleArray()
+    // Pipeline stage 3: solve for a fix from the latest ranges; returns the engine's FIX_ result.
+    private fun computeLocation(): Int {
+        val now = SystemClock.elapsedRealtime()
+        val result = engine.computeFix(if (anchorSelectionActive) anchorSelected else null, now)
+        val solver = engine.solver
+        val robustSolver = engine.robustSolver
+        if (result == PositioningEngine.FIX_TOO_FEW_ANCHORS) {
+            logMessage("Not enough positions for computing location: ${solver.anchorCount} found")
+            return result
+        }
 
-        val solver = NonLinearLeastSquaresSolver(TrilaterationFunction(positions, distances), LevenbergMarquardtOptimizer())
-        val optimum = solver.solve()
+        if (useRobustSolver && robustSolver.outliers > 0) {
+            logMessage("Rejected ${robustSolver.outliers} outlier ranges after ${robustSolver.hypotheses} hypotheses")
+        }
+        if (result == PositioningEngine.FIX_FAILED) {
+            logMessage("Location could not be computed from ${solver.anchorCount} positions")
+            return result
+        }
 
         // the answer
-        val centroid = optimum.point.map { x -> x/1000.0 }
+        val location = Location(engine.fixX / 1000.0, engine.fixY / 1000.0)
+        logMessage("Location computed: $location, linear: ${solver.isLinearFix}, iterations: ${solver.iterations}, rms: ${solver.rms}")
 
-        bleIndicate(centroid.toArray().joinToString(","))
+        // error and geometry information; not available when the anchors are degenerate
+        if (engine.hasFixStandardDeviation()) {
+            logMessage("standardDeviation: {${engine.standardDeviationX}; ${engine.standardDeviationY}}")
+        }
 
-        updateLocationDisplay(centroid)
-        logMessage("Location computed: $centroid")
+        if (!engine.isUsingTracker) {
+            rateController.onPosition(engine.fixX, engine.fixY, now)
+            rateController.onUncertainty(if (engine.hasFixStandardDeviation()) engine.fixStandardDeviation else 0.0)
+            publishLocation(location, engine.fixUncertainty, false)
+        }
+        else if (result == PositioningEngine.FIX_TRACKER_INITIALIZED) {
+            logMessage("Tracker initialized at $location")
+        }
+        return result
+    }
 
-        try {
-            // error and geometry information; may throw SingularMatrixException depending the threshold argument provided
-            val standardDeviation = optimum.getSigma(0.0)
-            val covarianceMatrix = optimum.getCovariances(0.0)
-            logMessage("standardDeviation: $standardDeviation, covarianceMatrix: $covarianceMatrix")
+    // Pipeline stage 4: stream the fix to BLE subscribers and the UI.
+    private fun publishLocation(location: Location, uncertaintyMm: Double, tracked: Boolean) {
+        fixSequence = (fixSequence + 1) and 0xFFFF
+        val record = FixRecord.encode(if (tracked) FixRecord.FLAG_TRACKED else 0, fixSequence, SystemClock.elapsedRealtime(), location.x * 1000.0, location.y * 1000.0, uncertaintyMm)
+        fixHistory.add(record, 0)
+        recorder?.recordFix(SystemClock.elapsedRealtime(), (location.x * 1000.0).roundToInt(), (location.y * 1000.0).roundToInt(), uncertaintyMm.roundToInt(), tracked)
+        val value = if (bleBinaryFix) {
+            record
+        } else {
+            "${location.x},${location.y}".toByteArray(Charsets.UTF_8)
+        }
+        bleStream(value)
+        updateLocationDisplay(location)
+    }
+
+    private fun startTrackerOutputLoop() {
+        trackerOutputHandler.removeCallbacksAndMessages(null)
+        if (engine.isUsingTracker) {
+            trackerOutput(SystemClock.uptimeMillis())
         }
-        catch (e: java.lang.Exception) {
-            logMessage("Exception calculating stdDev or covariance: ${e.message}")
+    }
+
+    private fun trackerOutput(deadline: Long) {
+        val tracker = engine.tracker
+        when (engine.trackerOutput(SystemClock.elapsedRealtime())) {
+            PositioningEngine.TRACKER_LOST -> {
+                logMessage("Tracker lost")
+            }
+            PositioningEngine.TRACKER_UPDATED -> {
+                publishLocation(Location(tracker.x / 1000.0, tracker.y / 1000.0), tracker.positionStdDev, true)
+            }
         }
+
+        // Schedule against the previous deadline rather than now so the output rate does not drift.
+        val nextDeadline = deadline + TRACKER_OUTPUT_PERIOD_MS
+        trackerOutputHandler.postAtTime({
+            trackerOutput(nextDeadline)
+        }, Math.max(nextDeadline, SystemClock.uptimeMillis()))
     }
 
     private fun logMessage(message: String) {
@@ -411,9 +804,33 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
     //endregion
 
     //region BLE GATT server
+    @Volatile
     private var gattServer: BluetoothGattServer? = null
     private val charForIndicate get() = gattServer?.getService(UUID.fromString(SERVICE_UUID))?.getCharacteristic(UUID.fromString(CHAR_FOR_INDICATE_UUID))
-    private val subscribedDevices = mutableSetOf<BluetoothDevice>()
+    private val subscribedDevices: MutableSet<BluetoothDevice> = Collections.newSetFromMap(ConcurrentHashMap())
+    // Centrals that enabled unacknowledged notifications rather than indications.
+    private val notifiedDevices: MutableSet<BluetoothDevice> = Collections.newSetFromMap(ConcurrentHashMap())
+    private val deviceMtus = ConcurrentHashMap<BluetoothDevice, Int>()
+    private var bleBinaryFix = false
+    private val fixHistory = FixHistory()
+    // A long read spans several requests; each central reads from the snapshot taken at offset 0.
+    private val historySnapshots = ConcurrentHashMap<BluetoothDevice, ByteArray>()
+    private var fixSequence = 0
+
+    // Each central gets one value in flight; newer fixes replace the one still waiting.
+    private val blePacer = NotificationPacer<BluetoothDevice> { device, value ->
+        val characteristic = charForIndicate
+        val mtu = deviceMtus[device] ?: DEFAULT_ATT_MTU
+        if (value.size > mtu - ATT_HEADER_LENGTH) {
+            logMessage("Value of ${value.size} bytes truncated to MTU $mtu for $device")
+        }
+        if (characteristic == null) {
+            false
+        } else {
+            characteristic.value = value
+            gattServer?.notifyCharacteristicChanged(device, characteristic, !notifiedDevices.contains(device)) ?: false
+        }
+    }
 
     private val gattServerCallback = object : BluetoothGattServerCallback() {
         override fun onConnectionStateChange(device: BluetoothDevice, status: Int, newState: Int) {
@@ -425,13 +842,25 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
                     isBleConnected = false
                     logMessage("Central did disconnect")
                     subscribedDevices.remove(device)
+                    notifiedDevices.remove(device)
+                    deviceMtus.remove(device)
+                    historySnapshots.remove(device)
+                    blePacer.remove(device)
                     updateBleStatus()
                 }
             }
         }
 
         override fun onNotificationSent(device: BluetoothDevice, status: Int) {
-            logMessage("onNotificationSent status=$status")
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                logMessage("onNotificationSent status=$status")
+            }
+            blePacer.onSent(device, SystemClock.elapsedRealtime())
+        }
+
+        override fun onMtuChanged(device: BluetoothDevice, mtu: Int) {
+            logMessage("onMtuChanged mtu=$mtu")
+            deviceMtus[device] = mtu
         }
 
         override fun onCharacteristicReadRequest(device: BluetoothDevice, requestId: Int, offset: Int, characteristic: BluetoothGattCharacteristic) {
@@ -443,6 +872,20 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
                     log += "\nresponse=success, value=\"$strValue\""
                     logMessage(log)
                 }
+            } else if (characteristic.uuid == UUID.fromString(CHAR_FOR_HISTORY_UUID)) {
+                val snapshot = if (offset == 0) {
+                    fixHistory.snapshot().also { historySnapshots[device] = it }
+                } else {
+                    historySnapshots[device] ?: fixHistory.snapshot()
+                }
+                if (offset > snapshot.size) {
+                    gattServer?.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset, null)
+                    log += "\nresponse=invalid offset, length=${snapshot.size}"
+                } else {
+                    gattServer?.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, snapshot.copyOfRange(offset, snapshot.size))
+                    log += "\nresponse=success, history=${snapshot.size / FixRecord.LENGTH} fixes"
+                }
+                logMessage(log)
             } else {
                 gattServer?.sendResponse(device, requestId, BluetoothGatt.GATT_FAILURE, 0, null)
                 log += "\nresponse=failure, unknown UUID\n${characteristic.uuid}"
@@ -477,9 +920,12 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         override fun onDescriptorReadRequest(device: BluetoothDevice, requestId: Int, offset: Int, descriptor: BluetoothGattDescriptor) {
             var log = "onDescriptorReadRequest"
             if (descriptor.uuid == UUID.fromString(CCC_DESCRIPTOR_UUID)) {
-                val returnValue = if (subscribedDevices.contains(device)) {
+                val returnValue = if (notifiedDevices.contains(device)) {
                     log += " CCCD response=ENABLE_NOTIFICATION"
                     BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                } else if (subscribedDevices.contains(device)) {
+                    log += " CCCD response=ENABLE_INDICATION"
+                    BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
                 } else {
                     log += " CCCD response=DISABLE_NOTIFICATION"
                     BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE
@@ -498,11 +944,19 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
                 var status = BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED
                 if (descriptor.characteristic.uuid == UUID.fromString(CHAR_FOR_INDICATE_UUID)) {
                     if (Arrays.equals(value, BluetoothGattDescriptor.ENABLE_INDICATION_VALUE)) {
+                        notifiedDevices.remove(device)
                         subscribedDevices.add(device)
                         status = BluetoothGatt.GATT_SUCCESS
                         strLog += ", subscribed"
+                    } else if (Arrays.equals(value, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) {
+                        notifiedDevices.add(device)
+                        subscribedDevices.add(device)
+                        status = BluetoothGatt.GATT_SUCCESS
+                        strLog += ", subscribed to notifications"
                     } else if (Arrays.equals(value, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)) {
                         subscribedDevices.remove(device)
+                        notifiedDevices.remove(device)
+                        blePacer.remove(device)
                         status = BluetoothGatt.GATT_SUCCESS
                         strLog += ", unsubscribed"
                     }
@@ -532,15 +986,19 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
             BluetoothGattCharacteristic.PROPERTY_WRITE,
             BluetoothGattCharacteristic.PERMISSION_WRITE)
         var charForIndicate = BluetoothGattCharacteristic(UUID.fromString(CHAR_FOR_INDICATE_UUID),
-            BluetoothGattCharacteristic.PROPERTY_INDICATE,
+            BluetoothGattCharacteristic.PROPERTY_INDICATE or BluetoothGattCharacteristic.PROPERTY_NOTIFY,
             BluetoothGattCharacteristic.PERMISSION_READ)
         var charConfigDescriptor = BluetoothGattDescriptor(UUID.fromString(CCC_DESCRIPTOR_UUID),
             BluetoothGattDescriptor.PERMISSION_READ or BluetoothGattDescriptor.PERMISSION_WRITE)
         charForIndicate.addDescriptor(charConfigDescriptor)
+        var charForHistory = BluetoothGattCharacteristic(UUID.fromString(CHAR_FOR_HISTORY_UUID),
+            BluetoothGattCharacteristic.PROPERTY_READ,
+            BluetoothGattCharacteristic.PERMISSION_READ)
 
         service.addCharacteristic(charForRead)
         service.addCharacteristic(charForWrite)
         service.addCharacteristic(charForIndicate)
+        service.addCharacteristic(charForHistory)
 
         val result = gattServer.addService(service)
         this.gattServer = gattServer
@@ -551,6 +1009,8 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
     }
 
     private fun bleStopGattServer() {
+        blePacer.clear()
+        historySnapshots.clear()
         gattServer?.close()
         gattServer = null
         logMessage("gattServer closed")
@@ -559,14 +1019,10 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         }
     }
 
-    private fun bleIndicate(text: String) {
-        val data = text.toByteArray(Charsets.UTF_8)
-        charForIndicate?.let {
-            it.value = data
-            for (device in subscribedDevices) {
-                logMessage("sending indication \"$text\"")
-                gattServer?.notifyCharacteristicChanged(device, it, true)
-            }
+    private fun bleStream(value: ByteArray) {
+        val now = SystemClock.elapsedRealtime()
+        for (device in subscribedDevices) {
+            blePacer.offer(device, value, now)
         }
     }
 
@@ -595,15 +1051,27 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
     // Activity and UI handling
     //
     override fun onPause() {
-        nanRanger.stopRanging()
+        processingHandler.post {
+            rangingSource.stop()
+        }
         super.onPause()
     }
 
     override fun onResume() {
-        nanRanger.rangePeer(this)
+        processingHandler.post {
+            rangingSource.start(this)
+        }
         super.onResume()
     }
 
+    override fun onDestroy() {
+        processingHandler.post {
+            stopRecording()
+        }
+        processingThread.quitSafely()
+        super.onDestroy()
+    }
+
     private val mConnectedDevicesView: TextView by lazy {
         findViewById(R.id.connected_devices)
     }
@@ -614,74 +1082,188 @@ class MainActivity : AppCompatActivity(), NanClientCallback, NanPublisherCallbac
         findViewById(R.id.ble_status)
     }
 
+    private val devicesDisplay: LatestValueHandoff<String> by lazy {
+        LatestValueHandoff<String>(mainExecutor) { mConnectedDevicesView.text = it }
+    }
+    private val locationDisplay: LatestValueHandoff<String> by lazy {
+        LatestValueHandoff<String>(mainExecutor) { mLocationView.text = it }
+    }
+    private val bleStatusDisplay: LatestValueHandoff<String> by lazy {
+        LatestValueHandoff<String>(mainExecutor) { mBleStatusView.text = it }
+    }
+
     private fun updateDevicesDisplay() {
-        var deviceDisplayText: String = "Connected Devices: ${devices.size}\n"
+        val deviceDisplayText = StringBuilder("Connected Devices: ${peers.size()}\n")
 
-        deviceDisplayText += devices.map { (_, device) ->
-            "${device.deviceName}, location: {${device.x}; ${device.y}}, distance: ${device.distance}"
+        for (id in 0 until peers.highWaterMark) {
+            if (peers.isActive(id)) {
+                deviceDisplayText.append("${peers.getModel(id).deviceName}, location: {${peers.getX(id)}; ${peers.getY(id)}}, distance: ${peers.getRange(id)}\n")
+            }
         }
-        .joinToString("\n")
 
-        mConnectedDevicesView.text = deviceDisplayText
+        devicesDisplay.publish(deviceDisplayText.toString().trimEnd())
     }
 
-    private fun updateLocationDisplay(location: RealVector?) {
-        mLocationView.text = "Location: $location\n"
+    private fun updateLocationDisplay(location: Location?) {
+        locationDisplay.publish("Location: ${location?.let { "{${it.x}; ${it.y}}" }}\n")
     }
 
     private fun updateBleStatus() {
         val displayText: String =
             "BLE Advertising: $isBleAdvertising\n" +
             "BLE Connected: $isBleConnected\n" +
-            "Subscribers: ${subscribedDevices.count()}"
+            "Subscribers: ${subscribedDevices.count()}\n" +
+            "Fixes sent: ${blePacer.sent}, coalesced: ${blePacer.coalesced}"
+
+        bleStatusDisplay.publish(displayText)
+    }
+
+    private fun startRecording() {
+        stopRecording()
+        val directory = File(getExternalFilesDir(null), TRACE_DIRECTORY)
+        directory.mkdirs()
+        val file = File(directory, "trace-${System.currentTimeMillis()}.bin")
+        try {
+            recorder = TraceRecorder(file)
+            logMessage("Recording trace to $file")
+        } catch (e: IOException) {
+            Log.e(LOG_TAG, "Failed to create trace $file", e)
+        }
+    }
+
+    private fun stopRecording() {
+        recorder?.let { trace ->
+            try {
+                trace.close()
+                logMessage("Trace closed: ${trace.records} records, ${trace.size} bytes, ${trace.dropped} dropped")
+            } catch (e: IOException) {
+                Log.e(LOG_TAG, "Failed to close trace", e)
+            }
+        }
+        recorder = null
+    }
+
+    private fun loadAnchors(): AnchorStore {
+        val file = File(getExternalFilesDir(null), ANCHOR_MAP_FILE)
+        if (file.exists()) {
+            try {
+                val store = AnchorStore.load(file)
+                Log.i(LOG_TAG, "Loaded ${store.size()} anchors from $file")
+                return store
+            } catch (e: IOException) {
+                Log.e(LOG_TAG, "Failed to load anchor map $file", e)
+            }
+        }
 
-        mBleStatusView.text = displayText
+        return createAnchorsFromPreferences()
     }
 
-    private fun createDeviceToLocationMap(): HashMap<String, Location> {
-        val result = HashMap<String, Location>()
+    private fun createAnchorsFromPreferences(): AnchorStore {
+        val names = ArrayList<String>()
+        val x = ArrayList<Int>()
+        val y = ArrayList<Int>()
         for (i in 1..6) {
             mPreferences.getString("peer${i}", null)?.let { deviceName ->
-                result[deviceName] = Location(
-                    (mPreferences.getString("peer${i}x", null)?.toDouble() ?: 0.0) * 1000,
-                    (mPreferences.getString("peer${i}y", null)?.toDouble() ?: 0.0) * 1000
-                )
+                if (deviceName !in names) {
+                    names.add(deviceName)
+                    x.add(((mPreferences.getString("peer${i}x", null)?.toDouble() ?: 0.0) * 1000).roundToInt())
+                    y.add(((mPreferences.getString("peer${i}y", null)?.toDouble() ?: 0.0) * 1000).roundToInt())
+                }
             }
         }
 
-        return result
+        return AnchorStore(names.toTypedArray(), x.toIntArray(), y.toIntArray(), IntArray(names.size), IntArray(names.size))
+    }
+
+    private fun createDiscoveryInfo(): DiscoveryInfo? {
+        if (!mPreferences.getBoolean("advertise_identity", true)) {
+            return null
+        }
+
+        val x = mPreferences.getString("anchor_x", null)?.toDoubleOrNull()
+        val y = mPreferences.getString("anchor_y", null)?.toDoubleOrNull()
+        return if (x != null && y != null) {
+            DiscoveryInfo(deviceName, true, (x * 1000).roundToInt(), (y * 1000).roundToInt())
+        } else {
+            DiscoveryInfo(deviceName)
+        }
     }
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_main)
 
-        updateDevicesDisplay()
         updateLocationDisplay(null)
         updateBleStatus()
+        processingHandler.post {
+            updateDevicesDisplay()
+        }
 
+        // Settings are read here and handed to the processing thread with the posted start task.
         findViewById<Button>(R.id.start).setOnClickListener {
             deviceName = mPreferences.getString("device_name", null) ?: "Device"
             enableRanging = mPreferences.getBoolean("enable_ranging", false)
-            deviceToLocation = createDeviceToLocationMap()
+            anchors = loadAnchors()
+            val useTracker = mPreferences.getBoolean("use_tracker", true)
+            useRobustSolver = mPreferences.getBoolean("robust_solver", true)
+            adaptiveRate = mPreferences.getBoolean("adaptive_rate", true)
+            val anchorSelection = mPreferences.getBoolean("select_anchors", true)
+            val implicitLivenessEnabled = mPreferences.getBoolean("implicit_liveness", true)
+            bleBinaryFix = mPreferences.getBoolean("ble_binary_fix", false)
+            val nanRecovery = mPreferences.getBoolean("nan_recovery", true)
+            val recordTrace = mPreferences.getBoolean("record_trace", false)
+            val rangeFilter = when (mPreferences.getString("range_filter", "hampel")) {
+                "none" -> RangeHistory.FILTER_NONE
+                "median" -> RangeHistory.FILTER_MEDIAN
+                "ema" -> RangeHistory.FILTER_EMA
+                else -> RangeHistory.FILTER_HAMPEL
+            }
+            val discoveryInfo = createDiscoveryInfo()
+            val publish = mPreferences.getBoolean("publish", false)
+            val subscribe = mPreferences.getBoolean("subscribe", false)
             bleStartAdvertising()
 
-            if (mPreferences.getBoolean("publish", false)) {
-                mode = 0
-                nanClient.publishService(SERVICE_NAME, this, null)
-            }
-            else if (mPreferences.getBoolean("subscribe", false)) {
-                mode = 1
-                nanClient.subscribeService(SERVICE_NAME, this, null)
-            }
-            else {
-                logMessage("Please select a mode")
+            processingHandler.post {
+                engine.reset()
+                engine.setUseTracker(useTracker)
+                engine.setUseRobustSolver(useRobustSolver)
+                engine.rangeHistory.filter = rangeFilter
+                selectAnchors = anchorSelection
+                anchorSelector.reset()
+                implicitLiveness = implicitLivenessEnabled
+                livenessStats.reset()
+                fixHistory.clear()
+                nanClient.setRecoveryEnabled(nanRecovery)
+                rateController.reset()
+                lastBatteryPoll = 0L
+                rangingSource.setRangingPeriod(RANGING_PERIOD_MS)
+                engine.setRangingPeriodMillis(RANGING_PERIOD_MS)
+                if (recordTrace) {
+                    startRecording()
+                }
+                startTrackerOutputLoop()
+
+                if (publish) {
+                    mode = 0
+                    nanClient.publishService(SERVICE_NAME, this, discoveryInfo?.toBytes())
+                }
+                else if (subscribe) {
+                    mode = 1
+                    nanClient.subscribeService(SERVICE_NAME, this)
+                }
+                else {
+                    logMessage("Please select a mode")
+                }
             }
         }
 
         findViewById<Button>(R.id.stop).setOnClickListener {
             bleStopAdvertising()
-            nanClient.stopSession(mode, SERVICE_NAME, this)
+            processingHandler.post {
+                trackerOutputHandler.removeCallbacksAndMessages(null)
+                nanClient.stopSession(mode, SERVICE_NAME, this)
+                stopRecording()
+            }
         }
     }
 
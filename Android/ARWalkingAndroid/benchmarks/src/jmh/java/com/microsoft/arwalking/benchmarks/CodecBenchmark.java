@@ -0,0 +1,82 @@
+package com.microsoft.arwalking.benchmarks;
+
+import com.google.android.apps.location.rtt.nanrttlib.Message;
+import com.google.android.apps.location.rtt.nanrttlib.MessageBatch;
+import com.microsoft.arwalking.android.ble.FixRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the NAN message codec and the BLE fix record. Run with the gc profiler (the
+ * default in build.gradle) to see the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+    private byte[] ping;
+    private byte[] legacyPing;
+    private byte[] batch;
+    private List<byte[]> messages;
+    private final byte[] fixRecord = new byte[FixRecord.LENGTH];
+    private int sequence;
+
+    @Setup
+    public void setUp() {
+        this.ping = new Message("Anchor-17", Message.PING_MESSAGE, "", 42, 123456).toBytes();
+        this.legacyPing = "Anchor-17|2|".getBytes(StandardCharsets.UTF_8);
+        this.messages = new ArrayList<>();
+        this.messages.add(this.ping);
+        this.messages.add(new Message("Anchor-17", Message.PING_ACK_MESSAGE, "", 43, 123457).toBytes());
+        this.messages.add(new Message("Anchor-17", Message.CHAT_MESSAGE, "hello", 44, 123458).toBytes());
+        this.batch = MessageBatch.pack(this.messages);
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() {
+        return new Message("Anchor-17", Message.PING_MESSAGE, "", this.sequence++, 123456).toBytes();
+    }
+
+    @Benchmark
+    public Message decodeMessage() {
+        return Message.fromBytes(this.ping);
+    }
+
+    @Benchmark
+    public Message decodeLegacyMessage() {
+        return Message.fromBytes(this.legacyPing);
+    }
+
+    /** The liveness path only needs the type, without decoding the message. */
+    @Benchmark
+    public int peekRequestType() {
+        return Message.peekRequestType(this.ping);
+    }
+
+    @Benchmark
+    public byte[] packBatch() {
+        return MessageBatch.pack(this.messages);
+    }
+
+    @Benchmark
+    public List<byte[]> unpackBatch() {
+        return MessageBatch.unpack(this.batch);
+    }
+
+    @Benchmark
+    public byte[] writeFixRecord() {
+        FixRecord.write(this.fixRecord, 0, FixRecord.FLAG_TRACKED, this.sequence++, 123456L, 12345.6, 7890.1, 350.0);
+        return this.fixRecord;
+    }
+}
@@ -0,0 +1,79 @@
+package com.microsoft.arwalking.benchmarks;
+
+import com.microsoft.arwalking.android.positioning.LocationTracker;
+import com.microsoft.arwalking.android.positioning.RangeHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Cost of one range update in the per-peer range filter and in the tracker. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilterBenchmark {
+    private static final int PEERS = 64;
+    private static final int SAMPLES = 1024;
+
+    @Param({"none", "median", "hampel", "ema"})
+    public String filter;
+
+    @Param({"7", "15"})
+    public int window;
+
+    private final double[] samples = new double[SAMPLES];
+    private RangeHistory history;
+    private LocationTracker tracker;
+    private int sample;
+    private long timeMillis;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Mostly clean ranges with an occasional multipath spike.
+            this.samples[i] = 8000 + random.nextGaussian() * 150 + (random.nextDouble() < 0.1 ? 3000 : 0);
+        }
+        this.history = new RangeHistory(PEERS, this.window);
+        // Keep the window full, so every size measures the same insert and remove.
+        this.history.setMaxAgeMillis(Long.MAX_VALUE);
+        switch (this.filter) {
+            case "none":
+                this.history.setFilter(RangeHistory.FILTER_NONE);
+                break;
+            case "median":
+                this.history.setFilter(RangeHistory.FILTER_MEDIAN);
+                break;
+            case "ema":
+                this.history.setFilter(RangeHistory.FILTER_EMA);
+                break;
+            default:
+                this.history.setFilter(RangeHistory.FILTER_HAMPEL);
+                break;
+        }
+        this.tracker = new LocationTracker();
+        this.tracker.initialize(5000, 5000, 1000, 0);
+    }
+
+    @Benchmark
+    public double rangeHistoryAdd() {
+        int i = this.sample++;
+        this.timeMillis += 10;
+        return this.history.add(i & (PEERS - 1), this.samples[i & (SAMPLES - 1)], 150, this.timeMillis);
+    }
+
+    @Benchmark
+    public boolean trackerUpdate() {
+        int i = this.sample++;
+        this.timeMillis += 10;
+        return this.tracker.updateRange((i & 3) * 4000, (i & 4) * 2500, this.samples[i & (SAMPLES - 1)] * 0.6, 150, this.timeMillis);
+    }
+}
@@ -0,0 +1,90 @@
+package com.microsoft.arwalking.benchmarks;
+
+import com.google.android.apps.location.rtt.nanrttlib.HashedTimingWheel;
+import com.google.android.apps.location.rtt.nanrttlib.Message;
+import com.google.android.apps.location.rtt.nanrttlib.NanMessageQueue;
+import com.google.android.apps.location.rtt.nanrttlib.RangingRoundScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Per-tick cost of the liveness wheel, the outbound message queue and the ranging round scheduler. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulingBenchmark {
+    private static final long TICK_MILLIS = 1000;
+    private static final long PING_DELAY_MILLIS = 10000;
+
+    @Param({"10", "100", "500"})
+    public int peers;
+
+    private HashedTimingWheel wheel;
+    private NanMessageQueue<Integer> queue;
+    private RangingRoundScheduler<Integer> scheduler;
+    private List<Integer> peerList;
+    private byte[] ping;
+    private final int[] sentIds = new int[NanMessageQueue.DEFAULT_MAX_IN_FLIGHT];
+    private int sentCount;
+    private long nowMillis;
+
+    @Setup
+    public void setUp() {
+        // Like MainActivity, every expired peer pings and reschedules itself.
+        this.wheel = new HashedTimingWheel(this.peers, 16, TICK_MILLIS, (id, now) -> this.wheel.schedule(id, now + PING_DELAY_MILLIS));
+        for (int id = 0; id < this.peers; id++) {
+            this.wheel.schedule(id, id * PING_DELAY_MILLIS / this.peers);
+        }
+
+        this.queue = new NanMessageQueue<>((mode, service, peer, messageId, message) -> this.sentIds[this.sentCount++] = messageId);
+        this.scheduler = new RangingRoundScheduler<>();
+        this.peerList = new ArrayList<>(this.peers);
+        for (int i = 0; i < this.peers; i++) {
+            this.peerList.add(i);
+        }
+        this.ping = new Message("Anchor", Message.PING_MESSAGE, "").toBytes();
+    }
+
+    /** One liveness tick, expiring a tenth of the peers. */
+    @Benchmark
+    public int livenessTick() {
+        this.nowMillis += TICK_MILLIS;
+        return this.wheel.advance(this.nowMillis);
+    }
+
+    /** A ping to every peer, sent and acknowledged through the queue. */
+    @Benchmark
+    public long queuePingRound() {
+        this.nowMillis += TICK_MILLIS;
+        for (int i = 0; i < this.peers; i++) {
+            this.queue.enqueue(1, "General", i, Message.PING_MESSAGE, this.ping, this.nowMillis);
+        }
+        long sendMillis = this.nowMillis + NanMessageQueue.DEFAULT_BATCH_DELAY_MILLIS;
+        long delivered = this.queue.getDelivered() + this.peers;
+        while (this.queue.getDelivered() < delivered) {
+            this.queue.poll(sendMillis);
+            for (int i = 0; i < this.sentCount; i++) {
+                this.queue.onSendSucceeded(this.sentIds[i]);
+            }
+            this.sentCount = 0;
+        }
+        return this.queue.getDelivered();
+    }
+
+    /** Picking the peers of one ranging round of at most ten. */
+    @Benchmark
+    public List<Integer> nextRangingRound() {
+        this.nowMillis += TICK_MILLIS;
+        return this.scheduler.nextRound(this.peerList, 10, this.nowMillis);
+    }
+}
@@ -0,0 +1,89 @@
+package com.microsoft.arwalking.benchmarks;
+
+import com.microsoft.arwalking.android.positioning.RobustTrilaterationSolver;
+import com.microsoft.arwalking.android.positioning.TrilaterationSolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one fix against the number of anchors: loading the ranges into the solver and solving,
+ * as {@code MainActivity.computeLocation} does every ranging round.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SolverBenchmark {
+    private static final int ROUNDS = 16;
+    private static final double RANGE_STD_DEV = 150.0;
+
+    @Param({"3", "4", "6", "8", "16", "32", "64"})
+    public int anchors;
+
+    /** Share of ranges with a non line of sight error, for the robust solver to reject. */
+    @Param({"0.0", "0.2"})
+    public double outlierRate;
+
+    private double[] anchorX;
+    private double[] anchorY;
+    private double[][] ranges;
+    private TrilaterationSolver solver;
+    private RobustTrilaterationSolver robustSolver;
+    private int round;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        double x = 12000;
+        double y = 7000;
+        this.anchorX = new double[this.anchors];
+        this.anchorY = new double[this.anchors];
+        this.ranges = new double[ROUNDS][this.anchors];
+        for (int i = 0; i < this.anchors; i++) {
+            this.anchorX[i] = random.nextDouble() * 30000;
+            this.anchorY[i] = random.nextDouble() * 20000;
+        }
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < this.anchors; i++) {
+                double range = Math.hypot(this.anchorX[i] - x, this.anchorY[i] - y) + random.nextGaussian() * RANGE_STD_DEV;
+                if (random.nextDouble() < this.outlierRate) {
+                    range += 2000 + random.nextDouble() * 4000;
+                }
+                this.ranges[r][i] = Math.max(0, range);
+            }
+        }
+        this.solver = new TrilaterationSolver(2, this.anchors);
+        this.robustSolver = new RobustTrilaterationSolver(this.solver);
+    }
+
+    @Benchmark
+    public double solve() {
+        load();
+        this.solver.solve();
+        return this.solver.getX();
+    }
+
+    @Benchmark
+    public double solveRobust() {
+        load();
+        this.robustSolver.solve();
+        return this.solver.getX();
+    }
+
+    private void load() {
+        double[] range = this.ranges[this.round++ & (ROUNDS - 1)];
+        this.solver.clear();
+        for (int i = 0; i < this.anchors; i++) {
+            this.solver.addAnchor(this.anchorX[i], this.anchorY[i], 0.0, range[i], RobustTrilaterationSolver.rangeWeight(RANGE_STD_DEV, 8));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.microsoft.arwalking.benchmarks;
+
+import com.microsoft.arwalking.android.trace.TraceReader;
+import com.microsoft.arwalking.android.trace.TraceRecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording to and reading from a trace. The record benchmarks should show no allocation
+ * under the gc profiler; a full log is started over, which is included in their score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TraceBenchmark {
+    private static final long MAX_SIZE = 64L << 20;
+
+    private File file;
+    private TraceRecorder recorder;
+    private TraceReader reader;
+    private final byte[] message = new byte[32];
+    private long time;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("trace", ".bin");
+        this.recorder = new TraceRecorder(this.file, TraceRecorder.DEFAULT_CHUNK_SIZE, MAX_SIZE);
+        File readFile = File.createTempFile("trace", ".bin");
+        try (TraceRecorder out = new TraceRecorder(readFile)) {
+            for (int i = 0; i < 10000; i++) {
+                out.recordRange(i, i % 24, 0, 12345, 150, 8, 8, i);
+            }
+        }
+        this.reader = TraceReader.open(readFile);
+        readFile.delete();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        this.recorder.close();
+        this.file.delete();
+    }
+
+    private void restartIfFull() throws IOException {
+        if (this.recorder.getDropped() != 0) {
+            tearDown();
+            setUp();
+        }
+    }
+
+    @Benchmark
+    public long recordRange() throws IOException {
+        restartIfFull();
+        this.recorder.recordRange(this.time++, 17, 0, 12345, 150, 8, 8, this.time);
+        return this.recorder.getSize();
+    }
+
+    @Benchmark
+    public long recordMessage() throws IOException {
+        restartIfFull();
+        this.recorder.recordMessage(this.time++, TraceRecorder.RECORD_MESSAGE_RECEIVED, 0, 17, 42, this.message);
+        return this.recorder.getSize();
+    }
+
+    /** Reads a ranging record and its fields; the reader starts over at the end of the trace. */
+    @Benchmark
+    public long readRange() {
+        if (this.reader.next() == TraceRecorder.RECORD_END) {
+            this.reader.rewind();
+            this.reader.next();
+        }
+        return this.reader.getTimeMillis() + this.reader.getPeer() + this.reader.getDistanceMm() + this.reader.getRangingTimestampMillis();
+    }
+}
@@ -0,0 +1,191 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+/**
+ * Picks a ranging period from how fast the user moves, how uncertain the fix is and the battery.
+ *
+ * <p>The period drops to the minimum as soon as the user walks or the fix uncertainty grows past
+ * the target, and backs off toward the maximum once the user has been stationary for a while.
+ * Low battery doubles the period and critical battery pins it to the maximum. Shorter periods
+ * apply immediately, longer ones grow by at most half per update so a brief pause does not make
+ * the next step laggy.
+ *
+ * <p>Speed is the net displacement over the last few seconds rather than the distance between
+ * consecutive positions: fixes of a user standing still jitter by a few decimetres a round, which
+ * would read as a slow walk, but they do not add up.
+ *
+ * <p>All inputs carry their own timestamps, so the controller can be driven by a recorded or
+ * simulated feed as well as by live fixes. Positions in millimetres, times in milliseconds.
+ */
+public class AdaptiveRangingRateController {
+    public interface Listener {
+        void onRangingPeriodChanged(int periodMillis);
+    }
+
+    public static final int DEFAULT_MIN_PERIOD_MILLIS = 250;
+    public static final int DEFAULT_BASE_PERIOD_MILLIS = 1000;
+    public static final int DEFAULT_MAX_PERIOD_MILLIS = 5000;
+    public static final double DEFAULT_MOVING_SPEED = 300.0;
+    public static final double DEFAULT_STATIONARY_SPEED = 100.0;
+    public static final long DEFAULT_SPEED_WINDOW_MILLIS = 4000;
+    public static final long DEFAULT_STATIONARY_HOLD_MILLIS = 10000;
+    public static final double DEFAULT_TARGET_UNCERTAINTY = 1000.0;
+    public static final int DEFAULT_LOW_BATTERY_PERCENT = 20;
+    public static final int DEFAULT_CRITICAL_BATTERY_PERCENT = 10;
+
+    // Enough for a window's worth of positions at the minimum period.
+    private static final int MAX_POSITIONS = 32;
+    private static final double MAX_GROWTH = 1.5;
+    private static final double MIN_CHANGE = 0.1;
+
+    private final Listener listener;
+    private int minPeriodMillis = DEFAULT_MIN_PERIOD_MILLIS;
+    private int basePeriodMillis = DEFAULT_BASE_PERIOD_MILLIS;
+    private int maxPeriodMillis = DEFAULT_MAX_PERIOD_MILLIS;
+    private double movingSpeed = DEFAULT_MOVING_SPEED;
+    private double stationarySpeed = DEFAULT_STATIONARY_SPEED;
+    private long stationaryHoldMillis = DEFAULT_STATIONARY_HOLD_MILLIS;
+    private long speedWindowMillis = DEFAULT_SPEED_WINDOW_MILLIS;
+    private double targetUncertainty = DEFAULT_TARGET_UNCERTAINTY;
+
+    // Recent positions, a ring from the oldest (first) to the newest.
+    private final double[] positionX = new double[MAX_POSITIONS];
+    private final double[] positionY = new double[MAX_POSITIONS];
+    private final long[] positionMillis = new long[MAX_POSITIONS];
+    private int first;
+    private int positions;
+    private double speed;
+    private long stationarySinceMillis = -1;
+    private double uncertainty;
+    private int batteryPercent = 100;
+    private boolean charging = true;
+
+    private double period;
+    private int reportedPeriod;
+
+    public AdaptiveRangingRateController(Listener listener) {
+        this.listener = listener;
+        this.period = this.basePeriodMillis;
+        this.reportedPeriod = this.basePeriodMillis;
+    }
+
+    public void setPeriodRange(int minPeriodMillis, int basePeriodMillis, int maxPeriodMillis) {
+        this.minPeriodMillis = minPeriodMillis;
+        this.basePeriodMillis = basePeriodMillis;
+        this.maxPeriodMillis = maxPeriodMillis;
+    }
+
+    /**
+     * Speeds at or above {@code moving} count as walking, below {@code stationary} as standing
+     * still; in between the user is taken to keep doing what they did.
+     */
+    public void setSpeedThresholds(double stationary, double moving) {
+        this.stationarySpeed = stationary;
+        this.movingSpeed = moving;
+    }
+
+    public void setStationaryHoldMillis(long stationaryHoldMillis) {
+        this.stationaryHoldMillis = stationaryHoldMillis;
+    }
+
+    public void setTargetUncertainty(double targetUncertainty) {
+        this.targetUncertainty = targetUncertainty;
+    }
+
+    /** Speed is measured over at least this long, once there are positions that old. */
+    public void setSpeedWindowMillis(long speedWindowMillis) {
+        this.speedWindowMillis = speedWindowMillis;
+    }
+
+    public void onPosition(double x, double y, long timeMillis) {
+        if (this.positions > 0 && timeMillis <= this.positionMillis[(this.first + this.positions - 1) % MAX_POSITIONS]) {
+            return;
+        }
+        if (this.positions == MAX_POSITIONS) {
+            this.first = (this.first + 1) % MAX_POSITIONS;
+            this.positions--;
+        }
+        int newest = (this.first + this.positions) % MAX_POSITIONS;
+        this.positionX[newest] = x;
+        this.positionY[newest] = y;
+        this.positionMillis[newest] = timeMillis;
+        this.positions++;
+        // Keep the newest position that is at least a window old as the reference.
+        while (this.positions > 2 && timeMillis - this.positionMillis[(this.first + 1) % MAX_POSITIONS] >= this.speedWindowMillis) {
+            this.first = (this.first + 1) % MAX_POSITIONS;
+            this.positions--;
+        }
+        if (this.positions > 1) {
+            this.speed = Math.hypot(x - this.positionX[this.first], y - this.positionY[this.first]) * 1000.0 / (timeMillis - this.positionMillis[this.first]);
+        }
+        // Between the thresholds the user stays what they were, so a jump in the track does not
+        // restart the stationary hold.
+        if (this.speed < this.stationarySpeed) {
+            if (this.stationarySinceMillis < 0) {
+                this.stationarySinceMillis = timeMillis;
+            }
+        } else if (this.speed >= this.movingSpeed) {
+            this.stationarySinceMillis = -1;
+        }
+    }
+
+    /** Standard deviation of the current fix, 0 if unknown. */
+    public void onUncertainty(double uncertainty) {
+        this.uncertainty = uncertainty;
+    }
+
+    public void onBatteryState(int batteryPercent, boolean charging) {
+        this.batteryPercent = batteryPercent;
+        this.charging = charging;
+    }
+
+    public void reset() {
+        this.positions = 0;
+        this.speed = 0.0;
+        this.stationarySinceMillis = -1;
+        this.uncertainty = 0.0;
+        this.period = this.basePeriodMillis;
+        this.reportedPeriod = this.basePeriodMillis;
+    }
+
+    /**
+     * Recomputes the period and notifies the listener if it moved by more than 10%.
+     *
+     * @return the current period
+     */
+    public int update(long nowMillis) {
+        double target = this.basePeriodMillis;
+        if (this.speed >= this.movingSpeed) {
+            target = this.minPeriodMillis;
+        } else if (this.stationarySinceMillis >= 0 && nowMillis - this.stationarySinceMillis >= this.stationaryHoldMillis) {
+            target = this.maxPeriodMillis;
+        }
+        if (this.uncertainty > this.targetUncertainty) {
+            target = Math.min(target, this.basePeriodMillis * this.targetUncertainty / this.uncertainty);
+        }
+        if (!this.charging) {
+            if (this.batteryPercent <= DEFAULT_CRITICAL_BATTERY_PERCENT) {
+                target = this.maxPeriodMillis;
+            } else if (this.batteryPercent <= DEFAULT_LOW_BATTERY_PERCENT) {
+                target = Math.max(target * 2, this.basePeriodMillis);
+            }
+        }
+        target = Math.max(this.minPeriodMillis, Math.min(this.maxPeriodMillis, target));
+
+        this.period = target < this.period ? target : Math.min(target, this.period * MAX_GROWTH);
+
+        int rounded = (int) Math.round(this.period);
+        if (Math.abs(rounded - this.reportedPeriod) > MIN_CHANGE * this.reportedPeriod) {
+            this.reportedPeriod = rounded;
+            this.listener.onRangingPeriodChanged(rounded);
+        }
+        return this.reportedPeriod;
+    }
+
+    public double getSpeed() {
+        return this.speed;
+    }
+
+    public int getPeriodMillis() {
+        return this.reportedPeriod;
+    }
+}
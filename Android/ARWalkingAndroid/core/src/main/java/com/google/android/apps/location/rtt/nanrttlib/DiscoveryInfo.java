@@ -0,0 +1,92 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Identity and anchor position a publisher advertises in its service specific info, so a
+ * subscriber can range it as soon as it is discovered.
+ *
+ * <p>Wire format (big endian):
+ * <pre>
+ *   [0]       version marker (0x83)
+ *   [1]       flags, {@link #FLAG_LOCATION} if the coordinates are set,
+ *             {@link #FLAG_BINARY_MESSAGES} if the publisher reads binary {@link Message}s
+ *   [2..5]    x, millimetres
+ *   [6..9]    y, millimetres
+ *   [10]      device name length N
+ *   [11..]    device name, UTF-8
+ * </pre>
+ */
+public class DiscoveryInfo {
+    public static final byte VERSION = (byte) 0x83;
+    public static final int FLAG_LOCATION = 0x01;
+    public static final int FLAG_BINARY_MESSAGES = 0x02;
+    public static final int HEADER_LENGTH = 11;
+    /** Smallest service specific info length every Wi-Fi Aware implementation must accept. */
+    public static final int MAX_LENGTH = 255;
+
+    public final String deviceName;
+    public final boolean hasLocation;
+    public final int xMm;
+    public final int yMm;
+    public final boolean binaryMessages;
+
+    public DiscoveryInfo(String deviceName2) {
+        this(deviceName2, false, 0, 0);
+    }
+
+    public DiscoveryInfo(String deviceName2, boolean hasLocation2, int xMm2, int yMm2) {
+        this(deviceName2, hasLocation2, xMm2, yMm2, true);
+    }
+
+    public DiscoveryInfo(String deviceName2, boolean hasLocation2, int xMm2, int yMm2, boolean binaryMessages2) {
+        this.deviceName = deviceName2;
+        this.hasLocation = hasLocation2;
+        this.xMm = xMm2;
+        this.yMm = yMm2;
+        this.binaryMessages = binaryMessages2;
+    }
+
+    public byte[] toBytes() {
+        byte[] name = this.deviceName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_LENGTH - HEADER_LENGTH) {
+            throw new IllegalArgumentException("Device name too long: " + name.length + " bytes");
+        }
+        byte[] out = new byte[HEADER_LENGTH + name.length];
+        out[0] = VERSION;
+        out[1] = (byte) ((this.hasLocation ? FLAG_LOCATION : 0) | (this.binaryMessages ? FLAG_BINARY_MESSAGES : 0));
+        putInt(out, 2, this.xMm);
+        putInt(out, 6, this.yMm);
+        out[10] = (byte) name.length;
+        System.arraycopy(name, 0, out, HEADER_LENGTH, name.length);
+        return out;
+    }
+
+    /** @return the decoded info, or null if the bytes are absent or not a discovery info */
+    public static DiscoveryInfo fromBytes(byte[] info) {
+        if (info == null || info.length < HEADER_LENGTH || info[0] != VERSION) {
+            return null;
+        }
+        int nameLength = info[10] & 0xFF;
+        if (HEADER_LENGTH + nameLength > info.length) {
+            return null;
+        }
+        return new DiscoveryInfo(
+                new String(info, HEADER_LENGTH, nameLength, StandardCharsets.UTF_8),
+                (info[1] & FLAG_LOCATION) != 0,
+                getInt(info, 2),
+                getInt(info, 6),
+                (info[1] & FLAG_BINARY_MESSAGES) != 0);
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] in, int offset) {
+        return (in[offset] & 0xFF) << 24 | (in[offset + 1] & 0xFF) << 16 | (in[offset + 2] & 0xFF) << 8 | (in[offset + 3] & 0xFF);
+    }
+}
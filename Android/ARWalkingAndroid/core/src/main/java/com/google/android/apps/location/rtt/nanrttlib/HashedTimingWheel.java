@@ -0,0 +1,162 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.util.Arrays;
+
+/**
+ * One timer per small integer id (e.g. a peer registry id), kept in a hashed timing wheel.
+ *
+ * <p>Time is divided into ticks of {@code tickMillis}; a timer lives in the slot of the first tick
+ * boundary at or after its deadline, in an intrusive doubly linked list held in int arrays. Scheduling, moving and
+ * cancelling a timer are O(1) and never allocate, and {@link #advance(long)} only visits the slots
+ * of the ticks that elapsed. Deadlines further out than one turn of the wheel simply stay in their
+ * slot until their tick comes round. The owner drives the wheel from a single periodic task.
+ *
+ * <p>Not thread safe; use it from one thread.
+ */
+public class HashedTimingWheel {
+    public interface Listener {
+        /** Called once the deadline of {@code id} passed. The timer is already removed and may be rescheduled. */
+        void onExpired(int id, long nowMillis);
+    }
+
+    private static final int NONE = -1;
+
+    private final Listener listener;
+    private final long tickMillis;
+    private final int mask;
+    private final int[] heads;
+    private final int[] next;
+    private final int[] previous;
+    private final long[] deadlineTicks;
+    private final boolean[] scheduled;
+    private long currentTick = -1;
+    private int size;
+
+    /**
+     * @param capacity number of ids, which must be in [0, capacity)
+     * @param slots number of slots, rounded up to a power of two
+     */
+    public HashedTimingWheel(int capacity, int slots, long tickMillis, Listener listener) {
+        int wheelSize = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.listener = listener;
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.heads = new int[wheelSize];
+        this.next = new int[capacity];
+        this.previous = new int[capacity];
+        this.deadlineTicks = new long[capacity];
+        this.scheduled = new boolean[capacity];
+        Arrays.fill(this.heads, NONE);
+    }
+
+    /**
+     * Schedules or moves the timer of {@code id}; a deadline in the past expires on the first
+     * advance into the next tick.
+     */
+    public void schedule(int id, long deadlineMillis) {
+        if (this.scheduled[id]) {
+            unlink(id);
+        }
+        long tick = (deadlineMillis + this.tickMillis - 1) / this.tickMillis;
+        if (this.currentTick >= 0) {
+            tick = Math.max(tick, this.currentTick);
+        }
+        int slot = (int) (tick & this.mask);
+        this.deadlineTicks[id] = tick;
+        this.previous[id] = NONE;
+        this.next[id] = this.heads[slot];
+        if (this.heads[slot] != NONE) {
+            this.previous[this.heads[slot]] = id;
+        }
+        this.heads[slot] = id;
+        this.scheduled[id] = true;
+        this.size++;
+    }
+
+    public void cancel(int id) {
+        if (this.scheduled[id]) {
+            unlink(id);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.heads, NONE);
+        Arrays.fill(this.scheduled, false);
+        this.size = 0;
+    }
+
+    public boolean isScheduled(int id) {
+        return this.scheduled[id];
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public long getTickMillis() {
+        return this.tickMillis;
+    }
+
+    /**
+     * Expires every timer whose deadline, rounded up to a whole tick, is at or before
+     * {@code nowMillis}. Timers never fire early, but may fire up to one tick late: a deadline just
+     * after a tick boundary waits for the next one.
+     *
+     * @return the number of expired timers
+     */
+    public int advance(long nowMillis) {
+        long target = nowMillis / this.tickMillis;
+        if (this.size == 0) {
+            this.currentTick = target + 1;
+            return 0;
+        }
+
+        // After a long stall, or on the first advance, every slot is visited once rather than once
+        // per elapsed tick.
+        long first = this.currentTick >= 0 ? this.currentTick : target - this.mask;
+        long steps = Math.min(target - first + 1, this.heads.length);
+        int expired = 0;
+        for (long step = 0; step < steps; step++) {
+            int slot = (int) ((first + step) & this.mask);
+            // Timers rescheduled from the listener land at or after currentTick, never in a slot
+            // that was already visited.
+            this.currentTick = step == steps - 1 ? target + 1 : first + step + 1;
+            int id = this.heads[slot];
+            while (id != NONE) {
+                int following = this.next[id];
+                if (this.deadlineTicks[id] <= target) {
+                    unlink(id);
+                    expired++;
+                    this.listener.onExpired(id, nowMillis);
+                    if (following != NONE && (!this.scheduled[following] || (this.deadlineTicks[following] & this.mask) != slot)) {
+                        // The listener moved the next timer; start over, visited timers are not due.
+                        following = this.heads[slot];
+                    }
+                }
+                id = following;
+            }
+        }
+        this.currentTick = Math.max(this.currentTick, target + 1);
+        return expired;
+    }
+
+    private void unlink(int id) {
+        int slot = (int) (this.deadlineTicks[id] & this.mask);
+        int before = this.previous[id];
+        int after = this.next[id];
+        if (before != NONE) {
+            this.next[before] = after;
+        } else {
+            this.heads[slot] = after;
+        }
+        if (after != NONE) {
+            this.previous[after] = before;
+        }
+        this.scheduled[id] = false;
+        this.size--;
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+/**
+ * Counts how peers proved they are alive and how many heartbeat pings that saved.
+ */
+public class LivenessStats {
+    private long pingsSent;
+    private long pingsSuppressed;
+    private long rangingCheckIns;
+    private long messageCheckIns;
+
+    public synchronized void onPingSent() {
+        this.pingsSent++;
+    }
+
+    /** A heartbeat was due but the peer had recently been ranged or heard from. */
+    public synchronized void onPingSuppressed() {
+        this.pingsSuppressed++;
+    }
+
+    public synchronized void onRangingCheckIn() {
+        this.rangingCheckIns++;
+    }
+
+    public synchronized void onMessageCheckIn() {
+        this.messageCheckIns++;
+    }
+
+    public synchronized long getPingsSent() {
+        return this.pingsSent;
+    }
+
+    public synchronized long getPingsSuppressed() {
+        return this.pingsSuppressed;
+    }
+
+    public synchronized long getRangingCheckIns() {
+        return this.rangingCheckIns;
+    }
+
+    public synchronized long getMessageCheckIns() {
+        return this.messageCheckIns;
+    }
+
+    public synchronized void reset() {
+        this.pingsSent = 0;
+        this.pingsSuppressed = 0;
+        this.rangingCheckIns = 0;
+        this.messageCheckIns = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(java.util.Locale.US,
+                "pings sent=%d suppressed=%d, check-ins ranging=%d messages=%d",
+                this.pingsSent, this.pingsSuppressed, this.rangingCheckIns, this.messageCheckIns);
+    }
+}
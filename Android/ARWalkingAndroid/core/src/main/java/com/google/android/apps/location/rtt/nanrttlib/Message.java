@@ -0,0 +1,199 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Logical message exchanged between peers over Wi-Fi Aware follow-up frames.
+ *
+ * <p>Wire format (version 1, big endian):
+ * <pre>
+ *   [0]      version marker (0x81)
+ *   [1]      request type
+ *   [2..3]   sequence number
+ *   [4..7]   sender timestamp, milliseconds (wraps)
+ *   [8]      device name length N
+ *   [9..]    device name, UTF-8
+ *   [9+N]    payload length M
+ *   [10+N..] payload, UTF-8
+ * </pre>
+ * The version marker is a UTF-8 continuation byte, so it can never start a legacy
+ * "name|type|message" frame and both formats can be told apart from the first byte.
+ *
+ * <p>Receivers that predate the binary format cannot parse it, so a peer only gets binary
+ * frames once it has shown it reads them: by advertising {@link DiscoveryInfo#FLAG_BINARY_MESSAGES}
+ * or by sending a binary frame itself. Everyone else gets {@link #toLegacyBytes()}.
+ */
+public class Message {
+    public static final int CHAT_MESSAGE = 3;
+    private static final char DELIMITER = '|';
+    public static final int NAME_REQUEST_ACK_MESSAGE = 11;
+    public static final int NAME_REQUEST_MESSAGE = 1;
+    public static final int PING_ACK_MESSAGE = 22;
+    public static final Duration PING_DELAY = Duration.ofSeconds(10);
+    public static final int PING_MESSAGE = 2;
+    public static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    public static final int INVALID_REQUEST_TYPE = -1;
+
+    /** Smallest follow-up message length every Wi-Fi Aware implementation must accept. */
+    public static final int MAX_MESSAGE_LENGTH = 255;
+    public static final byte VERSION = (byte) 0x81;
+    public static final int HEADER_LENGTH = 8;
+    private static final int OFFSET_TYPE = 1;
+    private static final int OFFSET_SEQUENCE = 2;
+    private static final int OFFSET_TIMESTAMP = 4;
+    private static final int OFFSET_NAME = HEADER_LENGTH;
+
+    private static final AtomicInteger nextSequence = new AtomicInteger();
+
+    public final String deviceName;
+    public final String message;
+    public final int requestType;
+    public final int sequence;
+    public final int timestamp;
+
+    private @interface RequestType {
+    }
+
+    public Message(String deviceName2, int requestType2, String message2) {
+        this(deviceName2, requestType2, message2, nextSequence.getAndIncrement() & 0xFFFF, (int) (System.nanoTime() / 1000000));
+    }
+
+    public Message(String deviceName2, int requestType2, String message2, int sequence2, int timestamp2) {
+        this.deviceName = deviceName2;
+        this.requestType = requestType2;
+        this.message = message2;
+        this.sequence = sequence2;
+        this.timestamp = timestamp2;
+    }
+
+    public byte[] toBytes() {
+        byte[] name = this.deviceName.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = this.message == null ? new byte[0] : this.message.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_LENGTH + 1 + name.length + 1 + payload.length;
+        if (name.length > 0xFF || payload.length > 0xFF || length > MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("Message too long: " + length + " bytes");
+        }
+
+        byte[] out = new byte[length];
+        out[0] = VERSION;
+        out[OFFSET_TYPE] = (byte) this.requestType;
+        putShort(out, OFFSET_SEQUENCE, this.sequence);
+        putInt(out, OFFSET_TIMESTAMP, this.timestamp);
+        out[OFFSET_NAME] = (byte) name.length;
+        System.arraycopy(name, 0, out, OFFSET_NAME + 1, name.length);
+        int payloadOffset = OFFSET_NAME + 1 + name.length;
+        out[payloadOffset] = (byte) payload.length;
+        System.arraycopy(payload, 0, out, payloadOffset + 1, payload.length);
+        return out;
+    }
+
+    /** Encodes the message as "name|type|message", which every version of the app can read. */
+    public byte[] toLegacyBytes() {
+        String text = this.deviceName + DELIMITER + this.requestType + DELIMITER + (this.message == null ? "" : this.message);
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static Message fromBytes(byte[] message2) {
+        if (!isBinary(message2)) {
+            return fromLegacyBytes(message2);
+        }
+
+        int nameLength = message2[OFFSET_NAME] & 0xFF;
+        int payloadOffset = OFFSET_NAME + 1 + nameLength;
+        int payloadLength = message2[payloadOffset] & 0xFF;
+        return new Message(
+                new String(message2, OFFSET_NAME + 1, nameLength, StandardCharsets.UTF_8),
+                message2[OFFSET_TYPE] & 0xFF,
+                new String(message2, payloadOffset + 1, payloadLength, StandardCharsets.UTF_8),
+                getShort(message2, OFFSET_SEQUENCE),
+                getInt(message2, OFFSET_TIMESTAMP));
+    }
+
+    /**
+     * Reads the request type straight from the frame, so hot paths such as pings can be
+     * dispatched without decoding the strings.
+     */
+    public static int peekRequestType(byte[] message2) {
+        if (isBinary(message2)) {
+            return message2[OFFSET_TYPE] & 0xFF;
+        }
+
+        int start = indexOf(message2, 0) + 1;
+        int end = indexOf(message2, start);
+        if (start <= 0 || end < 0 || end == start) {
+            return INVALID_REQUEST_TYPE;
+        }
+        int type = 0;
+        for (int i = start; i < end; i++) {
+            int digit = message2[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID_REQUEST_TYPE;
+            }
+            type = type * 10 + digit;
+        }
+        return type;
+    }
+
+    public static int peekSequence(byte[] message2) {
+        return isBinary(message2) ? getShort(message2, OFFSET_SEQUENCE) : 0;
+    }
+
+    public static int peekTimestamp(byte[] message2) {
+        return isBinary(message2) ? getInt(message2, OFFSET_TIMESTAMP) : 0;
+    }
+
+    /** Returns true if the frame is a complete, well-formed version 1 binary message. */
+    public static boolean isBinary(byte[] message2) {
+        if (message2 == null || message2.length < HEADER_LENGTH + 2 || message2[0] != VERSION) {
+            return false;
+        }
+        int payloadOffset = OFFSET_NAME + 1 + (message2[OFFSET_NAME] & 0xFF);
+        return payloadOffset < message2.length && payloadOffset + 1 + (message2[payloadOffset] & 0xFF) <= message2.length;
+    }
+
+    private static Message fromLegacyBytes(byte[] message2) {
+        int first = indexOf(message2, 0);
+        int second = first < 0 ? -1 : indexOf(message2, first + 1);
+        if (second < 0) {
+            return new Message(new String(message2, StandardCharsets.UTF_8), INVALID_REQUEST_TYPE, "", 0, 0);
+        }
+        return new Message(
+                new String(message2, 0, first, StandardCharsets.UTF_8),
+                peekRequestType(message2),
+                new String(message2, second + 1, message2.length - second - 1, StandardCharsets.UTF_8),
+                0,
+                0);
+    }
+
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == DELIMITER) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void putShort(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 8);
+        out[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int getShort(byte[] in, int offset) {
+        return ((in[offset] & 0xFF) << 8) | (in[offset + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] in, int offset) {
+        return ((in[offset] & 0xFF) << 24) | ((in[offset + 1] & 0xFF) << 16) | ((in[offset + 2] & 0xFF) << 8) | (in[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,78 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several encoded messages for one peer packed into a single follow-up frame.
+ *
+ * <p>Wire format:
+ * <pre>
+ *   [0]      batch marker (0x82)
+ *   [1]      message count
+ *   then per message:
+ *   [0]      length L
+ *   [1..L]   the encoded message
+ * </pre>
+ * Like {@link Message#VERSION} the marker is a UTF-8 continuation byte, so a batch can be told
+ * apart from a single binary or legacy message by its first byte.
+ */
+public final class MessageBatch {
+    public static final byte MARKER = (byte) 0x82;
+    public static final int HEADER_LENGTH = 2;
+
+    private MessageBatch() {
+    }
+
+    public static boolean isBatch(byte[] frame) {
+        return frame != null && frame.length >= HEADER_LENGTH && frame[0] == MARKER;
+    }
+
+    /** Bytes a batch of {@code count} messages totalling {@code messagesLength} bytes takes. */
+    public static int packedLength(int count, int messagesLength) {
+        return HEADER_LENGTH + count + messagesLength;
+    }
+
+    public static byte[] pack(List<byte[]> messages) {
+        int length = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            length += messages.get(i).length;
+        }
+        int packedLength = packedLength(messages.size(), length);
+        if (messages.size() > 0xFF || packedLength > Message.MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("Batch too long: " + packedLength + " bytes");
+        }
+
+        byte[] out = new byte[packedLength];
+        out[0] = MARKER;
+        out[1] = (byte) messages.size();
+        int offset = HEADER_LENGTH;
+        for (int i = 0; i < messages.size(); i++) {
+            byte[] message = messages.get(i);
+            out[offset] = (byte) message.length;
+            System.arraycopy(message, 0, out, offset + 1, message.length);
+            offset += 1 + message.length;
+        }
+        return out;
+    }
+
+    /**
+     * Splits a batch into its messages. A truncated batch yields the messages that are complete.
+     */
+    public static List<byte[]> unpack(byte[] frame) {
+        int count = frame[1] & 0xFF;
+        List<byte[]> messages = new ArrayList<>(count);
+        int offset = HEADER_LENGTH;
+        for (int i = 0; i < count && offset < frame.length; i++) {
+            int length = frame[offset] & 0xFF;
+            if (offset + 1 + length > frame.length) {
+                break;
+            }
+            byte[] message = new byte[length];
+            System.arraycopy(frame, offset + 1, message, 0, length);
+            messages.add(message);
+            offset += 1 + length;
+        }
+        return messages;
+    }
+}
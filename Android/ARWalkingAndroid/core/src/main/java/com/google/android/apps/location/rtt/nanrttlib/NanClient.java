@@ -0,0 +1,388 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Publish and subscribe sessions per service name on top of a {@link NanTransport}, with batch
+ * unpacking of received messages and, if enabled, recovery of the sessions after Wi-Fi Aware
+ * flaps. {@code P} is the transport's peer handle type.
+ */
+public class NanClient<P> {
+    public static final int PUBLISH_MODE = 0;
+    public static final int SUBSCRIBE_MODE = 1;
+    private static final Pattern VALID_SERVICE_PATTERN = Pattern.compile("^[A-Za-z0-9.-]*$");
+    public static final long INITIAL_RECOVERY_BACKOFF_MILLIS = 500;
+    public static final long MAX_RECOVERY_BACKOFF_MILLIS = 30000;
+
+    private final NanTransport<P> transport;
+    private final NanClientCallback<P> nanClientCallback;
+    // Started sessions by service.
+    private final HashMap<String, Integer> activePublishSessions = new HashMap<>();
+    private final HashMap<String, Integer> activeSubscribeSessions = new HashMap<>();
+    private boolean attached;
+
+    // Saved configurations and their callbacks, so sessions can be rebuilt after a flap.
+    private final HashMap<String, NanPublisherCallback<P>> publishCallbacks = new HashMap<>();
+    private final HashMap<String, NanSubscriberCallback<P>> subscribeCallbacks = new HashMap<>();
+    private final HashMap<String, Boolean> publishRanging = new HashMap<>();
+    // Service specific info advertised with each published service, kept across config updates.
+    private final HashMap<String, byte[]> publishServiceInfo = new HashMap<>();
+    private boolean recoveryEnabled;
+    private boolean suspended;
+    private boolean reattaching;
+    private long recoveryBackoffMillis = INITIAL_RECOVERY_BACKOFF_MILLIS;
+    private final Runnable recoveryRunnable = this::recoverSessions;
+
+    public NanClient(NanTransport<P> transport2, NanClientCallback<P> callback) {
+        this.transport = transport2;
+        this.nanClientCallback = callback;
+        transport2.setAvailabilityListener(this::onAvailabilityChanged);
+    }
+
+    /**
+     * Publishes {@code service} advertising {@code serviceSpecificInfo} (e.g. an encoded
+     * {@link DiscoveryInfo}) to subscribers, which receive it on discovery. The info is kept when
+     * ranging is enabled or disabled for the service.
+     */
+    public void publishService(String service, NanPublisherCallback<P> callback, byte[] serviceSpecificInfo) {
+        if (!isValidServiceName(service)) {
+            callback.onInvalidService();
+            return;
+        }
+        synchronized (this) {
+            if (serviceSpecificInfo != null) {
+                this.publishServiceInfo.put(service, serviceSpecificInfo);
+            } else {
+                this.publishServiceInfo.remove(service);
+            }
+            this.publishRanging.put(service, false);
+            this.publishCallbacks.put(service, callback);
+        }
+        attachSession(PUBLISH_MODE, service, callback);
+    }
+
+    public void subscribeService(String service, NanSubscriberCallback<P> callback) {
+        if (!isValidServiceName(service)) {
+            callback.onInvalidService();
+            return;
+        }
+        synchronized (this) {
+            this.subscribeCallbacks.put(service, callback);
+        }
+        attachSession(SUBSCRIBE_MODE, service, callback);
+    }
+
+    private void attachSession(final int mode, final String service, final NanClientCallback<P> callback) {
+        if (!this.transport.isAvailable()) {
+            callback.onNanUnavailable();
+        } else if (!this.attached) {
+            this.transport.attach(new NanTransport.AttachCallback() {
+                public void onAttached() {
+                    NanClient.this.attached = true;
+                    buildSession(mode, service, callback);
+                }
+
+                public void onAttachFailed() {
+                    callback.onAttachedFailed();
+                }
+            });
+        } else {
+            buildSession(mode, service, callback);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void buildSession(int mode, String service, NanClientCallback<P> callback) {
+        switch (mode) {
+            case PUBLISH_MODE:
+                buildPublishSession(service, (NanPublisherCallback<P>) callback);
+                return;
+            case SUBSCRIBE_MODE:
+                buildSubscribeSession(service, (NanSubscriberCallback<P>) callback);
+                return;
+            default:
+                return;
+        }
+    }
+
+    private void buildPublishSession(final String service, final NanPublisherCallback<P> callback) {
+        byte[] info;
+        boolean rangingEnabled;
+        synchronized (this) {
+            info = this.publishServiceInfo.get(service);
+            rangingEnabled = isRangingEnabled(service);
+        }
+        this.transport.publish(service, info, rangingEnabled, new NanTransport.SessionCallback<P>() {
+            public void onSessionStarted(int session) {
+                synchronized (NanClient.this) {
+                    NanClient.this.activePublishSessions.putIfAbsent(service, session);
+                }
+                callback.onPublishStarted(service);
+            }
+
+            public void onServiceDiscovered(int session, P peer, byte[] serviceSpecificInfo, List<byte[]> matchFilter) {
+            }
+
+            public void onMessageReceived(int session, P peer, byte[] message) {
+                deliverMessage(callback, PUBLISH_MODE, service, peer, message);
+            }
+
+            public void onMessageSendSucceeded(int session, int messageId) {
+                callback.onMessageSendSucceeded(PUBLISH_MODE, service, messageId);
+            }
+
+            public void onMessageSendFailed(int session, int messageId) {
+                callback.onMessageSendFailed(PUBLISH_MODE, service, messageId);
+            }
+
+            public void onSessionTerminated(int session) {
+                synchronized (NanClient.this) {
+                    NanClient.this.activePublishSessions.remove(service);
+                    if (NanClient.this.suspended) {
+                        return;
+                    }
+                    NanClient.this.publishRanging.remove(service);
+                    NanClient.this.publishCallbacks.remove(service);
+                }
+                callback.onSessionTerminated(PUBLISH_MODE, service);
+            }
+        });
+    }
+
+    private void buildSubscribeSession(final String service, final NanSubscriberCallback<P> callback) {
+        this.transport.subscribe(service, new NanTransport.SessionCallback<P>() {
+            public void onSessionStarted(int session) {
+                synchronized (NanClient.this) {
+                    NanClient.this.activeSubscribeSessions.putIfAbsent(service, session);
+                }
+                callback.onSubscribeStarted(service);
+            }
+
+            public void onServiceDiscovered(int session, P peer, byte[] serviceSpecificInfo, List<byte[]> matchFilter) {
+                callback.onServiceDiscovered(service, peer, serviceSpecificInfo, matchFilter);
+            }
+
+            public void onMessageReceived(int session, P peer, byte[] message) {
+                deliverMessage(callback, SUBSCRIBE_MODE, service, peer, message);
+            }
+
+            public void onMessageSendSucceeded(int session, int messageId) {
+                callback.onMessageSendSucceeded(SUBSCRIBE_MODE, service, messageId);
+            }
+
+            public void onMessageSendFailed(int session, int messageId) {
+                callback.onMessageSendFailed(SUBSCRIBE_MODE, service, messageId);
+            }
+
+            public void onSessionTerminated(int session) {
+                synchronized (NanClient.this) {
+                    NanClient.this.activeSubscribeSessions.remove(service);
+                    if (NanClient.this.suspended) {
+                        return;
+                    }
+                    NanClient.this.subscribeCallbacks.remove(service);
+                }
+                callback.onSessionTerminated(SUBSCRIBE_MODE, service);
+            }
+        });
+    }
+
+    /** Hands the messages of a batch to the callback one by one, as if each had its own frame. */
+    static <P> void deliverMessage(NanClientCallback<P> callback, int mode, String service, P peer, byte[] message) {
+        if (!MessageBatch.isBatch(message)) {
+            callback.onMessagedReceived(mode, service, peer, message);
+            return;
+        }
+        List<byte[]> messages = MessageBatch.unpack(message);
+        for (int i = 0; i < messages.size(); i++) {
+            callback.onMessagedReceived(mode, service, peer, messages.get(i));
+        }
+    }
+
+    public void sendMessage(int mode, String service, P peer, int messageId, byte[] message) {
+        Integer session;
+        synchronized (this) {
+            session = mode == PUBLISH_MODE ? this.activePublishSessions.get(service) : this.activeSubscribeSessions.get(service);
+        }
+        if (session != null) {
+            this.transport.sendMessage(session, peer, messageId, message);
+        }
+    }
+
+    public void enableRangingForPublishedService(String service, NanPublisherCallback<P> callback) {
+        updatePublish(service, true);
+        callback.onRangingEnabled(service);
+    }
+
+    public void disableRangingForPublishedService(String service, NanPublisherCallback<P> callback) {
+        updatePublish(service, false);
+        callback.onRangingDisabled(service);
+    }
+
+    private synchronized void updatePublish(String service, boolean rangingEnabled) {
+        if (this.publishRanging.containsKey(service)) {
+            // Sessions rebuilt after a flap use the latest config.
+            this.publishRanging.put(service, rangingEnabled);
+        }
+        Integer session = this.activePublishSessions.get(service);
+        if (session != null) {
+            this.transport.updatePublish(session, service, this.publishServiceInfo.get(service), rangingEnabled);
+        }
+    }
+
+    public synchronized boolean isRangingEnabled(String service) {
+        return Boolean.TRUE.equals(this.publishRanging.get(service));
+    }
+
+    public synchronized ArrayList<String> getPublishedServices() {
+        return new ArrayList<>(this.activePublishSessions.keySet());
+    }
+
+    public synchronized ArrayList<String> getSubscribedServices() {
+        return new ArrayList<>(this.activeSubscribeSessions.keySet());
+    }
+
+    public void stopSession(int mode, String service, NanClientCallback<P> callback) {
+        synchronized (this) {
+            switch (mode) {
+                case PUBLISH_MODE:
+                    this.publishRanging.remove(service);
+                    this.publishCallbacks.remove(service);
+                    this.publishServiceInfo.remove(service);
+                    if (this.activePublishSessions.containsKey(service)) {
+                        this.transport.closeSession(this.activePublishSessions.remove(service));
+                        callback.onSessionTerminated(mode, service);
+                    }
+                    break;
+                case SUBSCRIBE_MODE:
+                    this.subscribeCallbacks.remove(service);
+                    if (this.activeSubscribeSessions.containsKey(service)) {
+                        this.transport.closeSession(this.activeSubscribeSessions.remove(service));
+                        callback.onSessionTerminated(mode, service);
+                    }
+                    break;
+            }
+            if (this.activePublishSessions.isEmpty() && this.activeSubscribeSessions.isEmpty()) {
+                closeWifiAwareSession();
+            }
+        }
+    }
+
+    public void closeAllDiscoverySessions(int mode) {
+        synchronized (this) {
+            HashMap<String, Integer> sessions = mode == PUBLISH_MODE ? this.activePublishSessions : this.activeSubscribeSessions;
+            for (String service : sessions.keySet()) {
+                this.transport.closeSession(sessions.get(service));
+                this.nanClientCallback.onSessionTerminated(mode, service);
+            }
+            sessions.clear();
+            if (this.activePublishSessions.isEmpty() && this.activeSubscribeSessions.isEmpty()) {
+                closeWifiAwareSession();
+            }
+        }
+    }
+
+    public void closeAllSessions() {
+        closeAllDiscoverySessions(PUBLISH_MODE);
+        closeAllDiscoverySessions(SUBSCRIBE_MODE);
+    }
+
+    public static boolean isValidServiceName(String service) {
+        return VALID_SERVICE_PATTERN.matcher(service).matches();
+    }
+
+    private void onAvailabilityChanged(boolean available) {
+        if (available) {
+            this.nanClientCallback.onNanAvailable();
+            if (this.suspended) {
+                this.recoveryBackoffMillis = INITIAL_RECOVERY_BACKOFF_MILLIS;
+                this.transport.removeCallbacks(this.recoveryRunnable);
+                recoverSessions();
+            }
+            return;
+        }
+        if (this.recoveryEnabled && hasSavedSessions()) {
+            suspendSessions();
+            this.nanClientCallback.onNanUnavailable();
+            this.nanClientCallback.onSessionsSuspended();
+            return;
+        }
+        closeAllSessions();
+        this.nanClientCallback.onNanUnavailable();
+    }
+
+    /**
+     * Keeps the publish and subscribe configurations and their callbacks when Wi-Fi Aware goes
+     * away, instead of terminating the sessions, and rebuilds them with backoff once it is back.
+     */
+    public void setRecoveryEnabled(boolean recoveryEnabled) {
+        this.recoveryEnabled = recoveryEnabled;
+    }
+
+    public synchronized boolean isSuspended() {
+        return this.suspended;
+    }
+
+    private synchronized boolean hasSavedSessions() {
+        return !this.publishCallbacks.isEmpty() || !this.subscribeCallbacks.isEmpty();
+    }
+
+    private synchronized void suspendSessions() {
+        this.suspended = true;
+        for (Integer session : this.activePublishSessions.values()) {
+            this.transport.closeSession(session);
+        }
+        for (Integer session : this.activeSubscribeSessions.values()) {
+            this.transport.closeSession(session);
+        }
+        this.activePublishSessions.clear();
+        this.activeSubscribeSessions.clear();
+        closeWifiAwareSession();
+    }
+
+    private void recoverSessions() {
+        if (!this.suspended || this.reattaching || !this.transport.isAvailable()) {
+            // Either an attach is pending or the next availability change starts over.
+            return;
+        }
+        this.reattaching = true;
+        this.transport.attach(new NanTransport.AttachCallback() {
+            public void onAttached() {
+                NanClient.this.reattaching = false;
+                ArrayList<String> publishServices;
+                ArrayList<String> subscribeServices;
+                synchronized (NanClient.this) {
+                    NanClient.this.attached = true;
+                    NanClient.this.suspended = false;
+                    NanClient.this.recoveryBackoffMillis = INITIAL_RECOVERY_BACKOFF_MILLIS;
+                    publishServices = new ArrayList<>(NanClient.this.publishCallbacks.keySet());
+                    subscribeServices = new ArrayList<>(NanClient.this.subscribeCallbacks.keySet());
+                }
+                for (String service : publishServices) {
+                    buildPublishSession(service, NanClient.this.publishCallbacks.get(service));
+                }
+                for (String service : subscribeServices) {
+                    buildSubscribeSession(service, NanClient.this.subscribeCallbacks.get(service));
+                }
+                NanClient.this.nanClientCallback.onSessionsRecovered();
+            }
+
+            public void onAttachFailed() {
+                NanClient.this.reattaching = false;
+                long delay = NanClient.this.recoveryBackoffMillis;
+                NanClient.this.recoveryBackoffMillis = Math.min(delay * 2, MAX_RECOVERY_BACKOFF_MILLIS);
+                NanClient.this.transport.postDelayed(NanClient.this.recoveryRunnable, delay);
+            }
+        });
+    }
+
+    private void closeWifiAwareSession() {
+        if (this.attached) {
+            this.transport.detach();
+            this.attached = false;
+        }
+    }
+}
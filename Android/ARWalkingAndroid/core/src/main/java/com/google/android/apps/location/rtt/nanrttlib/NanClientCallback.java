@@ -0,0 +1,27 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+public interface NanClientCallback<P> {
+    void onAttachedFailed();
+
+    void onInvalidService();
+
+    void onMessageSendFailed(int i, String str, int i2);
+
+    void onMessageSendSucceeded(int i, String str, int i2);
+
+    void onMessagedReceived(int i, String str, P peer, byte[] bArr);
+
+    void onNanAvailable();
+
+    void onNanUnavailable();
+
+    void onSessionTerminated(int i, String str);
+
+    /** Wi-Fi Aware went away while recovery is enabled; sessions will be rebuilt once it returns. */
+    default void onSessionsSuspended() {
+    }
+
+    /** All saved sessions were rebuilt after a suspension; peers have new handles. */
+    default void onSessionsRecovered() {
+    }
+}
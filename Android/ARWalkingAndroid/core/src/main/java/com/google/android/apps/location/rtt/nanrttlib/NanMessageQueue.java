@@ -0,0 +1,445 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Outbound queue for NAN follow-up messages, one FIFO per peer and service.
+ *
+ * <p>Every send gets its own message id, so the framework's success and failure callbacks can be
+ * matched to it. At most {@code maxInFlight} sends are outstanding in total and at most one per
+ * peer, which keeps the messages to one peer in order. Peers are served round robin. A failed
+ * send is retried with exponential backoff; a message that is still undelivered after
+ * {@code maxAgeMillis}, or has used up its attempts, is dropped and reported, so delivery latency
+ * stays bounded under load. A queued message replaces an older queued message of the same type
+ * to the same peer, e.g. only the newest ping is kept.
+ *
+ * <p>Messages to one peer that are queued within {@code batchDelayMillis} of each other go out
+ * together as a {@link MessageBatch} in one frame, as long as they fit in {@code maxFrameLength}.
+ * A frame is sent, acknowledged and retried as a unit. Only binary {@link Message}s are batched;
+ * a legacy frame always goes out on its own, since a receiver that needs it cannot read a batch.
+ *
+ * <p>The queue does no I/O and keeps no clock of its own: the owner passes the current time,
+ * forwards the send callbacks and calls {@link #poll(long)} again at the returned wake-up time.
+ * Not thread safe; use it from one thread.
+ */
+public class NanMessageQueue<P> {
+    public interface Sender<P> {
+        void send(int mode, String service, P peer, int messageId, byte[] message);
+    }
+
+    public interface Listener<P> {
+        void onMessageDropped(int mode, String service, P peer, int type, int attempts);
+    }
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final int DEFAULT_MAX_QUEUED_PER_PEER = 8;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 250;
+    public static final long DEFAULT_SEND_TIMEOUT_MILLIS = 5000;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 10000;
+    public static final long DEFAULT_BATCH_DELAY_MILLIS = 20;
+
+    private static final class Key {
+        final String service;
+        final Object peer;
+
+        Key(String service, Object peer) {
+            this.service = service;
+            this.peer = peer;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return this.service.equals(key.service) && this.peer.equals(key.peer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.service, this.peer);
+        }
+    }
+
+    private static final class Outgoing<P> {
+        final PeerQueue<P> queue;
+        final int type;
+        byte[] message;
+        final long enqueuedMillis;
+        long readyMillis;
+        int attempts;
+
+        Outgoing(PeerQueue<P> queue, int type, byte[] message, long nowMillis) {
+            this.queue = queue;
+            this.type = type;
+            this.message = message;
+            this.enqueuedMillis = nowMillis;
+            this.readyMillis = nowMillis;
+        }
+    }
+
+    private static final class PeerQueue<P> {
+        final Key key;
+        final int mode;
+        final String service;
+        final P peer;
+        final ArrayDeque<Outgoing<P>> messages = new ArrayDeque<>();
+        // Messages of the frame in flight, empty when none is.
+        final ArrayList<Outgoing<P>> frame = new ArrayList<>();
+        int frameId;
+        long frameSentMillis;
+
+        PeerQueue(Key key, int mode, String service, P peer) {
+            this.key = key;
+            this.mode = mode;
+            this.service = service;
+            this.peer = peer;
+        }
+    }
+
+    private final Sender<P> sender;
+    private Listener<P> listener;
+    private final HashMap<Key, PeerQueue<P>> queues = new HashMap<>();
+    private final ArrayList<PeerQueue<P>> order = new ArrayList<>();
+    private final ArrayList<PeerQueue<P>> inFlight = new ArrayList<>();
+    private final ArrayList<byte[]> packing = new ArrayList<>();
+    private int nextPeer;
+    private int nextMessageId = 1;
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private int maxQueuedPerPeer = DEFAULT_MAX_QUEUED_PER_PEER;
+    private long baseBackoffMillis = DEFAULT_BASE_BACKOFF_MILLIS;
+    private long sendTimeoutMillis = DEFAULT_SEND_TIMEOUT_MILLIS;
+    private long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private long batchDelayMillis = DEFAULT_BATCH_DELAY_MILLIS;
+    private int maxFrameLength = Message.MAX_MESSAGE_LENGTH;
+
+    private long sent;
+    private long batched;
+    private long delivered;
+    private long retried;
+    private long coalesced;
+    private long dropped;
+
+    public NanMessageQueue(Sender<P> sender) {
+        this.sender = sender;
+    }
+
+    public void setListener(Listener<P> listener) {
+        this.listener = listener;
+    }
+
+    /** Sends the firmware accepts at once; two is a safe value across devices. */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void setRetryPolicy(int maxAttempts, long baseBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    /** A send with no callback after this long counts as failed. */
+    public void setSendTimeoutMillis(long sendTimeoutMillis) {
+        this.sendTimeoutMillis = sendTimeoutMillis;
+    }
+
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public void setMaxQueuedPerPeer(int maxQueuedPerPeer) {
+        this.maxQueuedPerPeer = maxQueuedPerPeer;
+    }
+
+    /**
+     * Holds a new message up to {@code batchDelayMillis} for others to the same peer to join it in
+     * a frame of at most {@code maxFrameLength} bytes, no more than
+     * {@link Message#MAX_MESSAGE_LENGTH}. A frame length of 0 turns batching off.
+     */
+    public void setBatching(int maxFrameLength, long batchDelayMillis) {
+        if (maxFrameLength < 0 || maxFrameLength > Message.MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("Frame length out of range: " + maxFrameLength + " bytes");
+        }
+        this.maxFrameLength = maxFrameLength;
+        this.batchDelayMillis = batchDelayMillis;
+    }
+
+    /**
+     * Queues a message; call {@link #poll(long)} afterwards to send it.
+     */
+    public void enqueue(int mode, String service, P peer, int type, byte[] message, long nowMillis) {
+        Key key = new Key(service, peer);
+        PeerQueue<P> queue = this.queues.get(key);
+        if (queue == null) {
+            queue = new PeerQueue<>(key, mode, service, peer);
+            this.queues.put(key, queue);
+            this.order.add(queue);
+        }
+
+        for (Outgoing<P> queued : queue.messages) {
+            if (queued.type == type) {
+                // Keep the queue position and age of the older message, send the newer content.
+                queued.message = message;
+                this.coalesced++;
+                return;
+            }
+        }
+
+        if (queue.messages.size() >= this.maxQueuedPerPeer) {
+            drop(queue.messages.pollFirst());
+        }
+        Outgoing<P> outgoing = new Outgoing<>(queue, type, message, nowMillis);
+        if (this.maxFrameLength > 0) {
+            outgoing.readyMillis = nowMillis + this.batchDelayMillis;
+        }
+        queue.messages.addLast(outgoing);
+    }
+
+    /**
+     * Drops expired messages, times out lost sends and sends what the in-flight window allows.
+     *
+     * @return the time at which to poll again, or {@link Long#MAX_VALUE} if nothing is pending
+     */
+    public long poll(long nowMillis) {
+        for (int i = this.inFlight.size() - 1; i >= 0; i--) {
+            if (nowMillis - this.inFlight.get(i).frameSentMillis >= this.sendTimeoutMillis) {
+                fail(i, nowMillis);
+            }
+        }
+
+        int peers = this.order.size();
+        for (int i = 0; i < peers; i++) {
+            expire(this.order.get(i), nowMillis);
+        }
+
+        // Round robin over the peers, starting after the one served last.
+        int start = this.nextPeer;
+        for (int n = 0; n < peers && this.inFlight.size() < this.maxInFlight; n++) {
+            int index = (start + n) % peers;
+            PeerQueue<P> queue = this.order.get(index);
+            Outgoing<P> head = queue.messages.peekFirst();
+            if (!queue.frame.isEmpty() || head == null || head.readyMillis > nowMillis) {
+                continue;
+            }
+            send(queue, nowMillis);
+            this.nextPeer = index + 1;
+        }
+
+        // Forget peers with nothing left to send; a later message simply creates the queue again.
+        for (int i = peers - 1; i >= 0; i--) {
+            PeerQueue<P> queue = this.order.get(i);
+            if (queue.frame.isEmpty() && queue.messages.isEmpty()) {
+                this.order.remove(i);
+                this.queues.remove(queue.key);
+                if (i < this.nextPeer) {
+                    this.nextPeer--;
+                }
+            }
+        }
+        peers = this.order.size();
+
+        long wakeup = Long.MAX_VALUE;
+        for (int i = 0; i < this.inFlight.size(); i++) {
+            wakeup = Math.min(wakeup, this.inFlight.get(i).frameSentMillis + this.sendTimeoutMillis);
+        }
+        for (int i = 0; i < peers; i++) {
+            PeerQueue<P> queue = this.order.get(i);
+            Outgoing<P> head = queue.messages.peekFirst();
+            if (head != null) {
+                wakeup = Math.min(wakeup, head.enqueuedMillis + this.maxAgeMillis);
+                if (queue.frame.isEmpty() && this.inFlight.size() < this.maxInFlight) {
+                    wakeup = Math.min(wakeup, head.readyMillis);
+                }
+            }
+        }
+        return Math.max(wakeup, nowMillis);
+    }
+
+    /** @return false if the id is not an outstanding send of this queue */
+    public boolean onSendSucceeded(int messageId) {
+        int index = findInFlight(messageId);
+        if (index < 0) {
+            return false;
+        }
+        PeerQueue<P> queue = this.inFlight.remove(index);
+        this.delivered += queue.frame.size();
+        queue.frame.clear();
+        return true;
+    }
+
+    /** @return false if the id is not an outstanding send of this queue */
+    public boolean onSendFailed(int messageId, long nowMillis) {
+        int index = findInFlight(messageId);
+        if (index < 0) {
+            return false;
+        }
+        fail(index, nowMillis);
+        return true;
+    }
+
+    /** Forgets everything queued for the peer, e.g. once it timed out. */
+    public void removePeer(P peer) {
+        Iterator<PeerQueue<P>> iterator = this.order.iterator();
+        while (iterator.hasNext()) {
+            PeerQueue<P> queue = iterator.next();
+            if (queue.peer.equals(peer)) {
+                iterator.remove();
+                this.queues.remove(queue.key);
+                this.inFlight.remove(queue);
+            }
+        }
+    }
+
+    public void clear() {
+        this.queues.clear();
+        this.order.clear();
+        this.inFlight.clear();
+        this.nextPeer = 0;
+    }
+
+    public int getQueuedCount() {
+        int count = 0;
+        for (int i = 0; i < this.order.size(); i++) {
+            count += this.order.get(i).messages.size();
+        }
+        return count;
+    }
+
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /** Frames sent, including retries. */
+    public long getSent() {
+        return this.sent;
+    }
+
+    /** Messages that shared a frame with at least one other message. */
+    public long getBatched() {
+        return this.batched;
+    }
+
+    public long getDelivered() {
+        return this.delivered;
+    }
+
+    public long getRetried() {
+        return this.retried;
+    }
+
+    public long getCoalesced() {
+        return this.coalesced;
+    }
+
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US,
+                "queued=%d inFlight=%d frames=%d batched=%d delivered=%d retried=%d coalesced=%d dropped=%d",
+                getQueuedCount(), this.inFlight.size(), this.sent, this.batched, this.delivered, this.retried, this.coalesced, this.dropped);
+    }
+
+    private void send(PeerQueue<P> queue, long nowMillis) {
+        // The head is due; the messages behind it ride along while they fit.
+        Outgoing<P> head = queue.messages.pollFirst();
+        queue.frame.add(head);
+        int length = head.message.length;
+        while (!queue.messages.isEmpty() && Message.isBinary(head.message)) {
+            Outgoing<P> next = queue.messages.peekFirst();
+            int packedLength = MessageBatch.packedLength(queue.frame.size() + 1, length + next.message.length);
+            if (packedLength > this.maxFrameLength || queue.frame.size() == 0xFF || !Message.isBinary(next.message)) {
+                break;
+            }
+            queue.frame.add(queue.messages.pollFirst());
+            length += next.message.length;
+        }
+
+        byte[] frame;
+        if (queue.frame.size() == 1) {
+            frame = head.message;
+        } else {
+            for (int i = 0; i < queue.frame.size(); i++) {
+                this.packing.add(queue.frame.get(i).message);
+            }
+            try {
+                frame = MessageBatch.pack(this.packing);
+            } finally {
+                this.packing.clear();
+            }
+            this.batched += queue.frame.size();
+        }
+
+        for (int i = 0; i < queue.frame.size(); i++) {
+            queue.frame.get(i).attempts++;
+        }
+        queue.frameId = this.nextMessageId;
+        this.nextMessageId = this.nextMessageId == Integer.MAX_VALUE ? 1 : this.nextMessageId + 1;
+        queue.frameSentMillis = nowMillis;
+        this.inFlight.add(queue);
+        this.sent++;
+        this.sender.send(queue.mode, queue.service, queue.peer, queue.frameId, frame);
+    }
+
+    private void fail(int index, long nowMillis) {
+        PeerQueue<P> queue = this.inFlight.remove(index);
+        // Put the messages back in reverse so they keep their order at the front of the queue.
+        for (int i = queue.frame.size() - 1; i >= 0; i--) {
+            retry(queue, queue.frame.get(i), nowMillis);
+        }
+        queue.frame.clear();
+    }
+
+    private void retry(PeerQueue<P> queue, Outgoing<P> outgoing, long nowMillis) {
+        if (outgoing.attempts >= this.maxAttempts || nowMillis - outgoing.enqueuedMillis >= this.maxAgeMillis) {
+            drop(outgoing);
+            return;
+        }
+
+        // A newer message of the same type queued meanwhile supersedes the retry.
+        for (Outgoing<P> queued : queue.messages) {
+            if (queued.type == outgoing.type) {
+                this.coalesced++;
+                return;
+            }
+        }
+        outgoing.readyMillis = nowMillis + (this.baseBackoffMillis << (outgoing.attempts - 1));
+        queue.messages.addFirst(outgoing);
+        this.retried++;
+    }
+
+    private void expire(PeerQueue<P> queue, long nowMillis) {
+        Outgoing<P> head = queue.messages.peekFirst();
+        while (head != null && nowMillis - head.enqueuedMillis >= this.maxAgeMillis) {
+            drop(queue.messages.pollFirst());
+            head = queue.messages.peekFirst();
+        }
+    }
+
+    private void drop(Outgoing<P> outgoing) {
+        this.dropped++;
+        if (this.listener != null) {
+            PeerQueue<P> queue = outgoing.queue;
+            this.listener.onMessageDropped(queue.mode, queue.service, queue.peer, outgoing.type, outgoing.attempts);
+        }
+    }
+
+    private int findInFlight(int messageId) {
+        for (int i = 0; i < this.inFlight.size(); i++) {
+            if (this.inFlight.get(i).frameId == messageId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
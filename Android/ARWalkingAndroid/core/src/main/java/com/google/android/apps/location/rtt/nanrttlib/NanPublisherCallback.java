@@ -1,6 +1,6 @@
 package com.google.android.apps.location.rtt.nanrttlib;
 
-public interface NanPublisherCallback extends NanClientCallback {
+public interface NanPublisherCallback<P> extends NanClientCallback<P> {
     void onPublishStarted(String str);
 
     void onRangingDisabled(String str);
@@ -0,0 +1,9 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.util.List;
+
+public interface NanSubscriberCallback<P> extends NanClientCallback<P> {
+    void onServiceDiscovered(String str, P peer, byte[] bArr, List<byte[]> list);
+
+    void onSubscribeStarted(String str);
+}
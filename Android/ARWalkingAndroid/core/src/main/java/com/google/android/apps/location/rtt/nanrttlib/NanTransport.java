@@ -0,0 +1,65 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.util.List;
+
+/**
+ * The Wi-Fi Aware operations {@link NanClient} is built on: attaching, publish and subscribe
+ * sessions, follow-up messages and a task queue for retries. The app implements it on
+ * {@code WifiAwareManager}; the simulator implements it on an in-process network so clients can be
+ * load tested without hardware.
+ *
+ * <p>All callbacks and posted tasks run on one thread, the transport's. Sessions are identified by
+ * the id {@link #publish} or {@link #subscribe} returns; a closed session reports nothing further.
+ */
+public interface NanTransport<P> {
+    interface AttachCallback {
+        void onAttached();
+
+        void onAttachFailed();
+    }
+
+    interface AvailabilityListener {
+        void onAvailabilityChanged(boolean available);
+    }
+
+    /** Events of one publish or subscribe session. */
+    interface SessionCallback<P> {
+        void onSessionStarted(int session);
+
+        void onServiceDiscovered(int session, P peer, byte[] serviceSpecificInfo, List<byte[]> matchFilter);
+
+        void onMessageReceived(int session, P peer, byte[] message);
+
+        void onMessageSendSucceeded(int session, int messageId);
+
+        void onMessageSendFailed(int session, int messageId);
+
+        /** The session ended without being closed, e.g. by the framework. */
+        void onSessionTerminated(int session);
+    }
+
+    boolean isAvailable();
+
+    void setAvailabilityListener(AvailabilityListener listener);
+
+    /** Attaches to Wi-Fi Aware; sessions can be started once {@code onAttached} is called. */
+    void attach(AttachCallback callback);
+
+    /** Closes the attach session; its discovery sessions go with it. */
+    void detach();
+
+    /** @return the id of the new session, which reports {@code onSessionStarted} once it runs */
+    int publish(String service, byte[] serviceSpecificInfo, boolean rangingEnabled, SessionCallback<P> callback);
+
+    int subscribe(String service, SessionCallback<P> callback);
+
+    void updatePublish(int session, String service, byte[] serviceSpecificInfo, boolean rangingEnabled);
+
+    void sendMessage(int session, P peer, int messageId, byte[] message);
+
+    void closeSession(int session);
+
+    void postDelayed(Runnable task, long delayMillis);
+
+    void removeCallbacks(Runnable task);
+}
@@ -0,0 +1,108 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+/**
+ * Achieved cadence of a ranging loop: rate and jitter of the intervals between round starts,
+ * round latency, and how many rounds were skipped, overrun or timed out.
+ */
+public class RangingRateStats {
+    private long lastStartMillis = -1;
+    private long intervals;
+    private double intervalMean;
+    private double intervalM2;
+    private long rounds;
+    private double latencyMean;
+    private long maxLatencyMillis;
+    private long missedSlots;
+    private long overlapsPrevented;
+    private long timeouts;
+
+    public synchronized void onRoundStarted(long nowMillis) {
+        if (this.lastStartMillis >= 0) {
+            double interval = nowMillis - this.lastStartMillis;
+            this.intervals++;
+            double delta = interval - this.intervalMean;
+            this.intervalMean += delta / this.intervals;
+            this.intervalM2 += delta * (interval - this.intervalMean);
+        }
+        this.lastStartMillis = nowMillis;
+    }
+
+    public synchronized void onRoundFinished(long latencyMillis) {
+        this.rounds++;
+        this.latencyMean += (latencyMillis - this.latencyMean) / this.rounds;
+        this.maxLatencyMillis = Math.max(this.maxLatencyMillis, latencyMillis);
+    }
+
+    public synchronized void onMissedSlots(long slots) {
+        this.missedSlots += slots;
+    }
+
+    public synchronized void onOverlapPrevented() {
+        this.overlapsPrevented++;
+    }
+
+    public synchronized void onTimeout() {
+        this.timeouts++;
+    }
+
+    /** Rounds started per second, averaged since the last reset. */
+    public synchronized double getAchievedRateHz() {
+        return this.intervalMean > 0 ? 1000.0 / this.intervalMean : 0.0;
+    }
+
+    public synchronized double getMeanIntervalMillis() {
+        return this.intervalMean;
+    }
+
+    /** Standard deviation of the interval between round starts. */
+    public synchronized double getJitterMillis() {
+        return this.intervals > 1 ? Math.sqrt(this.intervalM2 / (this.intervals - 1)) : 0.0;
+    }
+
+    public synchronized double getMeanLatencyMillis() {
+        return this.latencyMean;
+    }
+
+    public synchronized long getMaxLatencyMillis() {
+        return this.maxLatencyMillis;
+    }
+
+    public synchronized long getRounds() {
+        return this.rounds;
+    }
+
+    /** Fixed-rate slots that passed while a round was still in flight. */
+    public synchronized long getMissedSlots() {
+        return this.missedSlots;
+    }
+
+    /** Attempts to start a round while one was in flight, which were dropped. */
+    public synchronized long getOverlapsPrevented() {
+        return this.overlapsPrevented;
+    }
+
+    public synchronized long getTimeouts() {
+        return this.timeouts;
+    }
+
+    public synchronized void reset() {
+        this.lastStartMillis = -1;
+        this.intervals = 0;
+        this.intervalMean = 0;
+        this.intervalM2 = 0;
+        this.rounds = 0;
+        this.latencyMean = 0;
+        this.maxLatencyMillis = 0;
+        this.missedSlots = 0;
+        this.overlapsPrevented = 0;
+        this.timeouts = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(java.util.Locale.US,
+                "rate=%.2fHz jitter=%.1fms latency=%.1fms (max %dms) rounds=%d missed=%d overlaps=%d timeouts=%d",
+                getAchievedRateHz(), getJitterMillis(), this.latencyMean, this.maxLatencyMillis,
+                this.rounds, this.missedSlots, this.overlapsPrevented, this.timeouts);
+    }
+}
@@ -0,0 +1,114 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits peers into ranging rounds of at most the platform's max peers per request.
+ *
+ * <p>Every peer that is left out of a round scores higher for the next one, so all peers are
+ * rotated through. The score of a peer is
+ * <pre>
+ *   priority * (rounds waited + 1) + milliseconds since its last successful range / staleMillis
+ * </pre>
+ * so high-value anchors are picked more often and anchors that keep failing or were never ranged
+ * are retried first. Peers are kept in the order the caller gave them when they all fit.
+ */
+public class RangingRoundScheduler<T> {
+    public static final long DEFAULT_STALE_MILLIS = 5000;
+    public static final float DEFAULT_PRIORITY = 1.0f;
+
+    private static final class PeerState<T> {
+        final T peer;
+        long lastScheduledRound = -1;
+        long lastSuccessMillis = -1;
+        float priority = DEFAULT_PRIORITY;
+        double score;
+        long seenRound;
+
+        PeerState(T peer) {
+            this.peer = peer;
+        }
+    }
+
+    private static final Comparator<PeerState<?>> BY_SCORE = (a, b) -> Double.compare(b.score, a.score);
+
+    private final HashMap<T, PeerState<T>> states = new HashMap<>();
+    private final ArrayList<PeerState<T>> candidates = new ArrayList<>();
+    private final ArrayList<T> round = new ArrayList<>();
+    private long staleMillis = DEFAULT_STALE_MILLIS;
+    private long roundCounter;
+
+    public void setStaleMillis(long staleMillis) {
+        this.staleMillis = staleMillis;
+    }
+
+    /** Peers with a higher priority are ranged proportionally more often. */
+    public synchronized void setPriority(T peer, float priority) {
+        stateOf(peer).priority = priority;
+    }
+
+    /**
+     * Picks the peers for the next round. The returned list is reused by the next call.
+     */
+    public synchronized List<T> nextRound(List<T> peers, int maxPeers, long nowMillis) {
+        this.roundCounter++;
+        this.round.clear();
+        this.candidates.clear();
+
+        for (T peer : peers) {
+            PeerState<T> state = stateOf(peer);
+            state.seenRound = this.roundCounter;
+            long waited = state.lastScheduledRound < 0 ? this.roundCounter : this.roundCounter - state.lastScheduledRound;
+            long sinceSuccess = state.lastSuccessMillis < 0 ? this.staleMillis * 10 : nowMillis - state.lastSuccessMillis;
+            state.score = state.priority * waited + (double) sinceSuccess / this.staleMillis;
+            this.candidates.add(state);
+        }
+
+        if (this.candidates.size() > maxPeers) {
+            Collections.sort(this.candidates, BY_SCORE);
+        }
+        for (int i = 0; i < this.candidates.size() && i < maxPeers; i++) {
+            PeerState<T> state = this.candidates.get(i);
+            state.lastScheduledRound = this.roundCounter;
+            this.round.add(state.peer);
+        }
+
+        // Forget peers that are no longer offered, so the map does not grow with churn.
+        if (this.states.size() > peers.size()) {
+            Iterator<PeerState<T>> iterator = this.states.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().seenRound != this.roundCounter) {
+                    iterator.remove();
+                }
+            }
+        }
+        this.candidates.clear();
+        return this.round;
+    }
+
+    public synchronized void onRanged(T peer, boolean success, long nowMillis) {
+        PeerState<T> state = this.states.get(peer);
+        if (state != null && success) {
+            state.lastSuccessMillis = nowMillis;
+        }
+    }
+
+    public synchronized void clear() {
+        this.states.clear();
+        this.roundCounter = 0;
+    }
+
+    private PeerState<T> stateOf(T peer) {
+        PeerState<T> state = this.states.get(peer);
+        if (state == null) {
+            state = new PeerState<>(peer);
+            this.states.put(peer, state);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,53 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+/**
+ * Decides whether a known device name seen under a new peer handle is a kept peer that came back
+ * after the sessions were rebuilt, or a different device that happens to share the name.
+ *
+ * <p>A peer is only rebound while the sessions are suspended or within {@code windowMillis} after
+ * they recovered, and only if its old handle went stale: nothing was heard under it since the
+ * suspension began or the sessions recovered, whichever is later. Outside of that a new handle is
+ * a new peer, even if its name is already known. Times in milliseconds, on the clock of the
+ * check-in times. Not thread safe; use it from one thread.
+ */
+public class SessionRecoveryWindow {
+    public static final long DEFAULT_WINDOW_MILLIS = 15000;
+
+    private long windowMillis = DEFAULT_WINDOW_MILLIS;
+    private boolean suspended;
+    private long recoveryMillis = -1;
+
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public void onSuspended(long nowMillis) {
+        this.suspended = true;
+        this.recoveryMillis = nowMillis;
+    }
+
+    public void onRecovered(long nowMillis) {
+        this.suspended = false;
+        this.recoveryMillis = nowMillis;
+    }
+
+    /** Forgets the last recovery, e.g. once the session and its peers are gone. */
+    public void reset() {
+        this.suspended = false;
+        this.recoveryMillis = -1;
+    }
+
+    public boolean isSuspended() {
+        return this.suspended;
+    }
+
+    /** True while a recovery is under way or was completed less than the window ago. */
+    public boolean isRebindAllowed(long nowMillis) {
+        return this.suspended || (this.recoveryMillis >= 0 && nowMillis - this.recoveryMillis <= this.windowMillis);
+    }
+
+    /** True if a peer last checked in at {@code checkInMillis} may be rebound to a new handle now. */
+    public boolean mayRebind(long checkInMillis, long nowMillis) {
+        return isRebindAllowed(nowMillis) && checkInMillis <= this.recoveryMillis;
+    }
+}
@@ -0,0 +1,62 @@
+package com.microsoft.arwalking.android.ble;
+
+/**
+ * The most recent {@link FixRecord}s in a fixed-size ring, for centrals catching up after a
+ * reconnect.
+ *
+ * <p>Adding a fix copies it into preallocated storage. {@link #snapshot()} returns the records
+ * oldest first as one contiguous value, which a central reads with a long read; the default
+ * capacity keeps that value within the 512-byte limit of a GATT attribute.
+ */
+public class FixHistory {
+    public static final int MAX_ATTRIBUTE_LENGTH = 512;
+    public static final int DEFAULT_CAPACITY = MAX_ATTRIBUTE_LENGTH / FixRecord.LENGTH;
+
+    private final int capacity;
+    private final byte[] records;
+    private int head;
+    private int count;
+
+    public FixHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FixHistory(int capacity) {
+        this.capacity = capacity;
+        this.records = new byte[capacity * FixRecord.LENGTH];
+    }
+
+    /** Copies the record at {@code offset}, replacing the oldest one once full. */
+    public synchronized void add(byte[] record, int offset) {
+        System.arraycopy(record, offset, this.records, this.head * FixRecord.LENGTH, FixRecord.LENGTH);
+        this.head = this.head + 1 == this.capacity ? 0 : this.head + 1;
+        this.count = Math.min(this.count + 1, this.capacity);
+    }
+
+    /** Records oldest first, {@link FixRecord#LENGTH} bytes each. */
+    public synchronized byte[] snapshot() {
+        byte[] out = new byte[this.count * FixRecord.LENGTH];
+        int oldest = this.head - this.count;
+        if (oldest < 0) {
+            int wrapped = -oldest;
+            System.arraycopy(this.records, (this.capacity - wrapped) * FixRecord.LENGTH, out, 0, wrapped * FixRecord.LENGTH);
+            System.arraycopy(this.records, 0, out, wrapped * FixRecord.LENGTH, this.head * FixRecord.LENGTH);
+        } else {
+            System.arraycopy(this.records, oldest * FixRecord.LENGTH, out, 0, this.count * FixRecord.LENGTH);
+        }
+        return out;
+    }
+
+    public synchronized int size() {
+        return this.count;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public synchronized void clear() {
+        this.head = 0;
+        this.count = 0;
+    }
+}
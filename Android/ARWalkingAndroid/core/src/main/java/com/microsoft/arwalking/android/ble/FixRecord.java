@@ -0,0 +1,91 @@
+package com.microsoft.arwalking.android.ble;
+
+/**
+ * Compact binary encoding of one location fix for BLE centrals.
+ *
+ * <p>Layout (18 bytes, little endian, fits the 20-byte payload of the default ATT MTU):
+ * <pre>
+ *   [0]       version (1)
+ *   [1]       flags, {@link #FLAG_TRACKED} if the fix comes from the tracker
+ *   [2..3]    sequence number, u16
+ *   [4..7]    timestamp, milliseconds since boot, u32 (wraps)
+ *   [8..11]   x, millimetres, i32
+ *   [12..15]  y, millimetres, i32
+ *   [16..17]  uncertainty (1 sigma), millimetres, u16 saturating
+ * </pre>
+ */
+public final class FixRecord {
+    public static final int LENGTH = 18;
+    public static final byte VERSION = 1;
+    public static final int FLAG_TRACKED = 0x01;
+
+    private static final int OFFSET_FLAGS = 1;
+    private static final int OFFSET_SEQUENCE = 2;
+    private static final int OFFSET_TIMESTAMP = 4;
+    private static final int OFFSET_X = 8;
+    private static final int OFFSET_Y = 12;
+    private static final int OFFSET_UNCERTAINTY = 16;
+
+    private FixRecord() {
+    }
+
+    public static void write(byte[] out, int offset, int flags, int sequence, long timeMillis, double xMm, double yMm, double uncertaintyMm) {
+        out[offset] = VERSION;
+        out[offset + OFFSET_FLAGS] = (byte) flags;
+        putShort(out, offset + OFFSET_SEQUENCE, sequence);
+        putInt(out, offset + OFFSET_TIMESTAMP, (int) timeMillis);
+        putInt(out, offset + OFFSET_X, (int) Math.round(xMm));
+        putInt(out, offset + OFFSET_Y, (int) Math.round(yMm));
+        putShort(out, offset + OFFSET_UNCERTAINTY, (int) Math.min(0xFFFF, Math.max(0, Math.round(uncertaintyMm))));
+    }
+
+    public static byte[] encode(int flags, int sequence, long timeMillis, double xMm, double yMm, double uncertaintyMm) {
+        byte[] out = new byte[LENGTH];
+        write(out, 0, flags, sequence, timeMillis, xMm, yMm, uncertaintyMm);
+        return out;
+    }
+
+    public static int getFlags(byte[] record, int offset) {
+        return record[offset + OFFSET_FLAGS] & 0xFF;
+    }
+
+    public static int getSequence(byte[] record, int offset) {
+        return getShort(record, offset + OFFSET_SEQUENCE);
+    }
+
+    public static long getTimeMillis(byte[] record, int offset) {
+        return getInt(record, offset + OFFSET_TIMESTAMP) & 0xFFFFFFFFL;
+    }
+
+    public static int getX(byte[] record, int offset) {
+        return getInt(record, offset + OFFSET_X);
+    }
+
+    public static int getY(byte[] record, int offset) {
+        return getInt(record, offset + OFFSET_Y);
+    }
+
+    public static int getUncertainty(byte[] record, int offset) {
+        return getShort(record, offset + OFFSET_UNCERTAINTY);
+    }
+
+    private static void putShort(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int getShort(byte[] in, int offset) {
+        return (in[offset] & 0xFF) | (in[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(byte[] in, int offset) {
+        return (in[offset] & 0xFF) | (in[offset + 1] & 0xFF) << 8 | (in[offset + 2] & 0xFF) << 16 | (in[offset + 3] & 0xFF) << 24;
+    }
+}
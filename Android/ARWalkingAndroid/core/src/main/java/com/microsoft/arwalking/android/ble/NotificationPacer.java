@@ -0,0 +1,105 @@
+package com.microsoft.arwalking.android.ble;
+
+import java.util.HashMap;
+
+/**
+ * Streams values to BLE centrals one at a time, keeping only the newest value per central.
+ *
+ * <p>A central gets its next value only after the stack reported the previous one sent; values
+ * offered meanwhile replace each other, so a slow central receives the latest fix instead of a
+ * growing backlog, and one slow central never delays the others. If no sent callback arrives
+ * within the stall timeout the central is considered free again.
+ */
+public class NotificationPacer<D> {
+    public interface Sender<D> {
+        /** @return false if the value could not be handed to the stack */
+        boolean send(D device, byte[] value);
+    }
+
+    public static final long DEFAULT_STALL_TIMEOUT_MILLIS = 1000;
+
+    private static final class State {
+        boolean busy;
+        long sentMillis;
+        byte[] pending;
+    }
+
+    private final Sender<D> sender;
+    private final HashMap<D, State> states = new HashMap<>();
+    private long stallTimeoutMillis = DEFAULT_STALL_TIMEOUT_MILLIS;
+    private long sent;
+    private long coalesced;
+    private long stalls;
+
+    public NotificationPacer(Sender<D> sender) {
+        this.sender = sender;
+    }
+
+    public synchronized void setStallTimeoutMillis(long stallTimeoutMillis) {
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    /** Sends the value now if the central is idle, otherwise keeps it as the next one to send. */
+    public synchronized void offer(D device, byte[] value, long nowMillis) {
+        State state = this.states.get(device);
+        if (state == null) {
+            state = new State();
+            this.states.put(device, state);
+        }
+        if (state.busy && nowMillis - state.sentMillis >= this.stallTimeoutMillis) {
+            state.busy = false;
+            this.stalls++;
+        }
+        if (state.busy) {
+            if (state.pending != null) {
+                this.coalesced++;
+            }
+            state.pending = value;
+            return;
+        }
+        send(device, state, value, nowMillis);
+    }
+
+    /** The stack finished sending to the central; sends the value that arrived meanwhile, if any. */
+    public synchronized void onSent(D device, long nowMillis) {
+        State state = this.states.get(device);
+        if (state == null) {
+            return;
+        }
+        state.busy = false;
+        byte[] pending = state.pending;
+        if (pending != null) {
+            state.pending = null;
+            send(device, state, pending, nowMillis);
+        }
+    }
+
+    public synchronized void remove(D device) {
+        this.states.remove(device);
+    }
+
+    public synchronized void clear() {
+        this.states.clear();
+    }
+
+    public synchronized long getSent() {
+        return this.sent;
+    }
+
+    /** Values replaced by a newer one before they could be sent. */
+    public synchronized long getCoalesced() {
+        return this.coalesced;
+    }
+
+    public synchronized long getStalls() {
+        return this.stalls;
+    }
+
+    private void send(D device, State state, byte[] value, long nowMillis) {
+        if (this.sender.send(device, value)) {
+            state.busy = true;
+            state.sentMillis = nowMillis;
+            this.sent++;
+        }
+    }
+}
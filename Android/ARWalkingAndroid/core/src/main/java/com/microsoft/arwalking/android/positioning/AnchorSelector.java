@@ -0,0 +1,244 @@
+package com.microsoft.arwalking.android.positioning;
+
+/**
+ * Picks a small set of anchors to range from a position estimate, adding anchors greedily until
+ * the geometric dilution of precision (GDOP) of the set is below a target.
+ *
+ * <p>For ranges from a point to anchors in the plane, GDOP is sqrt(trace((H^T H)^-1)) with H the
+ * unit vectors from the point to the anchors. The selection starts from the nearest anchor and each
+ * step adds the anchor that lowers GDOP the most, so anchors that only repeat the geometry already
+ * covered are left out. A few of the other anchors are added in turn to every selection, so their
+ * ranges stay fresh and an estimate that went wrong is seen to disagree with them.
+ *
+ * <p>The selector also decides which rounds range every anchor instead ({@link #beginRound}): every
+ * {@code fullRoundInterval}th round, and the round after a selected one whose fix was poor (see
+ * {@link #onFix}), since a selection made around a wrong estimate only confirms it. Candidates are
+ * added once per round; the selector does not allocate.
+ */
+public class AnchorSelector {
+    public static final double DEFAULT_TARGET_GDOP = 1.5;
+    public static final int DEFAULT_MIN_ANCHORS = 3;
+    public static final int DEFAULT_ROTATED_ANCHORS = 2;
+    public static final int DEFAULT_FULL_ROUND_INTERVAL = 10;
+    public static final double DEFAULT_MAX_FIX_UNCERTAINTY = 1000.0;
+
+    private static final double MIN_DETERMINANT = 1e-9;
+
+    private final int[] ids;
+    private final double[] unitX;
+    private final double[] unitY;
+    private final double[] distance;
+    private final boolean[] taken;
+    private final double[] candidateX;
+    private final double[] candidateY;
+    private int count;
+    private double targetGdop = DEFAULT_TARGET_GDOP;
+    private int minAnchors = DEFAULT_MIN_ANCHORS;
+    private int rotatedAnchors = DEFAULT_ROTATED_ANCHORS;
+    private int fullRoundInterval = DEFAULT_FULL_ROUND_INTERVAL;
+    private double maxFixUncertainty = DEFAULT_MAX_FIX_UNCERTAINTY;
+    private double gdop = Double.POSITIVE_INFINITY;
+    private int rotation;
+    private int round;
+    private boolean selectedRound;
+    private boolean fullRoundDue;
+    private int fallbacks;
+
+    public AnchorSelector(int capacity) {
+        this.ids = new int[capacity];
+        this.unitX = new double[capacity];
+        this.unitY = new double[capacity];
+        this.distance = new double[capacity];
+        this.taken = new boolean[capacity];
+        this.candidateX = new double[capacity];
+        this.candidateY = new double[capacity];
+    }
+
+    public void clear() {
+        this.count = 0;
+    }
+
+    /** Forgets the round count and any pending fallback, e.g. when ranging starts over. */
+    public void reset() {
+        this.count = 0;
+        this.rotation = 0;
+        this.round = 0;
+        this.selectedRound = false;
+        this.fullRoundDue = false;
+        this.fallbacks = 0;
+    }
+
+    /**
+     * Starts a ranging round.
+     *
+     * @return true if the round may range a selection, false if it should range every anchor
+     */
+    public boolean beginRound() {
+        boolean full = this.fullRoundDue || this.round % this.fullRoundInterval == 0;
+        this.round++;
+        this.fullRoundDue = false;
+        this.selectedRound = false;
+        return !full;
+    }
+
+    /**
+     * Reports the fix of the round. If the round ranged a selection and its fix failed, is more
+     * uncertain than the max fix uncertainty by its standard deviation or its rms residual, or the
+     * tracker gated out some of its ranges, the next round ranges every anchor.
+     */
+    public void onFix(boolean solved, double uncertaintyMm, double rmsMm, boolean rangesRejected) {
+        if (this.selectedRound && (!solved || uncertaintyMm > this.maxFixUncertainty || rmsMm > this.maxFixUncertainty || rangesRejected)) {
+            this.fullRoundDue = true;
+            this.fallbacks++;
+        }
+    }
+
+    /** Rounds that ranged every anchor because the selected round before had a poor fix. */
+    public int getFallbacks() {
+        return this.fallbacks;
+    }
+
+    /** Adds anchor {@code id} at ({@code x}, {@code y}) to the candidates of the next selection. */
+    public void addCandidate(int id, double x, double y) {
+        this.ids[this.count] = id;
+        this.candidateX[this.count] = x;
+        this.candidateY[this.count] = y;
+        this.count++;
+    }
+
+    public int getCandidateCount() {
+        return this.count;
+    }
+
+    /**
+     * Selects anchors for a receiver at ({@code x}, {@code y}), then adds the next rotated anchors.
+     *
+     * @param selected receives the ids of at most {@code selected.length} anchors, in the order they were picked
+     * @return the number of anchors selected
+     */
+    public int select(double x, double y, int[] selected) {
+        int nearest = -1;
+        for (int i = 0; i < this.count; i++) {
+            double dx = this.candidateX[i] - x;
+            double dy = this.candidateY[i] - y;
+            double d = Math.hypot(dx, dy);
+            this.distance[i] = d;
+            // An anchor on top of the receiver says nothing about direction.
+            this.unitX[i] = d > 0 ? dx / d : 0;
+            this.unitY[i] = d > 0 ? dy / d : 0;
+            this.taken[i] = false;
+            if (nearest < 0 || d < this.distance[nearest]) {
+                nearest = i;
+            }
+        }
+
+        this.gdop = Double.POSITIVE_INFINITY;
+        if (nearest < 0 || selected.length == 0) {
+            return 0;
+        }
+
+        // Normal matrix H^T H = [[a, b], [b, c]], kept up to date as anchors are added.
+        double a = 0;
+        double b = 0;
+        double c = 0;
+        int picked = 0;
+        int next = nearest;
+        while (next >= 0) {
+            this.taken[next] = true;
+            selected[picked++] = this.ids[next];
+            a += this.unitX[next] * this.unitX[next];
+            b += this.unitX[next] * this.unitY[next];
+            c += this.unitY[next] * this.unitY[next];
+            this.gdop = gdop(a, b, c);
+            if (picked == selected.length || (picked >= this.minAnchors && this.gdop <= this.targetGdop)) {
+                break;
+            }
+
+            next = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < this.count; i++) {
+                if (this.taken[i]) {
+                    continue;
+                }
+                double candidate = gdop(a + this.unitX[i] * this.unitX[i], b + this.unitX[i] * this.unitY[i], c + this.unitY[i] * this.unitY[i]);
+                // Among equally good anchors, or while the geometry is still degenerate, prefer the closest.
+                if (next < 0 || candidate < best || (candidate == best && this.distance[i] < this.distance[next])) {
+                    next = i;
+                    best = candidate;
+                }
+            }
+        }
+
+        // The others take turns, in candidate order.
+        int rotated = 0;
+        int start = this.rotation;
+        for (int n = 0; n < this.count && rotated < this.rotatedAnchors && picked < selected.length; n++) {
+            int i = (start + n) % this.count;
+            if (!this.taken[i]) {
+                this.taken[i] = true;
+                selected[picked++] = this.ids[i];
+                a += this.unitX[i] * this.unitX[i];
+                b += this.unitX[i] * this.unitY[i];
+                c += this.unitY[i] * this.unitY[i];
+                rotated++;
+                this.rotation = i + 1;
+            }
+        }
+        if (rotated > 0) {
+            this.gdop = gdop(a, b, c);
+        }
+        this.selectedRound = true;
+        return picked;
+    }
+
+    /** GDOP of the last selection, rotated anchors included, infinite if its geometry was degenerate. */
+    public double getGdop() {
+        return this.gdop;
+    }
+
+    public double getTargetGdop() {
+        return this.targetGdop;
+    }
+
+    public void setTargetGdop(double targetGdop) {
+        this.targetGdop = targetGdop;
+    }
+
+    public int getMinAnchors() {
+        return this.minAnchors;
+    }
+
+    public void setMinAnchors(int minAnchors) {
+        this.minAnchors = minAnchors;
+    }
+
+    public int getRotatedAnchors() {
+        return this.rotatedAnchors;
+    }
+
+    /** Anchors outside the GDOP selection added to every selection, in turn. */
+    public void setRotatedAnchors(int rotatedAnchors) {
+        this.rotatedAnchors = rotatedAnchors;
+    }
+
+    public int getFullRoundInterval() {
+        return this.fullRoundInterval;
+    }
+
+    public void setFullRoundInterval(int fullRoundInterval) {
+        this.fullRoundInterval = fullRoundInterval;
+    }
+
+    public double getMaxFixUncertainty() {
+        return this.maxFixUncertainty;
+    }
+
+    public void setMaxFixUncertainty(double maxFixUncertainty) {
+        this.maxFixUncertainty = maxFixUncertainty;
+    }
+
+    private static double gdop(double a, double b, double c) {
+        double determinant = a * c - b * b;
+        return determinant > MIN_DETERMINANT ? Math.sqrt((a + c) / determinant) : Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,317 @@
+package com.microsoft.arwalking.android.positioning;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Anchor map of a venue: name, coordinates, floor and range bias of every anchor, with lookup by
+ * name and a uniform grid for nearest-anchor queries. Coordinates are in millimetres.
+ *
+ * <p>File format (little endian), see {@link #writeTo(OutputStream)}:
+ * <pre>
+ *   header, 16 bytes:
+ *   [0..3]    magic "ARWA"
+ *   [4..5]    version (1)
+ *   [6..7]    reserved
+ *   [8..11]   anchor count N
+ *   [12..15]  name table length
+ *   N records, 24 bytes each:
+ *   [0..3]    x
+ *   [4..7]    y
+ *   [8..11]   range bias, subtracted from measured ranges
+ *   [12..15]  name offset in the name table
+ *   [16..17]  floor, signed
+ *   [18..19]  name length
+ *   [20..23]  reserved
+ *   name table, UTF-8
+ * </pre>
+ * The store is immutable once built and can be shared between threads.
+ */
+public class AnchorStore {
+    public static final int MAGIC = 0x41575241; // "ARWA" read little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 16;
+    public static final int RECORD_LENGTH = 24;
+    public static final int NO_ANCHOR = -1;
+    public static final int DEFAULT_CELL_SIZE_MM = 5000;
+
+    private final String[] names;
+    private final int[] x;
+    private final int[] y;
+    private final int[] floor;
+    private final int[] bias;
+    private final HashMap<String, Integer> indices;
+
+    // Grid in compressed sparse row form: the anchors of cell c are cellAnchors[cellStart[c]..cellStart[c + 1]).
+    private final int cellSizeMm;
+    private final int minX;
+    private final int minY;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellAnchors;
+
+    public AnchorStore(String[] names, int[] x, int[] y, int[] floor, int[] bias) {
+        this(names, x, y, floor, bias, DEFAULT_CELL_SIZE_MM);
+    }
+
+    public AnchorStore(String[] names, int[] x, int[] y, int[] floor, int[] bias, int cellSizeMm) {
+        int count = names.length;
+        if (x.length != count || y.length != count || floor.length != count || bias.length != count) {
+            throw new IllegalArgumentException("Anchor arrays differ in length");
+        }
+        this.names = names;
+        this.x = x;
+        this.y = y;
+        this.floor = floor;
+        this.bias = bias;
+        this.indices = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (this.indices.put(names[i], i) != null) {
+                throw new IllegalArgumentException("Duplicate anchor: " + names[i]);
+            }
+        }
+
+        int minX = 0;
+        int minY = 0;
+        int maxX = 0;
+        int maxY = 0;
+        if (count > 0) {
+            minX = maxX = x[0];
+            minY = maxY = y[0];
+            for (int i = 1; i < count; i++) {
+                minX = Math.min(minX, x[i]);
+                maxX = Math.max(maxX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+        }
+        // Sparse maps get coarser cells so the grid stays proportional to the anchor count.
+        long cellSize = cellSizeMm;
+        while ((((long) maxX - minX) / cellSize + 1) * (((long) maxY - minY) / cellSize + 1) > 4L * count + 16) {
+            cellSize *= 2;
+        }
+        this.cellSizeMm = (int) cellSize;
+        this.minX = minX;
+        this.minY = minY;
+        this.columns = (int) (((long) maxX - minX) / cellSize) + 1;
+        this.rows = (int) (((long) maxY - minY) / cellSize) + 1;
+        this.cellStart = new int[this.columns * this.rows + 1];
+        this.cellAnchors = new int[count];
+        for (int i = 0; i < count; i++) {
+            this.cellStart[cellOf(i) + 1]++;
+        }
+        for (int c = 0; c < this.columns * this.rows; c++) {
+            this.cellStart[c + 1] += this.cellStart[c];
+        }
+        int[] fill = Arrays.copyOf(this.cellStart, this.cellStart.length - 1);
+        for (int i = 0; i < count; i++) {
+            this.cellAnchors[fill[cellOf(i)]++] = i;
+        }
+    }
+
+    /** Maps {@code file} and reads the anchors from it. */
+    public static AnchorStore load(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    public static AnchorStore read(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < HEADER_LENGTH || in.getInt(0) != MAGIC) {
+            throw new IOException("Not an anchor map");
+        }
+        int version = in.getShort(4) & 0xFFFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported anchor map version: " + version);
+        }
+        int count = in.getInt(8);
+        int namesLength = in.getInt(12);
+        long namesStart = HEADER_LENGTH + (long) count * RECORD_LENGTH;
+        if (count < 0 || namesLength < 0 || namesStart + namesLength > in.limit()) {
+            throw new IOException("Truncated anchor map");
+        }
+
+        byte[] nameTable = new byte[namesLength];
+        in.position((int) namesStart);
+        in.get(nameTable);
+
+        String[] names = new String[count];
+        int[] x = new int[count];
+        int[] y = new int[count];
+        int[] floor = new int[count];
+        int[] bias = new int[count];
+        for (int i = 0; i < count; i++) {
+            int record = HEADER_LENGTH + i * RECORD_LENGTH;
+            x[i] = in.getInt(record);
+            y[i] = in.getInt(record + 4);
+            bias[i] = in.getInt(record + 8);
+            int nameOffset = in.getInt(record + 12);
+            floor[i] = in.getShort(record + 16);
+            int nameLength = in.getShort(record + 18) & 0xFFFF;
+            if (nameOffset < 0 || nameOffset > namesLength - nameLength) {
+                throw new IOException("Bad name of anchor " + i);
+            }
+            names[i] = new String(nameTable, nameOffset, nameLength, StandardCharsets.UTF_8);
+        }
+        try {
+            return new AnchorStore(names, x, y, floor, bias);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        int count = this.names.length;
+        byte[][] encodedNames = new byte[count][];
+        int namesLength = 0;
+        for (int i = 0; i < count; i++) {
+            encodedNames[i] = this.names[i].getBytes(StandardCharsets.UTF_8);
+            if (encodedNames[i].length > 0xFFFF) {
+                throw new IOException("Anchor name too long: " + this.names[i]);
+            }
+            namesLength += encodedNames[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + count * RECORD_LENGTH + namesLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putInt(count).putInt(namesLength);
+        int nameOffset = 0;
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(this.x[i]).putInt(this.y[i]).putInt(this.bias[i]).putInt(nameOffset)
+                    .putShort((short) this.floor[i]).putShort((short) encodedNames[i].length).putInt(0);
+            nameOffset += encodedNames[i].length;
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.put(encodedNames[i]);
+        }
+        out.write(buffer.array());
+    }
+
+    public void save(File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            writeTo(out);
+        }
+    }
+
+    public int size() {
+        return this.names.length;
+    }
+
+    /** @return the index of the anchor called {@code name}, or {@link #NO_ANCHOR} */
+    public int indexOf(String name) {
+        Integer index = this.indices.get(name);
+        return index != null ? index : NO_ANCHOR;
+    }
+
+    public String getName(int index) {
+        return this.names[index];
+    }
+
+    public int getX(int index) {
+        return this.x[index];
+    }
+
+    public int getY(int index) {
+        return this.y[index];
+    }
+
+    public int getFloor(int index) {
+        return this.floor[index];
+    }
+
+    public int getBias(int index) {
+        return this.bias[index];
+    }
+
+    /**
+     * Finds the anchors on {@code floor} closest to ({@code px}, {@code py}), searching the grid
+     * ring by ring outwards from the cell of the point.
+     *
+     * @param nearest receives the indices of up to {@code nearest.length} anchors, closest first
+     * @return the number of anchors found
+     */
+    public int findNearest(double px, double py, int floor, int[] nearest) {
+        int k = nearest.length;
+        int found = 0;
+        if (k == 0 || this.names.length == 0) {
+            return 0;
+        }
+
+        int column = clamp((int) Math.floor((px - this.minX) / this.cellSizeMm), this.columns);
+        int row = clamp((int) Math.floor((py - this.minY) / this.cellSizeMm), this.rows);
+        int maxRing = Math.max(Math.max(column, this.columns - 1 - column), Math.max(row, this.rows - 1 - row));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= this.rows) {
+                    continue;
+                }
+                boolean edge = r == row - ring || r == row + ring;
+                int step = edge ? 1 : Math.max(1, 2 * ring);
+                for (int c = column - ring; c <= column + ring; c += step) {
+                    if (c < 0 || c >= this.columns) {
+                        continue;
+                    }
+                    int cell = r * this.columns + c;
+                    for (int j = this.cellStart[cell]; j < this.cellStart[cell + 1]; j++) {
+                        int anchor = this.cellAnchors[j];
+                        if (this.floor[anchor] == floor) {
+                            found = insert(nearest, found, anchor, px, py);
+                        }
+                    }
+                }
+            }
+
+            // Anchors in further rings are at least ring * cellSize away, which does not beat the
+            // k-th closest found so far.
+            if (found == k) {
+                double bound = (double) ring * this.cellSizeMm;
+                if (distanceSquared(nearest[k - 1], px, py) <= bound * bound) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    private int insert(int[] nearest, int found, int anchor, double px, double py) {
+        double distance = distanceSquared(anchor, px, py);
+        int position = found < nearest.length ? found : nearest.length - 1;
+        if (found == nearest.length && distance >= distanceSquared(nearest[position], px, py)) {
+            return found;
+        }
+        while (position > 0 && distanceSquared(nearest[position - 1], px, py) > distance) {
+            nearest[position] = nearest[position - 1];
+            position--;
+        }
+        nearest[position] = anchor;
+        return Math.min(found + 1, nearest.length);
+    }
+
+    private double distanceSquared(int anchor, double px, double py) {
+        double dx = this.x[anchor] - px;
+        double dy = this.y[anchor] - py;
+        return dx * dx + dy * dy;
+    }
+
+    private int cellOf(int anchor) {
+        int column = (int) (((long) this.x[anchor] - this.minX) / this.cellSizeMm);
+        int row = (int) (((long) this.y[anchor] - this.minY) / this.cellSizeMm);
+        return row * this.columns + column;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+}
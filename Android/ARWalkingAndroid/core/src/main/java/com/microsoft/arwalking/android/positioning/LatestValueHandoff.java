@@ -0,0 +1,42 @@
+package com.microsoft.arwalking.android.positioning;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free handoff of the most recent value from a producer thread to a consumer executor.
+ *
+ * <p>At most one drain task is queued on the executor at a time; values published while it is
+ * pending replace each other, so a slow consumer (such as the UI thread) only ever sees the latest
+ * value and never delays the producer.
+ */
+public class LatestValueHandoff<T> {
+    private final AtomicReference<T> latest = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor executor;
+    private final Consumer<T> consumer;
+    private final Runnable drain = this::drain;
+
+    public LatestValueHandoff(Executor executor, Consumer<T> consumer) {
+        this.executor = executor;
+        this.consumer = consumer;
+    }
+
+    public void publish(T value) {
+        this.latest.set(value);
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.executor.execute(this.drain);
+        }
+    }
+
+    private void drain() {
+        // Clear the flag first: a value published after this point schedules another drain.
+        this.scheduled.set(false);
+        T value = this.latest.getAndSet(null);
+        if (value != null) {
+            this.consumer.accept(value);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.microsoft.arwalking.android.positioning;
+
+/**
+ * Constant-velocity extended Kalman filter over a 2D position.
+ *
+ * <p>The state is (x, y, vx, vy). Ranges are applied one at a time as they arrive, each weighted
+ * by its own standard deviation, so the track keeps going when only one or two anchors answer in
+ * a ranging round. Positions in millimetres and timestamps in milliseconds; the defaults assume
+ * a walking user ranged about once a second. Instances are not thread safe and do not allocate
+ * after construction.
+ *
+ * <p>A filter that has drifted away from the truth rejects every range in its gate and would never
+ * recover by itself; {@link #getConsecutiveRejections()} lets the owner detect that and
+ * re-initialize it from a fix.
+ */
+public class LocationTracker {
+    public static final double DEFAULT_ACCELERATION_STD_DEV = 1000.0;
+    public static final double DEFAULT_MIN_RANGE_STD_DEV = 100.0;
+    public static final double DEFAULT_GATE = 5.0;
+
+    private static final double INITIAL_VELOCITY_STD_DEV = 1000.0;
+    private static final double MIN_DISTANCE = 1e-6;
+
+    private final double[] state = new double[4];
+    private final double[] covariance = new double[16];
+    private final double[] scratch = new double[16];
+    private final double[] gain = new double[4];
+    private final double[] covarianceH = new double[4];
+
+    private double accelerationStdDev = DEFAULT_ACCELERATION_STD_DEV;
+    private double minRangeStdDev = DEFAULT_MIN_RANGE_STD_DEV;
+    private double gate = DEFAULT_GATE;
+
+    private boolean initialized;
+    private long timeMillis;
+    private int rejectedUpdates;
+    private int consecutiveRejections;
+
+    /** Standard deviation of the white acceleration noise driving the velocity, per second squared. */
+    public void setAccelerationStdDev(double accelerationStdDev) {
+        this.accelerationStdDev = accelerationStdDev;
+    }
+
+    /** Floor applied to reported range standard deviations, which can be 0. */
+    public void setMinRangeStdDev(double minRangeStdDev) {
+        this.minRangeStdDev = minRangeStdDev;
+    }
+
+    /** Ranges whose innovation exceeds this many standard deviations are rejected. */
+    public void setGate(double gate) {
+        this.gate = gate;
+    }
+
+    public boolean isInitialized() {
+        return this.initialized;
+    }
+
+    public void reset() {
+        this.initialized = false;
+    }
+
+    public void initialize(double x, double y, double positionStdDev, long timeMillis) {
+        for (int i = 0; i < 16; i++) {
+            this.covariance[i] = 0.0;
+        }
+        this.state[0] = x;
+        this.state[1] = y;
+        this.state[2] = 0.0;
+        this.state[3] = 0.0;
+        this.covariance[0] = positionStdDev * positionStdDev;
+        this.covariance[5] = positionStdDev * positionStdDev;
+        this.covariance[10] = INITIAL_VELOCITY_STD_DEV * INITIAL_VELOCITY_STD_DEV;
+        this.covariance[15] = INITIAL_VELOCITY_STD_DEV * INITIAL_VELOCITY_STD_DEV;
+        this.timeMillis = timeMillis;
+        this.initialized = true;
+        this.consecutiveRejections = 0;
+    }
+
+    /** Propagates the state to {@code timeMillis}; earlier timestamps are ignored. */
+    public void predict(long timeMillis) {
+        if (!this.initialized || timeMillis <= this.timeMillis) {
+            return;
+        }
+        double dt = (timeMillis - this.timeMillis) / 1000.0;
+        this.timeMillis = timeMillis;
+
+        this.state[0] += this.state[2] * dt;
+        this.state[1] += this.state[3] * dt;
+
+        // P = F P F^T, with F the identity plus dt on the position/velocity blocks.
+        double[] p = this.covariance;
+        double[] t = this.scratch;
+        for (int col = 0; col < 4; col++) {
+            t[col] = p[col] + dt * p[8 + col];
+            t[4 + col] = p[4 + col] + dt * p[12 + col];
+            t[8 + col] = p[8 + col];
+            t[12 + col] = p[12 + col];
+        }
+        for (int row = 0; row < 4; row++) {
+            p[row * 4] = t[row * 4] + dt * t[row * 4 + 2];
+            p[row * 4 + 1] = t[row * 4 + 1] + dt * t[row * 4 + 3];
+            p[row * 4 + 2] = t[row * 4 + 2];
+            p[row * 4 + 3] = t[row * 4 + 3];
+        }
+
+        double q = this.accelerationStdDev * this.accelerationStdDev;
+        double dt2 = dt * dt;
+        double qPosition = q * dt2 * dt2 / 4.0;
+        double qCross = q * dt2 * dt / 2.0;
+        double qVelocity = q * dt2;
+        p[0] += qPosition;
+        p[5] += qPosition;
+        p[2] += qCross;
+        p[8] += qCross;
+        p[7] += qCross;
+        p[13] += qCross;
+        p[10] += qVelocity;
+        p[15] += qVelocity;
+    }
+
+    /**
+     * Applies one range to an anchor, after predicting to the range timestamp.
+     *
+     * @return false if the tracker is not initialized or the range failed the innovation gate
+     */
+    public boolean updateRange(double anchorX, double anchorY, double range, double rangeStdDev, long timeMillis) {
+        if (!this.initialized) {
+            return false;
+        }
+        predict(timeMillis);
+
+        double dx = this.state[0] - anchorX;
+        double dy = this.state[1] - anchorY;
+        double distance = Math.max(Math.sqrt(dx * dx + dy * dy), MIN_DISTANCE);
+        double hx = dx / distance;
+        double hy = dy / distance;
+
+        double[] p = this.covariance;
+        for (int row = 0; row < 4; row++) {
+            this.covarianceH[row] = p[row * 4] * hx + p[row * 4 + 1] * hy;
+        }
+        double sigma = Math.max(rangeStdDev, this.minRangeStdDev);
+        double innovationVariance = hx * this.covarianceH[0] + hy * this.covarianceH[1] + sigma * sigma;
+        double innovation = range - distance;
+        if (innovation * innovation > this.gate * this.gate * innovationVariance) {
+            this.rejectedUpdates++;
+            this.consecutiveRejections++;
+            return false;
+        }
+        this.consecutiveRejections = 0;
+
+        for (int row = 0; row < 4; row++) {
+            this.gain[row] = this.covarianceH[row] / innovationVariance;
+            this.state[row] += this.gain[row] * innovation;
+        }
+        // P = P - K (H P), with H P the transpose of P H^T since P is symmetric.
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                p[row * 4 + col] -= this.gain[row] * this.covarianceH[col];
+            }
+        }
+        for (int row = 0; row < 4; row++) {
+            for (int col = row + 1; col < 4; col++) {
+                double v = (p[row * 4 + col] + p[col * 4 + row]) / 2.0;
+                p[row * 4 + col] = v;
+                p[col * 4 + row] = v;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the state extrapolated to {@code timeMillis} as (x, y, vx, vy) without changing the
+     * filter, for publishing at a rate independent of the ranging rate.
+     */
+    public void extrapolate(long timeMillis, double[] out) {
+        double dt = Math.max(0, timeMillis - this.timeMillis) / 1000.0;
+        out[0] = this.state[0] + this.state[2] * dt;
+        out[1] = this.state[1] + this.state[3] * dt;
+        out[2] = this.state[2];
+        out[3] = this.state[3];
+    }
+
+    public double getX() {
+        return this.state[0];
+    }
+
+    public double getY() {
+        return this.state[1];
+    }
+
+    public double getVelocityX() {
+        return this.state[2];
+    }
+
+    public double getVelocityY() {
+        return this.state[3];
+    }
+
+    /** Combined standard deviation of the position, sqrt(var(x) + var(y)). */
+    public double getPositionStdDev() {
+        return Math.sqrt(this.covariance[0] + this.covariance[5]);
+    }
+
+    public long getTimeMillis() {
+        return this.timeMillis;
+    }
+
+    public int getRejectedUpdates() {
+        return this.rejectedUpdates;
+    }
+
+    /** Ranges rejected by the gate since the last accepted one or the last initialization. */
+    public int getConsecutiveRejections() {
+        return this.consecutiveRejections;
+    }
+}
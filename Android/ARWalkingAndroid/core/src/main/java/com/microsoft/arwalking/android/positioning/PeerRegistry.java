@@ -0,0 +1,274 @@
+package com.microsoft.arwalking.android.positioning;
+
+import java.util.HashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Peers indexed by a small integer id, with their hot state in primitive arrays.
+ *
+ * <p>Anchor coordinates, the latest range and the check-in time of peer {@code id} live at index
+ * {@code id} of parallel arrays, so updates do not allocate or box. Ids of removed peers are
+ * reused. Each peer also carries a model object for its identity, e.g. the NAN device model.
+ *
+ * <p>Writers are serialized on the registry and hold the write lock of a {@link StampedLock}
+ * while they change the arrays. Readers take no lock: they bracket their reads with
+ * {@link #beginRead()} and {@link #validate(long)}, an optimistic read of that lock, and retry if a
+ * write happened in between, so a solver can load a consistent snapshot straight from the arrays.
+ * Values read before a failed validation may be torn and must not be used:
+ * <pre>
+ *   long stamp;
+ *   do {
+ *       stamp = registry.beginRead();
+ *       // read registry.getX(id), registry.getRange(id), ...
+ *   } while (!registry.validate(stamp));
+ * </pre>
+ */
+public class PeerRegistry<K, V> {
+    public static final int NO_PEER = -1;
+    public static final int NO_RANGE = -1;
+
+    private final int capacity;
+    private final HashMap<K, Integer> ids = new HashMap<>();
+    private final Object[] keys;
+    private final Object[] models;
+    private final boolean[] active;
+    private final boolean[] located;
+    private final double[] x;
+    private final double[] y;
+    private final int[] range;
+    private final int[] rangeStdDev;
+    private final int[] successfulMeasurements;
+    private final long[] rangeTimeMillis;
+    private final long[] checkInMillis;
+    private int highWaterMark;
+    private int size;
+
+    private final StampedLock lock = new StampedLock();
+
+    public PeerRegistry(int capacity) {
+        this.capacity = capacity;
+        this.keys = new Object[capacity];
+        this.models = new Object[capacity];
+        this.active = new boolean[capacity];
+        this.located = new boolean[capacity];
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.range = new int[capacity];
+        this.rangeStdDev = new int[capacity];
+        this.successfulMeasurements = new int[capacity];
+        this.rangeTimeMillis = new long[capacity];
+        this.checkInMillis = new long[capacity];
+    }
+
+    /**
+     * Adds a peer, or returns the id it already has.
+     *
+     * @return the peer id, or {@link #NO_PEER} if the registry is full
+     */
+    public synchronized int register(K key, V model, long nowMillis) {
+        Integer existing = this.ids.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = NO_PEER;
+        for (int i = 0; i < this.capacity; i++) {
+            if (!this.active[i]) {
+                id = i;
+                break;
+            }
+        }
+        if (id == NO_PEER) {
+            return NO_PEER;
+        }
+
+        long stamp = this.lock.writeLock();
+        try {
+            this.ids.put(key, id);
+            this.keys[id] = key;
+            this.models[id] = model;
+            this.active[id] = true;
+            this.located[id] = false;
+            this.x[id] = 0.0;
+            this.y[id] = 0.0;
+            this.range[id] = NO_RANGE;
+            this.rangeStdDev[id] = 0;
+            this.successfulMeasurements[id] = 0;
+            this.rangeTimeMillis[id] = 0;
+            this.checkInMillis[id] = nowMillis;
+            this.highWaterMark = Math.max(this.highWaterMark, id + 1);
+            this.size++;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        return id;
+    }
+
+    /**
+     * Moves a peer to a new key, e.g. a new handle after its session was rebuilt, keeping its id
+     * and state.
+     */
+    public synchronized void rebind(int id, K key, V model) {
+        if (!isActive(id)) {
+            return;
+        }
+        long stamp = this.lock.writeLock();
+        try {
+            this.ids.remove(this.keys[id]);
+            this.ids.put(key, id);
+            this.keys[id] = key;
+            this.models[id] = model;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    public synchronized void remove(int id) {
+        if (!isActive(id)) {
+            return;
+        }
+        long stamp = this.lock.writeLock();
+        try {
+            this.ids.remove(this.keys[id]);
+            this.keys[id] = null;
+            this.models[id] = null;
+            this.active[id] = false;
+            this.size--;
+            while (this.highWaterMark > 0 && !this.active[this.highWaterMark - 1]) {
+                this.highWaterMark--;
+            }
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    public synchronized void clear() {
+        long stamp = this.lock.writeLock();
+        try {
+            this.ids.clear();
+            for (int i = 0; i < this.highWaterMark; i++) {
+                this.keys[i] = null;
+                this.models[i] = null;
+                this.active[i] = false;
+            }
+            this.highWaterMark = 0;
+            this.size = 0;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    public synchronized void setLocation(int id, double x, double y) {
+        long stamp = this.lock.writeLock();
+        try {
+            this.x[id] = x;
+            this.y[id] = y;
+            this.located[id] = true;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    public synchronized void setRange(int id, int rangeMm, int stdDevMm, int successfulMeasurements, long timeMillis) {
+        long stamp = this.lock.writeLock();
+        try {
+            this.range[id] = rangeMm;
+            this.rangeStdDev[id] = stdDevMm;
+            this.successfulMeasurements[id] = successfulMeasurements;
+            this.rangeTimeMillis[id] = timeMillis;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    public synchronized void checkIn(int id, long nowMillis) {
+        long stamp = this.lock.writeLock();
+        try {
+            this.checkInMillis[id] = nowMillis;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Returns the id of the peer, or {@link #NO_PEER}. */
+    public synchronized int idOf(K key) {
+        Integer id = this.ids.get(key);
+        return id == null ? NO_PEER : id;
+    }
+
+    /** Waits out an in-progress write and returns the stamp to pass to {@link #validate(long)}. */
+    public long beginRead() {
+        long stamp = this.lock.tryOptimisticRead();
+        while (stamp == 0L) {
+            Thread.yield();
+            stamp = this.lock.tryOptimisticRead();
+        }
+        return stamp;
+    }
+
+    /** True if nothing was written since {@link #beginRead()} returned {@code stamp}. */
+    public boolean validate(long stamp) {
+        return this.lock.validate(stamp);
+    }
+
+    /** One past the highest id in use; iterate ids below it and skip inactive ones. */
+    public int getHighWaterMark() {
+        return this.highWaterMark;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public boolean isActive(int id) {
+        return id >= 0 && id < this.capacity && this.active[id];
+    }
+
+    /** True once anchor coordinates are known for the peer. */
+    public boolean isLocated(int id) {
+        return this.located[id];
+    }
+
+    @SuppressWarnings("unchecked")
+    public K getKey(int id) {
+        return (K) this.keys[id];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getModel(int id) {
+        return (V) this.models[id];
+    }
+
+    public double getX(int id) {
+        return this.x[id];
+    }
+
+    public double getY(int id) {
+        return this.y[id];
+    }
+
+    /** Latest range in millimetres, or {@link #NO_RANGE}. */
+    public int getRange(int id) {
+        return this.range[id];
+    }
+
+    public int getRangeStdDev(int id) {
+        return this.rangeStdDev[id];
+    }
+
+    public int getSuccessfulMeasurements(int id) {
+        return this.successfulMeasurements[id];
+    }
+
+    public long getRangeTimeMillis(int id) {
+        return this.rangeTimeMillis[id];
+    }
+
+    public long getCheckInMillis(int id) {
+        return this.checkInMillis[id];
+    }
+}
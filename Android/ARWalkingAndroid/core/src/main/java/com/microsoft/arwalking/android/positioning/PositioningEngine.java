@@ -0,0 +1,350 @@
+package com.microsoft.arwalking.android.positioning;
+
+/**
+ * The ranging to location pipeline, independent of where the ranges come from.
+ *
+ * <p>Stage 1 ({@link #addRange}) filters a range and stores it in the peer registry, stage 2
+ * ({@link #updateTracker}) feeds it to the tracker, stage 3 ({@link #computeFix}) solves for a
+ * fix from the recent range of every located peer, and {@link #trackerOutput} predicts the tracked
+ * position between rounds. The app drives it from Wi-Fi RTT results and the simulator from
+ * simulated ones, so both exercise the same code.
+ *
+ * <p>Not thread safe; use it from the thread that writes the registry. Positions are in millimetres.
+ */
+public class PositioningEngine {
+    public static final double DEFAULT_TRACKER_INITIAL_STD_DEV = 2000.0;
+    public static final double DEFAULT_TRACKER_RESET_STD_DEV = 10000.0;
+    public static final int DEFAULT_TRACKER_MAX_REJECTIONS = 4;
+    public static final double DEFAULT_TRACKER_DISAGREEMENT_SIGMAS = 3.0;
+    public static final double DEFAULT_TRACKER_MIN_DISAGREEMENT = 1500.0;
+    public static final int DEFAULT_TRACKER_MAX_DISAGREEMENTS = 2;
+    public static final long DEFAULT_MAX_RANGE_AGE_MILLIS = 1000;
+    /** The ranging period the age limits and the tracker are tuned for; longer periods rescale them. */
+    public static final int NOMINAL_RANGING_PERIOD_MILLIS = 1000;
+
+    /** {@link #computeFix} results. */
+    public static final int FIX_TOO_FEW_ANCHORS = 0;
+    public static final int FIX_FAILED = 1;
+    /** A fix was solved; without the tracker it is the output. */
+    public static final int FIX_SOLVED = 2;
+    /**
+     * A fix was solved and started the tracker, which provides the output from now on. Also
+     * returned when the tracker had diverged and was restarted from the fix: it gated out every
+     * range for a while, or kept disagreeing with the fixes.
+     */
+    public static final int FIX_TRACKER_INITIALIZED = 3;
+
+    /** {@link #trackerOutput} results. */
+    public static final int TRACKER_IDLE = 0;
+    public static final int TRACKER_UPDATED = 1;
+    /**
+     * The tracker got too uncertain and was reset, or was found diverged and restarted since the
+     * last output; output from before is not to be trusted.
+     */
+    public static final int TRACKER_LOST = 2;
+
+    private final PeerRegistry<?, ?> peers;
+    private final RangeHistory rangeHistory;
+    private final TrilaterationSolver solver;
+    private final RobustTrilaterationSolver robustSolver;
+    private final LocationTracker tracker = new LocationTracker();
+    private final int[] rangeBias;
+    private final double[] standardDeviation = new double[2];
+    private final double[] predicted = new double[4];
+    private boolean useTracker = true;
+    private boolean useRobustSolver = true;
+    private double trackerResetStdDev = DEFAULT_TRACKER_RESET_STD_DEV;
+    private int trackerMaxRejections = DEFAULT_TRACKER_MAX_REJECTIONS;
+    private double trackerDisagreementSigmas = DEFAULT_TRACKER_DISAGREEMENT_SIGMAS;
+    private double trackerMinDisagreement = DEFAULT_TRACKER_MIN_DISAGREEMENT;
+    private int trackerMaxDisagreements = DEFAULT_TRACKER_MAX_DISAGREEMENTS;
+    private int trackerDisagreements;
+    private int trackerRestarts;
+    private boolean trackerLost;
+    private long maxRangeAgeMillis = DEFAULT_MAX_RANGE_AGE_MILLIS;
+    private long maxSampleAgeMillis = RangeHistory.DEFAULT_MAX_AGE_MILLIS;
+    private double ageScale = 1.0;
+
+    private boolean hasStandardDeviation;
+    private double fixX;
+    private double fixY;
+    private long fixTimeMillis = -1;
+
+    public PositioningEngine(PeerRegistry<?, ?> peers, int capacity, int window) {
+        this.peers = peers;
+        this.rangeHistory = new RangeHistory(capacity, window);
+        this.solver = new TrilaterationSolver(2, capacity);
+        this.robustSolver = new RobustTrilaterationSolver(this.solver);
+        this.rangeBias = new int[capacity];
+    }
+
+    public RangeHistory getRangeHistory() {
+        return this.rangeHistory;
+    }
+
+    public TrilaterationSolver getSolver() {
+        return this.solver;
+    }
+
+    public RobustTrilaterationSolver getRobustSolver() {
+        return this.robustSolver;
+    }
+
+    public LocationTracker getTracker() {
+        return this.tracker;
+    }
+
+    public boolean isUsingTracker() {
+        return this.useTracker;
+    }
+
+    public void setUseTracker(boolean useTracker) {
+        this.useTracker = useTracker;
+    }
+
+    public void setUseRobustSolver(boolean useRobustSolver) {
+        this.useRobustSolver = useRobustSolver;
+    }
+
+    public void setTrackerResetStdDev(double trackerResetStdDev) {
+        this.trackerResetStdDev = trackerResetStdDev;
+    }
+
+    /** The tracker is restarted from the next fix after this many ranges in a row fail its gate. */
+    public void setTrackerMaxRejections(int trackerMaxRejections) {
+        this.trackerMaxRejections = trackerMaxRejections;
+    }
+
+    /**
+     * The tracker disagrees with a fix if they are further apart than this many combined standard
+     * deviations, and at least {@code minDisagreementMm}. After {@code maxDisagreements} fixes in a
+     * row it does, the tracker is restarted from the fix.
+     */
+    public void setTrackerDisagreement(double sigmas, double minDisagreementMm, int maxDisagreements) {
+        this.trackerDisagreementSigmas = sigmas;
+        this.trackerMinDisagreement = minDisagreementMm;
+        this.trackerMaxDisagreements = maxDisagreements;
+    }
+
+    /** Times the tracker was found diverged and restarted from a fix. */
+    public int getTrackerRestarts() {
+        return this.trackerRestarts;
+    }
+
+    /**
+     * Ranges older than this are left out of fixes: a peer that was not ranged in the last round or
+     * so would place the fix where the user was rather than where they are.
+     */
+    public void setMaxRangeAgeMillis(long maxRangeAgeMillis) {
+        this.maxRangeAgeMillis = maxRangeAgeMillis;
+    }
+
+    /** Max age of the samples the range filter works on, at the nominal ranging period. */
+    public void setMaxSampleAgeMillis(long maxSampleAgeMillis) {
+        this.maxSampleAgeMillis = maxSampleAgeMillis;
+        applyAgeScale();
+    }
+
+    /**
+     * Tells the engine the current ranging period. The range and sample age limits are set for
+     * {@link #NOMINAL_RANGING_PERIOD_MILLIS}; at longer periods they stretch in proportion, so the
+     * filter keeps as many samples and each fix as many ranges as at the nominal period.
+     *
+     * <p>The tracker's acceleration noise shrinks with the period to the power 1.5, so the position
+     * uncertainty it adds between two rounds stays what it is at the nominal period. Long periods
+     * are for a user standing still; at the default noise a 5 s gap lets the gate take in NLOS
+     * ranges and the velocity wander off.
+     */
+    public void setRangingPeriodMillis(int periodMillis) {
+        this.ageScale = Math.max(1.0, periodMillis / (double) NOMINAL_RANGING_PERIOD_MILLIS);
+        applyAgeScale();
+        this.tracker.setAccelerationStdDev(LocationTracker.DEFAULT_ACCELERATION_STD_DEV / Math.pow(this.ageScale, 1.5));
+    }
+
+    private void applyAgeScale() {
+        this.rangeHistory.setMaxAgeMillis(this.maxSampleAgeMillis == Long.MAX_VALUE ? Long.MAX_VALUE : (long) (this.maxSampleAgeMillis * this.ageScale));
+    }
+
+    /** Range bias of peer {@code id}, subtracted from its measured ranges. */
+    public void setRangeBias(int id, int biasMm) {
+        this.rangeBias[id] = biasMm;
+    }
+
+    /** Forgets the ranges of peer {@code id}, e.g. when its id is given to a new peer. */
+    public void clearPeer(int id) {
+        this.rangeHistory.clear(id);
+        this.rangeBias[id] = 0;
+    }
+
+    public void reset() {
+        this.rangeHistory.clearAll();
+        this.tracker.reset();
+        this.solver.resetEstimate();
+        this.fixTimeMillis = -1;
+        this.trackerDisagreements = 0;
+        this.trackerLost = false;
+    }
+
+    /**
+     * Stage 1: filters a successful range of peer {@code id} and stores it in the registry.
+     *
+     * @return the filtered range
+     */
+    public double addRange(int id, int distanceMm, int distanceStdDevMm, int successfulMeasurements, long timeMillis) {
+        double range = this.rangeHistory.add(id, distanceMm - this.rangeBias[id], distanceStdDevMm, timeMillis);
+        this.peers.setRange(id, (int) Math.round(range), (int) Math.round(this.rangeHistory.getFilteredStdDev(id)), successfulMeasurements, timeMillis);
+        return range;
+    }
+
+    /** Stage 2: feeds the stored range of peer {@code id} to the tracker, if the tracker is used. */
+    public boolean updateTracker(int id, long timeMillis) {
+        if (!this.useTracker || !this.peers.isLocated(id)) {
+            return false;
+        }
+        return this.tracker.updateRange(this.peers.getX(id), this.peers.getY(id), this.peers.getRange(id), this.peers.getRangeStdDev(id), timeMillis);
+    }
+
+    /**
+     * Stage 3: solves for a fix from the latest range of every located peer, if it is at most the
+     * max range age old.
+     *
+     * @param selected if not null, only the peers whose entry is true are used
+     * @return one of the {@code FIX_} results
+     */
+    public int computeFix(boolean[] selected, long nowMillis) {
+        // Load the anchors straight from the registry, retrying if a peer changed meanwhile.
+        long maxRangeAge = (long) (this.maxRangeAgeMillis * this.ageScale);
+        long stamp;
+        do {
+            stamp = this.peers.beginRead();
+            this.solver.clear();
+            for (int id = 0; id < this.peers.getHighWaterMark(); id++) {
+                if (this.peers.isActive(id) && this.peers.isLocated(id) && this.peers.getRange(id) != PeerRegistry.NO_RANGE
+                        && nowMillis - this.peers.getRangeTimeMillis(id) <= maxRangeAge && (selected == null || selected[id])) {
+                    double weight = this.useRobustSolver ? RobustTrilaterationSolver.rangeWeight(this.peers.getRangeStdDev(id), this.peers.getSuccessfulMeasurements(id)) : 1.0;
+                    this.solver.addAnchor(this.peers.getX(id), this.peers.getY(id), 0.0, this.peers.getRange(id), weight);
+                }
+            }
+        } while (!this.peers.validate(stamp));
+
+        if (this.solver.getAnchorCount() < 2) {
+            return FIX_TOO_FEW_ANCHORS;
+        }
+
+        boolean solved = this.useRobustSolver ? this.robustSolver.solve() : this.solver.solve();
+        if (!solved) {
+            this.solver.resetEstimate();
+            return FIX_FAILED;
+        }
+
+        this.fixX = this.solver.getX();
+        this.fixY = this.solver.getY();
+        this.fixTimeMillis = nowMillis;
+        // Not available when the anchors are degenerate.
+        this.hasStandardDeviation = this.solver.getStandardDeviation(this.standardDeviation);
+
+        boolean diverged = this.tracker.isInitialized()
+                && (this.tracker.getConsecutiveRejections() >= this.trackerMaxRejections || disagreesWithFix(nowMillis));
+        if (diverged) {
+            this.trackerRestarts++;
+            this.trackerLost = true;
+            this.trackerDisagreements = 0;
+        }
+        if (this.useTracker && (diverged || !this.tracker.isInitialized())) {
+            double positionStdDev = this.hasStandardDeviation ? getFixStandardDeviation() : DEFAULT_TRACKER_INITIAL_STD_DEV;
+            this.tracker.initialize(this.fixX, this.fixY, Math.max(positionStdDev, this.solver.getRms()), nowMillis);
+            return FIX_TRACKER_INITIALIZED;
+        }
+        return FIX_SOLVED;
+    }
+
+    // Counts the fixes in a row that the tracker, predicted to the fix time, is too far from.
+    private boolean disagreesWithFix(long nowMillis) {
+        this.tracker.extrapolate(nowMillis, this.predicted);
+        double distance = Math.hypot(this.predicted[0] - this.fixX, this.predicted[1] - this.fixY);
+        double sigma = Math.hypot(this.tracker.getPositionStdDev(), getFixUncertainty());
+        if (distance > Math.max(this.trackerMinDisagreement, this.trackerDisagreementSigmas * sigma)) {
+            this.trackerDisagreements++;
+        } else {
+            this.trackerDisagreements = 0;
+        }
+        return this.trackerDisagreements >= this.trackerMaxDisagreements;
+    }
+
+    /**
+     * Predicts the tracker forward to {@code nowMillis}, resetting it once it is too uncertain.
+     * Reports {@link #TRACKER_LOST} once after the tracker was reset or restarted.
+     */
+    public int trackerOutput(long nowMillis) {
+        if (this.trackerLost) {
+            this.trackerLost = false;
+            return TRACKER_LOST;
+        }
+        if (!this.tracker.isInitialized()) {
+            return TRACKER_IDLE;
+        }
+        this.tracker.predict(nowMillis);
+        if (this.tracker.getPositionStdDev() > this.trackerResetStdDev) {
+            this.tracker.reset();
+            this.solver.resetEstimate();
+            this.trackerDisagreements = 0;
+            return TRACKER_LOST;
+        }
+        return TRACKER_UPDATED;
+    }
+
+    public double getFixX() {
+        return this.fixX;
+    }
+
+    public double getFixY() {
+        return this.fixY;
+    }
+
+    /** @return when the last fix was solved, or -1 if there is none */
+    public long getFixTimeMillis() {
+        return this.fixTimeMillis;
+    }
+
+    public boolean hasFixStandardDeviation() {
+        return this.hasStandardDeviation;
+    }
+
+    /** Combined standard deviation of the last fix, valid if {@link #hasFixStandardDeviation()}. */
+    public double getFixStandardDeviation() {
+        return Math.hypot(this.standardDeviation[0], this.standardDeviation[1]);
+    }
+
+    /** Uncertainty to report with the last fix: its standard deviation, or its rms residual. */
+    public double getFixUncertainty() {
+        return this.hasStandardDeviation ? getFixStandardDeviation() : this.solver.getRms();
+    }
+
+    public double getStandardDeviationX() {
+        return this.standardDeviation[0];
+    }
+
+    public double getStandardDeviationY() {
+        return this.standardDeviation[1];
+    }
+
+    /**
+     * The best current position: the tracker if it runs, else the last fix if it is at most
+     * {@code maxAgeMillis} old.
+     *
+     * @return false if there is none
+     */
+    public boolean getEstimate(long nowMillis, long maxAgeMillis, double[] out) {
+        if (this.useTracker && this.tracker.isInitialized()) {
+            out[0] = this.tracker.getX();
+            out[1] = this.tracker.getY();
+            return true;
+        }
+        if (this.fixTimeMillis >= 0 && nowMillis - this.fixTimeMillis <= maxAgeMillis) {
+            out[0] = this.fixX;
+            out[1] = this.fixY;
+            return true;
+        }
+        return false;
+    }
+}
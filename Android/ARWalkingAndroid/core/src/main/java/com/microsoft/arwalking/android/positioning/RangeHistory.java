@@ -0,0 +1,292 @@
+package com.microsoft.arwalking.android.positioning;
+
+import java.util.Arrays;
+
+/**
+ * Recent range samples of every peer in fixed-size ring buffers, with streaming filters on top.
+ *
+ * <p>Peers are addressed by their {@link PeerRegistry} id. For each peer the last {@code window}
+ * ranges, standard deviations and timestamps are kept in preallocated arrays together with a
+ * sorted copy of the ranges, so adding a sample never allocates: the median is read directly from
+ * the sorted copy, which is kept up to date with a binary search and a shift of at most
+ * {@code window - 1} elements. Samples older than the max age are dropped as well, so at a low
+ * ranging rate, or for a peer that is ranged only now and then, the window does not reach back to
+ * where the user was seconds ago.
+ *
+ * <p>{@link #add} returns the filtered range according to the selected filter:
+ * <ul>
+ *   <li>{@link #FILTER_NONE}: the sample itself.</li>
+ *   <li>{@link #FILTER_MEDIAN}: the median of the window.</li>
+ *   <li>{@link #FILTER_HAMPEL}: the sample, or the window median if the sample lies further than
+ *   the threshold times the scaled median absolute deviation from it.</li>
+ *   <li>{@link #FILTER_EMA}: exponential smoothing of the Hampel-filtered samples.</li>
+ * </ul>
+ */
+public class RangeHistory {
+    public static final int FILTER_NONE = 0;
+    public static final int FILTER_MEDIAN = 1;
+    public static final int FILTER_HAMPEL = 2;
+    public static final int FILTER_EMA = 3;
+
+    public static final double DEFAULT_HAMPEL_THRESHOLD = 3.0;
+    public static final double DEFAULT_SMOOTHING = 0.3;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 3000;
+
+    // Scales the median absolute deviation to a standard deviation for Gaussian noise.
+    private static final double MAD_SCALE = 1.4826;
+
+    private final int window;
+    private final double[] ranges;
+    private final double[] stdDevs;
+    private final long[] times;
+    private final double[] sorted;
+    private final int[] head;
+    private final int[] count;
+    private final double[] smoothed;
+    private final double[] filteredStdDev;
+
+    private int filter = FILTER_HAMPEL;
+    private double hampelThreshold = DEFAULT_HAMPEL_THRESHOLD;
+    private double smoothing = DEFAULT_SMOOTHING;
+    private long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+
+    public RangeHistory(int peers, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1");
+        }
+        this.window = window;
+        this.ranges = new double[peers * window];
+        this.stdDevs = new double[peers * window];
+        this.times = new long[peers * window];
+        this.sorted = new double[peers * window];
+        this.head = new int[peers];
+        this.count = new int[peers];
+        this.smoothed = new double[peers];
+        this.filteredStdDev = new double[peers];
+    }
+
+    /** One of {@link #FILTER_NONE}, {@link #FILTER_MEDIAN}, {@link #FILTER_HAMPEL} or {@link #FILTER_EMA}. */
+    public void setFilter(int filter) {
+        this.filter = filter;
+    }
+
+    public int getFilter() {
+        return this.filter;
+    }
+
+    /** Number of scaled median absolute deviations beyond which the Hampel filter replaces a sample. */
+    public void setHampelThreshold(double hampelThreshold) {
+        this.hampelThreshold = hampelThreshold;
+    }
+
+    /** Weight of the newest sample in the exponential smoothing, in (0, 1]. */
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    /** Samples older than this are dropped; {@code Long.MAX_VALUE} keeps the whole window. */
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public long getMaxAgeMillis() {
+        return this.maxAgeMillis;
+    }
+
+    public int getWindow() {
+        return this.window;
+    }
+
+    public void clear(int peer) {
+        this.head[peer] = 0;
+        this.count[peer] = 0;
+        this.smoothed[peer] = 0.0;
+        this.filteredStdDev[peer] = 0.0;
+    }
+
+    public void clearAll() {
+        Arrays.fill(this.head, 0);
+        Arrays.fill(this.count, 0);
+        Arrays.fill(this.smoothed, 0.0);
+        Arrays.fill(this.filteredStdDev, 0.0);
+    }
+
+    /**
+     * Records a sample and returns the filtered range of the peer. Samples more than the max age
+     * older than this one are dropped first.
+     */
+    public double add(int peer, double range, double stdDev, long timeMillis) {
+        expire(peer, timeMillis);
+        int base = peer * this.window;
+        int n = this.count[peer];
+        int slot = this.head[peer];
+
+        if (n == this.window) {
+            removeSorted(base, n, this.ranges[base + slot]);
+            n--;
+        }
+        insertSorted(base, n, range);
+        n++;
+
+        this.ranges[base + slot] = range;
+        this.stdDevs[base + slot] = stdDev;
+        this.times[base + slot] = timeMillis;
+        this.head[peer] = slot + 1 == this.window ? 0 : slot + 1;
+        this.count[peer] = n;
+
+        double filtered;
+        switch (this.filter) {
+            case FILTER_MEDIAN:
+                filtered = getMedian(peer);
+                this.filteredStdDev[peer] = Math.max(stdDev, MAD_SCALE * getMedianAbsoluteDeviation(peer));
+                break;
+            case FILTER_HAMPEL:
+            case FILTER_EMA:
+                filtered = hampel(peer, range, stdDev);
+                if (this.filter == FILTER_EMA) {
+                    filtered = n == 1 ? filtered : this.smoothed[peer] + this.smoothing * (filtered - this.smoothed[peer]);
+                }
+                break;
+            default:
+                filtered = range;
+                this.filteredStdDev[peer] = stdDev;
+                break;
+        }
+        this.smoothed[peer] = filtered;
+        return filtered;
+    }
+
+    /** Last value returned by {@link #add} for the peer. */
+    public double getFiltered(int peer) {
+        return this.smoothed[peer];
+    }
+
+    /**
+     * Last value returned by {@link #add} for the peer, after dropping the samples that are older
+     * than the max age at {@code nowMillis}.
+     *
+     * @return NaN if no sample is left
+     */
+    public double getFiltered(int peer, long nowMillis) {
+        return expire(peer, nowMillis) > 0 ? this.smoothed[peer] : Double.NaN;
+    }
+
+    /**
+     * Drops the samples of the peer that are older than the max age at {@code nowMillis}.
+     *
+     * @return the number of samples left
+     */
+    public int expire(int peer, long nowMillis) {
+        int base = peer * this.window;
+        int n = this.count[peer];
+        while (n > 0) {
+            int oldest = this.head[peer] - n;
+            oldest = oldest < 0 ? oldest + this.window : oldest;
+            if (nowMillis - this.times[base + oldest] <= this.maxAgeMillis) {
+                break;
+            }
+            removeSorted(base, n, this.ranges[base + oldest]);
+            n--;
+        }
+        this.count[peer] = n;
+        return n;
+    }
+
+    /** Standard deviation to use with {@link #getFiltered(int)}; widened when a sample was replaced. */
+    public double getFilteredStdDev(int peer) {
+        return this.filteredStdDev[peer];
+    }
+
+    public int getCount(int peer) {
+        return this.count[peer];
+    }
+
+    /** Range of the sample {@code age} steps back; 0 is the newest. */
+    public double getRange(int peer, int age) {
+        return this.ranges[index(peer, age)];
+    }
+
+    public double getStdDev(int peer, int age) {
+        return this.stdDevs[index(peer, age)];
+    }
+
+    public long getTimeMillis(int peer, int age) {
+        return this.times[index(peer, age)];
+    }
+
+    public double getMedian(int peer) {
+        int n = this.count[peer];
+        if (n == 0) {
+            return 0.0;
+        }
+        int base = peer * this.window;
+        int mid = n >> 1;
+        return (n & 1) != 0 ? this.sorted[base + mid] : 0.5 * (this.sorted[base + mid - 1] + this.sorted[base + mid]);
+    }
+
+    /**
+     * Median absolute deviation from the median of the window.
+     *
+     * <p>The deviations below and above the median are each already sorted in the sorted window,
+     * so their median is found by walking both sides outward from the middle, without sorting.
+     */
+    public double getMedianAbsoluteDeviation(int peer) {
+        int n = this.count[peer];
+        if (n < 2) {
+            return 0.0;
+        }
+        int base = peer * this.window;
+        double median = getMedian(peer);
+        int lo = base + (n >> 1) - 1;
+        int hi = base + (n >> 1);
+        int end = base + n;
+        double previous = 0.0;
+        double current = 0.0;
+        for (int k = 0; k <= n >> 1; k++) {
+            previous = current;
+            double below = lo >= base ? median - this.sorted[lo] : Double.POSITIVE_INFINITY;
+            double above = hi < end ? this.sorted[hi] - median : Double.POSITIVE_INFINITY;
+            if (below <= above) {
+                current = below;
+                lo--;
+            } else {
+                current = above;
+                hi++;
+            }
+        }
+        return (n & 1) != 0 ? current : 0.5 * (previous + current);
+    }
+
+    private double hampel(int peer, double range, double stdDev) {
+        double median = getMedian(peer);
+        double sigma = MAD_SCALE * getMedianAbsoluteDeviation(peer);
+        if (this.count[peer] >= 3 && Math.abs(range - median) > this.hampelThreshold * Math.max(sigma, stdDev)) {
+            this.filteredStdDev[peer] = Math.max(stdDev, sigma);
+            return median;
+        }
+        this.filteredStdDev[peer] = stdDev;
+        return range;
+    }
+
+    private int index(int peer, int age) {
+        if (age < 0 || age >= this.count[peer]) {
+            throw new IndexOutOfBoundsException("age " + age + " of " + this.count[peer] + " samples");
+        }
+        int slot = this.head[peer] - 1 - age;
+        return peer * this.window + (slot < 0 ? slot + this.window : slot);
+    }
+
+    private void insertSorted(int base, int n, double value) {
+        int position = Arrays.binarySearch(this.sorted, base, base + n, value);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        System.arraycopy(this.sorted, position, this.sorted, position + 1, base + n - position);
+        this.sorted[position] = value;
+    }
+
+    private void removeSorted(int base, int n, double value) {
+        int position = Arrays.binarySearch(this.sorted, base, base + n, value);
+        System.arraycopy(this.sorted, position + 1, this.sorted, position, base + n - position - 1);
+    }
+}
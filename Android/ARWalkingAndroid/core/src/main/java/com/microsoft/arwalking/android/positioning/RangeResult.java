@@ -0,0 +1,32 @@
+package com.microsoft.arwalking.android.positioning;
+
+/**
+ * One range to a peer from a {@link RangingSource}, with the fields the pipeline uses from a Wi-Fi
+ * RTT {@code RangingResult}. The distance fields are only meaningful on success.
+ */
+public class RangeResult<P> {
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_FAIL = 1;
+
+    public final P peer;
+    public final int status;
+    public final int distanceMm;
+    public final int distanceStdDevMm;
+    public final int numAttemptedMeasurements;
+    public final int numSuccessfulMeasurements;
+    public final long rangingTimestampMillis;
+
+    public RangeResult(P peer2, int status2, int distanceMm2, int distanceStdDevMm2, int numAttemptedMeasurements2, int numSuccessfulMeasurements2, long rangingTimestampMillis2) {
+        this.peer = peer2;
+        this.status = status2;
+        this.distanceMm = distanceMm2;
+        this.distanceStdDevMm = distanceStdDevMm2;
+        this.numAttemptedMeasurements = numAttemptedMeasurements2;
+        this.numSuccessfulMeasurements = numSuccessfulMeasurements2;
+        this.rangingTimestampMillis = rangingTimestampMillis2;
+    }
+
+    public static <P> RangeResult<P> failed(P peer, long rangingTimestampMillis) {
+        return new RangeResult<>(peer, STATUS_FAIL, 0, 0, 0, 0, rangingTimestampMillis);
+    }
+}
@@ -0,0 +1,27 @@
+package com.microsoft.arwalking.android.positioning;
+
+import java.util.List;
+
+/**
+ * Continuous ranging to a set of peers, one round at a time: Wi-Fi RTT on a device, or a simulator
+ * off device.
+ */
+public interface RangingSource<P> {
+    interface Callback<P> {
+        /** The peers to range in the next round; asked once per round. */
+        List<P> getPeers();
+
+        /** Results of a round, on the source's thread. The list may be reused after the call. */
+        void onRangingResults(List<RangeResult<P>> results);
+
+        void onRangingFailure(int status);
+    }
+
+    void start(Callback<P> callback);
+
+    void stop();
+
+    boolean isRanging();
+
+    void setRangingPeriod(int rangingPeriodMillis);
+}
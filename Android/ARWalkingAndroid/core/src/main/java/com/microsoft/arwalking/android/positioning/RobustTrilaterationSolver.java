@@ -0,0 +1,273 @@
+package com.microsoft.arwalking.android.positioning;
+
+/**
+ * RANSAC outlier rejection on top of a {@link TrilaterationSolver}.
+ *
+ * <p>Minimal anchor subsets (one more anchor than dimensions) are solved in closed form and scored
+ * by how many of all the anchors agree with the hypothesis within a few standard deviations. The
+ * anchors outside the best consensus get a weight of 0 and the fix is then computed from the
+ * remaining ones with the regular solver. Subsets are enumerated exhaustively when there are few
+ * enough of them and sampled otherwise. The number of hypotheses is bounded, so an outlier-heavy
+ * round costs at most a fixed amount of work. Sampling restarts from the same seed on every solve,
+ * so the same anchors and ranges always give the same fix. An optional wall clock budget can cut a
+ * solve short as a safety net; it is off by default because it makes the fix depend on CPU load.
+ *
+ * <p>Anchors are loaded into the wrapped solver with their inverse-variance weights, see
+ * {@link #rangeWeight(double, int)}. Nothing is allocated after construction.
+ */
+public class RobustTrilaterationSolver {
+    public static final double DEFAULT_MIN_RANGE_STD_DEV = 100.0;
+    public static final double DEFAULT_INLIER_SIGMAS = 3.0;
+    public static final double DEFAULT_MIN_INLIER_THRESHOLD = 300.0;
+    public static final int DEFAULT_MAX_HYPOTHESES = 32;
+    /** No wall clock budget, see {@link #setTimeBudgetNanos(long)}. */
+    public static final long NO_TIME_BUDGET = 0L;
+
+    private static final long SEED = 0x2545F4914F6CDD1DL;
+
+    private final TrilaterationSolver solver;
+    private final TrilaterationSolver subsetSolver;
+    private final int subsetSize;
+    private final int[] subset;
+    private final boolean[] inliers;
+    private final boolean[] bestInliers;
+    private final double[] weights;
+    private final double[] candidate = new double[3];
+    private final double[] bestCandidate = new double[3];
+
+    private double inlierSigmas = DEFAULT_INLIER_SIGMAS;
+    private double minInlierThreshold = DEFAULT_MIN_INLIER_THRESHOLD;
+    private int maxHypotheses = DEFAULT_MAX_HYPOTHESES;
+    private long timeBudgetNanos = NO_TIME_BUDGET;
+
+    private long random;
+    private int hypotheses;
+    private int outliers;
+
+    public RobustTrilaterationSolver(TrilaterationSolver solver) {
+        this.solver = solver;
+        this.subsetSize = solver.getDimension() + 1;
+        this.subsetSolver = new TrilaterationSolver(solver.getDimension(), this.subsetSize);
+        this.subset = new int[this.subsetSize];
+        this.inliers = new boolean[solver.getCapacity()];
+        this.bestInliers = new boolean[solver.getCapacity()];
+        this.weights = new double[solver.getCapacity()];
+    }
+
+    /**
+     * Inverse variance of a range averaged over {@code successfulMeasurements} bursts with the
+     * given per-measurement standard deviation, with the standard deviation floored at
+     * {@link #DEFAULT_MIN_RANGE_STD_DEV}.
+     */
+    public static double rangeWeight(double stdDev, int successfulMeasurements) {
+        double sigma = Math.max(stdDev / Math.sqrt(Math.max(successfulMeasurements, 1)), DEFAULT_MIN_RANGE_STD_DEV);
+        return 1.0 / (sigma * sigma);
+    }
+
+    /** Anchors further from a hypothesis than this many of their standard deviations are outliers. */
+    public void setInlierSigmas(double inlierSigmas) {
+        this.inlierSigmas = inlierSigmas;
+    }
+
+    /** Lower bound on the inlier threshold, so confident ranges still tolerate anchor survey error. */
+    public void setMinInlierThreshold(double minInlierThreshold) {
+        this.minInlierThreshold = minInlierThreshold;
+    }
+
+    public void setMaxHypotheses(int maxHypotheses) {
+        this.maxHypotheses = maxHypotheses;
+    }
+
+    /**
+     * Stops sampling hypotheses after this much time per solve, or never with
+     * {@link #NO_TIME_BUDGET}. Fixes then depend on how fast the host runs.
+     */
+    public void setTimeBudgetNanos(long timeBudgetNanos) {
+        this.timeBudgetNanos = timeBudgetNanos;
+    }
+
+    public TrilaterationSolver getSolver() {
+        return this.solver;
+    }
+
+    /** Hypotheses evaluated by the last solve. */
+    public int getHypotheses() {
+        return this.hypotheses;
+    }
+
+    /** Anchors rejected by the last solve. */
+    public int getOutliers() {
+        return this.outliers;
+    }
+
+    public boolean isInlier(int index) {
+        return this.bestInliers[index];
+    }
+
+    /**
+     * Computes a fix from the anchors loaded into the wrapped solver, leaving the weight of the
+     * rejected anchors at 0.
+     */
+    public boolean solve() {
+        int count = this.solver.getAnchorCount();
+        this.hypotheses = 0;
+        this.outliers = 0;
+        for (int a = 0; a < count; a++) {
+            this.weights[a] = this.solver.getWeight(a);
+            this.bestInliers[a] = this.weights[a] > 0.0;
+        }
+        if (count <= this.subsetSize) {
+            return this.solver.solve();
+        }
+
+        this.random = SEED;
+        boolean timed = this.timeBudgetNanos > 0;
+        long deadline = timed ? System.nanoTime() + this.timeBudgetNanos : 0L;
+        int bestScore = 0;
+        double bestCost = Double.MAX_VALUE;
+        boolean exhaustive = combinations(count, this.subsetSize) <= this.maxHypotheses;
+        for (int i = 0; i < this.subsetSize; i++) {
+            this.subset[i] = i;
+        }
+
+        boolean more = true;
+        while (more && this.hypotheses < this.maxHypotheses && (!timed || System.nanoTime() < deadline)) {
+            if (!exhaustive) {
+                sampleSubset(count);
+            }
+            this.hypotheses++;
+
+            if (loadSubset() && this.subsetSolver.solveLinear(this.candidate)) {
+                double cost = 0.0;
+                int score = 0;
+                for (int a = 0; a < count; a++) {
+                    double residual = this.solver.residual(a, this.candidate[0], this.candidate[1], this.candidate[2]);
+                    this.inliers[a] = this.weights[a] > 0.0 && Math.abs(residual) <= threshold(a);
+                    if (this.inliers[a]) {
+                        score++;
+                        cost += this.weights[a] * residual * residual;
+                    }
+                }
+                if (score > bestScore || (score == bestScore && cost < bestCost)) {
+                    bestScore = score;
+                    bestCost = cost;
+                    System.arraycopy(this.inliers, 0, this.bestInliers, 0, count);
+                    System.arraycopy(this.candidate, 0, this.bestCandidate, 0, 3);
+                }
+            }
+
+            more = !exhaustive || nextCombination(count);
+        }
+
+        if (bestScore < this.subsetSize) {
+            // No hypothesis is even consistent with its own subset; fall back to using every anchor.
+            for (int a = 0; a < count; a++) {
+                this.bestInliers[a] = this.weights[a] > 0.0;
+            }
+            return this.solver.solve();
+        }
+
+        applyInliers(count);
+        this.solver.setEstimate(this.bestCandidate[0], this.bestCandidate[1], this.bestCandidate[2]);
+        if (!this.solver.solve()) {
+            return false;
+        }
+
+        // Re-check consensus at the refined fix; anchors rejected only by the coarse hypothesis come back.
+        boolean changed = false;
+        for (int a = 0; a < count; a++) {
+            boolean inlier = this.weights[a] > 0.0
+                    && Math.abs(this.solver.residual(a, this.solver.getX(), this.solver.getY(), this.solver.getZ())) <= threshold(a);
+            if (inlier != this.bestInliers[a]) {
+                this.bestInliers[a] = inlier;
+                changed = true;
+            }
+        }
+        if (changed) {
+            applyInliers(count);
+            return this.solver.solve();
+        }
+        return true;
+    }
+
+    private double threshold(int index) {
+        return Math.max(this.inlierSigmas / Math.sqrt(this.weights[index]), this.minInlierThreshold);
+    }
+
+    private void applyInliers(int count) {
+        this.outliers = 0;
+        for (int a = 0; a < count; a++) {
+            if (this.bestInliers[a]) {
+                this.solver.setWeight(a, this.weights[a]);
+            } else {
+                this.solver.setWeight(a, 0.0);
+                if (this.weights[a] > 0.0) {
+                    this.outliers++;
+                }
+            }
+        }
+    }
+
+    private boolean loadSubset() {
+        this.subsetSolver.clear();
+        for (int i = 0; i < this.subsetSize; i++) {
+            int a = this.subset[i];
+            if (!(this.weights[a] > 0.0)) {
+                return false;
+            }
+            this.subsetSolver.addAnchor(
+                    this.solver.getAnchor(a, 0), this.solver.getAnchor(a, 1), this.solver.getAnchor(a, 2),
+                    this.solver.getRange(a), this.weights[a]);
+        }
+        return true;
+    }
+
+    /** Advances {@link #subset} to the next k-combination of [0, n) in lexicographic order. */
+    private boolean nextCombination(int n) {
+        int k = this.subsetSize;
+        int i = k - 1;
+        while (i >= 0 && this.subset[i] == n - k + i) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        this.subset[i]++;
+        for (int j = i + 1; j < k; j++) {
+            this.subset[j] = this.subset[j - 1] + 1;
+        }
+        return true;
+    }
+
+    private void sampleSubset(int n) {
+        for (int i = 0; i < this.subsetSize; i++) {
+            int pick;
+            boolean duplicate;
+            do {
+                pick = nextRandom(n);
+                duplicate = false;
+                for (int j = 0; j < i; j++) {
+                    duplicate |= this.subset[j] == pick;
+                }
+            } while (duplicate);
+            this.subset[i] = pick;
+        }
+    }
+
+    /** xorshift64*, deterministic so that a replayed trace produces the same fixes. */
+    private int nextRandom(int bound) {
+        this.random ^= this.random >>> 12;
+        this.random ^= this.random << 25;
+        this.random ^= this.random >>> 27;
+        long value = (this.random * 0x2545F4914F6CDD1DL) >>> 33;
+        return (int) (value % bound);
+    }
+
+    private static long combinations(int n, int k) {
+        long result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,539 @@
+package com.microsoft.arwalking.android.positioning;
+
+/**
+ * Range solver for 2D or 3D positions.
+ *
+ * <p>With more anchors than dimensions, a fix is first computed in closed form by subtracting
+ * the mean range equation from each anchor's equation, which leaves a linear least squares
+ * problem. That fix is used as is when the geometry is well conditioned and the range residuals
+ * are small; otherwise it seeds a Levenberg-Marquardt refinement. Refinement starts from the
+ * previous fix when there is no linear fix, and stops after at most
+ * {@link #setMaxIterations(int) maxIterations} iterations.
+ *
+ * <p>Each anchor carries a weight, normally the inverse variance of its range; a weight of 0
+ * leaves the anchor out of the fix. All work buffers are allocated up front, so {@link #solve()} does not allocate. Default
+ * thresholds assume millimetres. Instances are not thread safe.
+ */
+public class TrilaterationSolver {
+    public static final int DEFAULT_MAX_ITERATIONS = 10;
+    public static final double DEFAULT_TOLERANCE = 1.0;
+    public static final double DEFAULT_MAX_LINEAR_RMS = 250.0;
+    public static final double DEFAULT_MIN_LINEAR_CONDITIONING = 0.01;
+
+    private static final double INITIAL_LAMBDA = 1e-3;
+    private static final double MAX_LAMBDA = 1e7;
+    private static final double MIN_DISTANCE = 1e-9;
+
+    private final int dimension;
+    private final int capacity;
+    private final double[] anchors;
+    private final double[] ranges;
+    private final double[] weights;
+    private int count;
+
+    private final double[] position = new double[3];
+    private boolean hasPosition;
+
+    private final double[] trial = new double[3];
+    private final double[] step = new double[3];
+    private final double[] gradient = new double[3];
+    private final double[] normal = new double[9];
+    private final double[] damped = new double[9];
+    private final double[] factor = new double[9];
+
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private boolean linearFastPath = true;
+    private double maxLinearRms = DEFAULT_MAX_LINEAR_RMS;
+    private double minLinearConditioning = DEFAULT_MIN_LINEAR_CONDITIONING;
+
+    private int iterations;
+    private double cost;
+    private boolean linearFix;
+    private double conditioning;
+
+    public TrilaterationSolver(int dimension, int capacity) {
+        if (dimension != 2 && dimension != 3) {
+            throw new IllegalArgumentException("Only 2D and 3D positions are supported");
+        }
+        this.dimension = dimension;
+        this.capacity = capacity;
+        this.anchors = new double[capacity * dimension];
+        this.ranges = new double[capacity];
+        this.weights = new double[capacity];
+    }
+
+    public int getDimension() {
+        return this.dimension;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getAnchorCount() {
+        return this.count;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /** Stops iterating once a step moves the estimate by less than this distance. */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setLinearFastPath(boolean enabled) {
+        this.linearFastPath = enabled;
+    }
+
+    /** Linear fixes with a larger residual RMS are refined iteratively. */
+    public void setMaxLinearRms(double maxLinearRms) {
+        this.maxLinearRms = maxLinearRms;
+    }
+
+    /**
+     * Linear fixes whose normal equations are worse conditioned than this (ratio of the smallest
+     * to the largest squared Cholesky pivot, 1 for ideal geometry) are refined iteratively.
+     */
+    public void setMinLinearConditioning(double minLinearConditioning) {
+        this.minLinearConditioning = minLinearConditioning;
+    }
+
+    /** Removes all anchors; the previous fix is kept as the starting point of the next solve. */
+    public void clear() {
+        this.count = 0;
+    }
+
+    /** Forgets the previous fix, so the next solve starts from the anchor centroid. */
+    public void resetEstimate() {
+        this.hasPosition = false;
+    }
+
+    public void setEstimate(double x, double y, double z) {
+        this.position[0] = x;
+        this.position[1] = y;
+        this.position[2] = z;
+        this.hasPosition = true;
+    }
+
+    public boolean addAnchor(double x, double y, double range) {
+        return addAnchor(x, y, 0.0, range);
+    }
+
+    public boolean addAnchor(double x, double y, double z, double range) {
+        return addAnchor(x, y, z, range, 1.0);
+    }
+
+    public boolean addAnchor(double x, double y, double z, double range, double weight) {
+        if (this.count >= this.capacity) {
+            return false;
+        }
+        int offset = this.count * this.dimension;
+        this.anchors[offset] = x;
+        this.anchors[offset + 1] = y;
+        if (this.dimension == 3) {
+            this.anchors[offset + 2] = z;
+        }
+        this.ranges[this.count] = range;
+        this.weights[this.count] = weight;
+        this.count++;
+        return true;
+    }
+
+    public double getAnchor(int index, int axis) {
+        return axis < this.dimension ? this.anchors[index * this.dimension + axis] : 0.0;
+    }
+
+    public double getRange(int index) {
+        return this.ranges[index];
+    }
+
+    public double getWeight(int index) {
+        return this.weights[index];
+    }
+
+    public void setWeight(int index, double weight) {
+        this.weights[index] = weight;
+    }
+
+    /** Number of anchors with a non-zero weight. */
+    public int getActiveAnchorCount() {
+        int active = 0;
+        for (int a = 0; a < this.count; a++) {
+            if (this.weights[a] > 0.0) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Computes a fix from the current anchors.
+     *
+     * @return false if there are fewer than two anchors or the normal equations are singular
+     */
+    public boolean solve() {
+        this.linearFix = false;
+        this.iterations = 0;
+        int active = getActiveAnchorCount();
+        if (active < 2) {
+            return false;
+        }
+
+        if (this.linearFastPath && active > this.dimension && solveLinear(this.trial)) {
+            double linearCost = evaluate(this.trial, true);
+            if (this.conditioning >= this.minLinearConditioning
+                    && Math.sqrt(linearCost / totalWeight()) <= this.maxLinearRms) {
+                for (int i = 0; i < 3; i++) {
+                    this.position[i] = this.trial[i];
+                }
+                this.cost = linearCost;
+                this.linearFix = true;
+                this.hasPosition = true;
+                return true;
+            }
+            if (!this.hasPosition || linearCost < evaluate(this.position, false)) {
+                for (int i = 0; i < 3; i++) {
+                    this.position[i] = this.trial[i];
+                }
+                this.hasPosition = true;
+            }
+        }
+
+        return refine();
+    }
+
+    /**
+     * Closed-form weighted linear least squares fix over all anchors, written to {@code out}.
+     *
+     * <p>Each range equation |p - a_i|^2 = r_i^2 minus their weighted mean cancels the quadratic
+     * term, leaving -2 (a_i - mean(a)) . p = r_i^2 - mean(r^2) - |a_i|^2 + mean(|a|^2).
+     *
+     * @return false if the anchors do not span the solution space
+     */
+    public boolean solveLinear(double[] out) {
+        int n = this.dimension;
+        double totalWeight = totalWeight();
+        if (this.count <= n || !(totalWeight > 0.0)) {
+            return false;
+        }
+
+        double meanRangeSquared = 0.0;
+        double meanNormSquared = 0.0;
+        for (int i = 0; i < 3; i++) {
+            this.step[i] = 0.0;
+        }
+        for (int a = 0; a < this.count; a++) {
+            int offset = a * n;
+            double w = this.weights[a];
+            double normSquared = 0.0;
+            for (int i = 0; i < n; i++) {
+                double v = this.anchors[offset + i];
+                this.step[i] += w * v;
+                normSquared += v * v;
+            }
+            meanRangeSquared += w * this.ranges[a] * this.ranges[a];
+            meanNormSquared += w * normSquared;
+        }
+        meanRangeSquared /= totalWeight;
+        meanNormSquared /= totalWeight;
+        for (int i = 0; i < n; i++) {
+            this.step[i] /= totalWeight;
+        }
+
+        for (int i = 0; i < n * n; i++) {
+            this.factor[i] = 0.0;
+        }
+        for (int i = 0; i < n; i++) {
+            this.gradient[i] = 0.0;
+        }
+        for (int a = 0; a < this.count; a++) {
+            int offset = a * n;
+            double w = this.weights[a];
+            if (w <= 0.0) {
+                continue;
+            }
+            double normSquared = 0.0;
+            for (int i = 0; i < n; i++) {
+                double v = this.anchors[offset + i];
+                normSquared += v * v;
+            }
+            double b = this.ranges[a] * this.ranges[a] - meanRangeSquared - normSquared + meanNormSquared;
+            for (int i = 0; i < n; i++) {
+                double ai = -2.0 * (this.anchors[offset + i] - this.step[i]);
+                this.gradient[i] += w * ai * b;
+                for (int j = 0; j <= i; j++) {
+                    double aj = -2.0 * (this.anchors[offset + j] - this.step[j]);
+                    this.factor[i * n + j] += w * ai * aj;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                this.factor[i * n + j] = this.factor[j * n + i];
+            }
+        }
+
+        if (!cholesky(this.factor, n)) {
+            this.conditioning = 0.0;
+            return false;
+        }
+        double minPivot = Double.MAX_VALUE;
+        double maxPivot = 0.0;
+        for (int i = 0; i < n; i++) {
+            double pivot = this.factor[i * n + i];
+            minPivot = Math.min(minPivot, pivot);
+            maxPivot = Math.max(maxPivot, pivot);
+        }
+        this.conditioning = (minPivot * minPivot) / (maxPivot * maxPivot);
+
+        solveCholesky(this.factor, this.gradient, out, n);
+        if (n == 2) {
+            out[2] = 0.0;
+        }
+        return true;
+    }
+
+    private boolean refine() {
+        if (!this.hasPosition) {
+            centroid(this.position);
+        }
+
+        int n = this.dimension;
+        double lambda = INITIAL_LAMBDA;
+        this.cost = evaluate(this.position, true);
+
+        while (this.iterations < this.maxIterations) {
+            this.iterations++;
+
+            for (int i = 0; i < n * n; i++) {
+                this.damped[i] = this.normal[i];
+            }
+            for (int i = 0; i < n; i++) {
+                this.damped[i * n + i] += lambda * Math.max(this.normal[i * n + i], MIN_DISTANCE);
+            }
+            if (!cholesky(this.damped, n)) {
+                lambda *= 10.0;
+                if (lambda > MAX_LAMBDA) {
+                    break;
+                }
+                continue;
+            }
+            solveCholesky(this.damped, this.gradient, this.step, n);
+
+            double stepNorm = 0.0;
+            for (int i = 0; i < n; i++) {
+                this.trial[i] = this.position[i] - this.step[i];
+                stepNorm += this.step[i] * this.step[i];
+            }
+            double trialCost = evaluate(this.trial, false);
+
+            if (trialCost < this.cost) {
+                for (int i = 0; i < n; i++) {
+                    this.position[i] = this.trial[i];
+                }
+                lambda = Math.max(lambda / 10.0, 1e-12);
+                this.cost = evaluate(this.position, true);
+                if (Math.sqrt(stepNorm) < this.tolerance) {
+                    break;
+                }
+            } else {
+                lambda *= 10.0;
+                if (lambda > MAX_LAMBDA || Math.sqrt(stepNorm) < this.tolerance) {
+                    break;
+                }
+            }
+        }
+
+        if (Double.isNaN(this.position[0]) || Double.isNaN(this.position[1]) || Double.isNaN(this.position[2])) {
+            this.hasPosition = false;
+            return false;
+        }
+        this.hasPosition = true;
+        return true;
+    }
+
+    public double getX() {
+        return this.position[0];
+    }
+
+    public double getY() {
+        return this.position[1];
+    }
+
+    public double getZ() {
+        return this.position[2];
+    }
+
+    /** Levenberg-Marquardt iterations used by the last solve, 0 for a linear fix. */
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    /** True if the last fix came straight from the closed-form linear estimate. */
+    public boolean isLinearFix() {
+        return this.linearFix;
+    }
+
+    /** Conditioning of the last linear estimate, see {@link #setMinLinearConditioning(double)}. */
+    public double getConditioning() {
+        return this.conditioning;
+    }
+
+    /** Weighted root mean square of the range residuals at the last fix. */
+    public double getRms() {
+        double totalWeight = totalWeight();
+        return totalWeight > 0.0 ? Math.sqrt(this.cost / totalWeight) : 0.0;
+    }
+
+    /**
+     * Standard deviation of the fix along each axis, from the covariance of the last solve.
+     *
+     * @return false if the geometry is degenerate and no covariance could be computed
+     */
+    public boolean getStandardDeviation(double[] out) {
+        int n = this.dimension;
+        int dof = getActiveAnchorCount() - n;
+        double variance = this.cost / (dof > 0 ? dof : 1);
+
+        for (int i = 0; i < n * n; i++) {
+            this.factor[i] = this.normal[i];
+        }
+        if (!cholesky(this.factor, n)) {
+            return false;
+        }
+        for (int axis = 0; axis < n; axis++) {
+            for (int i = 0; i < n; i++) {
+                this.trial[i] = i == axis ? 1.0 : 0.0;
+            }
+            solveCholesky(this.factor, this.trial, this.step, n);
+            out[axis] = Math.sqrt(variance * this.step[axis]);
+        }
+        return true;
+    }
+
+    /** Residual of anchor {@code index} at the given point: distance minus measured range. */
+    public double residual(int index, double x, double y, double z) {
+        int offset = index * this.dimension;
+        double dx = x - this.anchors[offset];
+        double dy = y - this.anchors[offset + 1];
+        double dz = this.dimension == 3 ? z - this.anchors[offset + 2] : 0.0;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz) - this.ranges[index];
+    }
+
+    private double totalWeight() {
+        double total = 0.0;
+        for (int a = 0; a < this.count; a++) {
+            total += this.weights[a];
+        }
+        return total;
+    }
+
+    private void centroid(double[] out) {
+        double totalWeight = totalWeight();
+        out[0] = 0.0;
+        out[1] = 0.0;
+        out[2] = 0.0;
+        for (int a = 0; a < this.count; a++) {
+            for (int i = 0; i < this.dimension; i++) {
+                out[i] += this.weights[a] * this.anchors[a * this.dimension + i];
+            }
+        }
+        for (int i = 0; i < this.dimension; i++) {
+            out[i] /= totalWeight;
+        }
+    }
+
+    /** Returns the weighted sum of squared residuals at {@code p}, and fills J^T J and J^T r if asked to. */
+    private double evaluate(double[] p, boolean linearize) {
+        int n = this.dimension;
+        if (linearize) {
+            for (int i = 0; i < n * n; i++) {
+                this.normal[i] = 0.0;
+            }
+            for (int i = 0; i < n; i++) {
+                this.gradient[i] = 0.0;
+            }
+        }
+
+        double sum = 0.0;
+        for (int a = 0; a < this.count; a++) {
+            int offset = a * n;
+            double w = this.weights[a];
+            if (w <= 0.0) {
+                continue;
+            }
+            double distanceSquared = 0.0;
+            for (int i = 0; i < n; i++) {
+                double d = p[i] - this.anchors[offset + i];
+                distanceSquared += d * d;
+            }
+            double distance = Math.max(Math.sqrt(distanceSquared), MIN_DISTANCE);
+            double r = distance - this.ranges[a];
+            sum += w * r * r;
+
+            if (linearize) {
+                for (int i = 0; i < n; i++) {
+                    double ji = (p[i] - this.anchors[offset + i]) / distance;
+                    this.gradient[i] += w * ji * r;
+                    for (int j = 0; j <= i; j++) {
+                        double jj = (p[j] - this.anchors[offset + j]) / distance;
+                        this.normal[i * n + j] += w * ji * jj;
+                    }
+                }
+            }
+        }
+
+        if (linearize) {
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    this.normal[i * n + j] = this.normal[j * n + i];
+                }
+            }
+        }
+        return sum;
+    }
+
+    /** In-place Cholesky factorization of a small symmetric positive definite matrix. */
+    static boolean cholesky(double[] m, int n) {
+        for (int j = 0; j < n; j++) {
+            double d = m[j * n + j];
+            for (int k = 0; k < j; k++) {
+                d -= m[j * n + k] * m[j * n + k];
+            }
+            if (!(d > 0.0)) {
+                return false;
+            }
+            d = Math.sqrt(d);
+            m[j * n + j] = d;
+            for (int i = j + 1; i < n; i++) {
+                double s = m[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    s -= m[i * n + k] * m[j * n + k];
+                }
+                m[i * n + j] = s / d;
+            }
+        }
+        return true;
+    }
+
+    /** Solves L L^T x = b for a factor produced by {@link #cholesky(double[], int)}. */
+    static void solveCholesky(double[] l, double[] b, double[] x, int n) {
+        for (int i = 0; i < n; i++) {
+            double s = b[i];
+            for (int k = 0; k < i; k++) {
+                s -= l[i * n + k] * x[k];
+            }
+            x[i] = s / l[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int k = i + 1; k < n; k++) {
+                s -= l[k * n + i] * x[k];
+            }
+            x[i] = s / l[i * n + i];
+        }
+    }
+}
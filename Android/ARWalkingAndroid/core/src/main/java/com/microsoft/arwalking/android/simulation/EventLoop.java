@@ -0,0 +1,61 @@
+package com.microsoft.arwalking.android.simulation;
+
+import java.util.PriorityQueue;
+
+/**
+ * Single threaded event loop on a virtual clock. Time only moves when the next event runs, so a
+ * simulation of an hour finishes as fast as its events can be processed and every run with the
+ * same inputs is identical. Events at the same time run in the order they were posted.
+ */
+public class EventLoop {
+    private static final class Event implements Comparable<Event> {
+        final long timeMillis;
+        final long order;
+        final Runnable task;
+
+        Event(long timeMillis, long order, Runnable task) {
+            this.timeMillis = timeMillis;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (this.timeMillis != other.timeMillis) {
+                return Long.compare(this.timeMillis, other.timeMillis);
+            }
+            return Long.compare(this.order, other.order);
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long nowMillis;
+    private long posted;
+
+    public long getNowMillis() {
+        return this.nowMillis;
+    }
+
+    /** Runs {@code task} at {@code timeMillis}, or now if that is in the past. */
+    public void postAt(long timeMillis, Runnable task) {
+        this.events.add(new Event(Math.max(timeMillis, this.nowMillis), this.posted++, task));
+    }
+
+    public void postDelayed(long delayMillis, Runnable task) {
+        postAt(this.nowMillis + delayMillis, task);
+    }
+
+    public boolean isIdle() {
+        return this.events.isEmpty();
+    }
+
+    /** Runs the events due up to {@code endMillis} and leaves the clock there. */
+    public void runUntil(long endMillis) {
+        while (!this.events.isEmpty() && this.events.peek().timeMillis <= endMillis) {
+            Event event = this.events.poll();
+            this.nowMillis = event.timeMillis;
+            event.task.run();
+        }
+        this.nowMillis = Math.max(this.nowMillis, endMillis);
+    }
+}
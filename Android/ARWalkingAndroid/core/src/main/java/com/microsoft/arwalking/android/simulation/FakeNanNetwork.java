@@ -0,0 +1,382 @@
+package com.microsoft.arwalking.android.simulation;
+
+import com.google.android.apps.location.rtt.nanrttlib.NanTransport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * In-process Wi-Fi Aware network on the virtual clock of an {@link EventLoop}, for running many
+ * {@code NanClient}s without hardware. Each {@link Device} is a {@link NanTransport} whose peer
+ * handles are the indices of the other devices.
+ *
+ * <p>A subscribe session discovers every publish session of the same service on another device,
+ * after the discovery delay plus a uniform jitter. A follow-up message goes from a session to the
+ * peer's session of the other kind for the same service; it arrives after the message latency,
+ * and the sender is told it succeeded at the same time. It fails instead if it is lost, if the
+ * peer has no such session, or if the sender is over its follow-up rate limit, a token bucket per
+ * device. Sessions can be terminated at random with a given mean lifetime, and devices can lose
+ * Wi-Fi Aware with {@link Device#setAvailable}. All randomness comes from one seed.
+ */
+public class FakeNanNetwork {
+    public static final long DEFAULT_DISCOVERY_DELAY_MILLIS = 500;
+    public static final long DEFAULT_DISCOVERY_JITTER_MILLIS = 1500;
+    public static final long DEFAULT_MESSAGE_LATENCY_MILLIS = 5;
+    public static final long DEFAULT_MESSAGE_JITTER_MILLIS = 10;
+    public static final double DEFAULT_MESSAGE_LOSS_PROBABILITY = 0.02;
+    public static final double DEFAULT_FOLLOW_UP_RATE = 20.0;
+    public static final int DEFAULT_FOLLOW_UP_BURST = 10;
+    public static final long DEFAULT_ATTACH_DELAY_MILLIS = 50;
+
+    private static final List<byte[]> NO_MATCH_FILTER = Collections.emptyList();
+
+    private static final class Session {
+        final Device device;
+        final int id;
+        final boolean publish;
+        final String service;
+        final NanTransport.SessionCallback<Integer> callback;
+        byte[] serviceSpecificInfo;
+        boolean open = true;
+
+        Session(Device device, int id, boolean publish, String service, byte[] serviceSpecificInfo, NanTransport.SessionCallback<Integer> callback) {
+            this.device = device;
+            this.id = id;
+            this.publish = publish;
+            this.service = service;
+            this.serviceSpecificInfo = serviceSpecificInfo;
+            this.callback = callback;
+        }
+    }
+
+    private final EventLoop loop;
+    private final Random random;
+    private final ArrayList<Device> devices = new ArrayList<>();
+    private final ArrayList<Session> sessions = new ArrayList<>();
+
+    private long discoveryDelayMillis = DEFAULT_DISCOVERY_DELAY_MILLIS;
+    private long discoveryJitterMillis = DEFAULT_DISCOVERY_JITTER_MILLIS;
+    private long messageLatencyMillis = DEFAULT_MESSAGE_LATENCY_MILLIS;
+    private long messageJitterMillis = DEFAULT_MESSAGE_JITTER_MILLIS;
+    private double messageLossProbability = DEFAULT_MESSAGE_LOSS_PROBABILITY;
+    private double followUpRate = DEFAULT_FOLLOW_UP_RATE;
+    private int followUpBurst = DEFAULT_FOLLOW_UP_BURST;
+    private long attachDelayMillis = DEFAULT_ATTACH_DELAY_MILLIS;
+    private long sessionLifetimeMillis;
+
+    private long discoveries;
+    private long messagesSent;
+    private long messagesDelivered;
+    private long messagesLost;
+    private long messagesRateLimited;
+    private long messagesUndeliverable;
+    private long sessionsTerminated;
+
+    public FakeNanNetwork(EventLoop loop, long seed) {
+        this.loop = loop;
+        this.random = new Random(seed);
+    }
+
+    public void setDiscoveryDelay(long delayMillis, long jitterMillis) {
+        this.discoveryDelayMillis = delayMillis;
+        this.discoveryJitterMillis = jitterMillis;
+    }
+
+    public void setMessageLatency(long latencyMillis, long jitterMillis) {
+        this.messageLatencyMillis = latencyMillis;
+        this.messageJitterMillis = jitterMillis;
+    }
+
+    public void setMessageLossProbability(double messageLossProbability) {
+        this.messageLossProbability = messageLossProbability;
+    }
+
+    /** Follow-up messages a device may send per second on average, and in a burst. */
+    public void setFollowUpRateLimit(double perSecond, int burst) {
+        this.followUpRate = perSecond;
+        this.followUpBurst = burst;
+    }
+
+    public void setAttachDelayMillis(long attachDelayMillis) {
+        this.attachDelayMillis = attachDelayMillis;
+    }
+
+    /** Mean time until the network terminates a session, exponentially distributed; 0 for never. */
+    public void setSessionLifetimeMillis(long sessionLifetimeMillis) {
+        this.sessionLifetimeMillis = sessionLifetimeMillis;
+    }
+
+    public Device addDevice() {
+        Device device = new Device(this.devices.size());
+        this.devices.add(device);
+        return device;
+    }
+
+    public Device getDevice(int index) {
+        return this.devices.get(index);
+    }
+
+    public int getDeviceCount() {
+        return this.devices.size();
+    }
+
+    public long getDiscoveries() {
+        return this.discoveries;
+    }
+
+    public long getMessagesSent() {
+        return this.messagesSent;
+    }
+
+    public long getMessagesDelivered() {
+        return this.messagesDelivered;
+    }
+
+    public long getMessagesLost() {
+        return this.messagesLost;
+    }
+
+    public long getMessagesRateLimited() {
+        return this.messagesRateLimited;
+    }
+
+    public long getMessagesUndeliverable() {
+        return this.messagesUndeliverable;
+    }
+
+    public long getSessionsTerminated() {
+        return this.sessionsTerminated;
+    }
+
+    private long jitter(long jitterMillis) {
+        return jitterMillis > 0 ? (long) (this.random.nextDouble() * jitterMillis) : 0;
+    }
+
+    private void startSession(final Session session) {
+        if (!session.open) {
+            return;
+        }
+        session.callback.onSessionStarted(session.id);
+        if (!session.open) {
+            return;
+        }
+        // Discovery runs between the new session and every open session of the other kind.
+        for (int i = 0; i < this.sessions.size(); i++) {
+            Session other = this.sessions.get(i);
+            if (other != session && other.open && other.device != session.device && other.publish != session.publish && other.service.equals(session.service)) {
+                final Session subscriber = session.publish ? other : session;
+                final Session publisher = session.publish ? session : other;
+                this.loop.postDelayed(this.discoveryDelayMillis + jitter(this.discoveryJitterMillis), () -> discover(subscriber, publisher));
+            }
+        }
+        this.sessions.add(session);
+        if (this.sessionLifetimeMillis > 0) {
+            long lifetime = (long) (-this.sessionLifetimeMillis * Math.log(1.0 - this.random.nextDouble()));
+            this.loop.postDelayed(lifetime, () -> terminate(session));
+        }
+    }
+
+    private void discover(Session subscriber, Session publisher) {
+        if (subscriber.open && publisher.open) {
+            this.discoveries++;
+            subscriber.callback.onServiceDiscovered(subscriber.id, publisher.device.index, publisher.serviceSpecificInfo, NO_MATCH_FILTER);
+        }
+    }
+
+    private void terminate(Session session) {
+        if (session.open) {
+            this.sessionsTerminated++;
+            close(session);
+            session.callback.onSessionTerminated(session.id);
+        }
+    }
+
+    private void close(Session session) {
+        session.open = false;
+        this.sessions.remove(session);
+        session.device.sessions.remove(session.id);
+    }
+
+    private Session findSession(int deviceIndex, boolean publish, String service) {
+        if (deviceIndex < 0 || deviceIndex >= this.devices.size()) {
+            return null;
+        }
+        for (Session session : this.devices.get(deviceIndex).sessions.values()) {
+            if (session.open && session.publish == publish && session.service.equals(service)) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    private void send(final Session from, int peer, final int messageId, final byte[] message) {
+        this.messagesSent++;
+        final long latency = this.messageLatencyMillis + jitter(this.messageJitterMillis);
+        if (!from.device.takeToken()) {
+            this.messagesRateLimited++;
+            this.loop.postDelayed(1, () -> {
+                if (from.open) {
+                    from.callback.onMessageSendFailed(from.id, messageId);
+                }
+            });
+            return;
+        }
+        final Session to = findSession(peer, !from.publish, from.service);
+        final boolean lost = this.random.nextDouble() < this.messageLossProbability;
+        this.loop.postDelayed(latency, () -> {
+            boolean delivered = !lost && to != null && to.open;
+            if (delivered) {
+                this.messagesDelivered++;
+                to.callback.onMessageReceived(to.id, from.device.index, message);
+            } else if (lost) {
+                this.messagesLost++;
+            } else {
+                this.messagesUndeliverable++;
+            }
+            if (from.open) {
+                if (delivered) {
+                    from.callback.onMessageSendSucceeded(from.id, messageId);
+                } else {
+                    from.callback.onMessageSendFailed(from.id, messageId);
+                }
+            }
+        });
+    }
+
+    /** One device's Wi-Fi Aware; its peer handles are device indices. */
+    public class Device implements NanTransport<Integer> {
+        final int index;
+        final HashMap<Integer, Session> sessions = new HashMap<>();
+        // Latest post of each task, so removeCallbacks can cancel it.
+        private final HashMap<Runnable, Long> posted = new HashMap<>();
+        private long nextPost;
+        private int nextSession = 1;
+        private boolean available = true;
+        private AvailabilityListener availabilityListener;
+        private double tokens = FakeNanNetwork.this.followUpBurst;
+        private long tokenMillis;
+
+        Device(int index2) {
+            this.index = index2;
+        }
+
+        public int getIndex() {
+            return this.index;
+        }
+
+        /** Turns Wi-Fi Aware off or on; turning it off closes the device's sessions. */
+        public void setAvailable(boolean available2) {
+            if (this.available == available2) {
+                return;
+            }
+            this.available = available2;
+            if (!available2) {
+                detach();
+            }
+            if (this.availabilityListener != null) {
+                this.availabilityListener.onAvailabilityChanged(available2);
+            }
+        }
+
+        boolean takeToken() {
+            long now = FakeNanNetwork.this.loop.getNowMillis();
+            this.tokens = Math.min(FakeNanNetwork.this.followUpBurst, this.tokens + (now - this.tokenMillis) * FakeNanNetwork.this.followUpRate / 1000.0);
+            this.tokenMillis = now;
+            if (this.tokens < 1.0) {
+                return false;
+            }
+            this.tokens -= 1.0;
+            return true;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return this.available;
+        }
+
+        @Override
+        public void setAvailabilityListener(AvailabilityListener listener) {
+            this.availabilityListener = listener;
+        }
+
+        @Override
+        public void attach(final AttachCallback callback) {
+            FakeNanNetwork.this.loop.postDelayed(FakeNanNetwork.this.attachDelayMillis, () -> {
+                if (this.available) {
+                    callback.onAttached();
+                } else {
+                    callback.onAttachFailed();
+                }
+            });
+        }
+
+        @Override
+        public void detach() {
+            for (Session session : new ArrayList<>(this.sessions.values())) {
+                close(session);
+            }
+        }
+
+        @Override
+        public int publish(String service, byte[] serviceSpecificInfo, boolean rangingEnabled, SessionCallback<Integer> callback) {
+            return open(true, service, serviceSpecificInfo, callback);
+        }
+
+        @Override
+        public int subscribe(String service, SessionCallback<Integer> callback) {
+            return open(false, service, null, callback);
+        }
+
+        private int open(boolean publish, String service, byte[] serviceSpecificInfo, SessionCallback<Integer> callback) {
+            final Session session = new Session(this, this.nextSession++, publish, service, serviceSpecificInfo, callback);
+            this.sessions.put(session.id, session);
+            FakeNanNetwork.this.loop.postDelayed(FakeNanNetwork.this.attachDelayMillis, () -> startSession(session));
+            return session.id;
+        }
+
+        @Override
+        public void updatePublish(int session, String service, byte[] serviceSpecificInfo, boolean rangingEnabled) {
+            Session publishSession = this.sessions.get(session);
+            if (publishSession != null) {
+                publishSession.serviceSpecificInfo = serviceSpecificInfo;
+            }
+        }
+
+        @Override
+        public void sendMessage(int session, Integer peer, int messageId, byte[] message) {
+            Session from = this.sessions.get(session);
+            if (from != null && from.open) {
+                send(from, peer, messageId, message);
+            }
+        }
+
+        @Override
+        public void closeSession(int session) {
+            Session closing = this.sessions.get(session);
+            if (closing != null) {
+                close(closing);
+            }
+        }
+
+        @Override
+        public void postDelayed(final Runnable task, long delayMillis) {
+            final long post = this.nextPost++;
+            this.posted.put(task, post);
+            FakeNanNetwork.this.loop.postDelayed(delayMillis, () -> {
+                Long latest = this.posted.get(task);
+                if (latest != null && latest == post) {
+                    this.posted.remove(task);
+                    task.run();
+                }
+            });
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            this.posted.remove(task);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.microsoft.arwalking.android.simulation;
+
+import com.google.android.apps.location.rtt.nanrttlib.DiscoveryInfo;
+import com.google.android.apps.location.rtt.nanrttlib.HashedTimingWheel;
+import com.google.android.apps.location.rtt.nanrttlib.Message;
+import com.google.android.apps.location.rtt.nanrttlib.NanClient;
+import com.google.android.apps.location.rtt.nanrttlib.NanMessageQueue;
+import com.google.android.apps.location.rtt.nanrttlib.NanPublisherCallback;
+import com.google.android.apps.location.rtt.nanrttlib.NanSubscriberCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Load test of NAN discovery and messaging at venue scale. Every device runs a {@link NanClient}
+ * and a {@link NanMessageQueue} on a {@link FakeNanNetwork} device and speaks the protocol of
+ * {@code MainActivity}: subscribers send a name request to each discovered publisher, which
+ * acknowledges it, and then ping it every {@link Message#PING_DELAY}; both sides forget a peer that
+ * was silent for {@link Message#TIMEOUT}. A session the network terminates is started again after
+ * a short delay, as a user would.
+ *
+ * <p>Reports the handshake time from discovery to the name acknowledgement, the time until a
+ * subscriber knows every publisher, ping round trips and message throughput. Run with
+ * {@code ./gradlew :core:loadTest -PloadArgs="publishers=100 subscribers=400 loss=0.05"}; see
+ * {@link #set} for the settings.
+ */
+public class NanLoadTest {
+    private static final String SERVICE_NAME = "General";
+    private static final long LIVENESS_TICK_MS = 1000;
+    private static final int LIVENESS_WHEEL_SLOTS = 16;
+    private static final long RESTART_DELAY_MS = 2000;
+
+    // Settings
+    long seed = 1;
+    int publishers = 20;
+    int subscribers = 80;
+    long durationSeconds = 120;
+    long rampUpSeconds = 10;
+    long discoveryDelay = FakeNanNetwork.DEFAULT_DISCOVERY_DELAY_MILLIS;
+    long discoveryJitter = FakeNanNetwork.DEFAULT_DISCOVERY_JITTER_MILLIS;
+    long latency = FakeNanNetwork.DEFAULT_MESSAGE_LATENCY_MILLIS;
+    double loss = FakeNanNetwork.DEFAULT_MESSAGE_LOSS_PROBABILITY;
+    double rate = FakeNanNetwork.DEFAULT_FOLLOW_UP_RATE;
+    int burst = FakeNanNetwork.DEFAULT_FOLLOW_UP_BURST;
+    long lifetimeSeconds;
+
+    private EventLoop loop;
+    private FakeNanNetwork network;
+    private final ArrayList<Node> nodes = new ArrayList<>();
+
+    private long handshakes;
+    private long timeouts;
+    private long restarts;
+    private long messagesReceived;
+    private final Samples handshakeMillis = new Samples();
+    private final Samples meshMillis = new Samples();
+    private final Samples pingRoundTripMillis = new Samples();
+
+    /** One device running the app's NAN protocol as publisher or subscriber. */
+    private final class Node implements NanPublisherCallback<Integer>, NanSubscriberCallback<Integer> {
+        final FakeNanNetwork.Device device;
+        final boolean publisher;
+        final String deviceName;
+        final NanClient<Integer> client;
+        final NanMessageQueue<Integer> queue;
+        final HashedTimingWheel livenessWheel;
+        final Runnable messagePump = this::pumpMessages;
+        final Runnable livenessTick = this::tickLiveness;
+        final Runnable restart = this::start;
+        final long[] discoveredMillis;
+        final long[] checkInMillis;
+        final long[] pingSentMillis;
+        final boolean[] known;
+        int knownCount;
+        long startMillis;
+        boolean meshed;
+
+        Node(FakeNanNetwork.Device device2, boolean publisher2, int capacity) {
+            this.device = device2;
+            this.publisher = publisher2;
+            this.deviceName = (publisher2 ? "Anchor-" : "Walker-") + device2.getIndex();
+            this.client = new NanClient<>(device2, this);
+            this.queue = new NanMessageQueue<>(this.client::sendMessage);
+            this.livenessWheel = new HashedTimingWheel(capacity, LIVENESS_WHEEL_SLOTS, LIVENESS_TICK_MS, this::onLivenessTimer);
+            this.discoveredMillis = new long[capacity];
+            this.checkInMillis = new long[capacity];
+            this.pingSentMillis = new long[capacity];
+            this.known = new boolean[capacity];
+            Arrays.fill(this.discoveredMillis, -1);
+        }
+
+        void start() {
+            this.startMillis = now();
+            if (this.publisher) {
+                this.client.publishService(SERVICE_NAME, this, new DiscoveryInfo(this.deviceName).toBytes());
+            } else {
+                this.client.subscribeService(SERVICE_NAME, this);
+            }
+            this.device.postDelayed(this.livenessTick, LIVENESS_TICK_MS);
+        }
+
+        private void reset() {
+            Arrays.fill(this.discoveredMillis, -1);
+            Arrays.fill(this.known, false);
+            this.knownCount = 0;
+            this.livenessWheel.clear();
+            this.queue.clear();
+            this.device.removeCallbacks(this.livenessTick);
+        }
+
+        private void queueMessage(int mode, int peer, int requestType) {
+            this.queue.enqueue(mode, SERVICE_NAME, peer, requestType, new Message(this.deviceName, requestType, "").toBytes(), now());
+            pumpMessages();
+        }
+
+        private void pumpMessages() {
+            this.device.removeCallbacks(this.messagePump);
+            long now = now();
+            long wakeup = this.queue.poll(now);
+            if (wakeup != Long.MAX_VALUE) {
+                this.device.postDelayed(this.messagePump, wakeup - now);
+            }
+        }
+
+        private void checkIn(int peer) {
+            this.checkInMillis[peer] = now();
+            if (!this.known[peer]) {
+                this.known[peer] = true;
+                this.knownCount++;
+                // Subscribers ping right away, as in the app; publishers only watch for timeouts.
+                this.livenessWheel.schedule(peer, this.publisher ? now() + Message.PING_DELAY.toMillis() : now());
+            }
+        }
+
+        private void onLivenessTimer(int peer, long now) {
+            if (!this.known[peer]) {
+                return;
+            }
+            if (now - this.checkInMillis[peer] > Message.TIMEOUT.toMillis()) {
+                NanLoadTest.this.timeouts++;
+                this.known[peer] = false;
+                this.knownCount--;
+                this.queue.removePeer(peer);
+                return;
+            }
+            if (!this.publisher) {
+                this.pingSentMillis[peer] = now;
+                queueMessage(NanClient.SUBSCRIBE_MODE, peer, Message.PING_MESSAGE);
+            }
+            this.livenessWheel.schedule(peer, now + Message.PING_DELAY.toMillis());
+        }
+
+        private void tickLiveness() {
+            this.livenessWheel.advance(now());
+            this.device.postDelayed(this.livenessTick, LIVENESS_TICK_MS);
+        }
+
+        @Override
+        public void onMessagedReceived(int mode, String service, Integer peer, byte[] message) {
+            NanLoadTest.this.messagesReceived++;
+            switch (Message.peekRequestType(message)) {
+                case Message.NAME_REQUEST_MESSAGE:
+                    queueMessage(mode, peer, Message.NAME_REQUEST_ACK_MESSAGE);
+                    checkIn(peer);
+                    return;
+                case Message.PING_MESSAGE:
+                    queueMessage(mode, peer, Message.PING_ACK_MESSAGE);
+                    checkIn(peer);
+                    return;
+                case Message.NAME_REQUEST_ACK_MESSAGE:
+                    if (!this.known[peer] && this.discoveredMillis[peer] >= 0) {
+                        NanLoadTest.this.handshakes++;
+                        NanLoadTest.this.handshakeMillis.add(now() - this.discoveredMillis[peer]);
+                    }
+                    checkIn(peer);
+                    if (!this.meshed && this.knownCount == NanLoadTest.this.publishers) {
+                        this.meshed = true;
+                        NanLoadTest.this.meshMillis.add(now() - this.startMillis);
+                    }
+                    return;
+                case Message.PING_ACK_MESSAGE:
+                    if (this.pingSentMillis[peer] > 0) {
+                        NanLoadTest.this.pingRoundTripMillis.add(now() - this.pingSentMillis[peer]);
+                        this.pingSentMillis[peer] = 0;
+                    }
+                    checkIn(peer);
+                    return;
+                default:
+                    return;
+            }
+        }
+
+        @Override
+        public void onServiceDiscovered(String service, Integer peer, byte[] serviceSpecificInfo, List<byte[]> matchFilter) {
+            if (this.discoveredMillis[peer] < 0) {
+                this.discoveredMillis[peer] = now();
+            }
+            queueMessage(NanClient.SUBSCRIBE_MODE, peer, Message.NAME_REQUEST_MESSAGE);
+        }
+
+        @Override
+        public void onMessageSendSucceeded(int mode, String service, int messageId) {
+            this.queue.onSendSucceeded(messageId);
+            pumpMessages();
+        }
+
+        @Override
+        public void onMessageSendFailed(int mode, String service, int messageId) {
+            this.queue.onSendFailed(messageId, now());
+            pumpMessages();
+        }
+
+        @Override
+        public void onSessionTerminated(int mode, String service) {
+            NanLoadTest.this.restarts++;
+            reset();
+            this.device.postDelayed(this.restart, RESTART_DELAY_MS);
+        }
+
+        @Override
+        public void onPublishStarted(String service) {
+            this.client.enableRangingForPublishedService(SERVICE_NAME, this);
+        }
+
+        @Override
+        public void onSubscribeStarted(String service) {
+        }
+
+        @Override
+        public void onRangingEnabled(String service) {
+        }
+
+        @Override
+        public void onRangingDisabled(String service) {
+        }
+
+        @Override
+        public void onAttachedFailed() {
+        }
+
+        @Override
+        public void onInvalidService() {
+        }
+
+        @Override
+        public void onNanAvailable() {
+        }
+
+        @Override
+        public void onNanUnavailable() {
+        }
+    }
+
+    public static void main(String[] args) {
+        NanLoadTest test = new NanLoadTest();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            test.set(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        System.out.println(test.run());
+    }
+
+    void set(String key, String value) {
+        switch (key) {
+            case "seed": this.seed = Long.parseLong(value); break;
+            case "publishers": this.publishers = Integer.parseInt(value); break;
+            case "subscribers": this.subscribers = Integer.parseInt(value); break;
+            case "duration": this.durationSeconds = Long.parseLong(value); break;
+            case "rampUp": this.rampUpSeconds = Long.parseLong(value); break;
+            case "discoveryDelay": this.discoveryDelay = Long.parseLong(value); break;
+            case "discoveryJitter": this.discoveryJitter = Long.parseLong(value); break;
+            case "latency": this.latency = Long.parseLong(value); break;
+            case "loss": this.loss = Double.parseDouble(value); break;
+            case "rate": this.rate = Double.parseDouble(value); break;
+            case "burst": this.burst = Integer.parseInt(value); break;
+            case "lifetime": this.lifetimeSeconds = Long.parseLong(value); break;
+            default: throw new IllegalArgumentException("Unknown setting: " + key);
+        }
+    }
+
+    private long now() {
+        return this.loop.getNowMillis();
+    }
+
+    /** Runs the load test and returns the report. */
+    String run() {
+        Random random = new Random(this.seed);
+        this.loop = new EventLoop();
+        this.network = new FakeNanNetwork(this.loop, random.nextLong());
+        this.network.setDiscoveryDelay(this.discoveryDelay, this.discoveryJitter);
+        this.network.setMessageLatency(this.latency, FakeNanNetwork.DEFAULT_MESSAGE_JITTER_MILLIS);
+        this.network.setMessageLossProbability(this.loss);
+        this.network.setFollowUpRateLimit(this.rate, this.burst);
+        this.network.setSessionLifetimeMillis(this.lifetimeSeconds * 1000);
+
+        int devices = this.publishers + this.subscribers;
+        for (int i = 0; i < devices; i++) {
+            final Node node = new Node(this.network.addDevice(), i < this.publishers, devices);
+            this.nodes.add(node);
+            // Devices arrive over the ramp up.
+            this.loop.postAt((long) (random.nextDouble() * this.rampUpSeconds * 1000), node::start);
+        }
+
+        long wallStart = System.nanoTime();
+        this.loop.runUntil(this.durationSeconds * 1000);
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+        return report(wallSeconds);
+    }
+
+    private String report(double wallSeconds) {
+        long queueSent = 0;
+        long queueDelivered = 0;
+        long queueRetried = 0;
+        long queueDropped = 0;
+        long knownPairs = 0;
+        for (Node node : this.nodes) {
+            queueSent += node.queue.getSent();
+            queueDelivered += node.queue.getDelivered();
+            queueRetried += node.queue.getRetried();
+            queueDropped += node.queue.getDropped();
+            if (!node.publisher) {
+                knownPairs += node.knownCount;
+            }
+        }
+        long pairs = (long) this.publishers * this.subscribers;
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "Load test: seed=%d publishers=%d subscribers=%d duration=%d s rampUp=%d s%n",
+                this.seed, this.publishers, this.subscribers, this.durationSeconds, this.rampUpSeconds));
+        out.append(String.format(Locale.US, "Network: discovery=%d+%d ms latency=%d ms loss=%.2f rate=%.0f/s burst=%d lifetime=%d s%n",
+                this.discoveryDelay, this.discoveryJitter, this.latency, this.loss, this.rate, this.burst, this.lifetimeSeconds));
+        out.append(String.format(Locale.US, "Discoveries: %d, handshakes: %d, known pairs at end: %d of %d (%.1f%%), timeouts: %d, session restarts: %d%n",
+                this.network.getDiscoveries(), this.handshakes, knownPairs, pairs, pairs > 0 ? 100.0 * knownPairs / pairs : 0.0, this.timeouts, this.restarts));
+        out.append("Handshake time (ms): ").append(this.handshakeMillis.summary()).append('\n');
+        out.append(String.format(Locale.US, "Time to know all publishers (ms, %d of %d subscribers): ", this.meshMillis.count(), this.subscribers))
+                .append(this.meshMillis.summary()).append('\n');
+        out.append("Ping round trip (ms): ").append(this.pingRoundTripMillis.summary()).append('\n');
+        out.append(String.format(Locale.US, "Frames: %d sent, %d delivered (%.1f/s, %.2f/s per device), %d lost, %d rate limited, %d undeliverable%n",
+                this.network.getMessagesSent(), this.network.getMessagesDelivered(), this.network.getMessagesDelivered() / (double) this.durationSeconds,
+                this.network.getMessagesDelivered() / (double) this.durationSeconds / Math.max(1, this.nodes.size()),
+                this.network.getMessagesLost(), this.network.getMessagesRateLimited(), this.network.getMessagesUndeliverable()));
+        out.append(String.format(Locale.US, "Messages: %d received, queues sent %d frames, delivered %d, retried %d, dropped %d%n",
+                this.messagesReceived, queueSent, queueDelivered, queueRetried, queueDropped));
+        out.append(String.format(Locale.US, "Wall time: %.2f s (%.0fx real time)%n", wallSeconds, this.durationSeconds / Math.max(wallSeconds, 1e-9)));
+        return out.toString();
+    }
+}
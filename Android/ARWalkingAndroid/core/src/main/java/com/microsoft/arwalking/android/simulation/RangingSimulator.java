@@ -0,0 +1,196 @@
+package com.microsoft.arwalking.android.simulation;
+
+import com.google.android.apps.location.rtt.nanrttlib.RangingRoundScheduler;
+import com.microsoft.arwalking.android.positioning.RangeResult;
+import com.microsoft.arwalking.android.positioning.RangingSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link RangingSource} that ranges a walker on a {@link Trajectory} to fixed anchors, on the
+ * virtual clock of an {@link EventLoop}. Peers are anchor indices.
+ *
+ * <p>Rounds run like {@code NanContinuousRanger} at a fixed rate: at most {@code maxPeersPerRound}
+ * peers, picked by the same {@link RangingRoundScheduler}, and the next round starts one period
+ * after the previous one or when it completes, whichever is later. Each range is the true distance
+ * plus Gaussian noise; with the NLOS probability an exponentially distributed positive bias is
+ * added, and with the dropout probability the peer fails. A round takes a fixed latency, a latency
+ * per peer and a uniform jitter. All randomness comes from one seed.
+ */
+public class RangingSimulator implements RangingSource<Integer> {
+    public static final double DEFAULT_RANGE_STD_DEV = 150.0;
+    public static final double DEFAULT_NLOS_PROBABILITY = 0.1;
+    public static final double DEFAULT_NLOS_MEAN_BIAS = 1500.0;
+    public static final double DEFAULT_DROPOUT_PROBABILITY = 0.05;
+    public static final long DEFAULT_ROUND_LATENCY_MILLIS = 20;
+    public static final long DEFAULT_PEER_LATENCY_MILLIS = 8;
+    public static final long DEFAULT_LATENCY_JITTER_MILLIS = 10;
+    public static final int DEFAULT_MAX_PEERS_PER_ROUND = 10;
+    public static final int MEASUREMENTS_PER_RANGE = 8;
+
+    private final EventLoop loop;
+    private final Random random;
+    private final double[] anchorX;
+    private final double[] anchorY;
+    private final Trajectory trajectory;
+    private final RangingRoundScheduler<Integer> scheduler = new RangingRoundScheduler<>();
+    private final double[] position = new double[2];
+    private final ArrayList<RangeResult<Integer>> results = new ArrayList<>();
+
+    private double rangeStdDev = DEFAULT_RANGE_STD_DEV;
+    private double nlosProbability = DEFAULT_NLOS_PROBABILITY;
+    private double nlosMeanBias = DEFAULT_NLOS_MEAN_BIAS;
+    private double dropoutProbability = DEFAULT_DROPOUT_PROBABILITY;
+    private long roundLatencyMillis = DEFAULT_ROUND_LATENCY_MILLIS;
+    private long peerLatencyMillis = DEFAULT_PEER_LATENCY_MILLIS;
+    private long latencyJitterMillis = DEFAULT_LATENCY_JITTER_MILLIS;
+    private int maxPeersPerRound = DEFAULT_MAX_PEERS_PER_ROUND;
+    private int rangingPeriod = 1000;
+
+    private Callback<Integer> callback;
+    private boolean ranging;
+    private int generation;
+    private long roundStartMillis;
+    private long rounds;
+    private long ranges;
+    private long dropouts;
+    private long nlosRanges;
+
+    public RangingSimulator(EventLoop loop, long seed, double[] anchorX, double[] anchorY, Trajectory trajectory) {
+        this.loop = loop;
+        this.random = new Random(seed);
+        this.anchorX = anchorX;
+        this.anchorY = anchorY;
+        this.trajectory = trajectory;
+    }
+
+    public void setRangeStdDev(double rangeStdDev) {
+        this.rangeStdDev = rangeStdDev;
+    }
+
+    public void setNlos(double probability, double meanBias) {
+        this.nlosProbability = probability;
+        this.nlosMeanBias = meanBias;
+    }
+
+    public void setDropoutProbability(double dropoutProbability) {
+        this.dropoutProbability = dropoutProbability;
+    }
+
+    public void setLatency(long roundMillis, long perPeerMillis, long jitterMillis) {
+        this.roundLatencyMillis = roundMillis;
+        this.peerLatencyMillis = perPeerMillis;
+        this.latencyJitterMillis = jitterMillis;
+    }
+
+    public void setMaxPeersPerRound(int maxPeersPerRound) {
+        this.maxPeersPerRound = maxPeersPerRound;
+    }
+
+    @Override
+    public void start(Callback<Integer> callback2) {
+        stop();
+        this.callback = callback2;
+        this.ranging = true;
+        final int current = this.generation;
+        this.loop.postDelayed(0, () -> startRound(current));
+    }
+
+    @Override
+    public void stop() {
+        this.ranging = false;
+        // Rounds and results already posted belong to the old generation and are ignored.
+        this.generation++;
+    }
+
+    @Override
+    public boolean isRanging() {
+        return this.ranging;
+    }
+
+    @Override
+    public void setRangingPeriod(int rangingPeriodMillis) {
+        this.rangingPeriod = rangingPeriodMillis;
+    }
+
+    /** The walker's true position at {@code timeMillis}. */
+    public void getTruePosition(long timeMillis, double[] out) {
+        this.trajectory.positionAt(timeMillis, out);
+    }
+
+    /** Start of the round whose results were delivered last. */
+    public long getRoundStartMillis() {
+        return this.roundStartMillis;
+    }
+
+    public long getRounds() {
+        return this.rounds;
+    }
+
+    public long getRanges() {
+        return this.ranges;
+    }
+
+    public long getDropouts() {
+        return this.dropouts;
+    }
+
+    public long getNlosRanges() {
+        return this.nlosRanges;
+    }
+
+    private void startRound(final int current) {
+        if (current != this.generation) {
+            return;
+        }
+        final long start = this.loop.getNowMillis();
+        List<Integer> peers = this.callback.getPeers();
+        if (peers.isEmpty()) {
+            this.loop.postAt(start + this.rangingPeriod, () -> startRound(current));
+            return;
+        }
+
+        final List<Integer> round = new ArrayList<>(this.scheduler.nextRound(peers, this.maxPeersPerRound, start));
+        long latency = this.roundLatencyMillis + this.peerLatencyMillis * round.size()
+                + (this.latencyJitterMillis > 0 ? (long) (this.random.nextDouble() * this.latencyJitterMillis) : 0);
+        final long end = start + latency;
+        this.loop.postAt(end, () -> completeRound(current, start, round));
+    }
+
+    private void completeRound(final int current, long start, List<Integer> round) {
+        if (current != this.generation) {
+            return;
+        }
+        long now = this.loop.getNowMillis();
+        // The ranges are measured over the round; take the position half way.
+        this.trajectory.positionAt((start + now) / 2, this.position);
+        this.results.clear();
+        for (int i = 0; i < round.size(); i++) {
+            int peer = round.get(i);
+            if (this.random.nextDouble() < this.dropoutProbability) {
+                this.dropouts++;
+                this.results.add(RangeResult.failed(peer, now));
+                this.scheduler.onRanged(peer, false, now);
+                continue;
+            }
+            double range = Math.hypot(this.anchorX[peer] - this.position[0], this.anchorY[peer] - this.position[1]) + this.random.nextGaussian() * this.rangeStdDev;
+            if (this.random.nextDouble() < this.nlosProbability) {
+                this.nlosRanges++;
+                range -= this.nlosMeanBias * Math.log(1.0 - this.random.nextDouble());
+            }
+            this.ranges++;
+            this.results.add(new RangeResult<>(peer, RangeResult.STATUS_SUCCESS, (int) Math.max(0, Math.round(range)), (int) Math.round(this.rangeStdDev),
+                    MEASUREMENTS_PER_RANGE, MEASUREMENTS_PER_RANGE, now));
+            this.scheduler.onRanged(peer, true, now);
+        }
+        this.rounds++;
+        this.roundStartMillis = start;
+        this.callback.onRangingResults(this.results);
+
+        if (current == this.generation) {
+            this.loop.postAt(Math.max(start + this.rangingPeriod, now), () -> startRound(current));
+        }
+    }
+}
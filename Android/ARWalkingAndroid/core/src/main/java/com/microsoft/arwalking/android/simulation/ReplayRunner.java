@@ -0,0 +1,256 @@
+package com.microsoft.arwalking.android.simulation;
+
+import com.google.android.apps.location.rtt.nanrttlib.SessionRecoveryWindow;
+import com.microsoft.arwalking.android.positioning.PeerRegistry;
+import com.microsoft.arwalking.android.positioning.PositioningEngine;
+import com.microsoft.arwalking.android.positioning.RangeResult;
+import com.microsoft.arwalking.android.trace.TraceReader;
+import com.microsoft.arwalking.android.trace.TraceRecorder;
+import com.microsoft.arwalking.android.trace.TraceReplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feeds a recorded trace through the positioning pipeline, with the same {@link PositioningEngine}
+ * calls as the app, and reports the processing time per ranging round and how far the replayed
+ * output is from the recorded fixes. Rounds that ranged a selection of anchors are solved from the
+ * recorded selection, as they were when recording, so a simulated run replays to the same fixes up
+ * to the rounding of the recorded values. Traces recorded before selections were recorded replay
+ * every round with every located peer; the report warns when the divergence shows that.
+ *
+ * <p>Run with {@code ./gradlew :core:replay -PreplayArgs="file=trace.bin speed=10"}; see
+ * {@link #set} for the settings. Speed 0, the default, replays as fast as possible.
+ */
+public class ReplayRunner implements TraceReplayer.Listener {
+    private static final int MAX_PEERS = 256;
+    private static final int RANGE_HISTORY_WINDOW = 7;
+    // Fix divergence beyond rounding, in mm, that suggests the recording solved from other anchors.
+    private static final double DIVERGENCE_WARNING_MM = 10.0;
+
+    // Settings
+    String file;
+    double speed = TraceReplayer.UNPACED;
+    boolean useTracker = true;
+    boolean robust = true;
+    String filter = "hampel";
+
+    private final PeerRegistry<Integer, String> peers = new PeerRegistry<>(MAX_PEERS);
+    private final PositioningEngine engine = new PositioningEngine(this.peers, MAX_PEERS, RANGE_HISTORY_WINDOW);
+    private final SessionRecoveryWindow recoveryWindow = new SessionRecoveryWindow();
+    private final boolean[] selected = new boolean[MAX_PEERS];
+    private boolean selectionPending;
+
+    private long rounds;
+    private long ranges;
+    private long fixes;
+    private long selectedRounds;
+    private long ignoredPeers;
+    private final long[] messageEvents = new long[TraceRecorder.RECORD_SESSIONS_RECOVERED + 1];
+    private final Samples processingMicros = new Samples();
+    private final Samples fixDivergence = new Samples();
+    private final Samples trackerDivergence = new Samples();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ReplayRunner runner = new ReplayRunner();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            runner.set(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        if (runner.file == null) {
+            throw new IllegalArgumentException("No trace given, set file=<path>");
+        }
+        System.out.println(runner.run());
+    }
+
+    void set(String key, String value) {
+        switch (key) {
+            case "file": this.file = value; break;
+            case "speed": this.speed = Double.parseDouble(value); break;
+            case "tracker": this.useTracker = Boolean.parseBoolean(value); break;
+            case "robust": this.robust = Boolean.parseBoolean(value); break;
+            case "filter": this.filter = value; break;
+            default: throw new IllegalArgumentException("Unknown setting: " + key);
+        }
+    }
+
+    /** Replays the trace and returns the report. */
+    String run() throws IOException, InterruptedException {
+        this.engine.setUseTracker(this.useTracker);
+        this.engine.setUseRobustSolver(this.robust);
+        this.engine.getRangeHistory().setFilter(SimulationRunner.filterOf(this.filter));
+
+        TraceReader reader = TraceReader.open(new File(this.file));
+        TraceReplayer replayer = new TraceReplayer(reader, this);
+        long wallStart = System.nanoTime();
+        long durationMillis = replayer.replay(this.speed);
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "Replay: %s, %d records over %.1f s, speed=%s tracker=%b robust=%b filter=%s%n",
+                this.file, replayer.getRecords(), durationMillis / 1000.0, this.speed > 0 ? String.valueOf(this.speed) : "unpaced", this.useTracker, this.robust, this.filter));
+        out.append(String.format(Locale.US, "Peers: %d, ignored: %d; rounds: %d (%d with a selection), ranges: %d, fixes: %d%n",
+                this.peers.size(), this.ignoredPeers, this.rounds, this.selectedRounds, this.ranges, this.fixes));
+        out.append("Processing per round (us): ").append(this.processingMicros.summary()).append('\n');
+        out.append("Fix divergence from recording (mm): ").append(this.fixDivergence.summary()).append('\n');
+        out.append("Tracker divergence from recording (mm): ").append(this.trackerDivergence.summary()).append('\n');
+        if (this.fixDivergence.percentile(0.95) > DIVERGENCE_WARNING_MM) {
+            out.append(this.selectedRounds == 0
+                    ? "Warning: fixes diverge from the recording; it may have ranged anchor selections without recording them\n"
+                    : "Warning: fixes diverge from the recording; it may have used other engine settings\n");
+        }
+        out.append(String.format(Locale.US, "Message events: %d received, %d sent, %d send succeeded, %d send failed, %d discoveries, %d sessions terminated, %d suspended, %d recovered%n",
+                this.messageEvents[TraceRecorder.RECORD_MESSAGE_RECEIVED], this.messageEvents[TraceRecorder.RECORD_MESSAGE_SENT],
+                this.messageEvents[TraceRecorder.RECORD_MESSAGE_SEND_SUCCEEDED], this.messageEvents[TraceRecorder.RECORD_MESSAGE_SEND_FAILED],
+                this.messageEvents[TraceRecorder.RECORD_SERVICE_DISCOVERED], this.messageEvents[TraceRecorder.RECORD_SESSION_TERMINATED],
+                this.messageEvents[TraceRecorder.RECORD_SESSIONS_SUSPENDED], this.messageEvents[TraceRecorder.RECORD_SESSIONS_RECOVERED]));
+        out.append(String.format(Locale.US, "Wall time: %.2f s (%.0fx recorded time)%n", wallSeconds, durationMillis / 1000.0 / Math.max(wallSeconds, 1e-9)));
+        return out.toString();
+    }
+
+    Samples getFixDivergence() {
+        return this.fixDivergence;
+    }
+
+    Samples getTrackerDivergence() {
+        return this.trackerDivergence;
+    }
+
+    @Override
+    public void onPeer(int peer, String name, boolean located, int xMm, int yMm, int rangeBiasMm, long timeMillis) {
+        if (this.peers.idOf(peer) != PeerRegistry.NO_PEER) {
+            return;
+        }
+        // A known name under a new handle is the same device only during a recovery, as in the app.
+        int id = findRecoveringPeer(name, timeMillis);
+        if (id != PeerRegistry.NO_PEER) {
+            this.peers.rebind(id, peer, name);
+            this.peers.checkIn(id, timeMillis);
+            return;
+        }
+        id = this.peers.register(peer, name, timeMillis);
+        if (id == PeerRegistry.NO_PEER) {
+            this.ignoredPeers++;
+            return;
+        }
+        this.engine.clearPeer(id);
+        this.engine.setRangeBias(id, rangeBiasMm);
+        if (located) {
+            this.peers.setLocation(id, xMm, yMm);
+        }
+    }
+
+    private int findRecoveringPeer(String name, long timeMillis) {
+        if (!this.recoveryWindow.isRebindAllowed(timeMillis)) {
+            return PeerRegistry.NO_PEER;
+        }
+        for (int id = 0; id < this.peers.getHighWaterMark(); id++) {
+            if (this.peers.isActive(id) && name.equals(this.peers.getModel(id)) && this.recoveryWindow.mayRebind(this.peers.getCheckInMillis(id), timeMillis)) {
+                return id;
+            }
+        }
+        return PeerRegistry.NO_PEER;
+    }
+
+    @Override
+    public void onRangingResults(List<RangeResult<Integer>> results, long timeMillis) {
+        long start = System.nanoTime();
+        for (int i = 0; i < results.size(); i++) {
+            RangeResult<Integer> result = results.get(i);
+            int id = this.peers.idOf(result.peer);
+            if (result.status == RangeResult.STATUS_SUCCESS && id != PeerRegistry.NO_PEER) {
+                this.ranges++;
+                this.engine.addRange(id, result.distanceMm, result.distanceStdDevMm, result.numSuccessfulMeasurements, result.rangingTimestampMillis);
+                this.peers.checkIn(id, timeMillis);
+            }
+        }
+        if (this.engine.isUsingTracker()) {
+            for (int i = 0; i < results.size(); i++) {
+                RangeResult<Integer> result = results.get(i);
+                int id = this.peers.idOf(result.peer);
+                if (result.status == RangeResult.STATUS_SUCCESS && id != PeerRegistry.NO_PEER) {
+                    this.engine.updateTracker(id, result.rangingTimestampMillis);
+                }
+            }
+        }
+        int fix = this.engine.computeFix(this.selectionPending ? this.selected : null, timeMillis);
+        if (this.selectionPending) {
+            this.selectedRounds++;
+            this.selectionPending = false;
+        }
+        this.processingMicros.add((System.nanoTime() - start) / 1000.0);
+        this.rounds++;
+        if (fix == PositioningEngine.FIX_SOLVED || fix == PositioningEngine.FIX_TRACKER_INITIALIZED) {
+            this.fixes++;
+        }
+    }
+
+    @Override
+    public void onSelection(int[] selection, int count, long timeMillis) {
+        Arrays.fill(this.selected, false);
+        for (int i = 0; i < count; i++) {
+            int id = this.peers.idOf(selection[i]);
+            if (id != PeerRegistry.NO_PEER) {
+                this.selected[id] = true;
+            }
+        }
+        this.selectionPending = true;
+    }
+
+    @Override
+    public void onMessageEvent(int type, int mode, int peer, int messageId, byte[] data, int length, long timeMillis) {
+        this.messageEvents[type]++;
+        switch (type) {
+            case TraceRecorder.RECORD_MESSAGE_RECEIVED:
+                // Hearing from a peer keeps its handle from going stale.
+                int id = this.peers.idOf(peer);
+                if (id != PeerRegistry.NO_PEER) {
+                    this.peers.checkIn(id, timeMillis);
+                }
+                break;
+            case TraceRecorder.RECORD_SESSION_TERMINATED:
+                // The app forgets its peers with the session.
+                this.recoveryWindow.reset();
+                this.peers.clear();
+                this.engine.getRangeHistory().clearAll();
+                break;
+            case TraceRecorder.RECORD_SESSIONS_SUSPENDED:
+                this.recoveryWindow.onSuspended(timeMillis);
+                break;
+            case TraceRecorder.RECORD_SESSIONS_RECOVERED:
+                this.recoveryWindow.onRecovered(timeMillis);
+                // As in the app, kept peers get a full timeout to be rediscovered.
+                for (int kept = 0; kept < this.peers.getHighWaterMark(); kept++) {
+                    if (this.peers.isActive(kept)) {
+                        this.peers.checkIn(kept, timeMillis);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onFix(int xMm, int yMm, int uncertaintyMm, boolean tracked, long timeMillis) {
+        if (tracked) {
+            // Tracker outputs are predictions at their own time; make the same one. A loss was
+            // reported at an earlier output, which left no record.
+            int state = this.engine.trackerOutput(timeMillis);
+            if (state == PositioningEngine.TRACKER_LOST) {
+                state = this.engine.trackerOutput(timeMillis);
+            }
+            if (state == PositioningEngine.TRACKER_UPDATED) {
+                this.trackerDivergence.add(Math.hypot(this.engine.getTracker().getX() - xMm, this.engine.getTracker().getY() - yMm));
+            }
+        } else if (this.engine.getFixTimeMillis() >= 0) {
+            this.fixDivergence.add(Math.hypot(this.engine.getFixX() - xMm, this.engine.getFixY() - yMm));
+        }
+    }
+}
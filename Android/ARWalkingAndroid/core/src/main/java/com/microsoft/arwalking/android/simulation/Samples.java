@@ -0,0 +1,51 @@
+package com.microsoft.arwalking.android.simulation;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/** Growable sample set with summary statistics. */
+final class Samples {
+    private double[] values = new double[1024];
+    private int count;
+
+    void add(double value) {
+        if (this.count == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.count * 2);
+        }
+        this.values[this.count++] = value;
+    }
+
+    int count() {
+        return this.count;
+    }
+
+    /** The {@code p} quantile, {@code p} from 0 to 1, or NaN if there are no samples. */
+    double percentile(double p) {
+        if (this.count == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = Arrays.copyOf(this.values, this.count);
+        Arrays.sort(sorted);
+        return percentile(sorted, p);
+    }
+
+    String summary() {
+        if (this.count == 0) {
+            return "n=0";
+        }
+        double[] sorted = Arrays.copyOf(this.values, this.count);
+        Arrays.sort(sorted);
+        double sum = 0;
+        double squares = 0;
+        for (double value : sorted) {
+            sum += value;
+            squares += value * value;
+        }
+        return String.format(Locale.US, "n=%d mean=%.1f p50=%.1f p95=%.1f max=%.1f rms=%.1f",
+                this.count, sum / this.count, percentile(sorted, 0.5), percentile(sorted, 0.95), sorted[this.count - 1], Math.sqrt(squares / this.count));
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.floor(p * (sorted.length - 1) + 0.5))];
+    }
+}
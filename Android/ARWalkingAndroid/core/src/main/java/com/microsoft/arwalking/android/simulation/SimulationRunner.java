@@ -0,0 +1,385 @@
+package com.microsoft.arwalking.android.simulation;
+
+import com.google.android.apps.location.rtt.nanrttlib.AdaptiveRangingRateController;
+import com.microsoft.arwalking.android.positioning.AnchorSelector;
+import com.microsoft.arwalking.android.positioning.PeerRegistry;
+import com.microsoft.arwalking.android.positioning.PositioningEngine;
+import com.microsoft.arwalking.android.positioning.RangeHistory;
+import com.microsoft.arwalking.android.positioning.RangeResult;
+import com.microsoft.arwalking.android.positioning.RangingSource;
+import com.microsoft.arwalking.android.trace.TraceRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs the positioning pipeline against a {@link RangingSimulator} and reports fix rate, latency
+ * and position error. Ranges go through the same {@link PositioningEngine} calls as on a device,
+ * and anchor selection follows the same policy as {@code MainActivity}.
+ *
+ * <p>Run with {@code ./gradlew :core:simulate -PsimArgs="anchors=48 nlos=0.2"}; see {@link #main}
+ * for the settings. Runs with the same settings give the same report, except for the processing
+ * times, which are measured on the host. With {@code trace=<path>} the run is also recorded as a
+ * trace, for {@link ReplayRunner}. With {@code maxTrackerP95=<mm>} the run fails if the tracker's
+ * 95th percentile error is above that, which tests use to hold the default configuration to a bound.
+ */
+public class SimulationRunner implements RangingSource.Callback<Integer> {
+    private static final int RANGE_HISTORY_WINDOW = 7;
+    private static final long TRACKER_OUTPUT_PERIOD_MS = 200;
+    private static final long ANCHOR_ESTIMATE_MAX_AGE_MS = 5000;
+
+    // Settings
+    long seed = 1;
+    int anchors = 24;
+    double width = 60000;
+    double height = 30000;
+    long durationSeconds = 600;
+    int periodMillis = 1000;
+    double speed = 1.2;
+    double rangeStdDev = RangingSimulator.DEFAULT_RANGE_STD_DEV;
+    double nlos = RangingSimulator.DEFAULT_NLOS_PROBABILITY;
+    double nlosBias = RangingSimulator.DEFAULT_NLOS_MEAN_BIAS;
+    double dropout = RangingSimulator.DEFAULT_DROPOUT_PROBABILITY;
+    boolean useTracker = true;
+    boolean robust = true;
+    boolean select = true;
+    boolean adaptive;
+    int rotatedAnchors = AnchorSelector.DEFAULT_ROTATED_ANCHORS;
+    double maxSelectedFixUncertainty = AnchorSelector.DEFAULT_MAX_FIX_UNCERTAINTY;
+    String filter = "hampel";
+    long maxRangeAgeMillis = PositioningEngine.DEFAULT_MAX_RANGE_AGE_MILLIS;
+    long maxSampleAgeMillis = RangeHistory.DEFAULT_MAX_AGE_MILLIS;
+    double disagreementSigmas = PositioningEngine.DEFAULT_TRACKER_DISAGREEMENT_SIGMAS;
+    double minDisagreement = PositioningEngine.DEFAULT_TRACKER_MIN_DISAGREEMENT;
+    int maxDisagreements = PositioningEngine.DEFAULT_TRACKER_MAX_DISAGREEMENTS;
+    double maxTrackerP95 = Double.POSITIVE_INFINITY;
+    String trace;
+
+    private EventLoop loop;
+    private RangingSimulator simulator;
+    private PeerRegistry<Integer, String> peers;
+    private PositioningEngine engine;
+    private TraceRecorder recorder;
+    private AdaptiveRangingRateController rateController;
+    private AnchorSelector anchorSelector;
+    private int[] selectedAnchors;
+    private boolean[] anchorSelected;
+    private int[] selectionPeers;
+    private boolean anchorSelectionActive;
+    private final ArrayList<Integer> peerList = new ArrayList<>();
+    private final double[] estimate = new double[2];
+    private final double[] truth = new double[2];
+
+    private long fixes;
+    private long trackerLost;
+    private final Samples roundLatency = new Samples();
+    private final Samples fixLatency = new Samples();
+    private final Samples processingMicros = new Samples();
+    private final Samples fixError = new Samples();
+    private final Samples trackerError = new Samples();
+    private final Samples rangingPeriod = new Samples();
+
+    public static void main(String[] args) throws IOException {
+        SimulationRunner runner = new SimulationRunner();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            runner.set(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        System.out.println(runner.run());
+    }
+
+    void set(String key, String value) {
+        switch (key) {
+            case "seed": this.seed = Long.parseLong(value); break;
+            case "anchors": this.anchors = Integer.parseInt(value); break;
+            case "width": this.width = Double.parseDouble(value) * 1000; break;
+            case "height": this.height = Double.parseDouble(value) * 1000; break;
+            case "duration": this.durationSeconds = Long.parseLong(value); break;
+            case "period": this.periodMillis = Integer.parseInt(value); break;
+            case "speed": this.speed = Double.parseDouble(value); break;
+            case "std": this.rangeStdDev = Double.parseDouble(value); break;
+            case "nlos": this.nlos = Double.parseDouble(value); break;
+            case "nlosBias": this.nlosBias = Double.parseDouble(value); break;
+            case "dropout": this.dropout = Double.parseDouble(value); break;
+            case "tracker": this.useTracker = Boolean.parseBoolean(value); break;
+            case "robust": this.robust = Boolean.parseBoolean(value); break;
+            case "select": this.select = Boolean.parseBoolean(value); break;
+            case "adaptive": this.adaptive = Boolean.parseBoolean(value); break;
+            case "rotate": this.rotatedAnchors = Integer.parseInt(value); break;
+            case "maxSelectedUncertainty": this.maxSelectedFixUncertainty = Double.parseDouble(value); break;
+            case "filter": this.filter = value; break;
+            case "maxRangeAge": this.maxRangeAgeMillis = Long.parseLong(value); break;
+            case "maxSampleAge": this.maxSampleAgeMillis = Long.parseLong(value); break;
+            case "disagreementSigmas": this.disagreementSigmas = Double.parseDouble(value); break;
+            case "minDisagreement": this.minDisagreement = Double.parseDouble(value); break;
+            case "maxDisagreements": this.maxDisagreements = Integer.parseInt(value); break;
+            case "maxTrackerP95": this.maxTrackerP95 = Double.parseDouble(value); break;
+            case "trace": this.trace = value; break;
+            default: throw new IllegalArgumentException("Unknown setting: " + key);
+        }
+    }
+
+    /**
+     * Runs the simulation and returns the report.
+     *
+     * @throws AssertionError if the tracker's 95th percentile error is above {@code maxTrackerP95}
+     */
+    String run() throws IOException {
+        Random random = new Random(this.seed);
+        double[] anchorX = new double[this.anchors];
+        double[] anchorY = new double[this.anchors];
+        // Whole millimetres, as in an anchor map, so a recorded trace replays to the same fixes.
+        for (int i = 0; i < this.anchors; i++) {
+            anchorX[i] = Math.round(random.nextDouble() * this.width);
+            anchorY[i] = Math.round(random.nextDouble() * this.height);
+        }
+        Trajectory trajectory = Trajectory.random(random, 12, this.width, this.height, this.speed);
+
+        this.loop = new EventLoop();
+        this.simulator = new RangingSimulator(this.loop, random.nextLong(), anchorX, anchorY, trajectory);
+        this.simulator.setRangeStdDev(this.rangeStdDev);
+        this.simulator.setNlos(this.nlos, this.nlosBias);
+        this.simulator.setDropoutProbability(this.dropout);
+        this.simulator.setRangingPeriod(this.periodMillis);
+
+        this.peers = new PeerRegistry<>(this.anchors);
+        this.engine = new PositioningEngine(this.peers, this.anchors, RANGE_HISTORY_WINDOW);
+        this.engine.setUseTracker(this.useTracker);
+        this.engine.setUseRobustSolver(this.robust);
+        this.engine.getRangeHistory().setFilter(filterOf(this.filter));
+        this.engine.setMaxSampleAgeMillis(this.maxSampleAgeMillis);
+        this.engine.setMaxRangeAgeMillis(this.maxRangeAgeMillis);
+        this.engine.setRangingPeriodMillis(this.periodMillis);
+        this.engine.setTrackerDisagreement(this.disagreementSigmas, this.minDisagreement, this.maxDisagreements);
+        this.anchorSelector = new AnchorSelector(this.anchors);
+        this.anchorSelector.setRotatedAnchors(this.rotatedAnchors);
+        this.anchorSelector.setMaxFixUncertainty(this.maxSelectedFixUncertainty);
+        this.selectedAnchors = new int[this.anchors];
+        this.anchorSelected = new boolean[this.anchors];
+        this.selectionPeers = new int[this.anchors];
+        // Every anchor is known from the start, as with an anchor map and identity in discovery.
+        for (int i = 0; i < this.anchors; i++) {
+            int id = this.peers.register(i, "Anchor-" + i, 0);
+            this.peers.setLocation(id, anchorX[i], anchorY[i]);
+        }
+        if (this.trace != null) {
+            this.recorder = new TraceRecorder(new File(this.trace));
+            for (int i = 0; i < this.anchors; i++) {
+                this.recorder.recordPeer(0, i, "Anchor-" + i, true, (int) Math.round(anchorX[i]), (int) Math.round(anchorY[i]), 0);
+            }
+        }
+
+        if (this.adaptive) {
+            // As in the app: the period setting is the base period, adapted after every round.
+            this.rateController = new AdaptiveRangingRateController(period -> {
+                this.simulator.setRangingPeriod(period);
+                this.engine.setRangingPeriodMillis(period);
+            });
+            this.rateController.setPeriodRange(AdaptiveRangingRateController.DEFAULT_MIN_PERIOD_MILLIS, this.periodMillis, AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS);
+        }
+
+        this.simulator.start(this);
+        if (this.useTracker) {
+            trackerOutput();
+        }
+        try {
+            this.loop.runUntil(this.durationSeconds * 1000);
+        } finally {
+            this.simulator.stop();
+            if (this.recorder != null) {
+                this.recorder.close();
+            }
+        }
+        String report = report();
+        if (this.useTracker && !(this.trackerError.percentile(0.95) <= this.maxTrackerP95)) {
+            throw new AssertionError(String.format(Locale.US, "Tracker error p95 above %.0f mm%n%s", this.maxTrackerP95, report));
+        }
+        return report;
+    }
+
+    @Override
+    public List<Integer> getPeers() {
+        this.peerList.clear();
+        this.anchorSelectionActive = this.select && this.anchorSelector.beginRound() && addSelectedAnchors();
+        if (this.anchorSelectionActive) {
+            return this.peerList;
+        }
+        for (int id = 0; id < this.peers.getHighWaterMark(); id++) {
+            if (this.peers.isActive(id)) {
+                this.peerList.add(this.peers.getKey(id));
+            }
+        }
+        return this.peerList;
+    }
+
+    private boolean addSelectedAnchors() {
+        if (!this.engine.getEstimate(this.loop.getNowMillis(), ANCHOR_ESTIMATE_MAX_AGE_MS, this.estimate)) {
+            return false;
+        }
+        this.anchorSelector.clear();
+        for (int id = 0; id < this.peers.getHighWaterMark(); id++) {
+            if (this.peers.isActive(id) && this.peers.isLocated(id)) {
+                this.anchorSelector.addCandidate(id, this.peers.getX(id), this.peers.getY(id));
+            }
+        }
+        if (this.anchorSelector.getCandidateCount() <= this.anchorSelector.getMinAnchors()) {
+            return false;
+        }
+        int count = this.anchorSelector.select(this.estimate[0], this.estimate[1], this.selectedAnchors);
+        Arrays.fill(this.anchorSelected, false);
+        for (int i = 0; i < count; i++) {
+            this.anchorSelected[this.selectedAnchors[i]] = true;
+            this.peerList.add(this.peers.getKey(this.selectedAnchors[i]));
+        }
+        return true;
+    }
+
+    @Override
+    public void onRangingResults(List<RangeResult<Integer>> results) {
+        long start = System.nanoTime();
+        long now = this.loop.getNowMillis();
+        if (this.recorder != null) {
+            if (this.anchorSelectionActive) {
+                recordSelection(now);
+            }
+            for (int i = 0; i < results.size(); i++) {
+                RangeResult<Integer> result = results.get(i);
+                this.recorder.recordRange(now, result.peer, result.status, result.distanceMm, result.distanceStdDevMm,
+                        result.numAttemptedMeasurements, result.numSuccessfulMeasurements, result.rangingTimestampMillis);
+            }
+        }
+        for (int i = 0; i < results.size(); i++) {
+            RangeResult<Integer> result = results.get(i);
+            int id = this.peers.idOf(result.peer);
+            if (result.status == RangeResult.STATUS_SUCCESS && id != PeerRegistry.NO_PEER) {
+                this.engine.addRange(id, result.distanceMm, result.distanceStdDevMm, result.numSuccessfulMeasurements, result.rangingTimestampMillis);
+                this.peers.checkIn(id, now);
+            }
+        }
+        int rejected = this.engine.getTracker().getRejectedUpdates();
+        if (this.engine.isUsingTracker()) {
+            for (int i = 0; i < results.size(); i++) {
+                RangeResult<Integer> result = results.get(i);
+                int id = this.peers.idOf(result.peer);
+                if (result.status == RangeResult.STATUS_SUCCESS && id != PeerRegistry.NO_PEER) {
+                    this.engine.updateTracker(id, result.rangingTimestampMillis);
+                }
+            }
+        }
+        int fix = this.engine.computeFix(this.anchorSelectionActive ? this.anchorSelected : null, now);
+        boolean solved = fix == PositioningEngine.FIX_SOLVED || fix == PositioningEngine.FIX_TRACKER_INITIALIZED;
+        this.anchorSelector.onFix(solved, solved ? this.engine.getFixUncertainty() : 0, solved ? this.engine.getSolver().getRms() : 0,
+                this.engine.getTracker().getRejectedUpdates() != rejected);
+        double processing = (System.nanoTime() - start) / 1000.0;
+        this.rangingPeriod.add(this.adaptive ? updateRangingRate(solved, now) : this.periodMillis);
+
+        this.processingMicros.add(processing);
+        this.roundLatency.add(now - this.simulator.getRoundStartMillis());
+        if (solved) {
+            this.fixes++;
+            this.fixLatency.add(now - this.simulator.getRoundStartMillis() + processing / 1000.0);
+            this.simulator.getTruePosition(now, this.truth);
+            this.fixError.add(Math.hypot(this.engine.getFixX() - this.truth[0], this.engine.getFixY() - this.truth[1]));
+            if (this.recorder != null) {
+                this.recorder.recordFix(now, (int) Math.round(this.engine.getFixX()), (int) Math.round(this.engine.getFixY()), (int) Math.round(this.engine.getFixUncertainty()), false);
+            }
+        }
+    }
+
+    // The fix of a selected round only uses the selection; a replay needs it to make the same fix.
+    private void recordSelection(long now) {
+        int count = 0;
+        for (int id = 0; id < this.peers.getHighWaterMark(); id++) {
+            if (this.anchorSelected[id]) {
+                this.selectionPeers[count++] = this.peers.getKey(id);
+            }
+        }
+        this.recorder.recordSelection(now, this.selectionPeers, count);
+    }
+
+    // Same inputs as MainActivity.updateRangingRate and computeLocation.
+    private int updateRangingRate(boolean solved, long now) {
+        if (this.engine.isUsingTracker() && this.engine.getTracker().isInitialized()) {
+            this.rateController.onPosition(this.engine.getTracker().getX(), this.engine.getTracker().getY(), now);
+            this.rateController.onUncertainty(this.engine.getTracker().getPositionStdDev());
+        } else if (!this.engine.isUsingTracker() && solved) {
+            this.rateController.onPosition(this.engine.getFixX(), this.engine.getFixY(), now);
+            this.rateController.onUncertainty(this.engine.hasFixStandardDeviation() ? this.engine.getFixStandardDeviation() : 0.0);
+        }
+        return this.rateController.update(now);
+    }
+
+    /** The ranging period at the given quantile of rounds, 0 to 1. */
+    double getRangingPeriodPercentile(double p) {
+        return this.rangingPeriod.percentile(p);
+    }
+
+    @Override
+    public void onRangingFailure(int status) {
+    }
+
+    private void trackerOutput() {
+        long now = this.loop.getNowMillis();
+        int state = this.engine.trackerOutput(now);
+        if (state == PositioningEngine.TRACKER_UPDATED) {
+            this.simulator.getTruePosition(now, this.truth);
+            this.trackerError.add(Math.hypot(this.engine.getTracker().getX() - this.truth[0], this.engine.getTracker().getY() - this.truth[1]));
+            if (this.recorder != null) {
+                this.recorder.recordFix(now, (int) Math.round(this.engine.getTracker().getX()), (int) Math.round(this.engine.getTracker().getY()),
+                        (int) Math.round(this.engine.getTracker().getPositionStdDev()), true);
+            }
+        } else if (state == PositioningEngine.TRACKER_LOST) {
+            this.trackerLost++;
+        }
+        this.loop.postDelayed(TRACKER_OUTPUT_PERIOD_MS, this::trackerOutput);
+    }
+
+    private String report() {
+        long rounds = this.simulator.getRounds();
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "Simulation: seed=%d anchors=%d area=%.0fx%.0f m duration=%d s period=%d ms adaptive=%b tracker=%b robust=%b select=%b filter=%s%n",
+                this.seed, this.anchors, this.width / 1000, this.height / 1000, this.durationSeconds, this.periodMillis, this.adaptive, this.useTracker, this.robust, this.select, this.filter));
+        out.append(String.format(Locale.US, "Noise: std=%.0f mm nlos=%.2f (mean bias %.0f mm) dropout=%.2f%n", this.rangeStdDev, this.nlos, this.nlosBias, this.dropout));
+        out.append(String.format(Locale.US, "Rounds: %d, ranges: %d (%.1f per round), dropouts: %d, NLOS ranges: %d%n",
+                rounds, this.simulator.getRanges(), rounds > 0 ? (double) this.simulator.getRanges() / rounds : 0.0, this.simulator.getDropouts(), this.simulator.getNlosRanges()));
+        out.append(String.format(Locale.US, "Fix rate: %d of %d rounds (%.1f%%), %.2f fixes/s%n",
+                this.fixes, rounds, rounds > 0 ? 100.0 * this.fixes / rounds : 0.0, this.fixes / (double) this.durationSeconds));
+        if (this.adaptive) {
+            out.append("Ranging period per round (ms): ").append(this.rangingPeriod.summary()).append('\n');
+        }
+        out.append("Round latency (ms): ").append(this.roundLatency.summary()).append('\n');
+        out.append("Fix latency (ms): ").append(this.fixLatency.summary()).append('\n');
+        out.append("Processing per round (us): ").append(this.processingMicros.summary()).append('\n');
+        if (this.select) {
+            out.append(String.format(Locale.US, "Anchor selection: %d rotated per round, %d full rounds after a poor fix%n", this.rotatedAnchors, this.anchorSelector.getFallbacks()));
+        }
+        out.append("Fix error (mm): ").append(this.fixError.summary()).append('\n');
+        if (this.useTracker) {
+            out.append("Tracker error (mm): ").append(this.trackerError.summary()).append('\n');
+            out.append(String.format(Locale.US, "Tracker: %d ranges rejected by the gate, restarted %d times, lost %d times%n",
+                    this.engine.getTracker().getRejectedUpdates(), this.engine.getTrackerRestarts(), this.trackerLost));
+        }
+        return out.toString();
+    }
+
+    static int filterOf(String name) {
+        switch (name) {
+            case "none":
+                return RangeHistory.FILTER_NONE;
+            case "median":
+                return RangeHistory.FILTER_MEDIAN;
+            case "ema":
+                return RangeHistory.FILTER_EMA;
+            default:
+                return RangeHistory.FILTER_HAMPEL;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.microsoft.arwalking.android.simulation;
+
+import java.util.Random;
+
+/**
+ * A walk along a closed polyline at constant speed, in millimetres and milliseconds.
+ */
+public class Trajectory {
+    private final double[] x;
+    private final double[] y;
+    private final double[] distanceAt;
+    private final double speed;
+
+    /**
+     * @param speed walking speed in mm/ms (m/s)
+     */
+    public Trajectory(double[] x, double[] y, double speed) {
+        if (x.length == 0 || x.length != y.length) {
+            throw new IllegalArgumentException("Trajectory needs matching, non empty waypoints");
+        }
+        this.x = x;
+        this.y = y;
+        this.speed = speed;
+        this.distanceAt = new double[x.length + 1];
+        for (int i = 0; i < x.length; i++) {
+            int next = (i + 1) % x.length;
+            this.distanceAt[i + 1] = this.distanceAt[i] + Math.hypot(x[next] - x[i], y[next] - y[i]);
+        }
+    }
+
+    /** A walk through {@code waypoints} random points inside [0, width] x [0, height]. */
+    public static Trajectory random(Random random, int waypoints, double width, double height, double speed) {
+        double[] x = new double[waypoints];
+        double[] y = new double[waypoints];
+        for (int i = 0; i < waypoints; i++) {
+            x[i] = random.nextDouble() * width;
+            y[i] = random.nextDouble() * height;
+        }
+        return new Trajectory(x, y, speed);
+    }
+
+    /** Writes the position at {@code timeMillis} after the start to {@code out[0..1]}. */
+    public void positionAt(long timeMillis, double[] out) {
+        double length = this.distanceAt[this.x.length];
+        if (length == 0) {
+            out[0] = this.x[0];
+            out[1] = this.y[0];
+            return;
+        }
+        double distance = (timeMillis * this.speed) % length;
+        int segment = 0;
+        while (this.distanceAt[segment + 1] < distance) {
+            segment++;
+        }
+        int next = (segment + 1) % this.x.length;
+        double segmentLength = this.distanceAt[segment + 1] - this.distanceAt[segment];
+        double t = segmentLength > 0 ? (distance - this.distanceAt[segment]) / segmentLength : 0;
+        out[0] = this.x[segment] + t * (this.x[next] - this.x[segment]);
+        out[1] = this.y[segment] + t * (this.y[next] - this.y[segment]);
+    }
+}
@@ -0,0 +1,187 @@
+package com.microsoft.arwalking.android.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a log written by {@link TraceRecorder} one record at a time. The accessors read fields of
+ * the current record straight from the mapped file; which ones apply depends on its type.
+ */
+public class TraceReader {
+    private final ByteBuffer buffer;
+    private final long startWallClockMillis;
+    private int position = TraceRecorder.HEADER_LENGTH;
+    private int record;
+    private int payload;
+    private int type = TraceRecorder.RECORD_END;
+    private boolean ended;
+
+    /** Maps {@code file} for reading. */
+    public static TraceReader open(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+            return new TraceReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public TraceReader(ByteBuffer buffer2) throws IOException {
+        this.buffer = buffer2.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.buffer.limit() < TraceRecorder.HEADER_LENGTH || this.buffer.getInt(0) != TraceRecorder.MAGIC) {
+            throw new IOException("Not a trace");
+        }
+        int version = this.buffer.getShort(4) & 0xFFFF;
+        if (version != TraceRecorder.VERSION) {
+            throw new IOException("Unsupported trace version: " + version);
+        }
+        this.startWallClockMillis = this.buffer.getLong(8);
+    }
+
+    public long getStartWallClockMillis() {
+        return this.startWallClockMillis;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return its type, or {@link TraceRecorder#RECORD_END} at the end of the log, including after a
+     *     truncated record
+     */
+    public int next() {
+        int limit = this.buffer.limit();
+        if (this.ended || limit - this.position < TraceRecorder.RECORD_HEADER_LENGTH) {
+            return end();
+        }
+        int length = this.buffer.getShort(this.position + 2) & 0xFFFF;
+        int recordType = this.buffer.get(this.position) & 0xFF;
+        if (recordType == TraceRecorder.RECORD_END || limit - this.position - TraceRecorder.RECORD_HEADER_LENGTH < length) {
+            return end();
+        }
+        this.record = this.position;
+        this.payload = this.position + TraceRecorder.RECORD_HEADER_LENGTH;
+        this.type = recordType;
+        this.position = this.payload + length;
+        return recordType;
+    }
+
+    private int end() {
+        this.ended = true;
+        this.type = TraceRecorder.RECORD_END;
+        return TraceRecorder.RECORD_END;
+    }
+
+    /** Goes back to the first record. */
+    public void rewind() {
+        this.position = TraceRecorder.HEADER_LENGTH;
+        this.type = TraceRecorder.RECORD_END;
+        this.ended = false;
+    }
+
+    public int getType() {
+        return this.type;
+    }
+
+    public long getTimeMillis() {
+        return this.buffer.getLong(this.record + 4);
+    }
+
+    /** Status of a range, mode of a message event. */
+    public int getArgument() {
+        return this.buffer.get(this.record + 1) & 0xFF;
+    }
+
+    public int getPayloadLength() {
+        return this.buffer.getShort(this.record + 2) & 0xFFFF;
+    }
+
+    /** Peer of a peer, range or message record. */
+    public int getPeer() {
+        return this.buffer.getInt(this.payload);
+    }
+
+    // Peer and fix records
+    public int getX() {
+        return this.buffer.getInt(this.type == TraceRecorder.RECORD_FIX ? this.payload : this.payload + 4);
+    }
+
+    public int getY() {
+        return this.buffer.getInt(this.type == TraceRecorder.RECORD_FIX ? this.payload + 4 : this.payload + 8);
+    }
+
+    // Peer records
+    public int getRangeBiasMm() {
+        return this.buffer.getInt(this.payload + 12);
+    }
+
+    public boolean isLocated() {
+        return this.buffer.get(this.payload + 16) != 0;
+    }
+
+    public String getName() {
+        int length = this.buffer.get(this.payload + 17) & 0xFF;
+        char[] name = new char[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = (char) (this.buffer.get(this.payload + TraceRecorder.PEER_PAYLOAD_LENGTH + i) & 0xFF);
+        }
+        return new String(name);
+    }
+
+    // Range records
+    public int getDistanceMm() {
+        return this.buffer.getInt(this.payload + 4);
+    }
+
+    public int getDistanceStdDevMm() {
+        return this.buffer.getInt(this.payload + 8);
+    }
+
+    public int getNumAttemptedMeasurements() {
+        return this.buffer.getInt(this.payload + 12);
+    }
+
+    public int getNumSuccessfulMeasurements() {
+        return this.buffer.getInt(this.payload + 16);
+    }
+
+    public long getRangingTimestampMillis() {
+        return this.buffer.getLong(this.payload + 20);
+    }
+
+    // Message records
+    public int getMessageId() {
+        return this.buffer.getInt(this.payload + 4);
+    }
+
+    public int getDataLength() {
+        return getPayloadLength() - TraceRecorder.MESSAGE_PAYLOAD_LENGTH;
+    }
+
+    /** Copies the message bytes into {@code out}, which must hold {@link #getDataLength()} bytes. */
+    public void getData(byte[] out) {
+        int length = getDataLength();
+        int start = this.payload + TraceRecorder.MESSAGE_PAYLOAD_LENGTH;
+        for (int i = 0; i < length; i++) {
+            out[i] = this.buffer.get(start + i);
+        }
+    }
+
+    // Selection records
+    public int getSelectionCount() {
+        return getPayloadLength() / 4;
+    }
+
+    public int getSelectedPeer(int index) {
+        return this.buffer.getInt(this.payload + index * 4);
+    }
+
+    // Fix records
+    public int getUncertaintyMm() {
+        return this.buffer.getInt(this.payload + 8);
+    }
+
+    public boolean isTracked() {
+        return (getArgument() & TraceRecorder.FIX_FLAG_TRACKED) != 0;
+    }
+}
@@ -0,0 +1,257 @@
+package com.microsoft.arwalking.android.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only binary log of ranging results, anchor selections, NAN message events, peers and fixes, written through
+ * a memory-mapped file so a record costs a few buffer writes and no allocation. Read it back with
+ * {@link TraceReader}.
+ *
+ * <p>File format (little endian):
+ * <pre>
+ *   header, 16 bytes:
+ *   [0..3]    magic "ARWT"
+ *   [4..5]    version (1)
+ *   [6..7]    reserved
+ *   [8..15]   wall clock time the trace was started, in ms since the epoch
+ *   records, each a 12 byte header followed by its payload:
+ *   [0]       type, 0 marks the end of the log
+ *   [1]       argument: the status of a range, the mode of a message event, the flags of a fix
+ *   [2..3]    payload length
+ *   [4..11]   time in ms, on the clock of the ranging timestamps
+ * </pre>
+ * Payloads, by type:
+ * <pre>
+ *   PEER      peer, x, y, range bias, located (1 byte), name length (1 byte), name (ASCII)
+ *   RANGE     peer, distance, distance std dev, attempted, successful, ranging timestamp (8 bytes)
+ *   SELECTION the peers a round ranged for its fix, when it ranged a selection of anchors
+ *   MESSAGE_* peer, message id, message bytes; also SERVICE_DISCOVERED and the SESSION(S)_* events
+ *   FIX       x, y, uncertainty
+ * </pre>
+ * Fields are 4 byte ints unless noted, distances and coordinates in millimetres. Peers are
+ * identified by an int the app chooses, e.g. the hash of the peer handle; a PEER record binds it
+ * to a name, a location and the bias to subtract from its ranges. Message events that do not know the peer, such as send results, use -1.
+ * A SELECTION record comes right before the ranges of its round; a round without one used every
+ * located peer.
+ *
+ * <p>The file is mapped in chunks and grows a chunk at a time up to {@code maxSize}; records that
+ * do not fit are counted as dropped. The type byte of a record is written last, so after a crash
+ * the log ends at the last complete record. Not thread safe; record from one thread.
+ */
+public class TraceRecorder implements Closeable {
+    public static final int MAGIC = 0x54575241; // "ARWT" read little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 16;
+    public static final int RECORD_HEADER_LENGTH = 12;
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    public static final long DEFAULT_MAX_SIZE = 256L << 20;
+
+    /** Record types. */
+    public static final int RECORD_END = 0;
+    public static final int RECORD_PEER = 1;
+    public static final int RECORD_RANGE = 2;
+    public static final int RECORD_MESSAGE_RECEIVED = 3;
+    public static final int RECORD_MESSAGE_SENT = 4;
+    public static final int RECORD_MESSAGE_SEND_SUCCEEDED = 5;
+    public static final int RECORD_MESSAGE_SEND_FAILED = 6;
+    public static final int RECORD_SERVICE_DISCOVERED = 7;
+    public static final int RECORD_SESSION_TERMINATED = 8;
+    public static final int RECORD_FIX = 9;
+    public static final int RECORD_SESSIONS_SUSPENDED = 10;
+    public static final int RECORD_SESSIONS_RECOVERED = 11;
+    public static final int RECORD_SELECTION = 12;
+
+    /** Fix flag: the fix is a tracker output rather than a snapshot solution. */
+    public static final int FIX_FLAG_TRACKED = 1;
+
+    static final int MAX_NAME_LENGTH = 255;
+    static final int PEER_PAYLOAD_LENGTH = 18;
+    static final int RANGE_PAYLOAD_LENGTH = 28;
+    static final int MESSAGE_PAYLOAD_LENGTH = 8;
+    static final int FIX_PAYLOAD_LENGTH = 12;
+    private static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+    static final int MAX_SELECTION = MAX_PAYLOAD_LENGTH / 4;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final long maxSize;
+    private MappedByteBuffer mapped;
+    private ByteBuffer chunk;
+    private long chunkStart;
+    private boolean failed;
+    private boolean closed;
+
+    private long records;
+    private long dropped;
+
+    public TraceRecorder(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    public TraceRecorder(File file2, int chunkSize2, long maxSize2) throws IOException {
+        this.chunkSize = chunkSize2;
+        this.maxSize = maxSize2;
+        this.file = new RandomAccessFile(file2, "rw");
+        try {
+            this.file.setLength(0);
+            this.channel = this.file.getChannel();
+            map(0);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        this.chunk.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putLong(System.currentTimeMillis());
+    }
+
+    private void map(long position) throws IOException {
+        this.mapped = this.channel.map(FileChannel.MapMode.READ_WRITE, position, this.chunkSize);
+        this.chunk = this.mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.chunkStart = position;
+    }
+
+    /** Bytes written so far, including the header. */
+    public long getSize() {
+        return this.chunkStart + this.chunk.position();
+    }
+
+    public long getRecords() {
+        return this.records;
+    }
+
+    /** Records that were not written because the log was full, failed or closed. */
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    /** True once growing the log failed; nothing is recorded after that. */
+    public boolean isFailed() {
+        return this.failed;
+    }
+
+    public void recordPeer(long timeMillis, int peer, String name, boolean located, int xMm, int yMm, int rangeBiasMm) {
+        int nameLength = Math.min(name.length(), MAX_NAME_LENGTH);
+        int start = begin(PEER_PAYLOAD_LENGTH + nameLength, 0, timeMillis);
+        if (start < 0) {
+            return;
+        }
+        this.chunk.putInt(peer).putInt(xMm).putInt(yMm).putInt(rangeBiasMm).put((byte) (located ? 1 : 0)).put((byte) nameLength);
+        for (int i = 0; i < nameLength; i++) {
+            char c = name.charAt(i);
+            this.chunk.put((byte) (c < 0x80 ? c : '?'));
+        }
+        end(start, RECORD_PEER);
+    }
+
+    public void recordRange(long timeMillis, int peer, int status, int distanceMm, int distanceStdDevMm, int attempted, int successful, long rangingTimestampMillis) {
+        int start = begin(RANGE_PAYLOAD_LENGTH, status, timeMillis);
+        if (start < 0) {
+            return;
+        }
+        this.chunk.putInt(peer).putInt(distanceMm).putInt(distanceStdDevMm).putInt(attempted).putInt(successful).putLong(rangingTimestampMillis);
+        end(start, RECORD_RANGE);
+    }
+
+    /**
+     * @param type one of the {@code RECORD_MESSAGE_}, {@link #RECORD_SERVICE_DISCOVERED},
+     *     {@link #RECORD_SESSION_TERMINATED}, {@link #RECORD_SESSIONS_SUSPENDED} or
+     *     {@link #RECORD_SESSIONS_RECOVERED} types
+     * @param data the message or service info, or null
+     */
+    public void recordMessage(long timeMillis, int type, int mode, int peer, int messageId, byte[] data) {
+        int length = data != null ? Math.min(data.length, MAX_PAYLOAD_LENGTH - MESSAGE_PAYLOAD_LENGTH) : 0;
+        int start = begin(MESSAGE_PAYLOAD_LENGTH + length, mode, timeMillis);
+        if (start < 0) {
+            return;
+        }
+        this.chunk.putInt(peer).putInt(messageId);
+        if (length > 0) {
+            this.chunk.put(data, 0, length);
+        }
+        end(start, type);
+    }
+
+    /** Records the {@code count} peers a round ranges for its fix, before its ranges. */
+    public void recordSelection(long timeMillis, int[] peers, int count) {
+        count = Math.min(count, MAX_SELECTION);
+        int start = begin(count * 4, 0, timeMillis);
+        if (start < 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            this.chunk.putInt(peers[i]);
+        }
+        end(start, RECORD_SELECTION);
+    }
+
+    public void recordFix(long timeMillis, int xMm, int yMm, int uncertaintyMm, boolean tracked) {
+        int start = begin(FIX_PAYLOAD_LENGTH, tracked ? FIX_FLAG_TRACKED : 0, timeMillis);
+        if (start < 0) {
+            return;
+        }
+        this.chunk.putInt(xMm).putInt(yMm).putInt(uncertaintyMm);
+        end(start, RECORD_FIX);
+    }
+
+    /**
+     * Reserves a record and writes its header except for the type.
+     *
+     * @return the record's position in the chunk, or -1 if it was dropped
+     */
+    private int begin(int payloadLength, int argument, long timeMillis) {
+        int length = RECORD_HEADER_LENGTH + payloadLength;
+        // Leave room for the end marker after the record.
+        if (this.closed || this.failed || getSize() + length + 1 > this.maxSize) {
+            this.dropped++;
+            return -1;
+        }
+        if (this.chunk.remaining() < length + 1) {
+            try {
+                map(getSize());
+            } catch (IOException e) {
+                this.failed = true;
+                this.dropped++;
+                return -1;
+            }
+        }
+        int start = this.chunk.position();
+        this.chunk.put(start + 1, (byte) argument).putShort(start + 2, (short) payloadLength).putLong(start + 4, timeMillis);
+        this.chunk.position(start + RECORD_HEADER_LENGTH);
+        return start;
+    }
+
+    private void end(int start, int type) {
+        this.chunk.put(start, (byte) type);
+        this.records++;
+    }
+
+    /** Writes the recorded pages to the file, e.g. before handing the trace on. */
+    public void flush() {
+        if (!this.closed) {
+            this.mapped.force();
+        }
+    }
+
+    /** Flushes the log and cuts the file to the recorded length. */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        long size = getSize();
+        try {
+            this.mapped.force();
+            this.channel.truncate(size);
+        } finally {
+            this.file.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.microsoft.arwalking.android.trace;
+
+import com.microsoft.arwalking.android.positioning.RangeResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a trace back to a {@link Listener}, at the recorded pace, faster, or as fast as possible.
+ * Consecutive range records with the same time are delivered together, as the ranging round they
+ * were recorded from. Callbacks run on the thread that calls {@link #replay}.
+ */
+public class TraceReplayer {
+    /** Replays without waiting between records. */
+    public static final double UNPACED = 0.0;
+
+    public interface Listener {
+        void onPeer(int peer, String name, boolean located, int xMm, int yMm, int rangeBiasMm, long timeMillis);
+
+        void onRangingResults(List<RangeResult<Integer>> results, long timeMillis);
+
+        /**
+         * The peers the next ranging round ranged for its fix; rounds without a selection used
+         * every located peer. {@code peers} holds {@code count} peers and is reused.
+         */
+        void onSelection(int[] peers, int count, long timeMillis);
+
+        /**
+         * A message record; {@code data} holds {@code length} bytes and is reused for the next one.
+         *
+         * @param type one of the {@code TraceRecorder.RECORD_} message event types
+         */
+        void onMessageEvent(int type, int mode, int peer, int messageId, byte[] data, int length, long timeMillis);
+
+        void onFix(int xMm, int yMm, int uncertaintyMm, boolean tracked, long timeMillis);
+    }
+
+    private final TraceReader reader;
+    private final Listener listener;
+    private final ArrayList<RangeResult<Integer>> round = new ArrayList<>();
+    private byte[] data = new byte[256];
+    private int[] selection = new int[64];
+    private long roundTimeMillis;
+    private long records;
+
+    public TraceReplayer(TraceReader reader2, Listener listener2) {
+        this.reader = reader2;
+        this.listener = listener2;
+    }
+
+    /** Records replayed by the last {@link #replay}. */
+    public long getRecords() {
+        return this.records;
+    }
+
+    /**
+     * Replays the whole trace.
+     *
+     * @param speed 1 for the recorded pace, 10 for ten times faster, {@link #UNPACED} for no waiting
+     * @return the trace's duration in ms
+     */
+    public long replay(double speed) throws InterruptedException {
+        this.reader.rewind();
+        this.round.clear();
+        this.records = 0;
+        long firstMillis = Long.MIN_VALUE;
+        long lastMillis = 0;
+        long startNanos = System.nanoTime();
+        int type;
+        while ((type = this.reader.next()) != TraceRecorder.RECORD_END) {
+            long timeMillis = this.reader.getTimeMillis();
+            if (firstMillis == Long.MIN_VALUE) {
+                firstMillis = timeMillis;
+            }
+            if (!this.round.isEmpty() && (type != TraceRecorder.RECORD_RANGE || timeMillis != this.roundTimeMillis)) {
+                flushRound();
+            }
+            if (speed > 0) {
+                long dueNanos = startNanos + (long) ((timeMillis - firstMillis) * 1e6 / speed);
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                }
+            }
+            lastMillis = timeMillis;
+            this.records++;
+            deliver(type, timeMillis);
+        }
+        flushRound();
+        return firstMillis == Long.MIN_VALUE ? 0 : lastMillis - firstMillis;
+    }
+
+    private void deliver(int type, long timeMillis) {
+        TraceReader in = this.reader;
+        switch (type) {
+            case TraceRecorder.RECORD_PEER:
+                this.listener.onPeer(in.getPeer(), in.getName(), in.isLocated(), in.getX(), in.getY(), in.getRangeBiasMm(), timeMillis);
+                return;
+            case TraceRecorder.RECORD_RANGE:
+                this.roundTimeMillis = timeMillis;
+                this.round.add(new RangeResult<>(in.getPeer(), in.getArgument(), in.getDistanceMm(), in.getDistanceStdDevMm(),
+                        in.getNumAttemptedMeasurements(), in.getNumSuccessfulMeasurements(), in.getRangingTimestampMillis()));
+                return;
+            case TraceRecorder.RECORD_SELECTION:
+                int count = in.getSelectionCount();
+                if (count > this.selection.length) {
+                    this.selection = new int[count];
+                }
+                for (int i = 0; i < count; i++) {
+                    this.selection[i] = in.getSelectedPeer(i);
+                }
+                this.listener.onSelection(this.selection, count, timeMillis);
+                return;
+            case TraceRecorder.RECORD_FIX:
+                this.listener.onFix(in.getX(), in.getY(), in.getUncertaintyMm(), in.isTracked(), timeMillis);
+                return;
+            case TraceRecorder.RECORD_MESSAGE_RECEIVED:
+            case TraceRecorder.RECORD_MESSAGE_SENT:
+            case TraceRecorder.RECORD_MESSAGE_SEND_SUCCEEDED:
+            case TraceRecorder.RECORD_MESSAGE_SEND_FAILED:
+            case TraceRecorder.RECORD_SERVICE_DISCOVERED:
+            case TraceRecorder.RECORD_SESSION_TERMINATED:
+            case TraceRecorder.RECORD_SESSIONS_SUSPENDED:
+            case TraceRecorder.RECORD_SESSIONS_RECOVERED:
+                int length = in.getDataLength();
+                if (length > this.data.length) {
+                    this.data = new byte[length];
+                }
+                in.getData(this.data);
+                this.listener.onMessageEvent(type, in.getArgument(), in.getPeer(), in.getMessageId(), this.data, length, timeMillis);
+                return;
+            default:
+                // Written by a newer recorder; skip it.
+                return;
+        }
+    }
+
+    private void flushRound() {
+        if (this.round.isEmpty()) {
+            return;
+        }
+        this.listener.onRangingResults(this.round, this.roundTimeMillis);
+        this.round.clear();
+    }
+}
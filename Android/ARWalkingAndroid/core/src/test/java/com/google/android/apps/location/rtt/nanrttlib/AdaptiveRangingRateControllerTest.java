@@ -0,0 +1,111 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveRangingRateControllerTest {
+    private final List<Integer> changes = new ArrayList<>();
+    private final AdaptiveRangingRateController controller = new AdaptiveRangingRateController(this.changes::add);
+
+    /** Walks along x at {@code speed} mm/s, one position a second from {@code startMillis}. */
+    private long walk(double speed, long startMillis, int seconds) {
+        long time = startMillis;
+        for (int i = 0; i < seconds; i++) {
+            time = startMillis + i * 1000L;
+            this.controller.onPosition(speed * i, 0, time);
+            this.controller.update(time);
+        }
+        return time;
+    }
+
+    @Test
+    public void startsAtBasePeriod() {
+        assertEquals(AdaptiveRangingRateController.DEFAULT_BASE_PERIOD_MILLIS, this.controller.update(0));
+        assertTrue(this.changes.isEmpty());
+    }
+
+    @Test
+    public void walkingDropsToMinimumImmediately() {
+        walk(1200, 0, 3);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_MIN_PERIOD_MILLIS, this.controller.getPeriodMillis());
+        assertEquals(Integer.valueOf(AdaptiveRangingRateController.DEFAULT_MIN_PERIOD_MILLIS), this.changes.get(0));
+    }
+
+    @Test
+    public void standingStillBacksOffGradually() {
+        long time = walk(0, 0, 30);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS, this.controller.update(time));
+        // Each step grows by at most half.
+        int previous = AdaptiveRangingRateController.DEFAULT_BASE_PERIOD_MILLIS;
+        for (int period : this.changes) {
+            assertTrue(period > previous && period <= previous * 1.5 + 1);
+            previous = period;
+        }
+    }
+
+    /** Stands still with up to {@code jitter} mm of noise per position, one round per period. */
+    private long standWithJitter(double jitter, long startMillis, int seconds) {
+        Random random = new Random(1);
+        long time = startMillis;
+        while (time < startMillis + seconds * 1000L) {
+            this.controller.onPosition((2 * random.nextDouble() - 1) * jitter, (2 * random.nextDouble() - 1) * jitter, time);
+            time += this.controller.update(time);
+        }
+        return time;
+    }
+
+    @Test
+    public void standingStillWithJitterBacksOffToMaximum() {
+        // 200 mm between rounds a quarter second apart would read as 800 mm/s.
+        this.controller.setPeriodRange(AdaptiveRangingRateController.DEFAULT_MIN_PERIOD_MILLIS, AdaptiveRangingRateController.DEFAULT_MIN_PERIOD_MILLIS, AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS);
+        long time = standWithJitter(200, 0, 60);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS, this.controller.update(time));
+        assertTrue(this.controller.getSpeed() < AdaptiveRangingRateController.DEFAULT_STATIONARY_SPEED);
+    }
+
+    @Test
+    public void walkingAfterStandingStillDropsToMinimum() {
+        long time = standWithJitter(200, 0, 60);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS, this.controller.getPeriodMillis());
+        for (int i = 1; i <= 2; i++) {
+            this.controller.onPosition(1200 * 5 * i, 0, time + 5000L * i);
+        }
+        assertEquals(AdaptiveRangingRateController.DEFAULT_MIN_PERIOD_MILLIS, this.controller.update(time + 10000));
+    }
+
+    @Test
+    public void noBackOffBeforeStationaryHold() {
+        long time = walk(0, 0, 5);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_BASE_PERIOD_MILLIS, this.controller.update(time));
+    }
+
+    @Test
+    public void highUncertaintyShortensPeriod() {
+        this.controller.onUncertainty(2 * AdaptiveRangingRateController.DEFAULT_TARGET_UNCERTAINTY);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_BASE_PERIOD_MILLIS / 2, this.controller.update(0));
+    }
+
+    @Test
+    public void lowBatteryDoublesAndCriticalPinsToMaximum() {
+        this.controller.onBatteryState(15, false);
+        walk(1200, 0, 3);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_BASE_PERIOD_MILLIS, this.controller.getPeriodMillis());
+
+        this.controller.reset();
+        this.controller.onBatteryState(5, false);
+        for (int i = 0; i < 10; i++) {
+            this.controller.update(i * 1000L);
+        }
+        assertEquals(AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS, this.controller.getPeriodMillis());
+
+        this.controller.onBatteryState(5, true);
+        walk(1200, 10000, 3);
+        assertEquals(AdaptiveRangingRateController.DEFAULT_MIN_PERIOD_MILLIS, this.controller.getPeriodMillis());
+    }
+}
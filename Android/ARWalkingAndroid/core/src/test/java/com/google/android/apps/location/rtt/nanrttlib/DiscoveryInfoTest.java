@@ -0,0 +1,60 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryInfoTest {
+    @Test
+    public void roundTrip() {
+        byte[] bytes = new DiscoveryInfo("Anchor-é7", true, -12345, 678901, true).toBytes();
+        assertEquals(DiscoveryInfo.VERSION, bytes[0]);
+        DiscoveryInfo info = DiscoveryInfo.fromBytes(bytes);
+        assertEquals("Anchor-é7", info.deviceName);
+        assertTrue(info.hasLocation);
+        assertEquals(-12345, info.xMm);
+        assertEquals(678901, info.yMm);
+        assertTrue(info.binaryMessages);
+    }
+
+    @Test
+    public void flagsAreIndependent() {
+        DiscoveryInfo info = DiscoveryInfo.fromBytes(new DiscoveryInfo("a", false, 0, 0, false).toBytes());
+        assertFalse(info.hasLocation);
+        assertFalse(info.binaryMessages);
+        // A current publisher reads binary messages unless it says otherwise.
+        assertTrue(DiscoveryInfo.fromBytes(new DiscoveryInfo("a").toBytes()).binaryMessages);
+        assertFalse(DiscoveryInfo.fromBytes(new DiscoveryInfo("a").toBytes()).hasLocation);
+    }
+
+    @Test
+    public void rejectsMalformedInfo() {
+        assertNull(DiscoveryInfo.fromBytes(null));
+        assertNull(DiscoveryInfo.fromBytes(new byte[0]));
+        // A legacy publisher advertises nothing or its plain name.
+        assertNull(DiscoveryInfo.fromBytes("Anchor-1 with a long name".getBytes(StandardCharsets.UTF_8)));
+        byte[] bytes = new DiscoveryInfo("Anchor-1", true, 1, 2).toBytes();
+        assertNull(DiscoveryInfo.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)));
+        assertNull(DiscoveryInfo.fromBytes(Arrays.copyOf(bytes, DiscoveryInfo.HEADER_LENGTH - 1)));
+    }
+
+    @Test
+    public void fitsServiceInfoLimit() {
+        char[] name = new char[DiscoveryInfo.MAX_LENGTH - DiscoveryInfo.HEADER_LENGTH];
+        Arrays.fill(name, 'n');
+        assertEquals(DiscoveryInfo.MAX_LENGTH, new DiscoveryInfo(new String(name)).toBytes().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNameTooLong() {
+        char[] name = new char[DiscoveryInfo.MAX_LENGTH - DiscoveryInfo.HEADER_LENGTH + 1];
+        Arrays.fill(name, 'n');
+        new DiscoveryInfo(new String(name)).toBytes();
+    }
+}
@@ -0,0 +1,150 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedTimingWheelTest {
+    private final List<Integer> expired = new ArrayList<>();
+    private final List<Long> expiredAt = new ArrayList<>();
+
+    private HashedTimingWheel wheel(int capacity, int slots, long tickMillis) {
+        return new HashedTimingWheel(capacity, slots, tickMillis, (id, nowMillis) -> {
+            this.expired.add(id);
+            this.expiredAt.add(nowMillis);
+        });
+    }
+
+    @Test
+    public void expiresAtDeadlineRoundedUpToTick() {
+        HashedTimingWheel wheel = wheel(4, 8, 100);
+        wheel.advance(0);
+        wheel.schedule(1, 250);
+        assertEquals(0, wheel.advance(250));
+        assertEquals(0, wheel.advance(299));
+        assertEquals(1, wheel.advance(300));
+        assertEquals(Arrays.asList(1), this.expired);
+        assertFalse(wheel.isScheduled(1));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void deadlinesBeyondOneTurnWaitForTheirTurn() {
+        HashedTimingWheel wheel = wheel(4, 4, 100);
+        wheel.advance(0);
+        // Same slot as 100, three turns later.
+        wheel.schedule(0, 1300);
+        wheel.schedule(1, 100);
+        for (long now = 100; now < 1300; now += 100) {
+            wheel.advance(now);
+        }
+        assertEquals(Arrays.asList(1), this.expired);
+        assertEquals(1, wheel.advance(1300));
+        assertEquals(Arrays.asList(1, 0), this.expired);
+    }
+
+    @Test
+    public void rescheduleAndCancel() {
+        HashedTimingWheel wheel = wheel(4, 8, 100);
+        wheel.advance(0);
+        wheel.schedule(0, 200);
+        wheel.schedule(1, 200);
+        wheel.schedule(0, 600);
+        wheel.cancel(1);
+        wheel.cancel(1);
+        assertEquals(1, wheel.size());
+        assertEquals(0, wheel.advance(500));
+        assertEquals(1, wheel.advance(600));
+        assertEquals(Long.valueOf(600), this.expiredAt.get(0));
+    }
+
+    @Test
+    public void pastDeadlineExpiresOnNextTick() {
+        HashedTimingWheel wheel = wheel(4, 8, 100);
+        wheel.advance(1000);
+        wheel.schedule(2, 100);
+        assertEquals(0, wheel.advance(1050));
+        assertEquals(1, wheel.advance(1100));
+        assertEquals(Arrays.asList(2), this.expired);
+    }
+
+    @Test
+    public void longStallExpiresEverythingDue() {
+        HashedTimingWheel wheel = wheel(16, 8, 100);
+        wheel.advance(0);
+        for (int id = 0; id < 16; id++) {
+            wheel.schedule(id, 100 + id * 300);
+        }
+        assertEquals(11, wheel.advance(3200));
+        assertEquals(5, wheel.size());
+        for (int id = 0; id < 11; id++) {
+            assertTrue(this.expired.contains(id));
+        }
+    }
+
+    @Test
+    public void listenerCanRescheduleAndCancelOthers() {
+        List<Integer> seen = new ArrayList<>();
+        HashedTimingWheel[] holder = new HashedTimingWheel[1];
+        HashedTimingWheel wheel = new HashedTimingWheel(4, 8, 100, (id, nowMillis) -> {
+            seen.add(id);
+            if (id == 0) {
+                // A heartbeat that reschedules itself and cancels a timer in the same slot.
+                holder[0].schedule(0, nowMillis + 1000);
+                holder[0].cancel(1);
+            }
+        });
+        holder[0] = wheel;
+        wheel.advance(0);
+        wheel.schedule(1, 200);
+        wheel.schedule(2, 200);
+        wheel.schedule(0, 200);
+        wheel.advance(200);
+        assertEquals(Arrays.asList(0, 2), seen);
+        assertTrue(wheel.isScheduled(0));
+        assertEquals(1, wheel.size());
+        wheel.advance(1200);
+        assertEquals(Arrays.asList(0, 2, 0), seen);
+    }
+
+    @Test
+    public void matchesReferenceOnFakeClock() {
+        Random random = new Random(3);
+        int capacity = 64;
+        long tick = 50;
+        HashedTimingWheel wheel = wheel(capacity, 16, tick);
+        long[] deadlines = new long[capacity];
+        Arrays.fill(deadlines, -1);
+        long now = 0;
+        wheel.advance(now);
+        for (int step = 0; step < 5000; step++) {
+            int id = random.nextInt(capacity);
+            if (random.nextInt(4) == 0) {
+                wheel.cancel(id);
+                deadlines[id] = -1;
+            } else {
+                long deadline = now + random.nextInt(3000);
+                wheel.schedule(id, deadline);
+                deadlines[id] = deadline;
+            }
+            now += random.nextInt(120);
+            this.expired.clear();
+            wheel.advance(now);
+            for (int i = 0; i < capacity; i++) {
+                boolean due = deadlines[i] >= 0 && (deadlines[i] + tick - 1) / tick * tick <= now;
+                assertEquals("timer " + i + " at " + now, due, this.expired.contains(i));
+                assertEquals(deadlines[i] >= 0 && !due, wheel.isScheduled(i));
+                if (due) {
+                    deadlines[i] = -1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LivenessStatsTest {
+    @Test
+    public void countsAndResets() {
+        LivenessStats stats = new LivenessStats();
+        stats.onPingSent();
+        stats.onPingSuppressed();
+        stats.onPingSuppressed();
+        stats.onRangingCheckIn();
+        stats.onRangingCheckIn();
+        stats.onRangingCheckIn();
+        stats.onMessageCheckIn();
+        assertEquals(1, stats.getPingsSent());
+        assertEquals(2, stats.getPingsSuppressed());
+        assertEquals(3, stats.getRangingCheckIns());
+        assertEquals(1, stats.getMessageCheckIns());
+        assertEquals("pings sent=1 suppressed=2, check-ins ranging=3 messages=1", stats.toString());
+
+        stats.reset();
+        assertEquals(0, stats.getPingsSent());
+        assertEquals(0, stats.getPingsSuppressed());
+        assertEquals(0, stats.getRangingCheckIns());
+        assertEquals(0, stats.getMessageCheckIns());
+    }
+}
@@ -0,0 +1,81 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageBatchTest {
+    private static List<byte[]> messages() {
+        return Arrays.asList(
+                new Message("Anchor-1", Message.PING_MESSAGE, "", 1, 100).toBytes(),
+                new Message("Anchor-1", Message.CHAT_MESSAGE, "hello", 2, 200).toBytes(),
+                new byte[0]);
+    }
+
+    @Test
+    public void roundTrip() {
+        List<byte[]> messages = messages();
+        byte[] frame = MessageBatch.pack(messages);
+        assertTrue(MessageBatch.isBatch(frame));
+        assertEquals(MessageBatch.packedLength(3, messages.get(0).length + messages.get(1).length), frame.length);
+
+        List<byte[]> unpacked = MessageBatch.unpack(frame);
+        assertEquals(3, unpacked.size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(messages.get(i), unpacked.get(i));
+        }
+        assertEquals("hello", Message.fromBytes(unpacked.get(1)).message);
+    }
+
+    @Test
+    public void toldApartFromSingleMessages() {
+        assertFalse(MessageBatch.isBatch(new Message("a", Message.PING_MESSAGE, "x").toBytes()));
+        assertFalse(MessageBatch.isBatch(new Message("a", Message.PING_MESSAGE, "x").toLegacyBytes()));
+        assertFalse(MessageBatch.isBatch(new byte[] {MessageBatch.MARKER}));
+        assertFalse(MessageBatch.isBatch(null));
+    }
+
+    @Test
+    public void truncatedBatchYieldsCompleteMessages() {
+        byte[] frame = MessageBatch.pack(messages());
+        int firstEnd = MessageBatch.HEADER_LENGTH + 1 + messages().get(0).length;
+        List<byte[]> unpacked = MessageBatch.unpack(Arrays.copyOf(frame, firstEnd + 3));
+        assertEquals(1, unpacked.size());
+        assertArrayEquals(messages().get(0), unpacked.get(0));
+        assertEquals(0, MessageBatch.unpack(Arrays.copyOf(frame, MessageBatch.HEADER_LENGTH)).size());
+    }
+
+    @Test
+    public void countLargerThanContentStopsAtEnd() {
+        byte[] frame = MessageBatch.pack(Collections.singletonList(new byte[] {1, 2, 3}));
+        frame[1] = (byte) 200;
+        List<byte[]> unpacked = MessageBatch.unpack(frame);
+        assertEquals(1, unpacked.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBatchLongerThanFrame() {
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            byte[] message = new byte[100];
+            Arrays.fill(message, (byte) 'x');
+            messages.add(message);
+        }
+        MessageBatch.pack(messages);
+    }
+
+    @Test
+    public void singleMessageIsUnchangedByBatching() {
+        byte[] message = "ping".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(message, MessageBatch.unpack(MessageBatch.pack(Collections.singletonList(message))).get(0));
+    }
+}
@@ -0,0 +1,85 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTest {
+    @Test
+    public void binaryRoundTrip() {
+        byte[] bytes = new Message("Anchor-17", Message.CHAT_MESSAGE, "héllo", 0xBEEF, -123456).toBytes();
+        assertEquals(Message.VERSION, bytes[0]);
+        assertTrue(Message.isBinary(bytes));
+
+        Message message = Message.fromBytes(bytes);
+        assertEquals("Anchor-17", message.deviceName);
+        assertEquals(Message.CHAT_MESSAGE, message.requestType);
+        assertEquals("héllo", message.message);
+        assertEquals(0xBEEF, message.sequence);
+        assertEquals(-123456, message.timestamp);
+    }
+
+    @Test
+    public void pingIsCompact() {
+        byte[] bytes = new Message("Dev1", Message.PING_MESSAGE, "", 1, 2).toBytes();
+        assertEquals(14, bytes.length);
+        assertEquals(Message.PING_MESSAGE, Message.peekRequestType(bytes));
+        assertEquals(1, Message.peekSequence(bytes));
+        assertEquals(2, Message.peekTimestamp(bytes));
+    }
+
+    @Test
+    public void legacyRoundTrip() {
+        byte[] bytes = new Message("Anchor-17", Message.NAME_REQUEST_ACK_MESSAGE, "a|b").toLegacyBytes();
+        assertArrayEquals("Anchor-17|11|a|b".getBytes(StandardCharsets.UTF_8), bytes);
+        assertFalse(Message.isBinary(bytes));
+        assertEquals(Message.NAME_REQUEST_ACK_MESSAGE, Message.peekRequestType(bytes));
+
+        Message message = Message.fromBytes(bytes);
+        assertEquals("Anchor-17", message.deviceName);
+        assertEquals(Message.NAME_REQUEST_ACK_MESSAGE, message.requestType);
+        assertEquals("a|b", message.message);
+    }
+
+    @Test
+    public void legacyFrameKeepsBaselineShape() {
+        // Older receivers split on '|' and parse the second field as the type.
+        String[] parts = new String(new Message("Dev", Message.PING_MESSAGE, "").toLegacyBytes(), StandardCharsets.UTF_8).split("[|]", -1);
+        assertEquals(3, parts.length);
+        assertEquals(Message.PING_MESSAGE, Integer.parseInt(parts[1]));
+    }
+
+    @Test
+    public void truncatedBinaryFrameIsNotBinary() {
+        byte[] bytes = new Message("Anchor-17", Message.PING_MESSAGE, "payload", 1, 2).toBytes();
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertFalse("length " + length, Message.isBinary(truncated));
+            // Falls back to the legacy parser, which must not throw.
+            Message.fromBytes(truncated);
+            Message.peekRequestType(truncated);
+        }
+    }
+
+    @Test
+    public void malformedLegacyFramesHaveInvalidType() {
+        assertEquals(Message.INVALID_REQUEST_TYPE, Message.peekRequestType(new byte[0]));
+        assertEquals(Message.INVALID_REQUEST_TYPE, Message.peekRequestType("name".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Message.INVALID_REQUEST_TYPE, Message.peekRequestType("name||".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Message.INVALID_REQUEST_TYPE, Message.peekRequestType("name|x2|".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Message.INVALID_REQUEST_TYPE, Message.fromBytes("name|2".getBytes(StandardCharsets.UTF_8)).requestType);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLongMessageIsRejected() {
+        char[] payload = new char[250];
+        Arrays.fill(payload, 'x');
+        new Message("Dev", Message.CHAT_MESSAGE, new String(payload), 0, 0).toBytes();
+    }
+}
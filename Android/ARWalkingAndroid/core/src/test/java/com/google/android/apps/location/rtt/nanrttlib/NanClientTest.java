@@ -0,0 +1,201 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import com.microsoft.arwalking.android.simulation.EventLoop;
+import com.microsoft.arwalking.android.simulation.FakeNanNetwork;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NanClientTest {
+    private static final String SERVICE = "arwalking";
+
+    /** Records the callbacks it gets as strings, in order. */
+    private static class Recorder implements NanPublisherCallback<Integer>, NanSubscriberCallback<Integer> {
+        final List<String> events = new ArrayList<>();
+        final List<byte[]> received = new ArrayList<>();
+        final List<Integer> discovered = new ArrayList<>();
+        byte[] discoveredInfo;
+
+        public void onAttachedFailed() {
+            this.events.add("attachFailed");
+        }
+
+        public void onInvalidService() {
+            this.events.add("invalidService");
+        }
+
+        public void onMessageSendFailed(int mode, String service, int messageId) {
+            this.events.add("sendFailed " + messageId);
+        }
+
+        public void onMessageSendSucceeded(int mode, String service, int messageId) {
+            this.events.add("sendSucceeded " + messageId);
+        }
+
+        public void onMessagedReceived(int mode, String service, Integer peer, byte[] message) {
+            this.received.add(message);
+        }
+
+        public void onNanAvailable() {
+            this.events.add("available");
+        }
+
+        public void onNanUnavailable() {
+            this.events.add("unavailable");
+        }
+
+        public void onSessionTerminated(int mode, String service) {
+            this.events.add("terminated " + mode);
+        }
+
+        public void onSessionsSuspended() {
+            this.events.add("suspended");
+        }
+
+        public void onSessionsRecovered() {
+            this.events.add("recovered");
+        }
+
+        public void onServiceDiscovered(String service, Integer peer, byte[] serviceSpecificInfo, List<byte[]> matchFilter) {
+            this.discovered.add(peer);
+            this.discoveredInfo = serviceSpecificInfo;
+        }
+
+        public void onSubscribeStarted(String service) {
+            this.events.add("subscribeStarted");
+        }
+
+        public void onPublishStarted(String service) {
+            this.events.add("publishStarted");
+        }
+
+        public void onRangingDisabled(String service) {
+            this.events.add("rangingDisabled");
+        }
+
+        public void onRangingEnabled(String service) {
+            this.events.add("rangingEnabled");
+        }
+    }
+
+    private EventLoop loop;
+    private FakeNanNetwork network;
+    private FakeNanNetwork.Device publisherDevice;
+    private Recorder publisher;
+    private NanClient<Integer> publisherClient;
+    private Recorder subscriber;
+    private NanClient<Integer> subscriberClient;
+
+    @Before
+    public void setUp() {
+        this.loop = new EventLoop();
+        this.network = new FakeNanNetwork(this.loop, 1);
+        this.network.setMessageLossProbability(0);
+        this.publisherDevice = this.network.addDevice();
+        this.publisher = new Recorder();
+        this.publisherClient = new NanClient<>(this.publisherDevice, this.publisher);
+        this.subscriber = new Recorder();
+        this.subscriberClient = new NanClient<>(this.network.addDevice(), this.subscriber);
+    }
+
+    private void start() {
+        this.publisherClient.publishService(SERVICE, this.publisher, bytes("info"));
+        this.subscriberClient.subscribeService(SERVICE, this.subscriber);
+        run(5000);
+    }
+
+    private void run(long millis) {
+        this.loop.runUntil(this.loop.getNowMillis() + millis);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void discoversAndExchangesMessages() {
+        start();
+        assertEquals(Arrays.asList("publishStarted"), this.publisher.events);
+        assertEquals(Arrays.asList("subscribeStarted"), this.subscriber.events);
+        assertEquals(Arrays.asList(this.publisherDevice.getIndex()), this.subscriber.discovered);
+        assertArrayEquals(bytes("info"), this.subscriber.discoveredInfo);
+        assertEquals(Arrays.asList(SERVICE), this.publisherClient.getPublishedServices());
+
+        this.subscriberClient.sendMessage(NanClient.SUBSCRIBE_MODE, SERVICE, this.publisherDevice.getIndex(), 7, bytes("hello"));
+        run(1000);
+        assertEquals(1, this.publisher.received.size());
+        assertArrayEquals(bytes("hello"), this.publisher.received.get(0));
+        assertTrue(this.subscriber.events.contains("sendSucceeded 7"));
+    }
+
+    @Test
+    public void unpacksBatches() {
+        start();
+        byte[] frame = MessageBatch.pack(Arrays.asList(bytes("one"), bytes("two"), bytes("three")));
+        this.subscriberClient.sendMessage(NanClient.SUBSCRIBE_MODE, SERVICE, this.publisherDevice.getIndex(), 1, frame);
+        run(1000);
+        assertEquals(3, this.publisher.received.size());
+        assertArrayEquals(bytes("three"), this.publisher.received.get(2));
+    }
+
+    @Test
+    public void rejectsInvalidServiceNames() {
+        this.publisherClient.publishService("not valid!", this.publisher, null);
+        run(1000);
+        assertEquals(Arrays.asList("invalidService"), this.publisher.events);
+        assertTrue(this.publisherClient.getPublishedServices().isEmpty());
+    }
+
+    @Test
+    public void withoutRecoveryAFlapTerminatesTheSessions() {
+        start();
+        this.publisherDevice.setAvailable(false);
+        assertTrue(this.publisher.events.contains("terminated " + NanClient.PUBLISH_MODE));
+        assertTrue(this.publisherClient.getPublishedServices().isEmpty());
+
+        this.publisherDevice.setAvailable(true);
+        run(5000);
+        assertTrue(this.publisherClient.getPublishedServices().isEmpty());
+        assertFalse(this.publisher.events.contains("recovered"));
+    }
+
+    @Test
+    public void recoveryRebuildsTheSessionsAfterAFlap() {
+        this.publisherClient.setRecoveryEnabled(true);
+        start();
+        this.publisherDevice.setAvailable(false);
+        assertTrue(this.publisherClient.isSuspended());
+        assertTrue(this.publisher.events.contains("suspended"));
+        assertFalse(this.publisher.events.contains("terminated " + NanClient.PUBLISH_MODE));
+
+        this.publisherDevice.setAvailable(true);
+        run(5000);
+        assertFalse(this.publisherClient.isSuspended());
+        assertTrue(this.publisher.events.contains("recovered"));
+        assertEquals(Arrays.asList(SERVICE), this.publisherClient.getPublishedServices());
+        // The subscriber finds the rebuilt publish session, with the same info.
+        assertEquals(2, this.subscriber.discovered.size());
+        assertArrayEquals(bytes("info"), this.subscriber.discoveredInfo);
+    }
+
+    @Test
+    public void stopSessionClosesTheService() {
+        start();
+        this.publisherClient.stopSession(NanClient.PUBLISH_MODE, SERVICE, this.publisher);
+        assertTrue(this.publisherClient.getPublishedServices().isEmpty());
+        this.subscriberClient.sendMessage(NanClient.SUBSCRIBE_MODE, SERVICE, this.publisherDevice.getIndex(), 2, bytes("late"));
+        run(1000);
+        assertTrue(this.publisher.received.isEmpty());
+        assertTrue(this.subscriber.events.contains("sendFailed 2"));
+    }
+}
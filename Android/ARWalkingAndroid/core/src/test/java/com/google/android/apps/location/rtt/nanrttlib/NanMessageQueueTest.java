@@ -0,0 +1,290 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NanMessageQueueTest {
+    private static final String SERVICE = "service";
+
+    /** A frame handed to the sender. */
+    static final class Sent {
+        final String peer;
+        final int messageId;
+        final byte[] message;
+
+        Sent(String peer, int messageId, byte[] message) {
+            this.peer = peer;
+            this.messageId = messageId;
+            this.message = message;
+        }
+    }
+
+    private final List<Sent> sent = new ArrayList<>();
+    private final List<Integer> droppedTypes = new ArrayList<>();
+    private NanMessageQueue<String> queue;
+
+    private static byte[] legacy(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Before
+    public void setUp() {
+        this.queue = new NanMessageQueue<>((mode, service, peer, messageId, message) -> this.sent.add(new Sent(peer, messageId, message)));
+        this.queue.setListener((mode, service, peer, type, attempts) -> this.droppedTypes.add(type));
+        this.queue.setBatching(0, 0);
+    }
+
+    @Test
+    public void sendsWithinInFlightWindow() {
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("a1"), 0);
+        this.queue.enqueue(0, SERVICE, "b", 1, legacy("b1"), 0);
+        this.queue.enqueue(0, SERVICE, "c", 1, legacy("c1"), 0);
+        this.queue.poll(0);
+        assertEquals(NanMessageQueue.DEFAULT_MAX_IN_FLIGHT, this.sent.size());
+        assertEquals(2, this.queue.getInFlightCount());
+        assertEquals(1, this.queue.getQueuedCount());
+        assertTrue(this.sent.get(0).messageId != this.sent.get(1).messageId);
+
+        assertTrue(this.queue.onSendSucceeded(this.sent.get(0).messageId));
+        assertFalse(this.queue.onSendSucceeded(this.sent.get(0).messageId));
+        this.queue.poll(1);
+        assertEquals(3, this.sent.size());
+        assertEquals("c", this.sent.get(2).peer);
+        assertEquals(1, this.queue.getDelivered());
+    }
+
+    @Test
+    public void oneSendPerPeerKeepsOrder() {
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("first"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 2, legacy("second"), 0);
+        this.queue.poll(0);
+        assertEquals(1, this.sent.size());
+        this.queue.onSendSucceeded(this.sent.get(0).messageId);
+        this.queue.poll(0);
+        assertArrayEquals(legacy("second"), this.sent.get(1).message);
+    }
+
+    @Test
+    public void roundRobinAcrossPeers() {
+        this.queue.setMaxInFlight(1);
+        for (int i = 0; i < 3; i++) {
+            this.queue.enqueue(0, SERVICE, "a", i, legacy("a" + i), 0);
+            this.queue.enqueue(0, SERVICE, "b", i, legacy("b" + i), 0);
+        }
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            this.queue.poll(i);
+            Sent last = this.sent.get(this.sent.size() - 1);
+            peers.append(last.peer);
+            this.queue.onSendSucceeded(last.messageId);
+        }
+        assertEquals("ababab", peers.toString());
+    }
+
+    @Test
+    public void retriesWithExponentialBackoff() {
+        this.queue.setRetryPolicy(3, 100);
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("ping"), 0);
+        assertEquals(Long.MAX_VALUE, nextPollAfterSend(0));
+
+        this.queue.onSendFailed(this.sent.get(0).messageId, 10);
+        assertEquals(110, this.queue.poll(10));
+        assertEquals(1, this.sent.size());
+        this.queue.poll(110);
+        assertEquals(2, this.sent.size());
+
+        this.queue.onSendFailed(this.sent.get(1).messageId, 120);
+        assertEquals(320, this.queue.poll(120));
+        this.queue.poll(320);
+        assertEquals(3, this.sent.size());
+        assertEquals(2, this.queue.getRetried());
+
+        // Attempts used up.
+        this.queue.onSendFailed(this.sent.get(2).messageId, 330);
+        assertEquals(1, this.queue.getDropped());
+        assertEquals(Integer.valueOf(1), this.droppedTypes.get(0));
+        assertEquals(0, this.queue.getQueuedCount());
+    }
+
+    private long nextPollAfterSend(long nowMillis) {
+        long wakeup = this.queue.poll(nowMillis);
+        // Only the send timeout is pending while a send is out.
+        return wakeup == nowMillis + NanMessageQueue.DEFAULT_SEND_TIMEOUT_MILLIS ? Long.MAX_VALUE : wakeup;
+    }
+
+    @Test
+    public void lostSendTimesOut() {
+        this.queue.setSendTimeoutMillis(1000);
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("ping"), 0);
+        assertEquals(1000, this.queue.poll(0));
+        this.queue.poll(1000);
+        assertEquals(0, this.queue.getInFlightCount());
+        assertEquals(1, this.queue.getRetried());
+        this.queue.poll(1000 + NanMessageQueue.DEFAULT_BASE_BACKOFF_MILLIS);
+        assertEquals(2, this.sent.size());
+    }
+
+    @Test
+    public void coalescesQueuedMessagesOfSameType() {
+        this.queue.setMaxInFlight(0);
+        this.queue.enqueue(0, SERVICE, "a", Message.PING_MESSAGE, legacy("old"), 0);
+        this.queue.enqueue(0, SERVICE, "a", Message.CHAT_MESSAGE, legacy("chat"), 0);
+        this.queue.enqueue(0, SERVICE, "a", Message.PING_MESSAGE, legacy("new"), 5);
+        assertEquals(2, this.queue.getQueuedCount());
+        assertEquals(1, this.queue.getCoalesced());
+
+        this.queue.setMaxInFlight(1);
+        this.queue.poll(10);
+        // The newer content keeps the older position.
+        assertArrayEquals(legacy("new"), this.sent.get(0).message);
+    }
+
+    @Test
+    public void newerMessageSupersedesRetry() {
+        this.queue.enqueue(0, SERVICE, "a", Message.PING_MESSAGE, legacy("old"), 0);
+        this.queue.poll(0);
+        this.queue.enqueue(0, SERVICE, "a", Message.PING_MESSAGE, legacy("new"), 5);
+        this.queue.onSendFailed(this.sent.get(0).messageId, 10);
+        assertEquals(0, this.queue.getRetried());
+        assertEquals(1, this.queue.getQueuedCount());
+        this.queue.poll(10);
+        assertArrayEquals(legacy("new"), this.sent.get(1).message);
+    }
+
+    @Test
+    public void dropsMessagesOlderThanMaxAge() {
+        this.queue.setMaxAgeMillis(1000);
+        this.queue.setMaxInFlight(1);
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("a"), 0);
+        this.queue.enqueue(0, SERVICE, "b", 1, legacy("b"), 0);
+        this.queue.poll(0);
+        assertEquals(1000, this.queue.poll(0));
+        // "b" waited behind "a" for too long.
+        this.queue.poll(1000);
+        assertEquals(1, this.queue.getDropped());
+        this.queue.onSendSucceeded(this.sent.get(0).messageId);
+        this.queue.poll(1001);
+        assertEquals(1, this.sent.size());
+        assertEquals(Long.MAX_VALUE, this.queue.poll(1002));
+    }
+
+    @Test
+    public void failedSendPastMaxAgeIsNotRetried() {
+        this.queue.setMaxAgeMillis(1000);
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("a"), 0);
+        this.queue.poll(0);
+        this.queue.onSendFailed(this.sent.get(0).messageId, 1000);
+        assertEquals(1, this.queue.getDropped());
+        assertEquals(0, this.queue.getRetried());
+    }
+
+    @Test
+    public void fullPeerQueueDropsOldest() {
+        this.queue.setMaxInFlight(0);
+        this.queue.setMaxQueuedPerPeer(2);
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("1"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 2, legacy("2"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 3, legacy("3"), 0);
+        assertEquals(2, this.queue.getQueuedCount());
+        assertEquals(Integer.valueOf(1), this.droppedTypes.get(0));
+    }
+
+    @Test
+    public void removePeerForgetsItsMessages() {
+        this.queue.enqueue(0, SERVICE, "a", 1, legacy("1"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 2, legacy("2"), 0);
+        this.queue.enqueue(0, SERVICE, "b", 1, legacy("3"), 0);
+        this.queue.poll(0);
+        this.queue.removePeer("a");
+        assertEquals(1, this.queue.getInFlightCount());
+        assertEquals(0, this.queue.getQueuedCount());
+        assertFalse(this.queue.onSendSucceeded(this.sent.get(0).messageId));
+    }
+
+    private static byte[] binary(int type, String text) {
+        return new Message("Anchor-1", type, text, 0, 0).toBytes();
+    }
+
+    @Test
+    public void batchesBinaryMessagesQueuedTogether() {
+        this.queue.setBatching(Message.MAX_MESSAGE_LENGTH, 20);
+        this.queue.enqueue(0, SERVICE, "a", 1, binary(1, "one"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 2, binary(2, "two"), 10);
+        // Held for the batch delay of the first message.
+        assertEquals(20, this.queue.poll(10));
+        assertTrue(this.sent.isEmpty());
+        this.queue.poll(20);
+        assertEquals(1, this.sent.size());
+        byte[] frame = this.sent.get(0).message;
+        assertTrue(MessageBatch.isBatch(frame));
+        List<byte[]> messages = MessageBatch.unpack(frame);
+        assertEquals(2, messages.size());
+        assertArrayEquals(binary(2, "two"), messages.get(1));
+        assertEquals(2, this.queue.getBatched());
+        this.queue.onSendSucceeded(this.sent.get(0).messageId);
+        assertEquals(2, this.queue.getDelivered());
+    }
+
+    @Test
+    public void legacyMessagesAreNotBatched() {
+        this.queue.setBatching(Message.MAX_MESSAGE_LENGTH, 20);
+        this.queue.enqueue(0, SERVICE, "a", 1, binary(1, "one"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 2, legacy("legacy"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 3, binary(3, "three"), 0);
+        this.queue.poll(20);
+        assertArrayEquals(binary(1, "one"), this.sent.get(0).message);
+        this.queue.onSendSucceeded(this.sent.get(0).messageId);
+        this.queue.poll(21);
+        assertArrayEquals(legacy("legacy"), this.sent.get(1).message);
+        this.queue.onSendSucceeded(this.sent.get(1).messageId);
+        this.queue.poll(22);
+        assertArrayEquals(binary(3, "three"), this.sent.get(2).message);
+        assertEquals(0, this.queue.getBatched());
+    }
+
+    @Test
+    public void batchStaysWithinFrameLength() {
+        int maxFrameLength = 64;
+        this.queue.setBatching(maxFrameLength, 0);
+        for (int type = 0; type < 6; type++) {
+            this.queue.enqueue(0, SERVICE, "a", type, binary(type, "0123456789"), 0);
+        }
+        int messages = 0;
+        while (messages < 6) {
+            this.queue.poll(0);
+            Sent frame = this.sent.get(this.sent.size() - 1);
+            assertTrue(frame.message.length <= maxFrameLength);
+            messages += MessageBatch.isBatch(frame.message) ? MessageBatch.unpack(frame.message).size() : 1;
+            this.queue.onSendSucceeded(frame.messageId);
+        }
+        assertTrue(this.sent.size() > 1 && this.sent.size() < 6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFramesLongerThanAMessage() {
+        // The batch itself has to fit in one message; past that pack() would fail mid-poll.
+        this.queue.setBatching(Message.MAX_MESSAGE_LENGTH + 1, 0);
+    }
+
+    @Test
+    public void failedBatchIsRetriedAsUnitInOrder() {
+        this.queue.setBatching(Message.MAX_MESSAGE_LENGTH, 0);
+        this.queue.enqueue(0, SERVICE, "a", 1, binary(1, "one"), 0);
+        this.queue.enqueue(0, SERVICE, "a", 2, binary(2, "two"), 0);
+        this.queue.poll(0);
+        this.queue.onSendFailed(this.sent.get(0).messageId, 0);
+        assertEquals(2, this.queue.getRetried());
+        this.queue.poll(NanMessageQueue.DEFAULT_BASE_BACKOFF_MILLIS);
+        assertEquals(2, this.sent.size());
+        assertArrayEquals(this.sent.get(0).message, this.sent.get(1).message);
+    }
+}
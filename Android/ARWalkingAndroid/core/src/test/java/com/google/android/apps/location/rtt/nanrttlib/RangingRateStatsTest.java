@@ -0,0 +1,63 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RangingRateStatsTest {
+    @Test
+    public void rateAndJitterFromRoundStarts() {
+        RangingRateStats stats = new RangingRateStats();
+        long[] starts = {0, 900, 2000, 2900, 4000};
+        for (long start : starts) {
+            stats.onRoundStarted(start);
+        }
+        assertEquals(1000.0, stats.getMeanIntervalMillis(), 1e-9);
+        assertEquals(1.0, stats.getAchievedRateHz(), 1e-9);
+        // Intervals 900, 1100, 900, 1100.
+        assertEquals(Math.sqrt(4 * 100.0 * 100.0 / 3), stats.getJitterMillis(), 1e-9);
+    }
+
+    @Test
+    public void noRateBeforeTwoRounds() {
+        RangingRateStats stats = new RangingRateStats();
+        assertEquals(0.0, stats.getAchievedRateHz(), 0.0);
+        stats.onRoundStarted(500);
+        assertEquals(0.0, stats.getAchievedRateHz(), 0.0);
+        assertEquals(0.0, stats.getJitterMillis(), 0.0);
+    }
+
+    @Test
+    public void latencyAndCounters() {
+        RangingRateStats stats = new RangingRateStats();
+        stats.onRoundFinished(100);
+        stats.onRoundFinished(300);
+        stats.onMissedSlots(2);
+        stats.onMissedSlots(1);
+        stats.onOverlapPrevented();
+        stats.onTimeout();
+        assertEquals(2, stats.getRounds());
+        assertEquals(200.0, stats.getMeanLatencyMillis(), 1e-9);
+        assertEquals(300, stats.getMaxLatencyMillis());
+        assertEquals(3, stats.getMissedSlots());
+        assertEquals(1, stats.getOverlapsPrevented());
+        assertEquals(1, stats.getTimeouts());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        RangingRateStats stats = new RangingRateStats();
+        stats.onRoundStarted(0);
+        stats.onRoundStarted(250);
+        stats.onRoundFinished(80);
+        stats.onTimeout();
+        stats.reset();
+        assertEquals(0.0, stats.getAchievedRateHz(), 0.0);
+        assertEquals(0, stats.getRounds());
+        assertEquals(0, stats.getTimeouts());
+        // The interval from before the reset is not counted.
+        stats.onRoundStarted(10000);
+        stats.onRoundStarted(10500);
+        assertEquals(2.0, stats.getAchievedRateHz(), 1e-9);
+    }
+}
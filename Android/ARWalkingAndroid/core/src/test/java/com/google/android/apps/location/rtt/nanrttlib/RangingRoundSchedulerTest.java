@@ -0,0 +1,86 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangingRoundSchedulerTest {
+    private static final List<String> PEERS = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+
+    @Test
+    public void keepsOrderWhenAllFit() {
+        RangingRoundScheduler<String> scheduler = new RangingRoundScheduler<>();
+        assertEquals(PEERS, scheduler.nextRound(PEERS, 10, 0));
+    }
+
+    @Test
+    public void roundsStayWithinMaxPeers() {
+        RangingRoundScheduler<String> scheduler = new RangingRoundScheduler<>();
+        for (int r = 0; r < 10; r++) {
+            assertEquals(4, scheduler.nextRound(PEERS, 4, r * 1000L).size());
+        }
+    }
+
+    @Test
+    public void rotatesThroughAllPeers() {
+        RangingRoundScheduler<String> scheduler = new RangingRoundScheduler<>();
+        HashMap<String, Integer> lastRound = new HashMap<>();
+        for (int r = 0; r < 30; r++) {
+            long now = r * 1000L;
+            for (String peer : scheduler.nextRound(PEERS, 4, now)) {
+                // 10 peers in rounds of 4: nobody waits more than 3 rounds.
+                assertTrue(peer + " waited too long", r - lastRound.getOrDefault(peer, -1) <= 3);
+                lastRound.put(peer, r);
+                scheduler.onRanged(peer, true, now);
+            }
+        }
+        assertEquals(PEERS.size(), lastRound.size());
+        for (int last : lastRound.values()) {
+            assertTrue(last >= 27);
+        }
+    }
+
+    @Test
+    public void higherPriorityIsRangedMoreOften() {
+        RangingRoundScheduler<String> scheduler = new RangingRoundScheduler<>();
+        scheduler.setPriority("a", 4.0f);
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (int r = 0; r < 30; r++) {
+            long now = r * 1000L;
+            for (String peer : scheduler.nextRound(PEERS, 4, now)) {
+                counts.merge(peer, 1, Integer::sum);
+                scheduler.onRanged(peer, true, now);
+            }
+        }
+        assertTrue(counts.get("a") > counts.get("b"));
+    }
+
+    @Test
+    public void failingPeersAreRetriedFirst() {
+        RangingRoundScheduler<String> scheduler = new RangingRoundScheduler<>();
+        List<String> peers = Arrays.asList("a", "b", "c");
+        List<String> first = new ArrayList<>(scheduler.nextRound(peers, 3, 0));
+        scheduler.onRanged("a", true, 0);
+        scheduler.onRanged("b", true, 0);
+        scheduler.onRanged("c", false, 0);
+        assertEquals(first, peers);
+        assertEquals("c", scheduler.nextRound(peers, 1, 1000).get(0));
+    }
+
+    @Test
+    public void forgetsPeersNoLongerOffered() {
+        RangingRoundScheduler<String> scheduler = new RangingRoundScheduler<>();
+        scheduler.setPriority("a", 100.0f);
+        scheduler.nextRound(Arrays.asList("b", "c"), 1, 0);
+        // "a" was not offered, so its priority is gone.
+        scheduler.nextRound(Arrays.asList("b", "c"), 1, 0);
+        List<String> round = scheduler.nextRound(Arrays.asList("a", "b", "c"), 1, 0);
+        assertEquals("a", round.get(0));
+    }
+}
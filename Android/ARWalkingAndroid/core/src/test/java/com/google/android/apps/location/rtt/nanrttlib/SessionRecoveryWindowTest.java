@@ -0,0 +1,49 @@
+package com.google.android.apps.location.rtt.nanrttlib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRecoveryWindowTest {
+    @Test
+    public void noRebindWithoutRecovery() {
+        SessionRecoveryWindow window = new SessionRecoveryWindow();
+        assertFalse(window.isRebindAllowed(0));
+        assertFalse(window.mayRebind(0, 100000));
+    }
+
+    @Test
+    public void rebindsStalePeerDuringAndShortlyAfterRecovery() {
+        SessionRecoveryWindow window = new SessionRecoveryWindow();
+        window.setWindowMillis(10000);
+        window.onSuspended(5000);
+        assertTrue(window.isSuspended());
+        assertTrue(window.mayRebind(4000, 60000));
+
+        window.onRecovered(70000);
+        assertFalse(window.isSuspended());
+        // Kept peers are checked in at the recovery; nothing heard under the old handle since.
+        assertTrue(window.mayRebind(70000, 75000));
+        assertTrue(window.mayRebind(70000, 80000));
+        assertFalse(window.mayRebind(70000, 80001));
+    }
+
+    @Test
+    public void liveHandleIsNotRebound() {
+        SessionRecoveryWindow window = new SessionRecoveryWindow();
+        window.onRecovered(1000);
+        // Another device with the same name while the old handle still answers.
+        assertTrue(window.isRebindAllowed(2000));
+        assertFalse(window.mayRebind(1500, 2000));
+    }
+
+    @Test
+    public void resetEndsWindow() {
+        SessionRecoveryWindow window = new SessionRecoveryWindow();
+        window.onSuspended(1000);
+        window.reset();
+        assertFalse(window.isSuspended());
+        assertFalse(window.isRebindAllowed(1000));
+    }
+}
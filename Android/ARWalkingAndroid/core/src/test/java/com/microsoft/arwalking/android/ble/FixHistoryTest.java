@@ -0,0 +1,56 @@
+package com.microsoft.arwalking.android.ble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FixHistoryTest {
+    private static byte[] fix(int sequence) {
+        return FixRecord.encode(0, sequence, sequence * 1000L, sequence, -sequence, 100);
+    }
+
+    @Test
+    public void defaultCapacityFitsOneAttribute() {
+        FixHistory history = new FixHistory();
+        for (int i = 0; i < 100; i++) {
+            history.add(fix(i), 0);
+        }
+        assertTrue(history.snapshot().length <= FixHistory.MAX_ATTRIBUTE_LENGTH);
+        assertEquals(history.getCapacity() * FixRecord.LENGTH, history.snapshot().length);
+    }
+
+    @Test
+    public void snapshotIsOldestFirst() {
+        FixHistory history = new FixHistory(4);
+        assertEquals(0, history.snapshot().length);
+        for (int i = 0; i < 3; i++) {
+            history.add(fix(i), 0);
+        }
+        assertSequences(history.snapshot(), 0, 3);
+        // Wraps around and drops the oldest.
+        for (int i = 3; i < 10; i++) {
+            history.add(fix(i), 0);
+            assertSequences(history.snapshot(), Math.max(0, i - 3), Math.min(i + 1, 4));
+        }
+    }
+
+    @Test
+    public void copiesRecordAtOffset() {
+        FixHistory history = new FixHistory(2);
+        byte[] buffer = new byte[5 + FixRecord.LENGTH];
+        FixRecord.write(buffer, 5, 0, 42, 0, 7, 8, 9);
+        history.add(buffer, 5);
+        buffer[5 + 8] = 0;
+        assertEquals(7, FixRecord.getX(history.snapshot(), 0));
+        history.clear();
+        assertEquals(0, history.size());
+    }
+
+    private static void assertSequences(byte[] snapshot, int first, int count) {
+        assertEquals(count * FixRecord.LENGTH, snapshot.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(first + i, FixRecord.getSequence(snapshot, i * FixRecord.LENGTH));
+        }
+    }
+}
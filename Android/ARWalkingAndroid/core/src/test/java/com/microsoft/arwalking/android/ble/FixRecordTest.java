@@ -0,0 +1,40 @@
+package com.microsoft.arwalking.android.ble;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixRecordTest {
+    @Test
+    public void roundTrip() {
+        byte[] record = FixRecord.encode(FixRecord.FLAG_TRACKED, 0xBEEF, 123456789L, -12345.4, 67890.6, 1500.2);
+        assertEquals(FixRecord.LENGTH, record.length);
+        assertEquals(FixRecord.VERSION, record[0]);
+        assertEquals(FixRecord.FLAG_TRACKED, FixRecord.getFlags(record, 0));
+        assertEquals(0xBEEF, FixRecord.getSequence(record, 0));
+        assertEquals(123456789L, FixRecord.getTimeMillis(record, 0));
+        assertEquals(-12345, FixRecord.getX(record, 0));
+        assertEquals(67891, FixRecord.getY(record, 0));
+        assertEquals(1500, FixRecord.getUncertainty(record, 0));
+    }
+
+    @Test
+    public void writesAtOffset() {
+        byte[] out = new byte[3 + FixRecord.LENGTH];
+        FixRecord.write(out, 3, 0, 7, 1000, 1, 2, 3);
+        assertEquals(0, out[0]);
+        assertEquals(7, FixRecord.getSequence(out, 3));
+        assertEquals(2, FixRecord.getY(out, 3));
+    }
+
+    @Test
+    public void wrapsAndSaturates() {
+        byte[] record = FixRecord.encode(0, 0x12345, (1L << 32) + 5, 0, 0, 1e9);
+        assertEquals(0x2345, FixRecord.getSequence(record, 0));
+        assertEquals(5, FixRecord.getTimeMillis(record, 0));
+        assertEquals(0xFFFF, FixRecord.getUncertainty(record, 0));
+        assertEquals(0, FixRecord.getUncertainty(FixRecord.encode(0, 0, 0, 0, 0, -5), 0));
+        // Timestamps past 2^31 ms read back unsigned.
+        assertEquals(0xFFFFFFF0L, FixRecord.getTimeMillis(FixRecord.encode(0, 0, 0xFFFFFFF0L, 0, 0, 0), 0));
+    }
+}
@@ -0,0 +1,64 @@
+package com.microsoft.arwalking.android.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class NotificationPacerTest {
+    private final List<String> sent = new ArrayList<>();
+    private boolean accept = true;
+    private final NotificationPacer<String> pacer = new NotificationPacer<>((device, value) -> {
+        if (this.accept) {
+            this.sent.add(device + ":" + value[0]);
+        }
+        return this.accept;
+    });
+
+    @Test
+    public void slowCentralGetsLatestValue() {
+        this.pacer.offer("a", new byte[] {1}, 0);
+        this.pacer.offer("a", new byte[] {2}, 10);
+        this.pacer.offer("a", new byte[] {3}, 20);
+        assertEquals(1, this.sent.size());
+        this.pacer.onSent("a", 30);
+        assertEquals("a:3", this.sent.get(1));
+        assertEquals(1, this.pacer.getCoalesced());
+        this.pacer.onSent("a", 40);
+        assertEquals(2, this.sent.size());
+    }
+
+    @Test
+    public void centralsArePacedIndependently() {
+        this.pacer.offer("a", new byte[] {1}, 0);
+        this.pacer.offer("b", new byte[] {1}, 0);
+        this.pacer.offer("b", new byte[] {2}, 5);
+        this.pacer.onSent("b", 10);
+        this.pacer.offer("a", new byte[] {3}, 10);
+        assertEquals(3, this.sent.size());
+        assertEquals("b:2", this.sent.get(2));
+    }
+
+    @Test
+    public void stalledCentralIsFreedAfterTimeout() {
+        this.pacer.setStallTimeoutMillis(500);
+        this.pacer.offer("a", new byte[] {1}, 0);
+        this.pacer.offer("a", new byte[] {2}, 499);
+        assertEquals(1, this.sent.size());
+        this.pacer.offer("a", new byte[] {3}, 500);
+        assertEquals("a:3", this.sent.get(1));
+        assertEquals(1, this.pacer.getStalls());
+    }
+
+    @Test
+    public void rejectedSendLeavesCentralIdle() {
+        this.accept = false;
+        this.pacer.offer("a", new byte[] {1}, 0);
+        this.accept = true;
+        this.pacer.offer("a", new byte[] {2}, 1);
+        assertEquals(1, this.sent.size());
+        assertEquals(1, this.pacer.getSent());
+    }
+}
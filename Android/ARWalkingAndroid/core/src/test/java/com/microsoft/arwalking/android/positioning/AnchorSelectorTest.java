@@ -0,0 +1,127 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorSelectorTest {
+    private AnchorSelector selector;
+    private final int[] selected = new int[16];
+
+    @Before
+    public void setUp() {
+        this.selector = new AnchorSelector(16);
+    }
+
+    /** Anchors on a 4 x 4 grid, 10 m apart; id = row * 4 + column. */
+    private void addGrid() {
+        this.selector.clear();
+        for (int id = 0; id < 16; id++) {
+            this.selector.addCandidate(id, (id % 4) * 10000.0, (id / 4) * 10000.0);
+        }
+    }
+
+    @Test
+    public void picksNearestThenSpreadsTheGeometry() {
+        this.selector.setRotatedAnchors(0);
+        addGrid();
+        int count = this.selector.select(11000, 12000, this.selected);
+
+        assertEquals(5, this.selected[0]);
+        assertTrue(count >= AnchorSelector.DEFAULT_MIN_ANCHORS);
+        assertTrue(count < 16);
+        assertTrue(this.selector.getGdop() <= AnchorSelector.DEFAULT_TARGET_GDOP);
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                assertTrue(this.selected[i] != this.selected[j]);
+            }
+        }
+    }
+
+    @Test
+    public void collinearAnchorsNeverReachTheTarget() {
+        this.selector.setRotatedAnchors(0);
+        for (int id = 0; id < 5; id++) {
+            this.selector.addCandidate(id, id * 10000.0, 0);
+        }
+        assertEquals(5, this.selector.select(-5000, 0, this.selected));
+        assertEquals(Double.POSITIVE_INFINITY, this.selector.getGdop(), 0);
+    }
+
+    @Test
+    public void stopsAtTheOutputLength() {
+        addGrid();
+        assertEquals(2, this.selector.select(11000, 12000, new int[2]));
+        assertEquals(0, this.selector.select(11000, 12000, new int[0]));
+    }
+
+    @Test
+    public void rotatesTheOtherAnchorsIn() {
+        this.selector.setRotatedAnchors(0);
+        addGrid();
+        int core = this.selector.select(11000, 12000, this.selected);
+
+        this.selector.setRotatedAnchors(2);
+        boolean[] ranged = new boolean[16];
+        for (int round = 0; round < 8; round++) {
+            addGrid();
+            int count = this.selector.select(11000, 12000, this.selected);
+            assertEquals(core + 2, count);
+            for (int i = 0; i < count; i++) {
+                ranged[this.selected[i]] = true;
+            }
+        }
+        for (int id = 0; id < 16; id++) {
+            assertTrue("Anchor " + id + " never ranged", ranged[id]);
+        }
+    }
+
+    @Test
+    public void rangesEveryAnchorEveryIntervalRounds() {
+        this.selector.setFullRoundInterval(4);
+        boolean[] expected = {false, true, true, true, false, true, true, true, false};
+        for (boolean selection : expected) {
+            assertEquals(selection, this.selector.beginRound());
+        }
+    }
+
+    @Test
+    public void fallsBackToAFullRoundAfterAPoorFix() {
+        assertFalse(this.selector.beginRound());
+        // A poor fix from a full round is no reason for another one.
+        this.selector.onFix(false, 0, 0, false);
+        assertTrue(this.selector.beginRound());
+
+        double max = AnchorSelector.DEFAULT_MAX_FIX_UNCERTAINTY;
+        addGrid();
+        this.selector.select(11000, 12000, this.selected);
+        this.selector.onFix(true, max / 2, max / 2, false);
+        assertTrue(this.selector.beginRound());
+        assertEquals(0, this.selector.getFallbacks());
+
+        double[][] poor = {{max * 2, 0}, {0, max * 2}};
+        for (double[] fix : poor) {
+            this.selector.select(11000, 12000, this.selected);
+            this.selector.onFix(true, fix[0], fix[1], false);
+            assertFalse(this.selector.beginRound());
+            assertTrue(this.selector.beginRound());
+        }
+
+        this.selector.select(11000, 12000, this.selected);
+        this.selector.onFix(false, 0, 0, false);
+        assertFalse(this.selector.beginRound());
+        assertTrue(this.selector.beginRound());
+
+        this.selector.select(11000, 12000, this.selected);
+        this.selector.onFix(true, 0, 0, true);
+        assertFalse(this.selector.beginRound());
+        assertEquals(4, this.selector.getFallbacks());
+
+        this.selector.reset();
+        assertEquals(0, this.selector.getFallbacks());
+        assertFalse(this.selector.beginRound());
+    }
+}
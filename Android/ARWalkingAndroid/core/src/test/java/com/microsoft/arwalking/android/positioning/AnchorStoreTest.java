@@ -0,0 +1,150 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AnchorStoreTest {
+    private static AnchorStore random(int count, long seed) {
+        Random random = new Random(seed);
+        String[] names = new String[count];
+        int[] x = new int[count];
+        int[] y = new int[count];
+        int[] floor = new int[count];
+        int[] bias = new int[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "Anchor-" + i;
+            x[i] = random.nextInt(200000) - 50000;
+            y[i] = random.nextInt(80000);
+            floor[i] = random.nextInt(3) - 1;
+            bias[i] = random.nextInt(1000);
+        }
+        return new AnchorStore(names, x, y, floor, bias);
+    }
+
+    private static byte[] bytesOf(AnchorStore store) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writeReadRoundTrip() throws IOException {
+        AnchorStore store = random(50, 1);
+        AnchorStore read = AnchorStore.read(ByteBuffer.wrap(bytesOf(store)));
+        assertEquals(50, read.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(store.getName(i), read.getName(i));
+            assertEquals(store.getX(i), read.getX(i));
+            assertEquals(store.getY(i), read.getY(i));
+            assertEquals(store.getFloor(i), read.getFloor(i));
+            assertEquals(store.getBias(i), read.getBias(i));
+            assertEquals(i, read.indexOf(store.getName(i)));
+        }
+        assertEquals(AnchorStore.NO_ANCHOR, read.indexOf("unknown"));
+    }
+
+    @Test
+    public void saveAndLoadMapped() throws IOException {
+        File file = File.createTempFile("anchors", ".bin");
+        try {
+            AnchorStore store = random(10, 2);
+            store.save(file);
+            AnchorStore loaded = AnchorStore.load(file);
+            assertArrayEquals(bytesOf(store), bytesOf(loaded));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rejectsMalformedMaps() throws IOException {
+        byte[] bytes = bytesOf(random(5, 3));
+        expectIOException(Arrays.copyOf(bytes, AnchorStore.HEADER_LENGTH - 1));
+        expectIOException(Arrays.copyOf(bytes, bytes.length - 1));
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 1;
+        expectIOException(badMagic);
+
+        byte[] badVersion = bytes.clone();
+        ByteBuffer.wrap(badVersion).order(ByteOrder.LITTLE_ENDIAN).putShort(4, (short) 2);
+        expectIOException(badVersion);
+
+        byte[] badName = bytes.clone();
+        ByteBuffer.wrap(badName).order(ByteOrder.LITTLE_ENDIAN).putInt(AnchorStore.HEADER_LENGTH + 12, 1 << 20);
+        expectIOException(badName);
+
+        // A name offset so large that adding the length wraps around.
+        byte[] wrappedName = bytes.clone();
+        ByteBuffer.wrap(wrappedName).order(ByteOrder.LITTLE_ENDIAN).putInt(AnchorStore.HEADER_LENGTH + 12, Integer.MAX_VALUE);
+        expectIOException(wrappedName);
+
+        // Two anchors with the same name.
+        AnchorStore twins = new AnchorStore(new String[] {"a", "b"}, new int[2], new int[2], new int[2], new int[2]);
+        byte[] duplicate = bytesOf(twins);
+        duplicate[duplicate.length - 1] = 'a';
+        expectIOException(duplicate);
+    }
+
+    private static void expectIOException(byte[] bytes) {
+        try {
+            AnchorStore.read(ByteBuffer.wrap(bytes));
+            fail("Read a malformed anchor map");
+        } catch (IOException expected) {
+            // Expected.
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateNames() {
+        new AnchorStore(new String[] {"a", "a"}, new int[2], new int[2], new int[2], new int[2]);
+    }
+
+    @Test
+    public void findNearestMatchesBruteForce() {
+        AnchorStore store = random(300, 4);
+        Random random = new Random(5);
+        int[] nearest = new int[6];
+        for (int q = 0; q < 500; q++) {
+            double px = random.nextInt(260000) - 80000;
+            double py = random.nextInt(120000) - 20000;
+            int floor = random.nextInt(3) - 1;
+            int found = store.findNearest(px, py, floor, nearest);
+
+            Integer[] onFloor = new Integer[store.size()];
+            int n = 0;
+            for (int i = 0; i < store.size(); i++) {
+                if (store.getFloor(i) == floor) {
+                    onFloor[n++] = i;
+                }
+            }
+            Integer[] expected = Arrays.copyOf(onFloor, n);
+            Arrays.sort(expected, (a, b) -> Double.compare(distance(store, a, px, py), distance(store, b, px, py)));
+            assertEquals(Math.min(6, n), found);
+            for (int k = 0; k < found; k++) {
+                assertEquals(distance(store, expected[k], px, py), distance(store, nearest[k], px, py), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void emptyStoreFindsNothing() {
+        AnchorStore store = new AnchorStore(new String[0], new int[0], new int[0], new int[0], new int[0]);
+        assertEquals(0, store.findNearest(0, 0, 0, new int[4]));
+    }
+
+    private static double distance(AnchorStore store, int anchor, double px, double py) {
+        return Math.hypot(store.getX(anchor) - px, store.getY(anchor) - py);
+    }
+}
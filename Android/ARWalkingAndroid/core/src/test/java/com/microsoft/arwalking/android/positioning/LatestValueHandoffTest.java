@@ -0,0 +1,98 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatestValueHandoffTest {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final List<String> consumed = new ArrayList<>();
+    private final LatestValueHandoff<String> handoff = new LatestValueHandoff<>(this.tasks::add, this.consumed::add);
+
+    private void runTasks() {
+        while (!this.tasks.isEmpty()) {
+            this.tasks.poll().run();
+        }
+    }
+
+    @Test
+    public void slowConsumerSeesOnlyLatest() {
+        this.handoff.publish("a");
+        this.handoff.publish("b");
+        this.handoff.publish("c");
+        assertEquals(1, this.tasks.size());
+        runTasks();
+        assertEquals(Arrays.asList("c"), this.consumed);
+    }
+
+    @Test
+    public void publishAfterDrainSchedulesAgain() {
+        this.handoff.publish("a");
+        runTasks();
+        this.handoff.publish("b");
+        assertEquals(1, this.tasks.size());
+        runTasks();
+        assertEquals(Arrays.asList("a", "b"), this.consumed);
+    }
+
+    @Test
+    public void valuePublishedDuringDrainIsDelivered() {
+        List<String> seen = new ArrayList<>();
+        ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        AtomicReference<LatestValueHandoff<String>> self = new AtomicReference<>();
+        self.set(new LatestValueHandoff<>(queue::add, value -> {
+            seen.add(value);
+            if (value.equals("a")) {
+                self.get().publish("b");
+            }
+        }));
+        self.get().publish("a");
+        while (!queue.isEmpty()) {
+            queue.poll().run();
+        }
+        assertEquals(Arrays.asList("a", "b"), seen);
+    }
+
+    @Test
+    public void concurrentProducerEndsWithLatestValue() throws InterruptedException {
+        List<Integer> values = new ArrayList<>();
+        ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        LatestValueHandoff<Integer> handoff = new LatestValueHandoff<>(task -> {
+            synchronized (queue) {
+                queue.add(task);
+            }
+        }, values::add);
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= 100000; i++) {
+                handoff.publish(i);
+            }
+        });
+        producer.start();
+        while (producer.isAlive()) {
+            Runnable task;
+            synchronized (queue) {
+                task = queue.poll();
+            }
+            if (task != null) {
+                task.run();
+            }
+        }
+        producer.join();
+        synchronized (queue) {
+            while (!queue.isEmpty()) {
+                queue.poll().run();
+            }
+        }
+        assertEquals(Integer.valueOf(100000), values.get(values.size() - 1));
+        for (int i = 1; i < values.size(); i++) {
+            assertTrue(values.get(i) > values.get(i - 1));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationTrackerTest {
+    private static final double[][] ANCHORS = {{0, 0}, {20000, 0}, {20000, 20000}, {0, 20000}, {10000, 10000}};
+
+    /** Walks at 1.2 m/s among the anchors and ranges all of them once a second, the app default. */
+    private static double walk(LocationTracker tracker, Random random, double turnAfterSeconds) {
+        double x = 2000;
+        double y = 2000;
+        double vx = 1200;
+        double vy = 0;
+        tracker.initialize(x, y, 500, 0);
+        double maxError = 0;
+        for (int second = 1; second <= 14; second++) {
+            if (second == turnAfterSeconds) {
+                vx = 0;
+                vy = 1200;
+            }
+            x += vx;
+            y += vy;
+            long time = second * 1000L;
+            for (double[] anchor : ANCHORS) {
+                double range = Math.hypot(x - anchor[0], y - anchor[1]) + random.nextGaussian() * 150;
+                tracker.updateRange(anchor[0], anchor[1], range, 150, time);
+            }
+            if (second > 3) {
+                maxError = Math.max(maxError, Math.hypot(tracker.getX() - x, tracker.getY() - y));
+            }
+        }
+        return maxError;
+    }
+
+    @Test
+    public void followsAStraightWalkAtOneHertz() {
+        LocationTracker tracker = new LocationTracker();
+        assertTrue(walk(tracker, new Random(1), Double.NaN) < 500);
+        assertEquals(1200, tracker.getVelocityX(), 700);
+        assertEquals(0, tracker.getRejectedUpdates());
+    }
+
+    @Test
+    public void followsATurnAtOneHertz() {
+        LocationTracker tracker = new LocationTracker();
+        assertTrue(walk(tracker, new Random(2), 8) < 1500);
+        assertEquals(1200, tracker.getVelocityY(), 700);
+    }
+
+    @Test
+    public void gateRejectsOutlier() {
+        LocationTracker tracker = new LocationTracker();
+        tracker.initialize(5000, 5000, 200, 0);
+        assertFalse(tracker.updateRange(0, 0, Math.hypot(5000, 5000) + 20000, 150, 100));
+        assertEquals(1, tracker.getRejectedUpdates());
+        assertEquals(1, tracker.getConsecutiveRejections());
+        assertEquals(5000, tracker.getX(), 1e-9);
+
+        assertTrue(tracker.updateRange(0, 0, Math.hypot(5000, 5000), 150, 200));
+        assertEquals(0, tracker.getConsecutiveRejections());
+    }
+
+    @Test
+    public void divergedTrackerRejectsInARowUntilReinitialized() {
+        LocationTracker tracker = new LocationTracker();
+        // Confident, but 30 m away from where the ranges put the user.
+        tracker.initialize(40000, 40000, 100, 0);
+        double x = 10000;
+        double y = 10000;
+        for (double[] anchor : ANCHORS) {
+            tracker.updateRange(anchor[0], anchor[1], Math.hypot(x - anchor[0], y - anchor[1]), 150, 1000);
+        }
+        assertTrue(tracker.getConsecutiveRejections() >= PositioningEngine.DEFAULT_TRACKER_MAX_REJECTIONS);
+
+        tracker.initialize(x, y, 500, 1000);
+        assertEquals(0, tracker.getConsecutiveRejections());
+        assertTrue(tracker.updateRange(0, 0, Math.hypot(x, y), 150, 2000));
+    }
+
+    @Test
+    public void extrapolateDoesNotChangeState() {
+        LocationTracker tracker = new LocationTracker();
+        tracker.initialize(1000, 2000, 500, 0);
+        double[] out = new double[4];
+        tracker.extrapolate(5000, out);
+        assertEquals(1000, out[0], 1e-9);
+        assertEquals(0, tracker.getTimeMillis());
+    }
+
+    @Test
+    public void uninitializedTrackerIgnoresRanges() {
+        LocationTracker tracker = new LocationTracker();
+        assertFalse(tracker.updateRange(0, 0, 1000, 100, 0));
+        assertFalse(tracker.isInitialized());
+    }
+}
@@ -0,0 +1,119 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeerRegistryTest {
+    @Test
+    public void registersAndReusesIds() {
+        PeerRegistry<String, String> peers = new PeerRegistry<>(4);
+        assertEquals(0, peers.register("a", "A", 10));
+        assertEquals(1, peers.register("b", "B", 10));
+        assertEquals(0, peers.register("a", "other", 20));
+        assertEquals("A", peers.getModel(0));
+        assertEquals(2, peers.size());
+
+        peers.remove(0);
+        assertFalse(peers.isActive(0));
+        assertEquals(PeerRegistry.NO_PEER, peers.idOf("a"));
+        assertEquals(0, peers.register("c", "C", 30));
+        assertEquals(PeerRegistry.NO_RANGE, peers.getRange(0));
+        assertFalse(peers.isLocated(0));
+        assertEquals(30, peers.getCheckInMillis(0));
+    }
+
+    @Test
+    public void fullRegistryRejectsPeers() {
+        PeerRegistry<String, String> peers = new PeerRegistry<>(2);
+        peers.register("a", "A", 0);
+        peers.register("b", "B", 0);
+        assertEquals(PeerRegistry.NO_PEER, peers.register("c", "C", 0));
+        assertEquals(2, peers.size());
+    }
+
+    @Test
+    public void highWaterMarkShrinksOnRemove() {
+        PeerRegistry<String, String> peers = new PeerRegistry<>(4);
+        peers.register("a", "A", 0);
+        peers.register("b", "B", 0);
+        peers.register("c", "C", 0);
+        peers.remove(1);
+        assertEquals(3, peers.getHighWaterMark());
+        peers.remove(2);
+        assertEquals(1, peers.getHighWaterMark());
+        peers.clear();
+        assertEquals(0, peers.getHighWaterMark());
+        assertEquals(0, peers.size());
+        assertNull(peers.getKey(0));
+    }
+
+    @Test
+    public void rebindKeepsIdAndState() {
+        PeerRegistry<String, String> peers = new PeerRegistry<>(4);
+        int id = peers.register("old", "A", 0);
+        peers.setLocation(id, 1000, 2000);
+        peers.setRange(id, 5000, 150, 8, 100);
+        peers.rebind(id, "new", "A");
+        assertEquals(PeerRegistry.NO_PEER, peers.idOf("old"));
+        assertEquals(id, peers.idOf("new"));
+        assertEquals("new", peers.getKey(id));
+        assertEquals(1000, peers.getX(id), 0.0);
+        assertEquals(5000, peers.getRange(id));
+        assertEquals(100, peers.getRangeTimeMillis(id));
+    }
+
+    @Test
+    public void validateFailsAfterWrite() {
+        PeerRegistry<String, String> peers = new PeerRegistry<>(4);
+        int id = peers.register("a", "A", 0);
+        long stamp = peers.beginRead();
+        assertTrue(peers.validate(stamp));
+        peers.checkIn(id, 5);
+        assertFalse(peers.validate(stamp));
+        assertTrue(peers.validate(peers.beginRead()));
+    }
+
+    @Test
+    public void optimisticReadsAreConsistent() throws InterruptedException {
+        PeerRegistry<String, String> peers = new PeerRegistry<>(4);
+        int id = peers.register("a", "A", 0);
+        peers.setRange(id, 0, 0, 0, 0);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 200000; i++) {
+                peers.setLocation(id, i, -i);
+                peers.setRange(id, i, i, i, i);
+            }
+            done.set(true);
+        });
+        AtomicReference<String> torn = new AtomicReference<>();
+        writer.start();
+        while (!done.get()) {
+            long stamp;
+            double x;
+            double y;
+            int range;
+            long time;
+            do {
+                stamp = peers.beginRead();
+                x = peers.getX(id);
+                y = peers.getY(id);
+                range = peers.getRange(id);
+                time = peers.getRangeTimeMillis(id);
+            } while (!peers.validate(stamp));
+            // Location is written before the range, so a snapshot sees the range at most one step behind.
+            if (x != -y || range != time || x < range || x > range + 1) {
+                torn.set("x=" + x + " y=" + y + " range=" + range + " time=" + time);
+            }
+        }
+        writer.join();
+        assertNull(torn.get());
+    }
+}
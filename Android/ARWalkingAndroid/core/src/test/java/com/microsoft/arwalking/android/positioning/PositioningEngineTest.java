@@ -0,0 +1,132 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PositioningEngineTest {
+    private static final double[][] ANCHORS = {{0, 0}, {20000, 0}, {20000, 20000}, {0, 20000}};
+
+    private PeerRegistry<Integer, String> peers;
+    private PositioningEngine engine;
+
+    @Before
+    public void setUp() {
+        this.peers = new PeerRegistry<>(8);
+        this.engine = new PositioningEngine(this.peers, 8, 7);
+        for (int i = 0; i < ANCHORS.length; i++) {
+            int id = this.peers.register(i, "Anchor-" + i, 0);
+            this.peers.setLocation(id, ANCHORS[i][0], ANCHORS[i][1]);
+        }
+    }
+
+    /** Ranges every anchor from ({@code x}, {@code y}) at {@code timeMillis}, as one round. */
+    private int round(double x, double y, long timeMillis) {
+        for (int id = 0; id < ANCHORS.length; id++) {
+            this.engine.addRange(id, (int) Math.round(Math.hypot(x - ANCHORS[id][0], y - ANCHORS[id][1])), 100, 8, timeMillis);
+        }
+        for (int id = 0; id < ANCHORS.length; id++) {
+            this.engine.updateTracker(id, timeMillis);
+        }
+        return this.engine.computeFix(null, timeMillis);
+    }
+
+    @Test
+    public void firstFixStartsTheTracker() {
+        assertEquals(PositioningEngine.TRACKER_IDLE, this.engine.trackerOutput(0));
+        assertEquals(PositioningEngine.FIX_TRACKER_INITIALIZED, round(8000, 6000, 1000));
+        assertEquals(8000, this.engine.getFixX(), 50);
+        assertEquals(6000, this.engine.getFixY(), 50);
+        assertEquals(PositioningEngine.FIX_SOLVED, round(8000, 6000, 2000));
+        assertEquals(PositioningEngine.TRACKER_UPDATED, this.engine.trackerOutput(2200));
+        assertEquals(0, this.engine.getTrackerRestarts());
+    }
+
+    @Test
+    public void withoutTheTrackerFixesAreTheOutput() {
+        this.engine.setUseTracker(false);
+        assertEquals(PositioningEngine.FIX_SOLVED, round(8000, 6000, 1000));
+        assertEquals(PositioningEngine.TRACKER_IDLE, this.engine.trackerOutput(1200));
+    }
+
+    @Test
+    public void leavesStaleAndUnselectedRangesOut() {
+        round(8000, 6000, 1000);
+        this.engine.addRange(0, 10000, 100, 8, 5000);
+        assertEquals(PositioningEngine.FIX_TOO_FEW_ANCHORS, this.engine.computeFix(null, 5000));
+
+        this.engine.setMaxRangeAgeMillis(5000);
+        assertEquals(PositioningEngine.FIX_SOLVED, this.engine.computeFix(null, 5000));
+        assertEquals(4, this.engine.getSolver().getAnchorCount());
+        assertEquals(PositioningEngine.FIX_SOLVED, this.engine.computeFix(new boolean[] {true, false, true, false}, 5000));
+        assertEquals(2, this.engine.getSolver().getAnchorCount());
+    }
+
+    @Test
+    public void ageLimitsStretchWithTheRangingPeriod() {
+        round(8000, 6000, 1000);
+        assertEquals(PositioningEngine.FIX_TOO_FEW_ANCHORS, this.engine.computeFix(null, 3500));
+
+        this.engine.setRangingPeriodMillis(5000);
+        assertEquals(5 * RangeHistory.DEFAULT_MAX_AGE_MILLIS, this.engine.getRangeHistory().getMaxAgeMillis());
+        assertEquals(PositioningEngine.FIX_SOLVED, this.engine.computeFix(null, 3500));
+
+        // Periods under the nominal one keep the limits as set.
+        this.engine.setRangingPeriodMillis(250);
+        assertEquals(RangeHistory.DEFAULT_MAX_AGE_MILLIS, this.engine.getRangeHistory().getMaxAgeMillis());
+        assertEquals(PositioningEngine.FIX_TOO_FEW_ANCHORS, this.engine.computeFix(null, 3500));
+    }
+
+    @Test
+    public void restartsATrackerThatKeepsDisagreeingWithFixes() {
+        round(8000, 6000, 1000);
+        // The tracker is sure of a position 10 m away from where the fixes put the user.
+        this.engine.getTracker().initialize(18000, 6000, 100, 1000);
+
+        // One fix that disagrees could be the fix's fault.
+        assertEquals(PositioningEngine.FIX_SOLVED, this.engine.computeFix(null, 1500));
+        assertEquals(PositioningEngine.TRACKER_UPDATED, this.engine.trackerOutput(1600));
+        assertEquals(PositioningEngine.FIX_TRACKER_INITIALIZED, this.engine.computeFix(null, 2000));
+        assertEquals(1, this.engine.getTrackerRestarts());
+        assertEquals(8000, this.engine.getTracker().getX(), 50);
+
+        // The loss is reported once, then the restarted tracker is the output.
+        assertEquals(PositioningEngine.TRACKER_LOST, this.engine.trackerOutput(2200));
+        assertEquals(PositioningEngine.TRACKER_UPDATED, this.engine.trackerOutput(2400));
+    }
+
+    @Test
+    public void agreementInBetweenStartsTheCountOver() {
+        round(8000, 6000, 1000);
+        this.engine.getTracker().initialize(18000, 6000, 100, 1000);
+        assertEquals(PositioningEngine.FIX_SOLVED, this.engine.computeFix(null, 1100));
+        this.engine.getTracker().initialize(8000, 6000, 100, 1100);
+        assertEquals(PositioningEngine.FIX_SOLVED, this.engine.computeFix(null, 1200));
+        this.engine.getTracker().initialize(18000, 6000, 100, 1200);
+        assertEquals(PositioningEngine.FIX_SOLVED, this.engine.computeFix(null, 1300));
+        assertEquals(0, this.engine.getTrackerRestarts());
+    }
+
+    @Test
+    public void restartsATrackerThatGatesOutEveryRange() {
+        this.engine.setTrackerDisagreement(PositioningEngine.DEFAULT_TRACKER_DISAGREEMENT_SIGMAS, Double.MAX_VALUE, 1);
+        round(8000, 6000, 1000);
+        this.engine.getTracker().initialize(18000, 6000, 100, 1000);
+        int fix = round(8000, 6000, 1100);
+        assertEquals(PositioningEngine.FIX_TRACKER_INITIALIZED, fix);
+        assertTrue(this.engine.getTracker().getRejectedUpdates() >= PositioningEngine.DEFAULT_TRACKER_MAX_REJECTIONS);
+        assertEquals(1, this.engine.getTrackerRestarts());
+    }
+
+    @Test
+    public void resetsATrackerThatGotTooUncertain() {
+        this.engine.setTrackerResetStdDev(5000);
+        round(8000, 6000, 1000);
+        assertEquals(PositioningEngine.TRACKER_UPDATED, this.engine.trackerOutput(1200));
+        assertEquals(PositioningEngine.TRACKER_LOST, this.engine.trackerOutput(60000));
+        assertEquals(PositioningEngine.TRACKER_IDLE, this.engine.trackerOutput(60200));
+        assertEquals(PositioningEngine.FIX_TRACKER_INITIALIZED, round(8000, 6000, 61000));
+    }
+}
@@ -0,0 +1,129 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangeHistoryTest {
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length >> 1;
+        return (sorted.length & 1) != 0 ? sorted[mid] : 0.5 * (sorted[mid - 1] + sorted[mid]);
+    }
+
+    @Test
+    public void medianAndDeviationOfSlidingWindow() {
+        Random random = new Random(1);
+        RangeHistory history = new RangeHistory(2, 7);
+        history.setMaxAgeMillis(Long.MAX_VALUE);
+        double[] samples = new double[200];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Math.round(random.nextDouble() * 10000);
+            history.add(1, samples[i], 100, i * 1000L);
+
+            double[] window = Arrays.copyOfRange(samples, Math.max(0, i - 6), i + 1);
+            double median = median(window);
+            double[] deviations = new double[window.length];
+            for (int k = 0; k < window.length; k++) {
+                deviations[k] = Math.abs(window[k] - median);
+            }
+            assertEquals(window.length, history.getCount(1));
+            assertEquals(median, history.getMedian(1), 1e-9);
+            assertEquals(window.length < 2 ? 0.0 : median(deviations), history.getMedianAbsoluteDeviation(1), 1e-9);
+            assertEquals(samples[i], history.getRange(1, 0), 0.0);
+            assertEquals(window[0], history.getRange(1, window.length - 1), 0.0);
+        }
+        assertEquals(0, history.getCount(0));
+    }
+
+    @Test
+    public void hampelReplacesOutliersOnly() {
+        RangeHistory history = new RangeHistory(1, 7);
+        double[] clean = {10000, 10100, 9900, 10050, 9950};
+        for (int i = 0; i < clean.length; i++) {
+            assertEquals(clean[i], history.add(0, clean[i], 50, i * 100L), 0.0);
+            assertEquals(50, history.getFilteredStdDev(0), 0.0);
+        }
+        double filtered = history.add(0, 14000, 50, 500);
+        assertEquals(history.getMedian(0), filtered, 0.0);
+        assertTrue(history.getFilteredStdDev(0) > 50);
+        assertEquals(10020, history.add(0, 10020, 50, 600), 0.0);
+    }
+
+    @Test
+    public void medianFilterAndNoFilter() {
+        RangeHistory history = new RangeHistory(1, 3);
+        history.setFilter(RangeHistory.FILTER_MEDIAN);
+        history.add(0, 1000, 10, 0);
+        history.add(0, 3000, 10, 100);
+        assertEquals(2000, history.getFiltered(0), 0.0);
+        assertEquals(2000, history.add(0, 2000, 10, 200), 0.0);
+        history.setFilter(RangeHistory.FILTER_NONE);
+        assertEquals(9000, history.add(0, 9000, 10, 300), 0.0);
+    }
+
+    @Test
+    public void emaSmoothsAndRestartsAfterClear() {
+        RangeHistory history = new RangeHistory(1, 7);
+        history.setFilter(RangeHistory.FILTER_EMA);
+        history.setSmoothing(0.5);
+        assertEquals(1000, history.add(0, 1000, 100, 0), 0.0);
+        assertEquals(1050, history.add(0, 1100, 100, 100), 0.0);
+        history.clear(0);
+        assertEquals(5000, history.add(0, 5000, 100, 200), 0.0);
+    }
+
+    @Test
+    public void dropsSamplesOlderThanMaxAge() {
+        RangeHistory history = new RangeHistory(1, 7);
+        history.setFilter(RangeHistory.FILTER_MEDIAN);
+        history.setMaxAgeMillis(1500);
+        history.add(0, 1000, 10, 0);
+        history.add(0, 1000, 10, 1000);
+        history.add(0, 1000, 10, 2000);
+        assertEquals(2, history.getCount(0));
+        // Only the sample at 2000 is recent enough to hold the median back.
+        assertEquals(4000, history.add(0, 7000, 10, 3000), 0.0);
+        assertEquals(2, history.getCount(0));
+        assertEquals(2000, history.getTimeMillis(0, 1));
+    }
+
+    @Test
+    public void filteredRangeExpires() {
+        RangeHistory history = new RangeHistory(1, 7);
+        history.setMaxAgeMillis(1000);
+        history.add(0, 1000, 10, 0);
+        history.add(0, 1200, 10, 500);
+        assertEquals(1200, history.getFiltered(0, 1001), 0.0);
+        assertEquals(1, history.getCount(0));
+        assertTrue(Double.isNaN(history.getFiltered(0, 1501)));
+        assertEquals(0, history.getCount(0));
+        // A new sample starts a new window.
+        assertEquals(3000, history.add(0, 3000, 10, 5000), 0.0);
+        assertEquals(3000, history.getMedian(0), 0.0);
+    }
+
+    @Test
+    public void expiryKeepsSortedWindowInStep() {
+        Random random = new Random(2);
+        RangeHistory history = new RangeHistory(1, 5);
+        history.setMaxAgeMillis(2500);
+        long time = 0;
+        for (int i = 0; i < 500; i++) {
+            time += 200 + random.nextInt(1500);
+            history.add(0, Math.round(random.nextDouble() * 10000), 100, time);
+            int n = history.getCount(0);
+            double[] window = new double[n];
+            for (int k = 0; k < n; k++) {
+                window[k] = history.getRange(0, k);
+                assertTrue(time - history.getTimeMillis(0, k) <= 2500);
+            }
+            assertEquals(median(window), history.getMedian(0), 1e-9);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RobustTrilaterationSolverTest {
+    private static final double X = 12000;
+    private static final double Y = 7000;
+
+    /** Ranges from a ring of anchors, with {@code outliers} of them pushed long as by NLOS. */
+    private static RobustTrilaterationSolver load(int anchors, int outliers, long seed) {
+        Random random = new Random(seed);
+        TrilaterationSolver solver = new TrilaterationSolver(2, anchors);
+        double weight = RobustTrilaterationSolver.rangeWeight(150, 1);
+        for (int a = 0; a < anchors; a++) {
+            double angle = 2 * Math.PI * a / anchors;
+            double ax = X + 15000 * Math.cos(angle);
+            double ay = Y + 15000 * Math.sin(angle);
+            double range = 15000 + random.nextGaussian() * 150 + (a < outliers ? 3000 + random.nextDouble() * 4000 : 0);
+            solver.addAnchor(ax, ay, 0.0, range, weight);
+        }
+        return new RobustTrilaterationSolver(solver);
+    }
+
+    @Test
+    public void rejectsInjectedOutliers() {
+        RobustTrilaterationSolver robust = load(10, 3, 1);
+        assertTrue(robust.solve());
+        assertEquals(3, robust.getOutliers());
+        for (int a = 0; a < 3; a++) {
+            assertFalse(robust.isInlier(a));
+            assertEquals(0.0, robust.getSolver().getWeight(a), 0.0);
+        }
+        assertEquals(X, robust.getSolver().getX(), 300);
+        assertEquals(Y, robust.getSolver().getY(), 300);
+    }
+
+    @Test
+    public void plainSolverIsPulledByOutliers() {
+        RobustTrilaterationSolver robust = load(10, 3, 1);
+        TrilaterationSolver solver = robust.getSolver();
+        assertTrue(solver.solve());
+        assertTrue(Math.hypot(solver.getX() - X, solver.getY() - Y) > 500);
+    }
+
+    @Test
+    public void keepsCleanRanges() {
+        RobustTrilaterationSolver robust = load(8, 0, 2);
+        assertTrue(robust.solve());
+        assertEquals(0, robust.getOutliers());
+        assertEquals(X, robust.getSolver().getX(), 300);
+    }
+
+    @Test
+    public void samplesWithinHypothesisBound() {
+        RobustTrilaterationSolver robust = load(24, 4, 3);
+        robust.setMaxHypotheses(16);
+        assertTrue(robust.solve());
+        assertEquals(16, robust.getHypotheses());
+        assertEquals(X, robust.getSolver().getX(), 500);
+        assertEquals(Y, robust.getSolver().getY(), 500);
+    }
+
+    @Test
+    public void sameRangesGiveSameFix() {
+        RobustTrilaterationSolver first = load(24, 6, 4);
+        RobustTrilaterationSolver second = load(24, 6, 4);
+        assertTrue(first.solve());
+        // Solving again must not continue the sampling sequence of the previous solve.
+        second.solve();
+        for (int a = 0; a < 24; a++) {
+            second.getSolver().setWeight(a, RobustTrilaterationSolver.rangeWeight(150, 1));
+        }
+        second.getSolver().resetEstimate();
+        assertTrue(second.solve());
+        assertEquals(first.getSolver().getX(), second.getSolver().getX(), 1e-9);
+        assertEquals(first.getSolver().getY(), second.getSolver().getY(), 1e-9);
+        assertEquals(first.getOutliers(), second.getOutliers());
+    }
+
+    @Test
+    public void rangeWeightFloorsStdDev() {
+        assertEquals(1.0 / (100.0 * 100.0), RobustTrilaterationSolver.rangeWeight(0, 8), 1e-15);
+        assertEquals(1.0 / (200.0 * 200.0), RobustTrilaterationSolver.rangeWeight(400, 4), 1e-15);
+    }
+}
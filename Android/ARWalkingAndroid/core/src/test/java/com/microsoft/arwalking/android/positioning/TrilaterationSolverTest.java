@@ -0,0 +1,162 @@
+package com.microsoft.arwalking.android.positioning;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrilaterationSolverTest {
+    private static final double[][] SQUARE = {{0, 0}, {10000, 0}, {10000, 10000}, {0, 10000}};
+
+    private static void addRanges(TrilaterationSolver solver, double[][] anchors, double x, double y) {
+        for (double[] anchor : anchors) {
+            solver.addAnchor(anchor[0], anchor[1], Math.hypot(x - anchor[0], y - anchor[1]));
+        }
+    }
+
+    @Test
+    public void iterativeSolveFindsExactPosition() {
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        solver.setLinearFastPath(false);
+        solver.setMaxIterations(50);
+        addRanges(solver, SQUARE, 3000, 7000);
+
+        assertTrue(solver.solve());
+        assertFalse(solver.isLinearFix());
+        assertEquals(3000, solver.getX(), 1.0);
+        assertEquals(7000, solver.getY(), 1.0);
+        assertEquals(0, solver.getRms(), 1.0);
+    }
+
+    @Test
+    public void iterativeSolveWithNoiseStaysClose() {
+        Random random = new Random(7);
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        solver.setLinearFastPath(false);
+        solver.setMaxIterations(50);
+        for (double[] anchor : SQUARE) {
+            double range = Math.hypot(4000 - anchor[0], 2500 - anchor[1]) + random.nextGaussian() * 100;
+            solver.addAnchor(anchor[0], anchor[1], range);
+        }
+
+        assertTrue(solver.solve());
+        assertEquals(4000, solver.getX(), 300);
+        assertEquals(2500, solver.getY(), 300);
+        double[] std = new double[2];
+        assertTrue(solver.getStandardDeviation(std));
+        assertTrue(std[0] > 0 && std[0] < 500);
+    }
+
+    @Test
+    public void solvesIn3d() {
+        TrilaterationSolver solver = new TrilaterationSolver(3, 8);
+        solver.setLinearFastPath(false);
+        solver.setMaxIterations(50);
+        double[][] anchors = {{0, 0, 0}, {10000, 0, 3000}, {0, 10000, 2500}, {10000, 10000, 0}, {5000, 5000, 4000}};
+        for (double[] anchor : anchors) {
+            double dx = 2000 - anchor[0];
+            double dy = 6000 - anchor[1];
+            double dz = 1500 - anchor[2];
+            solver.addAnchor(anchor[0], anchor[1], anchor[2], Math.sqrt(dx * dx + dy * dy + dz * dz));
+        }
+
+        assertTrue(solver.solve());
+        assertEquals(2000, solver.getX(), 5);
+        assertEquals(6000, solver.getY(), 5);
+        assertEquals(1500, solver.getZ(), 5);
+    }
+
+    @Test
+    public void zeroWeightLeavesAnchorOut() {
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        solver.setLinearFastPath(false);
+        solver.setMaxIterations(50);
+        addRanges(solver, SQUARE, 6000, 3000);
+        solver.addAnchor(5000, 5000, 0.0, 50000, 0.0);
+
+        assertEquals(4, solver.getActiveAnchorCount());
+        assertTrue(solver.solve());
+        assertEquals(6000, solver.getX(), 1.0);
+        assertEquals(3000, solver.getY(), 1.0);
+    }
+
+    @Test
+    public void linearFastPathIsExactOnCleanRanges() {
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        addRanges(solver, SQUARE, 3000, 7000);
+
+        assertTrue(solver.solve());
+        assertTrue(solver.isLinearFix());
+        assertEquals(0, solver.getIterations());
+        assertEquals(3000, solver.getX(), 1e-6);
+        assertEquals(7000, solver.getY(), 1e-6);
+    }
+
+    @Test
+    public void solveLinearMatchesIterativeSolve() {
+        Random random = new Random(3);
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        for (double[] anchor : SQUARE) {
+            solver.addAnchor(anchor[0], anchor[1], Math.hypot(8000 - anchor[0], 1000 - anchor[1]) + random.nextGaussian() * 50);
+        }
+        double[] linear = new double[3];
+        assertTrue(solver.solveLinear(linear));
+
+        solver.setLinearFastPath(false);
+        solver.setMaxIterations(50);
+        assertTrue(solver.solve());
+        assertEquals(solver.getX(), linear[0], 200);
+        assertEquals(solver.getY(), linear[1], 200);
+    }
+
+    @Test
+    public void largeResidualIsRefined() {
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        solver.setMaxIterations(50);
+        addRanges(solver, SQUARE, 5000, 5000);
+        // An inconsistent range makes the linear fix's residual exceed the threshold.
+        solver.addAnchor(5000, 0, 8000);
+
+        assertTrue(solver.solve());
+        assertFalse(solver.isLinearFix());
+        assertTrue(solver.getIterations() > 0);
+    }
+
+    @Test
+    public void collinearAnchorsAreNotSolvedLinearly() {
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        solver.addAnchor(0, 0, 5000);
+        solver.addAnchor(5000, 0, 5000);
+        solver.addAnchor(10000, 0, 5000);
+
+        double[] linear = new double[3];
+        assertFalse(solver.solveLinear(linear) && solver.getConditioning() >= TrilaterationSolver.DEFAULT_MIN_LINEAR_CONDITIONING);
+        solver.solve();
+        assertFalse(solver.isLinearFix());
+    }
+
+    @Test
+    public void needsTwoAnchors() {
+        TrilaterationSolver solver = new TrilaterationSolver(2, 8);
+        solver.addAnchor(0, 0, 1000);
+        assertFalse(solver.solve());
+    }
+
+    @Test
+    public void capacityIsEnforced() {
+        TrilaterationSolver solver = new TrilaterationSolver(2, 2);
+        assertTrue(solver.addAnchor(0, 0, 1));
+        assertTrue(solver.addAnchor(1, 0, 1));
+        assertFalse(solver.addAnchor(2, 0, 1));
+        solver.clear();
+        assertEquals(0, solver.getAnchorCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherDimensions() {
+        new TrilaterationSolver(4, 8);
+    }
+}
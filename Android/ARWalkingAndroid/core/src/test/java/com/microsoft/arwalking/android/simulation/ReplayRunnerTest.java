@@ -0,0 +1,51 @@
+package com.microsoft.arwalking.android.simulation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+public class ReplayRunnerTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("trace", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    private void assertReplaysToTheRecording(String select) throws Exception {
+        SimulationRunner simulation = new SimulationRunner();
+        simulation.set("duration", "120");
+        simulation.set("select", select);
+        simulation.set("trace", this.file.getPath());
+        simulation.run();
+
+        ReplayRunner replay = new ReplayRunner();
+        replay.set("file", this.file.getPath());
+        String report = replay.run();
+        // Recorded positions are whole millimetres.
+        assertTrue(report, replay.getFixDivergence().count() > 100);
+        assertTrue(report, replay.getFixDivergence().percentile(1.0) < 1.0);
+        assertTrue(report, replay.getTrackerDivergence().count() > 500);
+        assertTrue(report, replay.getTrackerDivergence().percentile(1.0) < 1.0);
+    }
+
+    @Test
+    public void replaysSelectedRoundsToTheRecordedFixes() throws Exception {
+        assertReplaysToTheRecording("true");
+    }
+
+    @Test
+    public void replaysFullRoundsToTheRecordedFixes() throws Exception {
+        assertReplaysToTheRecording("false");
+    }
+}
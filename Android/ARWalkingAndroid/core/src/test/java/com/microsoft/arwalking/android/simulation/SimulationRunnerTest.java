@@ -0,0 +1,75 @@
+package com.microsoft.arwalking.android.simulation;
+
+import com.google.android.apps.location.rtt.nanrttlib.AdaptiveRangingRateController;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SimulationRunnerTest {
+    /** Tracker p95 at the default 1 Hz configuration is 1.2 to 1.4 m over the first seeds. */
+    private static final String MAX_TRACKER_P95 = "2000";
+
+    @Test
+    public void defaultConfigurationKeepsTheTrackerWithinBound() throws Exception {
+        for (int seed = 1; seed <= 3; seed++) {
+            SimulationRunner runner = new SimulationRunner();
+            runner.set("seed", String.valueOf(seed));
+            runner.set("maxTrackerP95", MAX_TRACKER_P95);
+            runner.run();
+        }
+    }
+
+    @Test
+    public void adaptiveRateBacksOffWhileStandingStill() throws Exception {
+        for (int seed = 1; seed <= 3; seed++) {
+            SimulationRunner runner = new SimulationRunner();
+            runner.set("seed", String.valueOf(seed));
+            runner.set("speed", "0");
+            runner.set("adaptive", "true");
+            runner.set("maxTrackerP95", MAX_TRACKER_P95);
+            runner.run();
+            // Most rounds, not just the last ones, run at the longest period.
+            assertEquals(AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS, runner.getRangingPeriodPercentile(0.5), 0);
+        }
+    }
+
+    @Test
+    public void longPeriodsKeepTheTrackerWithinBound() throws Exception {
+        for (int seed = 1; seed <= 3; seed++) {
+            SimulationRunner runner = new SimulationRunner();
+            runner.set("seed", String.valueOf(seed));
+            runner.set("speed", "0");
+            runner.set("period", String.valueOf(AdaptiveRangingRateController.DEFAULT_MAX_PERIOD_MILLIS));
+            runner.set("maxTrackerP95", MAX_TRACKER_P95);
+            runner.run();
+        }
+    }
+
+    @Test
+    public void failsAboveTheBound() throws Exception {
+        SimulationRunner runner = new SimulationRunner();
+        runner.set("maxTrackerP95", "100");
+        try {
+            runner.run();
+            fail("Tracker p95 under 10 cm");
+        } catch (AssertionError expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void sameSettingsGiveTheSameErrors() throws Exception {
+        assertEquals(errors(new SimulationRunner().run()), errors(new SimulationRunner().run()));
+    }
+
+    private static String errors(String report) {
+        return report.substring(report.indexOf("Fix error"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownSettings() {
+        new SimulationRunner().set("unknown", "1");
+    }
+}
@@ -0,0 +1,213 @@
+package com.microsoft.arwalking.android.trace;
+
+import com.microsoft.arwalking.android.positioning.RangeResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TraceRecorderTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("trace", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    private void recordOneOfEach(TraceRecorder recorder) {
+        recorder.recordPeer(1, 17, "Anchor-1", true, 1000, -2000, 150);
+        recorder.recordSelection(2, new int[] {17, 18, 19}, 2);
+        recorder.recordRange(2, 17, RangeResult.STATUS_SUCCESS, 5000, 120, 8, 7, 1999);
+        recorder.recordMessage(3, TraceRecorder.RECORD_MESSAGE_RECEIVED, 1, 17, 42, "hello".getBytes(StandardCharsets.US_ASCII));
+        recorder.recordMessage(4, TraceRecorder.RECORD_SESSIONS_SUSPENDED, 0, -1, 0, null);
+        recorder.recordFix(5, 300, 400, 250, true);
+    }
+
+    @Test
+    public void readsBackEveryRecordType() throws IOException {
+        try (TraceRecorder recorder = new TraceRecorder(this.file)) {
+            recordOneOfEach(recorder);
+            assertEquals(6, recorder.getRecords());
+        }
+        TraceReader reader = TraceReader.open(this.file);
+
+        assertEquals(TraceRecorder.RECORD_PEER, reader.next());
+        assertEquals(1, reader.getTimeMillis());
+        assertEquals(17, reader.getPeer());
+        assertEquals("Anchor-1", reader.getName());
+        assertTrue(reader.isLocated());
+        assertEquals(1000, reader.getX());
+        assertEquals(-2000, reader.getY());
+        assertEquals(150, reader.getRangeBiasMm());
+
+        assertEquals(TraceRecorder.RECORD_SELECTION, reader.next());
+        assertEquals(2, reader.getSelectionCount());
+        assertEquals(18, reader.getSelectedPeer(1));
+
+        assertEquals(TraceRecorder.RECORD_RANGE, reader.next());
+        assertEquals(RangeResult.STATUS_SUCCESS, reader.getArgument());
+        assertEquals(5000, reader.getDistanceMm());
+        assertEquals(120, reader.getDistanceStdDevMm());
+        assertEquals(8, reader.getNumAttemptedMeasurements());
+        assertEquals(7, reader.getNumSuccessfulMeasurements());
+        assertEquals(1999, reader.getRangingTimestampMillis());
+
+        assertEquals(TraceRecorder.RECORD_MESSAGE_RECEIVED, reader.next());
+        assertEquals(1, reader.getArgument());
+        assertEquals(42, reader.getMessageId());
+        byte[] data = new byte[reader.getDataLength()];
+        reader.getData(data);
+        assertEquals("hello", new String(data, StandardCharsets.US_ASCII));
+
+        assertEquals(TraceRecorder.RECORD_SESSIONS_SUSPENDED, reader.next());
+        assertEquals(0, reader.getDataLength());
+
+        assertEquals(TraceRecorder.RECORD_FIX, reader.next());
+        assertEquals(300, reader.getX());
+        assertEquals(400, reader.getY());
+        assertEquals(250, reader.getUncertaintyMm());
+        assertTrue(reader.isTracked());
+
+        assertEquals(TraceRecorder.RECORD_END, reader.next());
+        assertEquals(TraceRecorder.RECORD_END, reader.next());
+        reader.rewind();
+        assertEquals(TraceRecorder.RECORD_PEER, reader.next());
+    }
+
+    @Test
+    public void growsAcrossChunksAndDropsPastTheMaxSize() throws IOException {
+        int fixLength = TraceRecorder.RECORD_HEADER_LENGTH + TraceRecorder.FIX_PAYLOAD_LENGTH;
+        long maxSize = TraceRecorder.HEADER_LENGTH + 100 * fixLength + 1;
+        try (TraceRecorder recorder = new TraceRecorder(this.file, 256, maxSize)) {
+            for (int i = 0; i < 120; i++) {
+                recorder.recordFix(i, i, -i, 0, false);
+            }
+            assertEquals(100, recorder.getRecords());
+            assertEquals(20, recorder.getDropped());
+        }
+        TraceReader reader = TraceReader.open(this.file);
+        int count = 0;
+        while (reader.next() == TraceRecorder.RECORD_FIX) {
+            assertEquals(count, reader.getX());
+            count++;
+        }
+        assertEquals(100, count);
+    }
+
+    @Test
+    public void endsAtTheLastCompleteRecord() throws IOException {
+        try (TraceRecorder recorder = new TraceRecorder(this.file)) {
+            recordOneOfEach(recorder);
+        }
+        byte[] bytes = Files.readAllBytes(this.file.toPath());
+        TraceReader reader = new TraceReader(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+        int records = 0;
+        while (reader.next() != TraceRecorder.RECORD_END) {
+            records++;
+        }
+        assertEquals(5, records);
+    }
+
+    @Test
+    public void rejectsOtherFiles() {
+        expectIOException(new byte[4]);
+        byte[] header = new byte[TraceRecorder.HEADER_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, 0x12345678);
+        expectIOException(header);
+        buffer.putInt(0, TraceRecorder.MAGIC).putShort(4, (short) (TraceRecorder.VERSION + 1));
+        expectIOException(header);
+    }
+
+    private static void expectIOException(byte[] bytes) {
+        try {
+            new TraceReader(ByteBuffer.wrap(bytes));
+            fail("Read something that is not a trace");
+        } catch (IOException expected) {
+            // Expected.
+        }
+    }
+
+    /** Collects what a replay delivers as strings. */
+    private static class Collector implements TraceReplayer.Listener {
+        final List<String> events = new ArrayList<>();
+
+        public void onPeer(int peer, String name, boolean located, int xMm, int yMm, int rangeBiasMm, long timeMillis) {
+            this.events.add("peer " + peer);
+        }
+
+        public void onRangingResults(List<RangeResult<Integer>> results, long timeMillis) {
+            this.events.add("round " + results.size() + " at " + timeMillis);
+        }
+
+        public void onSelection(int[] peers, int count, long timeMillis) {
+            this.events.add("selection " + Arrays.toString(Arrays.copyOf(peers, count)));
+        }
+
+        public void onMessageEvent(int type, int mode, int peer, int messageId, byte[] data, int length, long timeMillis) {
+            this.events.add("message " + type);
+        }
+
+        public void onFix(int xMm, int yMm, int uncertaintyMm, boolean tracked, long timeMillis) {
+            this.events.add("fix " + tracked);
+        }
+    }
+
+    @Test
+    public void replaysRoundsAndSkipsUnknownRecords() throws IOException, InterruptedException {
+        try (TraceRecorder recorder = new TraceRecorder(this.file)) {
+            recorder.recordPeer(0, 1, "a", false, 0, 0, 0);
+            recorder.recordSelection(1000, new int[] {1, 2}, 2);
+            recorder.recordRange(1000, 1, RangeResult.STATUS_SUCCESS, 100, 10, 8, 8, 990);
+            recorder.recordRange(1000, 2, RangeResult.STATUS_SUCCESS, 200, 10, 8, 8, 995);
+            recorder.recordFix(1000, 0, 0, 0, false);
+            recorder.recordRange(2000, 1, RangeResult.STATUS_SUCCESS, 100, 10, 8, 8, 1990);
+            recorder.recordRange(3000, 1, RangeResult.STATUS_SUCCESS, 100, 10, 8, 8, 2990);
+        }
+        // Retype the fix as a record type from a newer recorder.
+        byte[] bytes = Files.readAllBytes(this.file.toPath());
+        int fix = TraceRecorder.HEADER_LENGTH;
+        for (int skip = 0; skip < 4; skip++) {
+            fix += TraceRecorder.RECORD_HEADER_LENGTH + (ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getShort(fix + 2) & 0xFFFF);
+        }
+        assertEquals(TraceRecorder.RECORD_FIX, bytes[fix]);
+        bytes[fix] = (byte) 200;
+
+        Collector collector = new Collector();
+        TraceReplayer replayer = new TraceReplayer(new TraceReader(ByteBuffer.wrap(bytes)), collector);
+        assertEquals(3000, replayer.replay(TraceReplayer.UNPACED));
+        assertEquals(7, replayer.getRecords());
+        assertEquals(Arrays.asList("peer 1", "selection [1, 2]", "round 2 at 1000", "round 1 at 2000", "round 1 at 3000"), collector.events);
+        assertFalse(collector.events.contains("fix false"));
+    }
+
+    @Test
+    public void droppedAfterClose() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(this.file);
+        recorder.close();
+        recorder.recordFix(0, 0, 0, 0, false);
+        assertEquals(1, recorder.getDropped());
+        assertArrayEquals(new byte[] {'A', 'R', 'W', 'T'}, Arrays.copyOf(Files.readAllBytes(this.file.toPath()), 4));
+    }
+}